@@ -2,6 +2,8 @@ package org.squirrelframework.foundation.component;
 
 import java.lang.reflect.Method;
 
+import org.squirrelframework.foundation.event.AsyncEventDispatcher;
+import org.squirrelframework.foundation.event.AsyncEventListener;
 import org.squirrelframework.foundation.event.SquirrelEvent;
 
 /**
@@ -68,6 +70,12 @@ public interface Observable {
 	 */
 	void removeAllListeners();
 	
+	/**
+	 * Set dispatcher which delivers events to listeners implementing {@link AsyncEventListener}
+	 * @param dispatcher asynchronous event dispatcher
+	 */
+	void setAsyncEventDispatcher(AsyncEventDispatcher dispatcher);
+	
 	/**
 	 * Fire event to notify all observers
 	 * @param event based event
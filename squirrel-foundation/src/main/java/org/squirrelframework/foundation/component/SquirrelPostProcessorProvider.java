@@ -26,6 +26,7 @@ public class SquirrelPostProcessorProvider implements SquirrelComponent, Squirre
 
     public static void setInstance(SquirrelPostProcessorProvider instance) {
         SquirrelPostProcessorProvider.instance = instance;
+        SquirrelProvider.getInstance().invalidateFactories();
     }
     
     private Map<Class<?>, SquirrelPostProcessor<?>> postProcessorRegistry = Maps.newHashMap();
@@ -56,6 +57,8 @@ public class SquirrelPostProcessorProvider implements SquirrelComponent, Squirre
         } else {
             postProcessorRegistry.put(componentClass, postProcessor);
         }
+        // post processors are resolved once into component factories
+        SquirrelProvider.getInstance().invalidateFactories();
     }
     
     public <T> void register(Class<T> componentClass, Class<? extends SquirrelPostProcessor<? super T>> postProcessorClass) {
@@ -65,10 +68,12 @@ public class SquirrelPostProcessorProvider implements SquirrelComponent, Squirre
     
     public void unregister(Class<?> componentClass) {
         postProcessorRegistry.remove(componentClass);
+        SquirrelProvider.getInstance().invalidateFactories();
     }
     
     public void clearRegistry() {
         postProcessorRegistry.clear();
+        SquirrelProvider.getInstance().invalidateFactories();
     }
     
     @SuppressWarnings("unchecked")
@@ -1,12 +1,19 @@
 package org.squirrelframework.foundation.component;
 
 import java.lang.reflect.Constructor;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.squirrelframework.foundation.exception.ErrorCodes;
+import org.squirrelframework.foundation.exception.SquirrelRuntimeException;
 import org.squirrelframework.foundation.util.ReflectUtils;
 import org.squirrelframework.foundation.util.TypeReference;
 
+import com.google.common.collect.Lists;
+
 /**
  * Central factory class for components used by squirrel-foundation.
  * 
@@ -25,7 +32,15 @@ public class SquirrelProvider implements SquirrelSingleton {
         SquirrelProvider.instance = instance;
     }
 
-    private Map<Class<?>, Class<?>> implementationRegistry = new HashMap<Class<?>, Class<?>>();
+    private Map<Class<?>, Class<?>> implementationRegistry = new ConcurrentHashMap<Class<?>, Class<?>>();
+    
+    // component factories resolved from registry per requested class together with post processor of the 
+    // class, which are dropped when registry version changed; factories of one class are few and kept in copy-on-write array, so that lookup by argument types 
+    // does not allocate key on each creation
+    private final ConcurrentMap<Class<?>, ComponentFactory<?>[]> factories = 
+            new ConcurrentHashMap<Class<?>, ComponentFactory<?>[]>();
+    
+    private volatile int registryVersion = 0;
 
     public <T> T newInstance(TypeReference<T> typeRef) {
         return newInstance(typeRef, null, null);
@@ -44,26 +59,50 @@ public class SquirrelProvider implements SquirrelSingleton {
     }
     
     /**
-     * Create a new instance of the requested class using the internal registry.
+     * Create a new instance of the requested class using the internal registry. Implementation class and 
+     * constructor are resolved once for each requested class and argument types.
      */
     public <T> T newInstance(Class<T> clz, Class<?>[] argTypes, Object[] args) {
-        Class<T> implementationClass = getImplementation(clz);
-        if (args == null) {
-            return postProcess(clz, ReflectUtils.newInstance(implementationClass));
-        }
-        Constructor<T> constructor = ReflectUtils.getConstructor(implementationClass, argTypes);
-        return postProcess(clz, ReflectUtils.newInstance(constructor, args));
+        ComponentFactory<T> factory = getFactory(clz, args==null ? null : argTypes);
+        return factory.postProcess(factory.newInstance(args));
     }
     
-    private <T> T postProcess(Class<T> clz, T component) {
+    @SuppressWarnings("unchecked")
+    private <T> ComponentFactory<T> getFactory(Class<T> clz, Class<?>[] argTypes) {
+        int version = registryVersion;
+        ComponentFactory<?>[] candidates = factories.get(clz);
+        if(candidates!=null) {
+            for(ComponentFactory<?> candidate : candidates) {
+                if(candidate.version==version && Arrays.equals(candidate.argTypes, argTypes)) {
+                    return (ComponentFactory<T>)candidate;
+                }
+            }
+        }
+        Class<T> implementationClass = getImplementation(clz);
+        Constructor<T> constructor = ReflectUtils.getConstructor(implementationClass, argTypes);
         SquirrelPostProcessor<T> postProcessor = 
                 SquirrelPostProcessorProvider.getInstance().getPostProcessor(clz);
-        if(postProcessor!=null && component!=null) {
-            postProcessor.postProcess(component);
+        ComponentFactory<T> factory = new ComponentFactory<T>(constructor, 
+                argTypes!=null ? argTypes.clone() : null, postProcessor, version);
+        addFactory(clz, factory);
+        return factory;
+    }
+    
+    private synchronized void addFactory(Class<?> clz, ComponentFactory<?> factory) {
+        if(factory.version!=registryVersion) return;
+        ComponentFactory<?>[] candidates = factories.get(clz);
+        List<ComponentFactory<?>> newCandidates = Lists.newArrayList();
+        if(candidates!=null) {
+            for(ComponentFactory<?> candidate : candidates) {
+                if(!Arrays.equals(candidate.argTypes, factory.argTypes)) {
+                    newCandidates.add(candidate);
+                }
+            }
         }
-        return component;
+        newCandidates.add(factory);
+        factories.put(clz, newCandidates.toArray(new ComponentFactory<?>[newCandidates.size()]));
     }
-
+    
     /**
      * Register the implementation class for a certain class. Note, if there is already an entry in the registry for
      * the class, then it will be overwritten.
@@ -71,14 +110,27 @@ public class SquirrelProvider implements SquirrelSingleton {
     public void register(Class<?> clazz, Class<?> implementationClass) {
         // TODO: handle the case that there is already an entry...
         implementationRegistry.put(clazz, implementationClass);
+        invalidateFactories();
     }
     
     public void unregister(Class<?> clazz) {
         implementationRegistry.remove(clazz);
+        invalidateFactories();
     }
     
     public void clearRegistry() {
         implementationRegistry.clear();
+        invalidateFactories();
+    }
+    
+    /**
+     * Drop resolved component factories, which also hold post processors resolved from 
+     * {@link SquirrelPostProcessorProvider}, so it must be called when post processor registry is changed.
+     */
+    synchronized void invalidateFactories() {
+        // factory resolved concurrently with old registry is rejected by version check
+        registryVersion++;
+        factories.clear();
     }
 
     /**
@@ -119,4 +171,40 @@ public class SquirrelProvider implements SquirrelSingleton {
         }
         return implementationClass;
     }
+    
+    private static class ComponentFactory<T> {
+        private final Constructor<T> constructor;
+        
+        private final Class<?>[] argTypes;
+        
+        private final SquirrelPostProcessor<T> postProcessor;
+        
+        private final int version;
+        
+        ComponentFactory(Constructor<T> constructor, Class<?>[] argTypes, 
+                SquirrelPostProcessor<T> postProcessor, int version) {
+            this.constructor = constructor;
+            this.argTypes = argTypes;
+            this.postProcessor = postProcessor;
+            this.version = version;
+            // make constructor accessible once instead of on each creation
+            constructor.setAccessible(true);
+        }
+        
+        T newInstance(Object[] args) {
+            try {
+                return constructor.newInstance(args);
+            } catch (Exception e) {
+                throw new SquirrelRuntimeException(e, ErrorCodes.CONSTRUCT_NEW_INSTANCE_ERROR, 
+                        constructor.getDeclaringClass().getName(), Arrays.toString(args));
+            }
+        }
+        
+        T postProcess(T component) {
+            if(postProcessor!=null && component!=null) {
+                postProcessor.postProcess(component);
+            }
+            return component;
+        }
+    }
 }
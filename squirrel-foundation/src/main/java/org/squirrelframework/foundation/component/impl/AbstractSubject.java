@@ -4,6 +4,7 @@ import java.lang.reflect.Method;
 
 import org.squirrelframework.foundation.component.Observable;
 import org.squirrelframework.foundation.component.SquirrelProvider;
+import org.squirrelframework.foundation.event.AsyncEventDispatcher;
 import org.squirrelframework.foundation.event.EventMediator;
 import org.squirrelframework.foundation.event.SquirrelEvent;
 import org.squirrelframework.foundation.util.ReflectUtils;
@@ -24,12 +25,16 @@ public abstract class AbstractSubject implements Observable {
 	    this.notifiable = notifiable;
     }
 
-	@Override
-    public void addListener(Class<?> eventType, Object listener, Method method) {
+	private EventMediator getOrCreateEventMediator() {
 		if (eventMediator == null) {
             eventMediator = SquirrelProvider.getInstance().newInstance(EventMediator.class);
         }
-        eventMediator.register(eventType, listener, method);
+		return eventMediator;
+	}
+
+	@Override
+    public void addListener(Class<?> eventType, Object listener, Method method) {
+		getOrCreateEventMediator().register(eventType, listener, method);
     }
 
 	@Override
@@ -64,6 +69,20 @@ public abstract class AbstractSubject implements Observable {
             eventMediator.unregisterAll();
     }
 
+	@Override
+	public void setAsyncEventDispatcher(AsyncEventDispatcher dispatcher) {
+		getOrCreateEventMediator().setAsyncDispatcher(dispatcher);
+	}
+
+	/**
+	 * Used by subclass to skip building event object when nobody is listening.
+	 * @param eventType type of event to be fired
+	 * @return whether the event of provided type will be delivered to any listener
+	 */
+	protected boolean hasListeners(Class<?> eventType) {
+	    return eventMediator != null && isNotifiable() && eventMediator.hasListeners(eventType);
+	}
+
 	@Override
     public void fireEvent(SquirrelEvent event) {
 		if (eventMediator != null && isNotifiable()) {
@@ -0,0 +1,292 @@
+package org.squirrelframework.foundation.event;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.squirrelframework.foundation.component.SquirrelComponent;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Delivers events to {@link AsyncEventListener}s on a dedicated consumer thread. Published events are
+ * stored in a bounded ring buffer and delivered in batches in publishing order, so that slow listeners
+ * do not add latency to the publisher. When the buffer is full, the {@link OverflowPolicy} decides
+ * whether the publisher waits or events are dropped.
+ */
+public class AsyncEventDispatcher implements SquirrelComponent {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncEventDispatcher.class);
+
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    public enum OverflowPolicy {
+        /**
+         * Publisher waits until there is free space in buffer
+         */
+        BLOCK,
+        /**
+         * Oldest event in buffer is dropped to make room for new event
+         */
+        DROP_OLDEST,
+        /**
+         * Only one of every sample rate events is kept by dropping the oldest event, others are dropped
+         */
+        SAMPLE
+    }
+
+    private static class DefaultDispatcherHolder {
+        static final AsyncEventDispatcher INSTANCE = new AsyncEventDispatcher(
+                DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, OverflowPolicy.BLOCK, 1);
+    }
+
+    /**
+     * @return shared dispatcher used when no dispatcher is specified
+     */
+    public static AsyncEventDispatcher getDefault() {
+        return DefaultDispatcherHolder.INSTANCE;
+    }
+
+    private static final ThreadFactory threadFactory = new ThreadFactoryBuilder().
+            setNameFormat("squirrel-event-dispatcher-%d").setDaemon(true).build();
+
+    private final ListenerMethod[] listeners;
+
+    private final Object[] events;
+
+    private final int batchSize;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final int sampleRate;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Condition notFull = lock.newCondition();
+
+    private final Condition delivered = lock.newCondition();
+
+    // index of oldest event and number of events in ring buffer
+    private int head = 0, count = 0;
+
+    // number of events taken by consumer but not delivered yet
+    private int inFlight = 0;
+
+    private long overflowCount = 0;
+
+    private boolean shutdown = false;
+
+    private final AtomicLong droppedCount = new AtomicLong(0);
+
+    private final AtomicLong deliveredCount = new AtomicLong(0);
+
+    private final Thread consumer;
+
+    public AsyncEventDispatcher(int capacity, int batchSize, OverflowPolicy overflowPolicy, int sampleRate) {
+        Preconditions.checkArgument(capacity>0, "Capacity must be positive.");
+        Preconditions.checkArgument(batchSize>0, "Batch size must be positive.");
+        Preconditions.checkArgument(sampleRate>0, "Sample rate must be positive.");
+        this.listeners = new ListenerMethod[capacity];
+        this.events = new Object[capacity];
+        this.batchSize = batchSize;
+        this.overflowPolicy = Preconditions.checkNotNull(overflowPolicy);
+        this.sampleRate = sampleRate;
+        this.consumer = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        });
+        this.consumer.start();
+    }
+
+    public AsyncEventDispatcher(int capacity, OverflowPolicy overflowPolicy) {
+        this(capacity, DEFAULT_BATCH_SIZE, overflowPolicy, 1);
+    }
+
+    /**
+     * Publish event to be delivered to listener on consumer thread. When buffer is full under 
+     * {@link OverflowPolicy#BLOCK} and the publisher is the consumer thread itself, e.g. listener fired 
+     * another event, the event is delivered inline, since waiting would never end.
+     * @return false if event was dropped
+     */
+    public boolean publish(ListenerMethod listener, Object event) {
+        lock.lock();
+        try {
+            Preconditions.checkState(!shutdown, "Event dispatcher was shutdown.");
+            int capacity = events.length;
+            if(count==capacity) {
+                switch (overflowPolicy) {
+                case BLOCK:
+                    if(Thread.currentThread()==consumer) {
+                        lock.unlock();
+                        try {
+                            deliver(listener, event);
+                            deliveredCount.incrementAndGet();
+                        } finally {
+                            lock.lock();
+                        }
+                        return true;
+                    }
+                    while(count==capacity && !shutdown) {
+                        notFull.awaitUninterruptibly();
+                    }
+                    Preconditions.checkState(!shutdown, "Event dispatcher was shutdown.");
+                    break;
+                case SAMPLE:
+                    if((overflowCount++)%sampleRate!=0) {
+                        droppedCount.incrementAndGet();
+                        return false;
+                    }
+                    dropOldest();
+                    break;
+                default:
+                    dropOldest();
+                }
+            }
+            int tail = (head+count)%capacity;
+            listeners[tail] = listener;
+            events[tail] = event;
+            count++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dropOldest() {
+        listeners[head] = null;
+        events[head] = null;
+        head = (head+1)%events.length;
+        count--;
+        droppedCount.incrementAndGet();
+    }
+
+    private void consume() {
+        ListenerMethod[] batchListeners = new ListenerMethod[batchSize];
+        Object[] batchEvents = new Object[batchSize];
+        while(true) {
+            int size = 0;
+            lock.lock();
+            try {
+                while(count==0 && !shutdown) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if(count==0 && shutdown) {
+                    return;
+                }
+                size = Math.min(count, batchSize);
+                for(int i=0; i<size; ++i) {
+                    batchListeners[i] = listeners[head];
+                    batchEvents[i] = events[head];
+                    listeners[head] = null;
+                    events[head] = null;
+                    head = (head+1)%events.length;
+                }
+                count -= size;
+                inFlight = size;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            for(int i=0; i<size; ++i) {
+                deliver(batchListeners[i], batchEvents[i]);
+                batchListeners[i] = null;
+                batchEvents[i] = null;
+            }
+            deliveredCount.addAndGet(size);
+
+            lock.lock();
+            try {
+                inFlight = 0;
+                delivered.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void deliver(ListenerMethod listener, Object event) {
+        try {
+            listener.invokeMethod(event);
+        } catch(Throwable e) {
+            logger.error("Deliver event \""+event+"\" failed.", e);
+        }
+    }
+
+    /**
+     * Wait until all the published events are delivered.
+     * @return false if timeout elapsed before all events delivered
+     */
+    public boolean awaitDelivered(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while(count>0 || inFlight>0) {
+                if(nanos<=0) return false;
+                nanos = delivered.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting new events. Events already published are still delivered before consumer thread exits.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isShutdown() {
+        lock.lock();
+        try {
+            return shutdown;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of events waiting to be delivered
+     */
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return count+inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+}
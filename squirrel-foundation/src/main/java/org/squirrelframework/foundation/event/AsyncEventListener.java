@@ -0,0 +1,14 @@
+package org.squirrelframework.foundation.event;
+
+/**
+ * Marker interface of listener which is notified asynchronously. Events fired to the listener are 
+ * published to {@link AsyncEventDispatcher} of the subject and delivered on the dispatcher thread, 
+ * while listeners not implementing this interface are still notified inline.
+ * <p>
+ * Events are immutable and keep the values when they were fired, however the subject referenced by 
+ * event, e.g. the state machine, may already be changed when the event is delivered. Asynchronous 
+ * listeners should therefore read source state, target state, cause and context from the event instead 
+ * of querying the subject.
+ */
+public interface AsyncEventListener {
+}
@@ -1,12 +1,16 @@
 package org.squirrelframework.foundation.event;
 
 import java.lang.reflect.Method;
-import java.util.LinkedHashSet;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.squirrelframework.foundation.component.SquirrelComponent;
 
 import com.google.common.base.Predicate;
-import com.google.common.collect.Iterators;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
 /**
  * Event mediator dispatch event to proper listener according to event type.
@@ -16,51 +20,117 @@ import com.google.common.collect.Iterators;
  */
 public class EventMediator implements SquirrelComponent {
     
-    private LinkedHashSet<ListenerMethod> listeners = null;
+    private static final ListenerMethod[] NO_LISTENERS = new ListenerMethod[0];
     
-    public void register(Class<?> eventType, Object listener, Method method) {
-        if (listeners == null) {
-            listeners = new LinkedHashSet<ListenerMethod>();
-        }
-        listeners.add(new ListenerMethod(eventType, listener, method));
+    /**
+     * Registered listeners and the listeners matched by each concrete event class. The index is computed 
+     * lazily for each event class, and the whole index is replaced (copy-on-write) when listeners changed. 
+     */
+    private volatile DispatchIndex index = null;
+    
+    private volatile AsyncEventDispatcher asyncDispatcher = null;
+    
+    /**
+     * Set dispatcher of listeners which implement {@link AsyncEventListener}. If not set, the shared 
+     * default dispatcher is used.
+     */
+    public void setAsyncDispatcher(AsyncEventDispatcher asyncDispatcher) {
+        this.asyncDispatcher = asyncDispatcher;
     }
     
-    public void unregister(final Class<?> eventType, final Object target) {
-        if (listeners != null) {
-            Iterators.removeIf(listeners.iterator(), new Predicate<ListenerMethod>() {
-                @Override
-                public boolean apply(ListenerMethod m) {
-                    return m.matches(eventType, target);
-                }
-            });
+    public AsyncEventDispatcher getAsyncDispatcher() {
+        AsyncEventDispatcher dispatcher = asyncDispatcher;
+        return dispatcher!=null ? dispatcher : AsyncEventDispatcher.getDefault();
+    }
+    
+    public synchronized void register(Class<?> eventType, Object listener, Method method) {
+        ListenerMethod listenerMethod = new ListenerMethod(eventType, listener, method);
+        ListenerMethod[] listeners = index!=null ? index.listeners : NO_LISTENERS;
+        for(ListenerMethod existed : listeners) {
+            if(existed.equals(listenerMethod)) return;
         }
+        ListenerMethod[] newListeners = Arrays.copyOf(listeners, listeners.length+1);
+        newListeners[listeners.length] = listenerMethod;
+        index = new DispatchIndex(newListeners);
     }
     
-    public void unregister(final Class<?> eventType, final Object target, final Method method) {
-        if (listeners != null) {
-            ListenerMethod toBeRemove = Iterators.find(listeners.iterator(), new Predicate<ListenerMethod>() {
-                @Override
-                public boolean apply(ListenerMethod m) {
-                    return m.matches(eventType, target, method);
-                }
-            });
-            if(toBeRemove!=null) {
-                listeners.remove(toBeRemove);
+    public synchronized void unregister(final Class<?> eventType, final Object target) {
+        removeIf(new Predicate<ListenerMethod>() {
+            @Override
+            public boolean apply(ListenerMethod m) {
+                return m.matches(eventType, target);
+            }
+        });
+    }
+    
+    public synchronized void unregister(final Class<?> eventType, final Object target, final Method method) {
+        removeIf(new Predicate<ListenerMethod>() {
+            @Override
+            public boolean apply(ListenerMethod m) {
+                return m.matches(eventType, target, method);
             }
+        });
+    }
+    
+    private void removeIf(Predicate<ListenerMethod> predicate) {
+        if (index == null) return;
+        List<ListenerMethod> remaining = Lists.newArrayList(index.listeners);
+        if(Iterables.removeIf(remaining, predicate)) {
+            index = remaining.isEmpty() ? null : 
+                new DispatchIndex(remaining.toArray(new ListenerMethod[remaining.size()]));
         }
     }
     
-    public void unregisterAll() {
-        listeners = null;
+    public synchronized void unregisterAll() {
+        index = null;
+    }
+    
+    /**
+     * @param eventType type of event to be fired
+     * @return whether any registered listener will receive event of the provided type
+     */
+    public boolean hasListeners(Class<?> eventType) {
+        DispatchIndex current = index;
+        return current!=null && current.getListeners(eventType).length>0;
     }
 
     public void fireEvent(Object event) {
-        if (listeners == null) return;
-        ListenerMethod[] listenerArray = listeners.toArray(new ListenerMethod[listeners.size()]);
+        DispatchIndex current = index;
+        if (current == null) return;
+        ListenerMethod[] listenerArray = current.getListeners(event.getClass());
         for (int i = 0; i < listenerArray.length; i++) {
-            if (listenerArray[i].getEventType().isAssignableFrom(event.getClass())) {
+            if(listenerArray[i].isAsync()) {
+                getAsyncDispatcher().publish(listenerArray[i], event);
+            } else {
                 listenerArray[i].invokeMethod(event);
             }
         }
     }
+    
+    private static class DispatchIndex {
+        
+        private final ListenerMethod[] listeners;
+        
+        private final ConcurrentMap<Class<?>, ListenerMethod[]> listenersByEventClass = 
+                new ConcurrentHashMap<Class<?>, ListenerMethod[]>();
+        
+        DispatchIndex(ListenerMethod[] listeners) {
+            this.listeners = listeners;
+        }
+        
+        ListenerMethod[] getListeners(Class<?> eventClass) {
+            ListenerMethod[] matched = listenersByEventClass.get(eventClass);
+            if(matched==null) {
+                List<ListenerMethod> result = Lists.newArrayList();
+                for (ListenerMethod listener : listeners) {
+                    if (listener.getEventType().isAssignableFrom(eventClass)) {
+                        result.add(listener);
+                    }
+                }
+                matched = result.isEmpty() ? NO_LISTENERS : result.toArray(new ListenerMethod[result.size()]);
+                listenersByEventClass.put(eventClass, matched);
+            }
+            return matched;
+        }
+    }
 }
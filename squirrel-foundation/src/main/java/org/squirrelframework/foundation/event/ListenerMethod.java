@@ -4,7 +4,7 @@ import java.lang.reflect.Method;
 
 import org.squirrelframework.foundation.exception.ErrorCodes;
 import org.squirrelframework.foundation.exception.SquirrelRuntimeException;
-import org.squirrelframework.foundation.util.ReflectUtils;
+import org.squirrelframework.foundation.util.MethodInvoker;
 
 import com.google.common.base.Preconditions;
 
@@ -16,8 +16,12 @@ public class ListenerMethod {
 
     private final Method method;
     
+    private final MethodInvoker invoker;
+    
     private boolean hasParameter = false;
     
+    private final boolean async;
+    
     public ListenerMethod(Class<?> eventType, Object listener, Method method) {
         Preconditions.checkArgument(eventType!=null && listener!=null && method!=null, "Parameters cannot be null.");
         // Checks that the object is of correct type
@@ -38,12 +42,27 @@ public class ListenerMethod {
                 throw new SquirrelRuntimeException(ErrorCodes.METHOD_UNEXPECTED_PARAMETERS);
             }
         } 
+        this.invoker = new MethodInvoker(method);
+        this.async = listener instanceof AsyncEventListener;
     }
     
+    /**
+     * @return whether listener should be notified by {@link AsyncEventDispatcher}
+     */
+    public boolean isAsync() {
+        return async;
+    }
+    
+    /**
+     * Invoke listener method with event. Event type is not checked here, since callers only dispatch events 
+     * to listeners resolved for the event class.
+     */
     public void invokeMethod(Object event) {
-        // Only send events supported by the method
-        Preconditions.checkArgument(eventType.isAssignableFrom(event.getClass()));
-        ReflectUtils.invoke(method, target, hasParameter ? new Object[] {event} : new Object[0]);
+        if(hasParameter) {
+            invoker.invoke(target, event);
+        } else {
+            invoker.invoke(target);
+        }
     }
     
     public boolean matches(Class<?> eventType, Object target) {
@@ -19,6 +19,13 @@ public enum ErrorCodes {
     CLASS_NOT_FOUND(10015, "class '%s' not found"),
     METHOD_UNEXPECTED_PARAMETERS(10016, "Method requires unexpected parameters."),
     FSM_TRANSITION_ERROR(10017, "Method requires unexpected parameters."),
+    EXPRESSION_PARSE_ERROR(10018, "couldn't parse expression '%s': %s"),
+    EXPRESSION_EVALUATE_ERROR(10019, "couldn't evaluate expression '%s': %s"),
+    STATE_MACHINE_DATA_SERIALIZE_ERROR(10020, "couldn't serialize state machine data: %s"),
+    STATE_MACHINE_DATA_DESERIALIZE_ERROR(10021, "couldn't deserialize state machine data: %s"),
+    JOURNAL_IO_ERROR(10022, "couldn't access state machine journal '%s': %s"),
+    STATE_MACHINE_STORE_IO_ERROR(10023, "couldn't access state machine store '%s': %s"),
+    MACRO_STEP_LIMIT_EXCEEDED(10024, "more than %d internal events are processed in one macro step, last one is '%s'"),
     
     // reserved error code from 10000-19999
     INTERNAL_ERROR (19998, "internal error."),
@@ -1,5 +1,9 @@
 package org.squirrelframework.foundation.exception;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * 
  * Transition Exception class
@@ -20,10 +24,29 @@ public class TransitionException extends SquirrelRuntimeException {
     private final Object context;
     
     private final Object stateMachine;
+    
+    private final List<Throwable> targetExceptions;
 
     public TransitionException(Throwable targetException, ErrorCodes errorCode, 
             Object sourceState, Object targetState, Object event, Object context, Object stateMachine) {
-        super(errorCode, errorCode);
+        super(targetException, errorCode);
+        this.targetExceptions = targetException!=null ? 
+                Collections.singletonList(targetException) : Collections.<Throwable>emptyList();
+        this.sourceState = sourceState;
+        this.targetState = targetState;
+        this.event = event;
+        this.context = context;
+        this.stateMachine = stateMachine;
+    }
+    
+    /**
+     * Aggregate failures of actions which were executed concurrently. The first failure is the target 
+     * exception.
+     */
+    public TransitionException(List<? extends Throwable> targetExceptions, ErrorCodes errorCode, 
+            Object sourceState, Object targetState, Object event, Object context, Object stateMachine) {
+        super(targetExceptions.get(0), errorCode);
+        this.targetExceptions = Collections.unmodifiableList(new ArrayList<Throwable>(targetExceptions));
         this.sourceState = sourceState;
         this.targetState = targetState;
         this.event = event;
@@ -31,6 +54,13 @@ public class TransitionException extends SquirrelRuntimeException {
         this.stateMachine = stateMachine;
     }
     
+    /**
+     * @return all the failures which caused the transition exception
+     */
+    public List<Throwable> getTargetExceptions() {
+        return targetExceptions;
+    }
+    
     public Object getSourceState() {
         return sourceState;
     }
@@ -1,11 +1,16 @@
 package org.squirrelframework.foundation.fsm;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.squirrelframework.foundation.component.Observable;
 import org.squirrelframework.foundation.event.SquirrelEvent;
 import org.squirrelframework.foundation.util.ReflectUtils;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * State machine action executor. The action defined during state entry/exit and transition will be 
  * collected by action executor, and executed later together. The executor can execute actions in 
@@ -29,6 +34,44 @@ public interface ActionExecutor<T extends StateMachine<T, S, E, C>, S, E, C> ext
 	 */
 	void execute();
 	
+	/**
+	 * Execute all the actions collected on the top of stack without blocking on {@link AsyncAction}. 
+	 * Asynchronous action is started and the actions after it are executed by callback executor once 
+	 * its future succeeds. Adjacent asynchronous actions which are independent are started together. 
+	 * 
+	 * @param timeout maximum time to wait for each asynchronous action, or zero to wait without timeout
+	 * @param unit time unit of timeout
+	 * @param callbackExecutor executor which executes the actions after asynchronous actions completed
+	 * @return future completed when all the actions executed, which fails with {@link 
+	 * org.squirrelframework.foundation.exception.TransitionException} if any action failed or timed out
+	 */
+	ListenableFuture<?> executeAsync(long timeout, TimeUnit unit, Executor callbackExecutor);
+	
+	/**
+	 * Begin a group of independent branches. Actions deferred in different branches of the group may be 
+	 * executed concurrently, while actions in the same branch are still executed in order. Nested groups 
+	 * are merged into the branch of outermost group.
+	 */
+	void fork();
+	
+	/**
+	 * Begin next branch of current group.
+	 */
+	void branch();
+	
+	/**
+	 * End current group of independent branches.
+	 */
+	void join();
+	
+	/**
+	 * Set executor service used to execute independent actions concurrently. Actions are executed in 
+	 * sequence if executor service is null, which is the default.
+	 * 
+	 * @param executorService executor service of independent actions
+	 */
+	void setExecutorService(ExecutorService executorService);
+	
 	/**
 	 * Set dummy execution true will cause no action being actually invoked when calling {@link ActionExecutor#execute()}.
 	 * 
@@ -0,0 +1,30 @@
+package org.squirrelframework.foundation.fsm;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * An action which does not block caller thread while waiting for its result. When event is fired, the 
+ * state machine starts asynchronous action and releases the caller thread, and the transition is completed 
+ * when the returned future succeeds. If the future fails or times out, the transition is aborted.
+ * <p>
+ * {@link Action#execute(Object, Object, Object, Object, StateMachine)} is still called where actions 
+ * cannot be executed asynchronously, e.g. when state machine is started or terminated.
+ * 
+ * @param <T> type of State Machine
+ * @param <S> type of State
+ * @param <E> type of Event
+ * @param <C> type of Context
+ */
+public interface AsyncAction<T extends StateMachine<T, S, E, C>, S, E, C> extends Action<T, S, E, C> {
+    /**
+     * Start the activity without waiting for its completion.
+     * 
+     * @param from transition source state
+     * @param to transition target state
+     * @param event event that trigger the transition
+     * @param context context object
+     * @param stateMachine the state machine
+     * @return future of the activity result
+     */
+    ListenableFuture<?> executeAsync(S from, S to, E event, C context, T stateMachine);
+}
@@ -22,6 +22,11 @@ public enum EventKind {
 	 */
 	TERMINATE, 
 	
+	/**
+	 * Indicate the event is fired when action of transition failed or timed out
+	 */
+	ERROR, 
+	
 	/**
 	 * Indicate the event is defined by user
 	 */
@@ -1,6 +1,7 @@
 package org.squirrelframework.foundation.fsm;
 
 import java.util.List;
+import java.util.Set;
 
 import org.squirrelframework.foundation.component.SquirrelComponent;
 
@@ -46,11 +47,25 @@ public interface ImmutableState<T extends StateMachine<T, S, E, C>, S, E, C>  ex
     List<ImmutableTransition<T, S, E, C>> getAllTransitions();
     
     /**
+     * Transitions of prepared state are looked up from a table frozen when state machine builder is prepared, 
+     * and the same immutable list is returned on every call instead of a copy. Transitions of state not
+     * prepared yet are returned as a new list.
      * @param event 
-     * @return Transitions triggered by event
+     * @return Transitions triggered by event in declaration order, or empty list if none
      */
     List<ImmutableTransition<T, S, E, C>> getTransitions(E event);
     
+    /**
+     * @return Transitions triggered by timeout after this state is entered
+     */
+    List<ImmutableTransition<T, S, E, C>> getTimedTransitions();
+    
+    /**
+     * @return events which transitions of this state or its ancestor states are triggered by, conditions 
+     * of transitions are not evaluated
+     */
+    Set<E> getAcceptableEvents();
+    
     /**
      * Entry state with state context
      * @param stateContext
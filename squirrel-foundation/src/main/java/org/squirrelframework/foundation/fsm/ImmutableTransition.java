@@ -1,6 +1,7 @@
 package org.squirrelframework.foundation.fsm;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.squirrelframework.foundation.component.SquirrelComponent;
 
@@ -56,6 +57,12 @@ public interface ImmutableTransition<T extends StateMachine<T, S, E, C>, S, E, C
      */
     E getEvent();
     
+    /**
+     * @return Delay after source state is entered to trigger timed transition, or zero if transition is 
+     * triggered by event
+     */
+    long getDelay(TimeUnit unit);
+    
     /**
      * @return type of transition
      */
@@ -1,11 +1,14 @@
 package org.squirrelframework.foundation.fsm;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public interface MutableState<T extends StateMachine<T, S, E, C>, S, E, C> extends ImmutableState<T, S, E, C> {
     
     MutableTransition<T, S, E, C> addTransitionOn(E event);
     
+    MutableTransition<T, S, E, C> addTimedTransition(long delay, TimeUnit unit);
+    
     void addEntryAction(Action<T, S, E, C> newAction);
     
     void addEntryActions(List<Action<T, S, E, C>> newActions);
@@ -27,4 +30,9 @@ public interface MutableState<T extends StateMachine<T, S, E, C>, S, E, C> exten
     void setFinal(boolean isFinal);
     
     void setCompositeType(StateCompositeType compositeType);
+    
+    /**
+     * Freeze state definition for runtime, e.g. build event dispatch table of transitions
+     */
+    void prepare();
 }
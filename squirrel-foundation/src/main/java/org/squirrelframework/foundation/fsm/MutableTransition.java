@@ -1,6 +1,7 @@
 package org.squirrelframework.foundation.fsm;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public interface MutableTransition<T extends StateMachine<T, S, E, C>, S, E, C> extends ImmutableTransition<T, S, E, C> {
     
@@ -16,5 +17,7 @@ public interface MutableTransition<T extends StateMachine<T, S, E, C>, S, E, C>
     
     void setEvent(E event);
     
+    void setDelay(long delay, TimeUnit unit);
+    
     void setType(TransitionType type);
 }
@@ -2,12 +2,15 @@ package org.squirrelframework.foundation.fsm;
 
 import java.lang.reflect.Method;
 import java.util.List;
+import java.util.Set;
 
 import org.squirrelframework.foundation.component.Observable;
 import org.squirrelframework.foundation.event.SquirrelEvent;
 import org.squirrelframework.foundation.fsm.ActionExecutor.ExecActionLisenter;
 import org.squirrelframework.foundation.util.ReflectUtils;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Interface for finite state machine.
  * 
@@ -27,6 +30,26 @@ public interface StateMachine<T extends StateMachine<T, S, E, C>, S, E, C> exten
 	 */
     void fire(E event, C context);
     
+    /**
+     * Fires the specified event asynchronously. Event is put into event queue of state machine and 
+     * processed by the async executor of state machine in order, so caller will not be blocked.
+     * 
+     * @param event the event
+     * @param context external context
+     * @return future of transition result which tells whether event was accepted, declined or failed
+     */
+    ListenableFuture<TransitionResult<T, S, E, C>> fireAsync(E event, C context);
+    
+    /**
+     * Raises internal event from actions. Internal events are processed in order they are raised, right 
+     * after current event and before any queued external event. Event is fired as usual when it is not 
+     * raised by the thread processing events, e.g. from other threads or asynchronous actions.
+     * 
+     * @param event the event
+     * @param context external context
+     */
+    void raise(E event, C context);
+    
     /**
      * Test transition result under circumstance
      * @param event test event
@@ -35,6 +58,15 @@ public interface StateMachine<T extends StateMachine<T, S, E, C>, S, E, C> exten
      */
     S test(E event, C context);
     
+    /**
+     * Events which would be accepted under circumstance, including events accepted by ancestor states 
+     * of current state and by active states of parallel regions. When event type is enum the result is 
+     * an {@link java.util.EnumSet}.
+     * @param context test context
+     * @return acceptable events
+     */
+    Set<E> getAcceptableEvents(C context);
+    
     /**
      * Start state machine under external context
      * @param context external context
@@ -84,6 +116,12 @@ public interface StateMachine<T extends StateMachine<T, S, E, C>, S, E, C> exten
      */
     List<S> getSubStatesOn(S parentStateId);
     
+    /**
+     * @param stateId id of state
+     * @return whether state is active, including ancestor states and parallel regions of current state
+     */
+    boolean isActive(S stateId);
+    
     /**
      * @return current raw state of state machine
      */
@@ -110,6 +148,16 @@ public interface StateMachine<T extends StateMachine<T, S, E, C>, S, E, C> exten
      */
     StateMachineData.Reader<T, S, E, C> dumpSavedData();
     
+    /**
+     * Dump changes of state machine data after specified version, e.g. version of last dumped saved data 
+     * or delta. Data of active linked states is always included. This operation can only be done when 
+     * state machine status is {@link StateMachineStatus#IDLE}, otherwise null will be returned.
+     * 
+     * @param sinceVersion version of last checkpoint, or zero to dump all the fields
+     * @return delta of changed state machine data
+     */
+    StateMachineData.Delta<T, S, E, C> dumpDelta(long sinceVersion);
+    
     /**
      * Load saved data for current state machine. The operation can only be done when state machine 
      * status is {@link StateMachineStatus#INITIALIZED} or {@link StateMachineStatus#TERMINATED}.
@@ -131,6 +179,11 @@ public interface StateMachine<T extends StateMachine<T, S, E, C>, S, E, C> exten
         
         void stateMachineEvent(StateMachineEvent<T, S, E, C> event);
     }
+    /**
+     * State machine events are immutable and keep the values when they were fired, so that they can 
+     * be delivered to {@link org.squirrelframework.foundation.event.AsyncEventListener} later. Note 
+     * that {@link #getStateMachine()} still returns the live state machine.
+     */
     interface StateMachineEvent<T extends StateMachine<T, S, E, C>, S, E, C> extends SquirrelEvent {
         T getStateMachine();
     }
@@ -99,6 +99,13 @@ public interface StateMachineBuilder<T extends StateMachine<T, S, E, C>, S, E, C
      */
     EntryExitActionBuilder<T, S, E, C> onExit(S stateId);
     
+    /**
+     * Compile state machine definition into generated dispatch class when first state machine instance 
+     * is created. Definitions which contain features not supported by compiler, e.g. parallel states, 
+     * linked states or history states, will still be interpreted.
+     */
+    void enableCompilation();
+    
     /**
      * Create a new state machine instance
      * @param initialStateId initial state id
@@ -0,0 +1,138 @@
+package org.squirrelframework.foundation.fsm;
+
+/**
+ * Bounded cache of live state machines keyed by id. When the cache is full or a state machine stays idle
+ * too long, the least recently used state machine is passivated, which means its data is written into
+ * {@link StateMachineStore} and the instance is dropped. Event fired on a passivated state machine
+ * rehydrates it from saved data transparently. Data of passivated state machines is written back
+ * asynchronously in batches.
+ *
+ * @param <K> type of State Machine Id
+ * @param <T> type of State Machine
+ * @param <S> type of State
+ * @param <E> type of Event
+ * @param <C> type of Context
+ */
+public interface StateMachineCache<K, T extends StateMachine<T, S, E, C>, S, E, C> {
+
+    /**
+     * Fire event on state machine of specified id. State machine is rehydrated from store if it was
+     * passivated, or created in initial state if nothing was saved for the id. State machine is not
+     * passivated while it is processing event.
+     */
+    void fire(K id, E event, C context);
+
+    /**
+     * Get state machine of specified id, rehydrate or create it if necessary. Note that returned state
+     * machine may be passivated afterwards, so events should be fired through {@link #fire(Object, Object, Object)}.
+     */
+    T get(K id);
+
+    /**
+     * @return state machine of specified id if it is live in memory, otherwise null
+     */
+    T getIfPresent(K id);
+
+    /**
+     * Passivate state machine of specified id if it is live in memory and is not processing event.
+     * @return whether state machine was passivated
+     */
+    boolean passivate(K id);
+
+    /**
+     * Passivate all the state machines which stay idle longer than configured idle time.
+     * @return number of passivated state machines
+     */
+    int passivateIdle();
+
+    /**
+     * Write data of all passivated state machines which are still pending into store.
+     */
+    void flush();
+
+    /**
+     * @return number of live state machines in memory
+     */
+    int size();
+
+    /**
+     * @return snapshot of cache statistics
+     */
+    Statistics getStatistics();
+
+    /**
+     * Passivate all the live state machines, write pending data into store and stop background tasks.
+     * The store itself is not closed.
+     */
+    void close();
+
+    /**
+     * Immutable snapshot of cache statistics.
+     */
+    final class Statistics {
+
+        private final long hitCount;
+
+        private final long missCount;
+
+        private final long loadCount;
+
+        private final long evictionCount;
+
+        private final long writeCount;
+
+        public Statistics(long hitCount, long missCount, long loadCount, long evictionCount, long writeCount) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.loadCount = loadCount;
+            this.evictionCount = evictionCount;
+            this.writeCount = writeCount;
+        }
+
+        /**
+         * @return number of lookups which found live state machine
+         */
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        /**
+         * @return number of lookups which did not find live state machine
+         */
+        public long getMissCount() {
+            return missCount;
+        }
+
+        /**
+         * @return number of misses which rehydrated state machine from saved data
+         */
+        public long getLoadCount() {
+            return loadCount;
+        }
+
+        /**
+         * @return number of passivated state machines
+         */
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        /**
+         * @return number of state machine data written into store
+         */
+        public long getWriteCount() {
+            return writeCount;
+        }
+
+        public double getHitRate() {
+            long requestCount = hitCount+missCount;
+            return requestCount==0 ? 1.0 : (double)hitCount/requestCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Statistics[hit="+hitCount+", miss="+missCount+", load="+loadCount+
+                    ", eviction="+evictionCount+", write="+writeCount+"]";
+        }
+    }
+}
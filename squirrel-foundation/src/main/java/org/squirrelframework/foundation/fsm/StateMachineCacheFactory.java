@@ -0,0 +1,50 @@
+package org.squirrelframework.foundation.fsm;
+
+import org.squirrelframework.foundation.component.SquirrelProvider;
+import org.squirrelframework.foundation.util.TypeReference;
+
+import com.google.common.base.Ticker;
+
+/**
+ * State machine cache factory to create the state machine cache over {@link SquirrelProvider}, so user can
+ * register different implementation class of {@link StateMachineCache}.
+ */
+public class StateMachineCacheFactory {
+
+    public static <K, T extends StateMachine<T, S, E, C>, S, E, C> StateMachineCache<K, T, S, E, C> create(
+            StateMachineBuilder<T, S, E, C> builder, S initialStateId, StateMachineStore<K, T, S, E, C> store,
+            int maximumSize) {
+        return SquirrelProvider.getInstance().newInstance(new TypeReference<StateMachineCache<K, T, S, E, C>>() {},
+                new Class[] { StateMachineBuilder.class, Object.class, StateMachineStore.class, int.class },
+                new Object[] { builder, initialStateId, store, maximumSize });
+    }
+
+    /**
+     * @param maximumSize maximum number of live state machines
+     * @param maxIdleMillis state machine idle longer than this is passivated, zero means no idle passivation
+     * @param writeBatchSize number of passivated state machines which triggers write back
+     * @param writeDelayMillis interval of background write back and idle passivation, zero means both only
+     * happen on demand
+     */
+    public static <K, T extends StateMachine<T, S, E, C>, S, E, C> StateMachineCache<K, T, S, E, C> create(
+            StateMachineBuilder<T, S, E, C> builder, S initialStateId, StateMachineStore<K, T, S, E, C> store,
+            int maximumSize, long maxIdleMillis, int writeBatchSize, long writeDelayMillis) {
+        return SquirrelProvider.getInstance().newInstance(new TypeReference<StateMachineCache<K, T, S, E, C>>() {},
+                new Class[] { StateMachineBuilder.class, Object.class, StateMachineStore.class, int.class,
+                        long.class, int.class, long.class },
+                new Object[] { builder, initialStateId, store, maximumSize, maxIdleMillis, writeBatchSize, writeDelayMillis });
+    }
+
+    /**
+     * Create state machine cache which measures idle time of state machines by ticker instead of system time.
+     */
+    public static <K, T extends StateMachine<T, S, E, C>, S, E, C> StateMachineCache<K, T, S, E, C> create(
+            StateMachineBuilder<T, S, E, C> builder, S initialStateId, StateMachineStore<K, T, S, E, C> store,
+            int maximumSize, long maxIdleMillis, int writeBatchSize, long writeDelayMillis, Ticker ticker) {
+        return SquirrelProvider.getInstance().newInstance(new TypeReference<StateMachineCache<K, T, S, E, C>>() {},
+                new Class[] { StateMachineBuilder.class, Object.class, StateMachineStore.class, int.class,
+                        long.class, int.class, long.class, Ticker.class },
+                new Object[] { builder, initialStateId, store, maximumSize, maxIdleMillis, writeBatchSize, 
+                        writeDelayMillis, ticker });
+    }
+}
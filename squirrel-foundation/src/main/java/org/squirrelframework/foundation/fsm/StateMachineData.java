@@ -3,6 +3,7 @@ package org.squirrelframework.foundation.fsm;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This class is used to hold all the internal data of state machine. User can dump a state machine data 
@@ -33,6 +34,24 @@ public interface StateMachineData<T extends StateMachine<T, S, E, C>, S, E, C> e
      */
     Writer<T, S, E, C> write();
     
+    /**
+     * Dump fields changed after specified version. Every change of state machine data increases its 
+     * version, so that state machine data can be checkpointed by deltas instead of full copies.
+     * @param sinceVersion version of last checkpoint, or zero to dump all the fields
+     * @return delta of changed fields
+     */
+    Delta<T, S, E, C> dumpDelta(long sinceVersion);
+    
+    /**
+     * Merge delta dumped from another state machine data into current state machine data. Full state can 
+     * be rebuilt by merging deltas in order into a copy of base snapshot, or into an empty state machine 
+     * data starting with delta dumped since version zero. Version of current state machine data becomes 
+     * version of the delta after merged.
+     * @param delta delta of changed fields
+     * @throws IllegalArgumentException if delta does not continue from version of current data
+     */
+    void merge(Delta<T, S, E, C> delta);
+    
     boolean isLocked();
     
     boolean isUnlocked();
@@ -74,6 +93,13 @@ public interface StateMachineData<T extends StateMachine<T, S, E, C>, S, E, C> e
          */
         List<S> subStatesOn(S parentStateId);
         
+        /**
+         * @param stateId the id of state
+         * @return true if state is in active configuration of state machine, which includes current 
+         * state, sub states of parallel state and all their ancestors
+         */
+        boolean isActive(S stateId);
+        
         /**
          * @return current raw state of state machine
          */
@@ -138,6 +164,78 @@ public interface StateMachineData<T extends StateMachine<T, S, E, C>, S, E, C> e
         Reader<? extends StateMachine<?, S, E, C>, S, E, C> linkedStateDataOf(S linkedState);
         
         StateMachineStatus stateMachineStatus();
+        
+        /**
+         * @return version of state machine data which is increased on every change, copy of state machine 
+         * data has the same version of its source
+         */
+        long version();
+    }
+    
+    /**
+     * Fields of state machine data changed between two versions.
+     */
+    public interface Delta<T extends StateMachine<T, S, E, C>, S, E, C> extends Serializable {
+        
+        /**
+         * @return version after which changes are dumped
+         */
+        long sinceVersion();
+        
+        /**
+         * @return version of state machine data when delta is dumped
+         */
+        long version();
+        
+        /**
+         * @return true if no field is changed
+         */
+        boolean isEmpty();
+        
+        boolean isCurrentStateChanged();
+        
+        S currentState();
+        
+        boolean isLastStateChanged();
+        
+        S lastState();
+        
+        boolean isInitialStateChanged();
+        
+        S initialState();
+        
+        /**
+         * @return changed status or null if status is not changed
+         */
+        StateMachineStatus stateMachineStatus();
+        
+        /**
+         * @return true if any type of state machine, state, event or context is changed
+         */
+        boolean isTypeChanged();
+        
+        Class<? extends T> typeOfStateMachine();
+        
+        Class<S> typeOfState();
+        
+        Class<E> typeOfEvent();
+        
+        Class<C> typeOfContext();
+        
+        /**
+         * @return changed last active child states keyed by parent state, child state is null if cleared
+         */
+        Map<S, S> lastActiveChildStates();
+        
+        /**
+         * @return all the sub states of parallel states whose sub states are changed
+         */
+        Map<S, List<S>> subStates();
+        
+        /**
+         * @return changed data of linked states
+         */
+        Map<S, Reader<? extends StateMachine<?, S, E, C>, S, E, C>> linkedStateData();
     }
     
     public interface Writer<T extends StateMachine<T, S, E, C>, S, E, C> {
@@ -1,8 +1,48 @@
 package org.squirrelframework.foundation.fsm;
 
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import com.google.common.collect.PeekingIterator;
+
+/**
+ * Serializer of state machine data. Besides string form, data can be written directly into caller 
+ * supplied {@link ByteBuffer}, and many state machine data can be streamed into one buffer in bulk.
+ *
+ * @param <T> type of State Machine
+ * @param <S> type of State
+ * @param <E> type of Event
+ * @param <C> type of Context
+ */
 public interface StateMachineDataSerializer<T extends StateMachine<T, S, E, C>, S, E, C> {
     
     String serialize(StateMachineData.Reader<T, S, E, C> data);
     
     StateMachineData.Reader<T, S, E, C> deserialize(String value);
+    
+    /**
+     * Write data at current position of buffer, position is advanced after written data.
+     * @throws java.nio.BufferOverflowException if buffer does not have enough remaining space
+     */
+    void serialize(StateMachineData.Reader<T, S, E, C> data, ByteBuffer buffer);
+    
+    /**
+     * Read data written by {@link #serialize(StateMachineData.Reader, ByteBuffer)} at current position 
+     * of buffer, position is advanced after read data.
+     */
+    StateMachineData.Reader<T, S, E, C> deserialize(ByteBuffer buffer);
+    
+    /**
+     * Stream data into buffer until all the data written or buffer is full. Data which does not fit into 
+     * buffer is not consumed from iterator, so that it can be written into next buffer.
+     * @return number of data written
+     * @throws java.nio.BufferOverflowException if buffer cannot hold even one data
+     */
+    int serializeAll(PeekingIterator<? extends StateMachineData.Reader<T, S, E, C>> data, ByteBuffer buffer);
+    
+    /**
+     * Read data written by {@link #serializeAll(PeekingIterator, ByteBuffer)} lazily from current position 
+     * to limit of buffer.
+     */
+    Iterator<StateMachineData.Reader<T, S, E, C>> deserializeAll(ByteBuffer buffer);
 }
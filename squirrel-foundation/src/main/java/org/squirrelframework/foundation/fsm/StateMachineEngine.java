@@ -0,0 +1,90 @@
+package org.squirrelframework.foundation.fsm;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * State machine engine owns state machine instances created by the same {@link StateMachineBuilder}, and 
+ * each instance is keyed by id of business entity. State machine ids are hashed onto a fixed number of 
+ * single-threaded partitions, so that events dispatched to the same id are processed strictly in order, 
+ * while events of different ids are processed in parallel.
+ * 
+ * @param <K> type of State Machine Id
+ * @param <T> type of State Machine
+ * @param <S> type of State
+ * @param <E> type of Event
+ * @param <C> type of Context
+ */
+public interface StateMachineEngine<K, T extends StateMachine<T, S, E, C>, S, E, C> {
+    
+    /**
+     * Dispatch event to state machine of specified id. The state machine instance will be created 
+     * lazily on first dispatched event.
+     * 
+     * @param id state machine id
+     * @param event the event
+     * @param context external context
+     * @return future of transition result
+     */
+    ListenableFuture<TransitionResult<T, S, E, C>> dispatch(K id, E event, C context);
+    
+    /**
+     * @param id state machine id
+     * @return state machine instance of specified id, or null if no event was dispatched to it yet. In 
+     * flyweight mode a detached instance loaded with current data of the id is returned.
+     */
+    T getStateMachine(K id);
+    
+    /**
+     * Remove state machine instance of specified id from engine. Event dispatched after removal 
+     * will create a new instance.
+     * 
+     * @param id state machine id
+     * @return removed state machine instance or null if not exist
+     */
+    T removeStateMachine(K id);
+    
+    /**
+     * @return number of state machine instances owned by engine
+     */
+    int size();
+    
+    /**
+     * @return number of partitions
+     */
+    int getPartitionCount();
+    
+    /**
+     * @param id state machine id
+     * @return index of partition which processes events of specified id
+     */
+    int getPartitionOf(K id);
+    
+    /**
+     * @param partition index of partition
+     * @return number of events waiting to be processed on the partition
+     */
+    int getQueueDepth(int partition);
+    
+    /**
+     * Graceful shutdown engine. Events already dispatched will still be processed, but no new event 
+     * will be accepted.
+     */
+    void shutdown();
+    
+    /**
+     * @return true if engine is shutdown
+     */
+    boolean isShutdown();
+    
+    /**
+     * Blocks until all dispatched events are processed after shutdown, or the timeout occurs.
+     * 
+     * @param timeout the maximum time to wait
+     * @param unit the time unit of the timeout argument
+     * @return true if all partitions terminated and false if the timeout elapsed before termination
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException;
+}
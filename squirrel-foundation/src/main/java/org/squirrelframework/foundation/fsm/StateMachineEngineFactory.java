@@ -0,0 +1,35 @@
+package org.squirrelframework.foundation.fsm;
+
+import org.squirrelframework.foundation.component.SquirrelProvider;
+import org.squirrelframework.foundation.util.TypeReference;
+
+/**
+ * State machine engine factory to create the state machine engine over {@link SquirrelProvider}, so user can 
+ * register different implementation class of {@link StateMachineEngine}.
+ */
+public class StateMachineEngineFactory {
+    
+    public static <K, T extends StateMachine<T, S, E, C>, S, E, C> StateMachineEngine<K, T, S, E, C> create(
+            StateMachineBuilder<T, S, E, C> builder, S initialStateId) {
+        return create(builder, initialStateId, Runtime.getRuntime().availableProcessors());
+    }
+    
+    public static <K, T extends StateMachine<T, S, E, C>, S, E, C> StateMachineEngine<K, T, S, E, C> create(
+            StateMachineBuilder<T, S, E, C> builder, S initialStateId, int partitionCount, Object... extraParams) {
+        return SquirrelProvider.getInstance().newInstance(new TypeReference<StateMachineEngine<K, T, S, E, C>>() {}, 
+                new Class[] { StateMachineBuilder.class, Object.class, int.class, Object[].class }, 
+                new Object[] { builder, initialStateId, partitionCount, extraParams });
+    }
+    
+    /**
+     * Create state machine engine in flyweight mode, which only keeps compact state machine data for each 
+     * id and processes events with one shared state machine instance per partition. State machine used in 
+     * flyweight mode should keep all the business data in context instead of its own fields.
+     */
+    public static <K, T extends StateMachine<T, S, E, C>, S, E, C> StateMachineEngine<K, T, S, E, C> createFlyweight(
+            StateMachineBuilder<T, S, E, C> builder, S initialStateId, int partitionCount, Object... extraParams) {
+        return SquirrelProvider.getInstance().newInstance(new TypeReference<StateMachineEngine<K, T, S, E, C>>() {}, 
+                new Class[] { StateMachineBuilder.class, Object.class, int.class, boolean.class, Object[].class }, 
+                new Object[] { builder, initialStateId, partitionCount, true, extraParams });
+    }
+}
@@ -0,0 +1,67 @@
+package org.squirrelframework.foundation.fsm;
+
+import java.util.Map;
+
+/**
+ * Append-only journal of events fired on state machines keyed by id. Events are recorded before they are
+ * processed, and recorded events are forced to disk in groups instead of one by one. State machines are
+ * recovered by loading the latest snapshot and replaying events recorded after it.
+ *
+ * @param <K> type of State Machine Id
+ * @param <T> type of State Machine
+ * @param <S> type of State
+ * @param <E> type of Event
+ * @param <C> type of Context
+ */
+public interface StateMachineJournal<K, T extends StateMachine<T, S, E, C>, S, E, C> {
+
+    /**
+     * Record event dispatched to state machine of specified id.
+     *
+     * @param id state machine id
+     * @param event the event
+     * @param context external context
+     * @return sequence number of recorded event
+     */
+    long record(K id, E event, C context);
+
+    /**
+     * Record event dispatched to state machine of specified id and then fire it on the state machine.
+     */
+    void fire(K id, T stateMachine, E event, C context);
+
+    /**
+     * Force all the recorded events to disk.
+     */
+    void sync();
+
+    /**
+     * Save snapshot of state machines, so that events recorded before snapshot are no longer needed to
+     * recover state machines and journal segments only containing those events are deleted. State
+     * machines should not process events while snapshot is saved.
+     *
+     * @param stateMachines all the state machines keyed by id
+     */
+    void snapshot(Map<K, ? extends T> stateMachines);
+
+    /**
+     * Recover state machines from latest snapshot and events recorded after snapshot. Events are replayed
+     * in dummy execution mode, so no action is invoked again.
+     *
+     * @param builder builder of state machines
+     * @param initialStateId initial state of state machines
+     * @param extraParams extra parameters to create state machine
+     * @return recovered state machines keyed by id
+     */
+    Map<K, T> recover(StateMachineBuilder<T, S, E, C> builder, S initialStateId, Object... extraParams);
+
+    /**
+     * @return sequence number of last recorded event, or zero if no event was recorded
+     */
+    long getLastSequence();
+
+    /**
+     * Force recorded events to disk and release journal files.
+     */
+    void close();
+}
@@ -0,0 +1,44 @@
+package org.squirrelframework.foundation.fsm;
+
+import java.io.File;
+
+import org.squirrelframework.foundation.component.SquirrelProvider;
+import org.squirrelframework.foundation.util.TypeReference;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * State machine journal factory to create the state machine journal over {@link SquirrelProvider}, so user can
+ * register different implementation class of {@link StateMachineJournal}. State machine id, event and context
+ * are recorded as strings converted by converters registered in {@link ConverterProvider}.
+ */
+public class StateMachineJournalFactory {
+
+    public static <K, T extends StateMachine<T, S, E, C>, S, E, C> StateMachineJournal<K, T, S, E, C> create(
+            File directory, Class<K> idType, Class<E> eventType, Class<C> contextType) {
+        return SquirrelProvider.getInstance().newInstance(new TypeReference<StateMachineJournal<K, T, S, E, C>>() {},
+                new Class[] { File.class, Converter.class, Converter.class, Converter.class },
+                new Object[] { directory, converterOf(idType), converterOf(eventType), converterOf(contextType) });
+    }
+
+    /**
+     * @param segmentSize size of each journal segment file in bytes
+     * @param syncEvents maximum number of events recorded between two syncs
+     * @param syncIntervalMicros maximum age of unsynced event in microseconds, zero means events are only
+     * synced by number
+     */
+    public static <K, T extends StateMachine<T, S, E, C>, S, E, C> StateMachineJournal<K, T, S, E, C> create(
+            File directory, Class<K> idType, Class<E> eventType, Class<C> contextType,
+            int segmentSize, int syncEvents, long syncIntervalMicros) {
+        return SquirrelProvider.getInstance().newInstance(new TypeReference<StateMachineJournal<K, T, S, E, C>>() {},
+                new Class[] { File.class, Converter.class, Converter.class, Converter.class, int.class, int.class, long.class },
+                new Object[] { directory, converterOf(idType), converterOf(eventType), converterOf(contextType),
+                        segmentSize, syncEvents, syncIntervalMicros });
+    }
+
+    private static <T> Converter<T> converterOf(Class<T> type) {
+        Converter<T> converter = ConverterProvider.INSTANCE.getConverter(type);
+        Preconditions.checkArgument(converter!=null, "No converter registered for %s.", type);
+        return converter;
+    }
+}
@@ -31,5 +31,10 @@ public enum StateMachineStatus {
     /**
      * State machine is in error state
      */
-    ERROR
+    ERROR, 
+    
+    /**
+     * State machine is waiting for asynchronous actions to complete current transition
+     */
+    WAITING
 }
@@ -0,0 +1,42 @@
+package org.squirrelframework.foundation.fsm;
+
+import java.util.Map;
+
+/**
+ * Store of passivated state machine data keyed by state machine id. Used by {@link StateMachineCache} to
+ * keep data of state machines which are evicted from memory.
+ *
+ * @param <K> type of State Machine Id
+ * @param <T> type of State Machine
+ * @param <S> type of State
+ * @param <E> type of Event
+ * @param <C> type of Context
+ */
+public interface StateMachineStore<K, T extends StateMachine<T, S, E, C>, S, E, C> {
+
+    /**
+     * @param id state machine id
+     * @return saved data of state machine, or null if nothing was saved for the id
+     */
+    StateMachineData.Reader<T, S, E, C> load(K id);
+
+    /**
+     * Save data of state machine, previous saved data of same id is replaced.
+     */
+    void save(K id, StateMachineData.Reader<T, S, E, C> data);
+
+    /**
+     * Save data of many state machines in one batch.
+     */
+    void saveAll(Map<K, ? extends StateMachineData.Reader<T, S, E, C>> data);
+
+    /**
+     * Remove saved data of state machine.
+     */
+    void remove(K id);
+
+    /**
+     * Release resources held by store.
+     */
+    void close();
+}
@@ -0,0 +1,24 @@
+package org.squirrelframework.foundation.fsm;
+
+import java.io.File;
+
+import org.squirrelframework.foundation.component.SquirrelProvider;
+import org.squirrelframework.foundation.util.TypeReference;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * State machine store factory to create the default file based {@link StateMachineStore} over
+ * {@link SquirrelProvider}. State machine id is converted into file name by converter registered in
+ * {@link ConverterProvider}.
+ */
+public class StateMachineStoreFactory {
+
+    public static <K, T extends StateMachine<T, S, E, C>, S, E, C> StateMachineStore<K, T, S, E, C> create(
+            File directory, Class<K> idType) {
+        Converter<K> idConverter = ConverterProvider.INSTANCE.getConverter(idType);
+        Preconditions.checkArgument(idConverter!=null, "No converter registered for %s.", idType);
+        return SquirrelProvider.getInstance().newInstance(new TypeReference<StateMachineStore<K, T, S, E, C>>() {},
+                new Class[] { File.class, Converter.class }, new Object[] { directory, idConverter });
+    }
+}
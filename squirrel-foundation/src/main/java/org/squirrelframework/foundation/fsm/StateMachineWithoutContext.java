@@ -1,5 +1,9 @@
 package org.squirrelframework.foundation.fsm;
 
+import java.util.Set;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * State machine which does not include environmental context during state transition.
  * @author Henry.He
@@ -16,12 +20,30 @@ public interface StateMachineWithoutContext<T extends StateMachineWithoutContext
      */
     void fire(E event);
     
+    /**
+     * Fire event asynchronously
+     * @param event
+     * @return future of transition result
+     */
+    ListenableFuture<TransitionResult<T, S, E, Void>> fireAsync(E event);
+    
+    /**
+     * Raise internal event
+     * @param event
+     */
+    void raise(E event);
+    
     /**
      * Test event
      * @param event
      */
     S test(E event);
     
+    /**
+     * @return events which would be accepted by current state
+     */
+    Set<E> getAcceptableEvents();
+    
     /**
      * Start state machine
      */
@@ -23,10 +23,40 @@ public interface TransitionResult<T extends StateMachine<T, S, E, C>, S, E, C> {
 	/**
 	 * If all transitions including all nested transitions is declined, the parent transition is
 	 * declined accordingly.
-	 * @return false if transition is accepted; true if transition result is declined
+	 * @return false if transition is accepted or failed; true if transition result is declined
 	 */
 	boolean isDeclined();
 	
+	/**
+	 * @return true if exception was thrown during transition; note that failed transition may be 
+	 * accepted before exception happened
+	 */
+	boolean isFailed();
+	
+	/**
+	 * @return exception caused transition failed, null if transition not failed
+	 */
+	Exception getException();
+	
+	/**
+	 * Set exception which caused transition failed
+	 * @param exception
+	 * @return transition result
+	 */
+	TransitionResult<T, S, E, C> setException(Exception exception);
+	
+	/**
+	 * @return source state of transition
+	 */
+	ImmutableState<T, S, E, C> getSourceState();
+	
+	/**
+	 * Set source state of transition
+	 * @param sourceState
+	 * @return transition result
+	 */
+	TransitionResult<T, S, E, C> setSourceState(ImmutableState<T, S, E, C> sourceState);
+	
 	/**
 	 * Set transition accepted or not.  
 	 * @param accepted
@@ -0,0 +1,20 @@
+package org.squirrelframework.foundation.fsm.annotation;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an action which does not depend on the other actions deferred for the same state entry, exit
+ * or transition. Adjacent independent actions of the same phase may be executed concurrently when
+ * action executor service of the state machine is set.
+ */
+@Retention(RUNTIME)
+@Target({METHOD, TYPE})
+@Documented
+public @interface Independent {
+}
@@ -5,6 +5,7 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
 
 import org.squirrelframework.foundation.fsm.Condition;
 import org.squirrelframework.foundation.fsm.Conditions;
@@ -17,12 +18,27 @@ public @interface Transit {
 
     String to();
     
-    String on();
+    /**
+     * Event which triggers the transition, which is left empty for timed transition
+     */
+    String on() default "";
+    
+    /**
+     * Delay after source state entered to trigger timed transition, zero means transition is triggered by event
+     */
+    long after() default 0;
+    
+    TimeUnit timeUnit() default TimeUnit.MILLISECONDS;
     
     boolean isTargetFinal() default false;
 
     @SuppressWarnings("rawtypes")
     Class<? extends Condition> when() default Conditions.Always.class;
+    
+    /**
+     * Condition defined by expression which context is the root object of, e.g. "amount > 100"
+     */
+    String whenMvel() default "";
 
     TransitionType type() default TransitionType.EXTERNAL;
 
@@ -20,4 +20,11 @@ public interface On<T extends StateMachine<T, S, E, C>, S, E, C> extends When<T,
 	 * @return When clause builder
 	 */
     When<T, S, E, C> when(Condition<C> condition);
+    
+    /**
+     * Add condition defined by expression for the transition, context is the root object of expression
+     * @param expression condition expression, e.g. "amount > 100"
+     * @return When clause builder
+     */
+    When<T, S, E, C> whenMvel(String expression);
 }
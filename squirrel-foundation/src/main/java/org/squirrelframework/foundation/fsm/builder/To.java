@@ -1,5 +1,7 @@
 package org.squirrelframework.foundation.fsm.builder;
 
+import java.util.concurrent.TimeUnit;
+
 import org.squirrelframework.foundation.fsm.StateMachine;
 
 /**
@@ -18,4 +20,13 @@ public interface To<T extends StateMachine<T, S, E, C>, S, E, C> {
 	 * @return On clause builder
 	 */
     On<T, S, E, C> on(E event);
+    
+    /**
+     * Build timed transition which is triggered when source state stays active for the delay. The timer 
+     * is armed when source state is entered and cancelled when it is exited.
+     * @param delay delay after source state entered
+     * @param unit time unit of delay
+     * @return On clause builder
+     */
+    On<T, S, E, C> after(long delay, TimeUnit unit);
 }
@@ -26,4 +26,9 @@ public interface When<T extends StateMachine<T, S, E, C>, S, E, C> {
      * @param actions performed actions
      */
     void perform(List<Action<T, S, E, C>> actions);
+    /**
+     * Define action by expression to be performed during transition
+     * @param expression action expression, e.g. "count = count + 1"
+     */
+    void evalMvel(String expression);
 }
@@ -0,0 +1,17 @@
+package org.squirrelframework.foundation.fsm.impl;
+
+import org.squirrelframework.foundation.fsm.AsyncAction;
+import org.squirrelframework.foundation.fsm.StateMachine;
+
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Asynchronous action which waits for result of {@link #executeAsync} when it is executed synchronously.
+ */
+public abstract class AbstractAsyncAction<T extends StateMachine<T, S, E, C>, S, E, C> implements AsyncAction<T, S, E, C> {
+    
+    @Override
+    public void execute(S from, S to, E event, C context, T stateMachine) {
+        Futures.getUnchecked(executeAsync(from, to, event, context, stateMachine));
+    }
+}
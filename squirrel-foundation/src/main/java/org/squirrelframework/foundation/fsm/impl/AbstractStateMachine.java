@@ -1,30 +1,53 @@
 package org.squirrelframework.foundation.fsm.impl;
 
-import java.util.LinkedList;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.squirrelframework.foundation.component.SquirrelProvider;
 import org.squirrelframework.foundation.component.impl.AbstractSubject;
+import org.squirrelframework.foundation.exception.ErrorCodes;
+import org.squirrelframework.foundation.exception.SquirrelRuntimeException;
 import org.squirrelframework.foundation.fsm.ActionExecutor;
 import org.squirrelframework.foundation.fsm.ActionExecutor.ExecActionLisenter;
 import org.squirrelframework.foundation.fsm.ImmutableLinkedState;
 import org.squirrelframework.foundation.fsm.ImmutableState;
+import org.squirrelframework.foundation.fsm.ImmutableTransition;
 import org.squirrelframework.foundation.fsm.StateContext;
 import org.squirrelframework.foundation.fsm.StateMachine;
 import org.squirrelframework.foundation.fsm.StateMachineData;
 import org.squirrelframework.foundation.fsm.StateMachineStatus;
 import org.squirrelframework.foundation.fsm.TransitionResult;
 import org.squirrelframework.foundation.fsm.Visitor;
-import org.squirrelframework.foundation.util.Pair;
+import org.squirrelframework.foundation.fsm.monitor.TransitionMetrics;
+import org.squirrelframework.foundation.fsm.monitor.TransitionMetricsRegistry;
+import org.squirrelframework.foundation.util.TimingWheel;
 import org.squirrelframework.foundation.util.TypeReference;
 
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
  * The Abstract state machine provide several extension ability to cover different extension granularity. 
@@ -52,14 +75,79 @@ public abstract class AbstractStateMachine<T extends StateMachine<T, S, E, C>, S
     
     private boolean autoStart = true;
     
-    private final LinkedList<Pair<E, C>> queuedEvents = Lists.newLinkedList();
+    /**
+     * Multi-producer event queue, which is only drained by the thread owning event processing.
+     */
+    private final Queue<QueuedEvent<T, S, E, C>> queuedEvents = new ConcurrentLinkedQueue<QueuedEvent<T, S, E, C>>();
+    
+    // size of external event queue, which is not counted by the queue itself in constant time
+    private final AtomicInteger queuedEventCount = new AtomicInteger(0);
+    
+    /**
+     * Events raised by actions and completion of states, which are processed before next queued external 
+     * event. Actions of parallel regions may raise events from other threads.
+     */
+    private final Queue<QueuedEvent<T, S, E, C>> internalEvents = new ConcurrentLinkedQueue<QueuedEvent<T, S, E, C>>();
+    
+    /**
+     * Only one caller can win the ownership to process events at one time, other callers only 
+     * put event into queue and return immediately.
+     */
+    private final AtomicBoolean processingOwner = new AtomicBoolean(false);
+    
+    // thread which is processing events for the owner, or null while transition waits for asynchronous actions
+    private volatile Thread processingThread;
+    
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            execute();
+        }
+    };
+    
+    /**
+     * Executor used to drain event queue for events fired asynchronously 
+     */
+    private Executor asyncExecutor = FSM.defaultAsyncExecutor();
     
     private final ActionExecutor<T, S, E, C> executor = SquirrelProvider.getInstance().newInstance(
     		new TypeReference<ActionExecutor<T, S, E, C>>(){});
     
     private final StateMachineData<T, S, E, C> data;
     
-    private E startEvent, finishEvent, terminateEvent;
+    private E startEvent, finishEvent, terminateEvent, errorEvent;
+    
+    private long asyncActionTimeoutMillis = 0;
+    
+    public static final int DEFAULT_MACRO_STEP_LIMIT = 1000;
+    
+    private int macroStepLimit = DEFAULT_MACRO_STEP_LIMIT;
+    
+    // number of internal events processed since last external event, only touched by event processing owner
+    private int macroStepCount = 0;
+    
+    // timing wheel of timed transitions, shared default timing wheel is used if not set
+    private TimingWheel timingWheel;
+    
+    // pending timeouts of timed transitions whose source states are active, only touched by event processing owner
+    private Map<ImmutableTransition<T, S, E, C>, TimingWheel.Timeout> armedTimeouts;
+    
+    // transition metrics of state machine type, or null if metrics are not enabled
+    private TransitionMetrics<S, E> metrics;
+    
+    // time when current owner began processing events, only touched by event processing owner
+    private long busySince = 0;
+    
+    // error event raised by failed transition, which is processed before other queued events
+    private QueuedEvent<T, S, E, C> raisedErrorEvent;
+    
+    // transition result and state context reused by each event processing
+    private TransitionResult<T, S, E, C> reusableResult;
+    
+    private StateContext<T, S, E, C> reusableStateContext;
+    
+    // generated dispatcher of state machine definition, or null if definition is interpreted
+    private CompiledDefinition<T, S, E, C> compiledDefinition;
     
     protected AbstractStateMachine(ImmutableState<T, S, E, C> initialState, Map<S, ImmutableState<T, S, E, C>> states) {
         data = SquirrelProvider.getInstance().newInstance( 
@@ -69,111 +157,657 @@ public abstract class AbstractStateMachine<T extends StateMachine<T, S, E, C>, S
         S intialStateId = initialState.getStateId();
         data.write().initalState(intialStateId);
         data.write().currentState(intialStateId);
-    }
-    
-    private void processEvent(E event, C context) {
+        metrics = TransitionMetricsRegistry.getInstance().get(getClass());
+    }
+    
+    /**
+     * Process event and return the transition result. When <code>detachedResult</code> is true, a new 
+     * transition result will be returned which can be safely handed to other threads, otherwise result 
+     * will be reused by next event processing.
+     * <p>
+     * If transition is waiting for asynchronous actions, null is returned and the ownership of event 
+     * processing is handed to the transition, which completes transition result future when it is done and 
+     * continues processing queued events.
+     */
+    private TransitionResult<T, S, E, C> processEvent(E event, C context, boolean detachedResult, 
+            SettableFuture<TransitionResult<T, S, E, C>> future, ImmutableTransition<T, S, E, C> timedTransition) {
+        // nested event processing cannot share the reusable transition result and state context
+        boolean isNested = data.isLocked();
         data.lock();
         ImmutableState<T, S, E, C> fromState = data.read().currentRawState();
         S fromStateId = data.read().currentState();
-        logger.debug("Transition from state \""+fromState+"\" on event \""+event+"\" begins.");
+        long startTime = metrics!=null ? System.nanoTime() : 0;
         Stopwatch sw = null;
         if(logger.isDebugEnabled()) {
+            logger.debug("Transition from state \""+fromState+"\" on event \""+event+"\" begins.");
             sw = new Stopwatch().start();
         }
+        TransitionResult<T, S, E, C> result = null;
+        boolean suspended = false;
         try {
             beforeTransitionBegin(fromStateId, event, context);
-            fireEvent(new TransitionBeginEventImpl<T, S, E, C>(fromStateId, event, context, getThis()));
+            if(hasListeners(TransitionBeginEventImpl.class)) {
+                fireEvent(new TransitionBeginEventImpl<T, S, E, C>(fromStateId, event, context, getThis()));
+            }
             
             executor.begin();
-            TransitionResult<T, S, E, C> result = FSM.newResult(false, fromState, null);
-            fromState.internalFire( FSM.newStateContext(this, data, fromState, event, context, result, executor) );
-            executor.execute();
-            
-            if(result.isAccepted()) {
-                data.write().lastState(fromStateId);
-                data.write().currentState(result.getTargetState().getStateId());
-            	fireEvent(new TransitionCompleteEventImpl<T, S, E, C>(fromStateId, data.read().currentState(), 
-                      event, context, getThis()));
-                afterTransitionCompleted(fromStateId, data.read().currentState(), event, context);
+            StateContext<T, S, E, C> stateContext = null;
+            if(isNested || detachedResult) {
+                result = FSM.newResult(false, fromState, null);
+                stateContext = FSM.newStateContext(this, data, fromState, event, context, result, executor);
+            } else {
+                result = reusableResult = FSM.reuseResult(reusableResult, fromState);
+                stateContext = reusableStateContext = FSM.reuseStateContext(reusableStateContext, 
+                        this, data, fromState, event, context, result, executor);
+            }
+            result.setSourceState(fromState);
+            if(timedTransition!=null) {
+                // timed transition may start from ancestor of current state, whose sub states are exited first
+                timedTransition.internalFire(stateContext);
+            } else if(compiledDefinition!=null) {
+                compiledDefinition.internalFire(stateContext);
             } else {
-            	fireEvent(new TransitionDeclinedEventImpl<T, S, E, C>(fromStateId, event, context, getThis()));
-                afterTransitionDeclined(fromStateId, event, context);
+                fromState.internalFire(stateContext);
             }
+            if(isNested) {
+                executor.execute();
+            } else {
+                ListenableFuture<?> execution = executor.executeAsync(
+                        asyncActionTimeoutMillis, TimeUnit.MILLISECONDS, asyncExecutor);
+                if(!execution.isDone()) {
+                    setStatus(StateMachineStatus.WAITING);
+                    suspended = true;
+                    endBusy();
+                    // state machine must not be touched by current thread after callback registered
+                    Futures.addCallback(execution, new PendingTransition(
+                            fromState, event, context, result, future, startTime, sw));
+                    return null;
+                }
+                checkExecution(execution);
+            }
+            completeTransition(fromStateId, event, context, result);
         } catch(Exception e) {
+            result = failTransition(e, fromState, event, context, result, isNested);
+        } finally {
+            if(!suspended) {
+                endTransition(fromState, event, result, startTime, sw);
+            }
+        }
+        return result;
+    }
+    
+    private static void checkExecution(ListenableFuture<?> execution) throws Exception {
+        try {
+            Uninterruptibles.getUninterruptibly(execution);
+        } catch(ExecutionException e) {
+            throw toException(e.getCause());
+        }
+    }
+    
+    private static Exception toException(Throwable t) {
+        if(t instanceof Error) throw (Error)t;
+        return t instanceof Exception ? (Exception)t : new RuntimeException(t);
+    }
+    
+    private void completeTransition(S fromStateId, E event, C context, TransitionResult<T, S, E, C> result) {
+        if(result.isAccepted()) {
+            data.write().lastState(fromStateId);
+            data.write().currentState(result.getTargetState().getStateId());
+            if(hasListeners(TransitionCompleteEventImpl.class)) {
+                fireEvent(new TransitionCompleteEventImpl<T, S, E, C>(fromStateId, data.read().currentState(), 
+                        event, context, getThis()));
+            }
+            afterTransitionCompleted(fromStateId, data.read().currentState(), event, context);
+        } else {
+            if(hasListeners(TransitionDeclinedEventImpl.class)) {
+                fireEvent(new TransitionDeclinedEventImpl<T, S, E, C>(fromStateId, event, context, getThis()));
+            }
+            afterTransitionDeclined(fromStateId, event, context);
+        }
+    }
+    
+    private TransitionResult<T, S, E, C> failTransition(Exception e, ImmutableState<T, S, E, C> fromState, 
+            E event, C context, TransitionResult<T, S, E, C> result, boolean isNested) {
+        if(result==null) {
+            result = FSM.newResult(false, fromState, null);
+            result.setSourceState(fromState);
+        }
+        result.setException(e);
+        S fromStateId = fromState.getStateId();
+        if(hasListeners(TransitionExceptionEventImpl.class)) {
             fireEvent(new TransitionExceptionEventImpl<T, S, E, C>(e, fromStateId, 
                     data.read().currentState(), event, context, getThis()));
-            afterTransitionCausedException(e, fromStateId, data.read().currentState(), event, context);
-        } finally {
-            if(logger.isDebugEnabled()) {
-                logger.debug("Transition from state \""+fromState+"\" on event \""+event+
-                        "\" tooks "+sw.stop().elapsedMillis()+"ms.");
+        }
+        afterTransitionCausedException(e, fromStateId, data.read().currentState(), event, context);
+        if(!isNested) {
+            // events raised by failed transition are discarded together with it
+            internalEvents.clear();
+        }
+        if(errorEvent!=null && !isNested && event!=errorEvent && !isTerminiated()) {
+            raisedErrorEvent = new QueuedEvent<T, S, E, C>(errorEvent, context, null);
+        }
+        return result;
+    }
+    
+    private void endTransition(ImmutableState<T, S, E, C> fromState, E event, 
+            TransitionResult<T, S, E, C> result, long startTime, Stopwatch sw) {
+        if(metrics!=null && result!=null) {
+            metrics.record(fromState.getStateId(), event, result, System.nanoTime()-startTime);
+        }
+        if(logger.isDebugEnabled() && sw!=null) {
+            logger.debug("Transition from state \""+fromState+"\" on event \""+event+
+                    "\" tooks "+sw.stop().elapsedMillis()+"ms.");
+        }
+        data.unlock();
+    }
+    
+    /**
+     * Transition waiting for asynchronous actions, which completes the transition and continues processing 
+     * queued events on the thread which completed the actions.
+     */
+    private class PendingTransition implements FutureCallback<Object> {
+        private final ImmutableState<T, S, E, C> fromState;
+        private final E event;
+        private final C context;
+        private TransitionResult<T, S, E, C> result;
+        private final SettableFuture<TransitionResult<T, S, E, C>> future;
+        private final long startTime;
+        private final Stopwatch sw;
+        
+        PendingTransition(ImmutableState<T, S, E, C> fromState, E event, C context, 
+                TransitionResult<T, S, E, C> result, SettableFuture<TransitionResult<T, S, E, C>> future, 
+                long startTime, Stopwatch sw) {
+            this.fromState = fromState;
+            this.event = event;
+            this.context = context;
+            this.result = result;
+            this.future = future;
+            this.startTime = startTime;
+            this.sw = sw;
+        }
+        
+        @Override
+        public void onSuccess(Object value) {
+            resume(null);
+        }
+        
+        @Override
+        public void onFailure(Throwable t) {
+            resume(t);
+        }
+        
+        private void resume(Throwable failure) {
+            try {
+                beginBusy();
+                setStatus(StateMachineStatus.BUSY);
+                try {
+                    if(failure!=null) throw toException(failure);
+                    completeTransition(fromState.getStateId(), event, context, result);
+                } catch(Exception e) {
+                    result = failTransition(e, fromState, event, context, result, false);
+                } finally {
+                    endTransition(fromState, event, result, startTime, sw);
+                }
+                if(future!=null) {
+                    future.set(result);
+                }
+            } catch(RuntimeException e) {
+                if(future!=null) future.setException(e);
+                logger.error("Complete transition from state \""+fromState+"\" on event \""+event+"\" failed.", e);
+            }
+            if(drainQueuedEvents()) {
+                execute();
             }
-            data.unlock();
         }
     }
     
     protected int getQueuedEventSize() {
-        return queuedEvents.size();
+        return queuedEventCount.get();
+    }
+    
+    /**
+     * @return false if event processing is suspended by asynchronous transition
+     */
+    private boolean processQueuedEvents() {
+        QueuedEvent<T, S, E, C> queuedEvent = null;
+        while ((queuedEvent = pollQueuedEvent()) != null) {
+            if(macroStepCount>macroStepLimit) {
+                failMacroStep(queuedEvent);
+                continue;
+            }
+            if(queuedEvent.timedTransition!=null && !isTimeoutDue(queuedEvent)) {
+                continue;
+            }
+            SettableFuture<TransitionResult<T, S, E, C>> future = queuedEvent.future;
+            if(future==null) {
+                if(processQueuedEvent(queuedEvent, false)==null) {
+                    return false;
+                }
+            } else {
+                // exception of asynchronous event is handed to its future instead of current caller
+                try {
+                    TransitionResult<T, S, E, C> result = processQueuedEvent(queuedEvent, true);
+                    if(result==null) {
+                        return false;
+                    }
+                    future.set(result);
+                } catch(RuntimeException e) {
+                    future.setException(e);
+                }
+            }
+        }
+        return true;
+    }
+    
+    private QueuedEvent<T, S, E, C> pollQueuedEvent() {
+        QueuedEvent<T, S, E, C> queuedEvent = raisedErrorEvent;
+        if(queuedEvent!=null) {
+            raisedErrorEvent = null;
+            return queuedEvent;
+        }
+        queuedEvent = internalEvents.poll();
+        if(queuedEvent!=null) {
+            ++macroStepCount;
+            return queuedEvent;
+        }
+        macroStepCount = 0;
+        queuedEvent = queuedEvents.poll();
+        if(queuedEvent!=null) {
+            queuedEventCount.decrementAndGet();
+        }
+        return queuedEvent;
+    }
+    
+    /**
+     * Discard internal events when too many of them are processed for one external event, which usually 
+     * means actions keep raising events to each other.
+     */
+    private void failMacroStep(QueuedEvent<T, S, E, C> queuedEvent) {
+        internalEvents.clear();
+        macroStepCount = 0;
+        SquirrelRuntimeException e = new SquirrelRuntimeException(
+                ErrorCodes.MACRO_STEP_LIMIT_EXCEEDED, macroStepLimit, queuedEvent.event);
+        logger.error("Internal events are discarded.", e);
+        // error event is not raised, as it may keep the loop going
+        failTransition(e, data.read().currentRawState(), queuedEvent.event, queuedEvent.context, null, true);
+    }
+    
+    private TransitionResult<T, S, E, C> processQueuedEvent(QueuedEvent<T, S, E, C> queuedEvent, boolean detachedResult) {
+        // asynchronous event may be the first event of state machine
+        if(getStatus()==StateMachineStatus.INITIALIZED) {
+            start(queuedEvent.context);
+        }
+        if(!isTerminiated()) {
+            setStatus(StateMachineStatus.BUSY);
+        }
+        return processEvent(queuedEvent.event, queuedEvent.context, detachedResult, queuedEvent.future, 
+                queuedEvent.timedTransition);
     }
     
-    private void processQueuedEvents() {
-        while (getQueuedEventSize() > 0) {
-            Pair<E, C> eventInfo = queuedEvents.removeFirst();
-            processEvent(eventInfo.first(), eventInfo.second());
+    /**
+     * Process queued events and release ownership of event processing unless it is handed to asynchronous transition.
+     * @return false if event processing is suspended by asynchronous transition
+     */
+    private boolean drainQueuedEvents() {
+        boolean suspended = false;
+        try {
+            suspended = !processQueuedEvents();
+        } finally {
+            if(!suspended) releaseProcessing();
         }
+        return !suspended;
     }
     
     private void execute() {
-        if (isIdel()) {
-            try {
-                setStatus(StateMachineStatus.BUSY);
-                processQueuedEvents();
-            } finally {
-            	if(getStatus()==StateMachineStatus.BUSY)
-            	    setStatus(StateMachineStatus.IDLE);
+        // check queue again after ownership released, so that event queued by other callers 
+        // during releasing will not be left behind
+        while ((!queuedEvents.isEmpty() || !internalEvents.isEmpty()) && processingOwner.compareAndSet(false, true)) {
+            beginBusy();
+            if(!drainQueuedEvents()) {
+                return;
             }
         }
     }
     
+    private void releaseProcessing() {
+        if(getStatus()==StateMachineStatus.BUSY)
+            setStatus(StateMachineStatus.IDLE);
+        endBusy();
+        processingOwner.set(false);
+    }
+    
+    private void beginBusy() {
+        processingThread = Thread.currentThread();
+        if(metrics!=null) {
+            busySince = System.nanoTime();
+        }
+    }
+    
+    private void endBusy() {
+        processingThread = null;
+        if(metrics!=null && busySince!=0) {
+            metrics.addBusyTime(System.nanoTime()-busySince);
+        }
+        busySince = 0;
+    }
+    
+    private void enqueue(QueuedEvent<T, S, E, C> queuedEvent) {
+        queuedEvents.offer(queuedEvent);
+        int depth = queuedEventCount.incrementAndGet();
+        if(metrics!=null) {
+            metrics.recordQueueDepth(depth);
+        }
+    }
+    
     @Override
     public void fire(E event, C context) {
-        if(getStatus()==StateMachineStatus.INITIALIZED) {
-            if(autoStart) {
-                start(context);
-            } else {
-                throw new RuntimeException("The state machine is not running.");
-            }
+        if(getStatus()==StateMachineStatus.INITIALIZED && !autoStart) {
+            throw new RuntimeException("The state machine is not running.");
         }
         if(getStatus()==StateMachineStatus.TERMINATED) {
             throw new RuntimeException("The state machine is already terminated.");
         }
-        queuedEvents.addLast(new Pair<E, C>(event, context));
+        if(queuedEvents.isEmpty() && processingOwner.compareAndSet(false, true)) {
+            // no event queued ahead, process event directly without allocating queue entry
+            boolean suspended = false;
+            beginBusy();
+            try {
+                if(getStatus()==StateMachineStatus.INITIALIZED) {
+                    start(context);
+                }
+                if(getStatus()==StateMachineStatus.TERMINATED) {
+                    throw new RuntimeException("The state machine is already terminated.");
+                }
+                setStatus(StateMachineStatus.BUSY);
+                macroStepCount = 0;
+                // ownership is handed to asynchronous transition if event processing is suspended
+                suspended = processEvent(event, context, false, null, null)==null || !processQueuedEvents();
+            } finally {
+                if(!suspended) releaseProcessing();
+            }
+        } else {
+            // event will be processed by the owner which is processing events now
+            enqueue(new QueuedEvent<T, S, E, C>(event, context, null));
+        }
         execute();
     }
     
     @Override
-    public S test(E event, C context) {
-        if(data.read().stateMachineStatus()==StateMachineStatus.BUSY || 
-           data.read().stateMachineStatus()==StateMachineStatus.ERROR ||
-           data.read().stateMachineStatus()==StateMachineStatus.TERMINATED) {
-            throw new RuntimeException("Cannot test state machine under "+data.read().stateMachineStatus()+" state.");
+    public void raise(E event, C context) {
+        // only actions run by the thread processing events can raise internal event, e.g. callers on other 
+        // threads or asynchronous actions still running are treated as firing external event
+        if(processingOwner.get() && processingThread==Thread.currentThread()) {
+            internalEvents.offer(new QueuedEvent<T, S, E, C>(event, context, null));
+        } else {
+            fire(event, context);
         }
-        
-        S testResult = null;
-        StateMachineData.Reader<T, S, E, C> oldData = dumpSavedData();
-        executor.setDummyExecution(true);
+    }
+    
+    @Override
+    public ListenableFuture<TransitionResult<T, S, E, C>> fireAsync(E event, C context) {
+        if(getStatus()==StateMachineStatus.INITIALIZED && !autoStart) {
+            return Futures.immediateFailedFuture(new RuntimeException("The state machine is not running."));
+        }
+        if(getStatus()==StateMachineStatus.TERMINATED) {
+            return Futures.immediateFailedFuture(new RuntimeException("The state machine is already terminated."));
+        }
+        SettableFuture<TransitionResult<T, S, E, C>> future = SettableFuture.create();
+        QueuedEvent<T, S, E, C> queuedEvent = new QueuedEvent<T, S, E, C>(event, context, future);
+        enqueue(queuedEvent);
         try {
-            fire(event, context);
-            testResult = data.read().currentState();
+            asyncExecutor.execute(drainTask);
+        } catch(RejectedExecutionException e) {
+            if(queuedEvents.remove(queuedEvent)) {
+                queuedEventCount.decrementAndGet();
+                future.setException(e);
+            }
+        }
+        return future;
+    }
+    
+    /**
+     * Set metrics which transitions of state machine are recorded into. State machine takes metrics of its 
+     * type from {@link TransitionMetricsRegistry} when it is created, and null disables recording.
+     */
+    public void setTransitionMetrics(TransitionMetrics<S, E> metrics) {
+        this.metrics = metrics;
+    }
+    
+    public TransitionMetrics<S, E> getTransitionMetrics() {
+        return metrics;
+    }
+    
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        Preconditions.checkNotNull(asyncExecutor, "Async executor cannot be null");
+        this.asyncExecutor = asyncExecutor;
+    }
+    
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+    
+    /**
+     * Set maximum time to wait for asynchronous actions of a transition. The transition fails if any 
+     * asynchronous action is not completed in time. Zero means no timeout, which is the default.
+     */
+    public void setAsyncActionTimeout(long timeout, TimeUnit unit) {
+        Preconditions.checkArgument(timeout>=0, "Timeout cannot be negative.");
+        this.asyncActionTimeoutMillis = unit.toMillis(timeout);
+    }
+    
+    /**
+     * Set maximum number of internal events processed for one external event. Once exceeded, pending 
+     * internal events are discarded and transition exception is reported, so that actions raising events 
+     * to each other cannot keep state machine busy forever.
+     */
+    public void setMacroStepLimit(int macroStepLimit) {
+        Preconditions.checkArgument(macroStepLimit>0, "Macro step limit must be positive.");
+        this.macroStepLimit = macroStepLimit;
+    }
+    
+    /**
+     * Set executor service to execute actions of parallel regions and adjacent actions annotated with 
+     * {@link org.squirrelframework.foundation.fsm.annotation.Independent} concurrently. Actions are 
+     * executed in sequence when executor service is null.
+     */
+    public void setActionExecutorService(ExecutorService executorService) {
+        executor.setExecutorService(executorService);
+    }
+    
+    /**
+     * Set dummy execution true to process events without invoking any action, e.g. when recorded events 
+     * are replayed to recover state machine.
+     */
+    public void setDummyExecution(boolean dummyExecution) {
+        executor.setDummyExecution(dummyExecution);
+    }
+    
+    /**
+     * Set timing wheel to schedule timed transitions, e.g. timing wheel of virtual clock in tests. State 
+     * machines share {@link TimingWheel#getDefault()} by default.
+     */
+    public void setTimingWheel(TimingWheel timingWheel) {
+        Preconditions.checkNotNull(timingWheel, "Timing wheel cannot be null");
+        this.timingWheel = timingWheel;
+    }
+    
+    public TimingWheel getTimingWheel() {
+        return timingWheel!=null ? timingWheel : TimingWheel.getDefault();
+    }
+    
+    /**
+     * Arm timeouts of timed transitions when their source state is entered.
+     */
+    void armTimedTransitions(ImmutableState<T, S, E, C> state) {
+        if(armedTimeouts==null) {
+            armedTimeouts = new IdentityHashMap<ImmutableTransition<T, S, E, C>, TimingWheel.Timeout>();
+        }
+        List<ImmutableTransition<T, S, E, C>> timedTransitions = state.getTimedTransitions();
+        for(int i=0, size=timedTransitions.size(); i<size; ++i) {
+            final ImmutableTransition<T, S, E, C> timedTransition = timedTransitions.get(i);
+            TimingWheel.Timeout timeout = getTimingWheel().schedule(new TimingWheel.TimerTask() {
+                @Override
+                public void run(TimingWheel.Timeout timeout) {
+                    fireTimedTransition(timedTransition, timeout);
+                }
+            }, timedTransition.getDelay(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+            TimingWheel.Timeout previous = armedTimeouts.put(timedTransition, timeout);
+            if(previous!=null) {
+                previous.cancel();
+            }
+        }
+    }
+    
+    /**
+     * Cancel timeouts of timed transitions when their source state is exited.
+     */
+    void cancelTimedTransitions(ImmutableState<T, S, E, C> state) {
+        if(armedTimeouts==null) return;
+        List<ImmutableTransition<T, S, E, C>> timedTransitions = state.getTimedTransitions();
+        for(int i=0, size=timedTransitions.size(); i<size; ++i) {
+            TimingWheel.Timeout timeout = armedTimeouts.remove(timedTransitions.get(i));
+            if(timeout!=null) {
+                timeout.cancel();
+            }
+        }
+    }
+    
+    /**
+     * Cancel all the armed timeouts of timed transitions without exiting any state, e.g. when state machine 
+     * is passivated and its saved data will be loaded into another instance later, which arms timed 
+     * transitions of active states again.
+     * @return false if state machine is processing event, in which case nothing is cancelled
+     */
+    public boolean cancelTimedTransitions() {
+        if(!processingOwner.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            cancelAllTimedTransitions();
         } finally {
-            loadSavedData(oldData);
-            executor.setDummyExecution(false);
+            processingOwner.set(false);
+        }
+        // event queued while ownership was held is processed by caller
+        execute();
+        return true;
+    }
+    
+    private void cancelAllTimedTransitions() {
+        if(armedTimeouts==null) return;
+        for(TimingWheel.Timeout timeout : armedTimeouts.values()) {
+            timeout.cancel();
         }
-        return testResult;
+        armedTimeouts.clear();
+    }
+    
+    /**
+     * Queue expired timed transition as an event, which is processed in order with other events.
+     */
+    private void fireTimedTransition(ImmutableTransition<T, S, E, C> timedTransition, TimingWheel.Timeout timeout) {
+        if(!isStarted()) {
+            return;
+        }
+        enqueue(new QueuedEvent<T, S, E, C>(timedTransition, timeout));
+        execute();
+    }
+    
+    /**
+     * @return whether timeout is still armed and source state of timed transition is still active
+     */
+    private boolean isTimeoutDue(QueuedEvent<T, S, E, C> queuedEvent) {
+        if(armedTimeouts==null || armedTimeouts.get(queuedEvent.timedTransition)!=queuedEvent.timeout) {
+            return false;
+        }
+        armedTimeouts.remove(queuedEvent.timedTransition);
+        if(!isStarted()) {
+            return false;
+        }
+        ImmutableState<T, S, E, C> sourceState = queuedEvent.timedTransition.getSourceState();
+        for(ImmutableState<T, S, E, C> state=data.read().currentRawState(); state!=null; state=state.getParentState()) {
+            if(state==sourceState) return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Test event without processing it. Target state is evaluated from current state by transition tables 
+     * and conditions only, so that state machine data is not copied, no action is executed, no listener 
+     * is notified, and test can be called from other threads while state machine is processing events. 
+     * History and sub states are read consistently during evaluation, but when called while an event is 
+     * being processed the result may reflect the partially processed transition.
+     */
+    @Override
+    public S test(final E event, final C context) {
+        StateMachineStatus status = getStatus();
+        if(status==StateMachineStatus.ERROR || status==StateMachineStatus.TERMINATED) {
+            throw new RuntimeException("Cannot test state machine under "+status+" state.");
+        }
+        if(status==StateMachineStatus.INITIALIZED && !autoStart) {
+            throw new RuntimeException("The state machine is not running.");
+        }
+        final boolean started = status!=StateMachineStatus.INITIALIZED;
+        return readLocked(new Function<StateMachineData.Reader<T, S, E, C>, S>() {
+            @Override
+            public S apply(StateMachineData.Reader<T, S, E, C> reader) {
+                ImmutableState<T, S, E, C> currentState = currentRawStateForTest(started, reader);
+                ImmutableState<T, S, E, C> targetState = TransitionEvaluator.evaluate(
+                        currentState, event, context, getFinishEvent(), reader);
+                return targetState!=null ? targetState.getStateId() : currentState.getStateId();
+            }
+        });
+    }
+    
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Override
+    public Set<E> getAcceptableEvents(final C context) {
+        Class<E> eventType = data.read().typeOfEvent();
+        final Set<E> acceptableEvents = (eventType!=null && eventType.isEnum()) ? 
+                EnumSet.noneOf((Class)eventType) : Sets.<E>newLinkedHashSet();
+        StateMachineStatus status = getStatus();
+        if(status==StateMachineStatus.ERROR || status==StateMachineStatus.TERMINATED || 
+                (status==StateMachineStatus.INITIALIZED && !autoStart)) {
+            return acceptableEvents;
+        }
+        final boolean started = status!=StateMachineStatus.INITIALIZED;
+        return readLocked(new Function<StateMachineData.Reader<T, S, E, C>, Set<E>>() {
+            @Override
+            public Set<E> apply(StateMachineData.Reader<T, S, E, C> reader) {
+                TransitionEvaluator.collectAcceptableEvents(currentRawStateForTest(started, reader), 
+                        context, reader, acceptableEvents);
+                return acceptableEvents;
+            }
+        });
+    }
+    
+    /**
+     * @return target state of event evaluated without processing it, or null if event will be declined
+     */
+    ImmutableState<T, S, E, C> evaluate(final E event, final C context) {
+        final boolean started = getStatus()!=StateMachineStatus.INITIALIZED;
+        return readLocked(new Function<StateMachineData.Reader<T, S, E, C>, ImmutableState<T, S, E, C>>() {
+            @Override
+            public ImmutableState<T, S, E, C> apply(StateMachineData.Reader<T, S, E, C> reader) {
+                return TransitionEvaluator.evaluate(currentRawStateForTest(started, reader), 
+                        event, context, getFinishEvent(), reader);
+            }
+        });
+    }
+    
+    private <R> R readLocked(Function<StateMachineData.Reader<T, S, E, C>, R> function) {
+        if(data instanceof StateMachineDataImpl) {
+            return ((StateMachineDataImpl<T, S, E, C>)data).readLocked(function);
+        }
+        return function.apply(data.read());
+    }
+    
+    private ImmutableState<T, S, E, C> currentRawStateForTest(boolean started, 
+            StateMachineData.Reader<T, S, E, C> reader) {
+        // state machine which is not started yet will enter current state first
+        return started ? reader.currentRawState() : TransitionEvaluator.enter(reader.currentRawState(), reader);
     }
     
     protected boolean isIdel() {
-    	return getStatus()!=StateMachineStatus.BUSY;
+    	return getStatus()!=StateMachineStatus.BUSY && getStatus()!=StateMachineStatus.WAITING;
     }
     
     protected void afterTransitionCausedException(Exception e, S fromState, S toState, E event, C context) {
@@ -267,7 +901,8 @@ public abstract class AbstractStateMachine<T extends StateMachine<T, S, E, C>, S
     }
     
     private boolean isStarted() {
-        return getStatus()==StateMachineStatus.IDLE || getStatus()==StateMachineStatus.BUSY;
+        return getStatus()==StateMachineStatus.IDLE || getStatus()==StateMachineStatus.BUSY || 
+                getStatus()==StateMachineStatus.WAITING;
     }
     
     private boolean isTerminiated() {
@@ -293,6 +928,11 @@ public abstract class AbstractStateMachine<T extends StateMachine<T, S, E, C>, S
         return data.read().subStatesOn(parentStateId);
     }
     
+    @Override
+    public boolean isActive(S stateId) {
+        return data.read().isActive(stateId);
+    }
+    
     @Override
     public void terminate(C context) {
     	if(isTerminiated()) {
@@ -306,6 +946,8 @@ public abstract class AbstractStateMachine<T extends StateMachine<T, S, E, C>, S
         exitAll(data.read().currentRawState(), stateContext);
         executor.execute();
         
+        cancelAllTimedTransitions();
+        internalEvents.clear();
         data.write().currentState(data.read().initialState());
         setStatus(StateMachineStatus.TERMINATED);
         fireEvent(new TerminateEventImpl<T, S, E, C>(getThis()));
@@ -319,6 +961,14 @@ public abstract class AbstractStateMachine<T extends StateMachine<T, S, E, C>, S
 		}
     }
     
+    void setCompiledDefinition(CompiledDefinition<T, S, E, C> compiledDefinition) {
+        this.compiledDefinition = compiledDefinition;
+    }
+    
+    StateMachineData<T, S, E, C> getStateMachineData() {
+        return data;
+    }
+    
     @SuppressWarnings("unchecked")
     @Override
     public T getThis() {
@@ -355,6 +1005,14 @@ public abstract class AbstractStateMachine<T extends StateMachine<T, S, E, C>, S
     	this.startEvent=startEvent;
     }
     
+    public void setErrorEvent(E errorEvent) {
+        this.errorEvent = errorEvent;
+    }
+    
+    public E getErrorEvent() {
+        return errorEvent;
+    }
+    
     public E getStartEvent() {
     	return startEvent;
     }
@@ -390,21 +1048,60 @@ public abstract class AbstractStateMachine<T extends StateMachine<T, S, E, C>, S
     }
     
     private void saveLinkedStateData(StateMachineData.Reader<T, S, E, C> src, StateMachineData.Writer<T, S, E, C> target) {
-        dumpLinkedStateFor(src.currentRawState(), target);
-//        dumpLinkedStateFor(src.lastRawState(), target);
-        // TODO-hhe: dump linked state info for last active child state
-        // TODO-hhe: dump linked state info for parallel state
+        for(Map.Entry<S, StateMachineData.Reader<? extends StateMachine<?, S, E, C>, S, E, C>> entry : 
+                dumpLinkedStateData(src).entrySet()) {
+            target.linkedStateDataOn(entry.getKey(), entry.getValue());
+        }
     }
     
-    private void dumpLinkedStateFor(ImmutableState<T, S, E, C> rawState, StateMachineData.Writer<T, S, E, C> target) {
-        if(rawState!=null && rawState instanceof ImmutableLinkedState) {
+    // dump data of linked states in current state, last active child states and sub states of parallel states
+    private Map<S, StateMachineData.Reader<? extends StateMachine<?, S, E, C>, S, E, C>> dumpLinkedStateData(
+            StateMachineData.Reader<T, S, E, C> src) {
+        Map<S, StateMachineData.Reader<? extends StateMachine<?, S, E, C>, S, E, C>> linkedStateData = 
+                Maps.newLinkedHashMap();
+        dumpLinkedStateFor(src.currentRawState(), linkedStateData);
+        for(S parentState : src.activeParentStates()) {
+            S childState = src.lastActiveChildStateOf(parentState);
+            if(childState!=null) {
+                dumpLinkedStateFor(src.rawStateFrom(childState), linkedStateData);
+            }
+        }
+        for(S parallelState : src.parallelStates()) {
+            for(S subState : src.subStatesOn(parallelState)) {
+                dumpLinkedStateFor(src.rawStateFrom(subState), linkedStateData);
+            }
+        }
+        return linkedStateData;
+    }
+    
+    private void dumpLinkedStateFor(ImmutableState<T, S, E, C> rawState, 
+            Map<S, StateMachineData.Reader<? extends StateMachine<?, S, E, C>, S, E, C>> linkedStateData) {
+        if(rawState instanceof ImmutableLinkedState && !linkedStateData.containsKey(rawState.getStateId())) {
             ImmutableLinkedState<T, S, E, C> linkedRawState = (ImmutableLinkedState<T, S, E, C>)rawState;
             StateMachineData.Reader<? extends StateMachine<?, S, E, C>, S, E, C> linkStateData = 
                     linkedRawState.getLinkedStateMachine().dumpSavedData();
-            target.linkedStateDataOn(rawState.getStateId(), linkStateData);
+            if(linkStateData!=null) {
+                linkedStateData.put(rawState.getStateId(), linkStateData);
+            }
         }
     }
     
+    @Override
+    public StateMachineData.Delta<T, S, E, C> dumpDelta(long sinceVersion) {
+        if(data.isLocked()) {
+            return null;
+        }
+        StateMachineData.Delta<T, S, E, C> delta = data.dumpDelta(sinceVersion);
+        // linked state machines keep their own data, so data of active linked states is always included
+        if(delta instanceof StateMachineDataDeltaImpl) {
+            for(Map.Entry<S, StateMachineData.Reader<? extends StateMachine<?, S, E, C>, S, E, C>> entry : 
+                    dumpLinkedStateData(data.read()).entrySet()) {
+                ((StateMachineDataDeltaImpl<T, S, E, C>)delta).linkedStateDataOn(entry.getKey(), entry.getValue());
+            }
+        }
+        return delta;
+    }
+    
     @SuppressWarnings({"unchecked", "rawtypes"})
     @Override
     public boolean loadSavedData(StateMachineData.Reader<T, S, E, C> savedData) {
@@ -421,6 +1118,16 @@ public abstract class AbstractStateMachine<T extends StateMachine<T, S, E, C>, S
                     linkedRawState.getLinkedStateMachine().loadSavedData(linkedStateData);
                 }
             }
+            
+            // timeouts are not saved, so timed transitions of active states are armed again with full delay
+            cancelAllTimedTransitions();
+            if(isStarted()) {
+                for(ImmutableState<T, S, E, C> state=data.read().currentRawState(); state!=null; state=state.getParentState()) {
+                    if(!state.getTimedTransitions().isEmpty()) {
+                        armTimedTransitions(state);
+                    }
+                }
+            }
             return true;
         }
         return false;
@@ -529,6 +1236,35 @@ public abstract class AbstractStateMachine<T extends StateMachine<T, S, E, C>, S
 		executor.removeExecActionListener(listener);
 	}
     
+    /**
+     * Entry of event queue. Future is only provided for event fired asynchronously, and timed transition is 
+     * only provided for expired timeout.
+     */
+    private static class QueuedEvent<T extends StateMachine<T, S, E, C>, S, E, C> {
+        final E event;
+        final C context;
+        final SettableFuture<TransitionResult<T, S, E, C>> future;
+        // timed transition and its expired timeout, event and context are null for timed transition
+        final ImmutableTransition<T, S, E, C> timedTransition;
+        final TimingWheel.Timeout timeout;
+        
+        QueuedEvent(E event, C context, SettableFuture<TransitionResult<T, S, E, C>> future) {
+            this.event = event;
+            this.context = context;
+            this.future = future;
+            this.timedTransition = null;
+            this.timeout = null;
+        }
+        
+        QueuedEvent(ImmutableTransition<T, S, E, C> timedTransition, TimingWheel.Timeout timeout) {
+            this.event = null;
+            this.context = null;
+            this.future = null;
+            this.timedTransition = timedTransition;
+            this.timeout = timeout;
+        }
+    }
+    
     public static abstract class AbstractStateMachineEvent<T extends StateMachine<T, S, E, C>, S, E, C> 
     implements StateMachine.StateMachineEvent<T, S, E, C> {
     	private final T stateMachine;
@@ -1,9 +1,13 @@
 package org.squirrelframework.foundation.fsm.impl;
 
 import java.util.Map;
+import java.util.Set;
 
 import org.squirrelframework.foundation.fsm.StateMachineWithoutContext;
 import org.squirrelframework.foundation.fsm.ImmutableState;
+import org.squirrelframework.foundation.fsm.TransitionResult;
+
+import com.google.common.util.concurrent.ListenableFuture;
 
 public abstract class AbstractStateMachineWithoutContext<T extends StateMachineWithoutContext<T, S, E>, S, E> 
     extends AbstractStateMachine<T, S, E, Void> implements StateMachineWithoutContext<T, S, E> {
@@ -18,11 +22,26 @@ public abstract class AbstractStateMachineWithoutContext<T extends StateMachineW
         super.fire(event, null);
     }
     
+    @Override
+    public void raise(E event) {
+        super.raise(event, null);
+    }
+    
+    @Override
+    public ListenableFuture<TransitionResult<T, S, E, Void>> fireAsync(E event) {
+        return super.fireAsync(event, null);
+    }
+    
     @Override
     public S test(E event) {
         return super.test(event, null);
     }
     
+    @Override
+    public Set<E> getAcceptableEvents() {
+        return super.getAcceptableEvents(null);
+    }
+    
     @Override
     public void start() {
         super.start(null);
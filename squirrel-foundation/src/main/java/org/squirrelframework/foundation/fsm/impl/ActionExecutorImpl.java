@@ -2,46 +2,314 @@ package org.squirrelframework.foundation.fsm.impl;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Stack;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.squirrelframework.foundation.component.impl.AbstractSubject;
 import org.squirrelframework.foundation.exception.ErrorCodes;
 import org.squirrelframework.foundation.exception.TransitionException;
 import org.squirrelframework.foundation.fsm.Action;
 import org.squirrelframework.foundation.fsm.ActionExecutor;
+import org.squirrelframework.foundation.fsm.AsyncAction;
 import org.squirrelframework.foundation.fsm.StateMachine;
+import org.squirrelframework.foundation.fsm.annotation.Independent;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 class ActionExecutorImpl<T extends StateMachine<T, S, E, C>, S, E, C> extends AbstractSubject implements ActionExecutor<T, S, E, C> {
 	
-	protected final Stack<List<ExectionContext<T, S, E, C>>> stack = new Stack<List<ExectionContext<T, S, E, C>>>();
+	/**
+	 * Execution frames are kept and reused after execution, so that steady-state event processing 
+	 * does not allocate new frames or execution contexts.
+	 */
+	private final List<ExecutionFrame<T, S, E, C>> frames = new ArrayList<ExecutionFrame<T, S, E, C>>();
+	
+	private int depth = 0;
 	
 	private boolean dummyExecution = false;
 	
+	private ExecutorService executorService = null;
+	
+	private static final ListenableFuture<Object> COMPLETED = Futures.immediateFuture(null);
+	
+	private static final ConcurrentMap<Class<?>, Boolean> independentActionTypes = 
+			new MapMaker().weakKeys().makeMap();
+	
 	@Override
     public void begin() {
-		List<ExectionContext<T, S, E, C>> executionContext = new ArrayList<ExectionContext<T, S, E, C>>();
-        stack.push(executionContext);
+		if(depth==frames.size()) {
+			frames.add(new ExecutionFrame<T, S, E, C>());
+		}
+		depth++;
     }
 
 	@Override
     public void execute() {
-		List<ExectionContext<T, S, E, C>> executionContexts = stack.pop();
-        for (int i=0, size=executionContexts.size(); i<size; ++i) {
-        	fireEvent(ExecActionEventImpl.get(i+1, size, executionContexts.get(i)));
-        	if(!dummyExecution) {
-        	    executionContexts.get(i).run();
-        	}
-        }
+		Preconditions.checkState(depth>0, "No action execution collection begins.");
+		// frame is released after all actions executed, so nested begin() will not reuse it
+		ExecutionFrame<T, S, E, C> executionContexts = frames.get(depth-1);
+		try {
+			for (int i=0, size=executionContexts.size(); i<size; ) {
+				i = executeNext(executionContexts, i);
+			}
+		} finally {
+			executionContexts.clear();
+			depth--;
+		}
     }
+	
+	/**
+	 * Execute action at start together with actions which can be executed concurrently with it.
+	 * @return index of next action to be executed
+	 */
+	private int executeNext(ExecutionFrame<T, S, E, C> frame, int start) {
+		int end = executorService!=null ? frame.endOfIndependentGroup(start) : start+1;
+		fireExecActionEvents(frame, start, end);
+		if(!dummyExecution) {
+			if(end-start>1) {
+				executeConcurrently(frame, start, end);
+			} else {
+				frame.get(start).run();
+			}
+		}
+		return end;
+	}
+	
+	private void fireExecActionEvents(ExecutionFrame<T, S, E, C> frame, int start, int end) {
+		for(int i=start; i<end; ++i) {
+			if(hasListeners(ExecActionEventImpl.class)) {
+				fireEvent(ExecActionEventImpl.get(i+1, frame.size(), frame.get(i)));
+			}
+		}
+	}
+	
+	@Override
+	public ListenableFuture<?> executeAsync(long timeout, TimeUnit unit, Executor callbackExecutor) {
+		Preconditions.checkState(depth>0, "No action execution collection begins.");
+		if(!frames.get(depth-1).hasAsyncAction || dummyExecution) {
+			execute();
+			return COMPLETED;
+		}
+		AsyncExecution execution = new AsyncExecution(frames.get(depth-1), unit.toMillis(timeout), callbackExecutor);
+		execution.proceed();
+		return execution.completion;
+	}
+	
+	/**
+	 * Execution of actions in one frame which may be suspended on asynchronous actions. The frame is released 
+	 * when execution completed. No other frame is begun until then, as state machine does not process other 
+	 * events during asynchronous transition.
+	 */
+	private class AsyncExecution implements FutureCallback<Object> {
+		private final ExecutionFrame<T, S, E, C> frame;
+		private final long timeoutMillis;
+		private final Executor callbackExecutor;
+		private final SettableFuture<Object> completion = SettableFuture.create();
+		private int next = 0;
+		
+		AsyncExecution(ExecutionFrame<T, S, E, C> frame, long timeoutMillis, Executor callbackExecutor) {
+			this.frame = frame;
+			this.timeoutMillis = timeoutMillis;
+			this.callbackExecutor = callbackExecutor;
+		}
+		
+		void proceed() {
+			try {
+				while(next<frame.size()) {
+					if(dummyExecution || !(frame.get(next).action instanceof AsyncAction)) {
+						next = executeNext(frame, next);
+						continue;
+					}
+					int start = next, end = frame.endOfAsyncGroup(start);
+					fireExecActionEvents(frame, start, end);
+					List<ListenableFuture<Object>> futures = new ArrayList<ListenableFuture<Object>>(end-start);
+					for(int i=start; i<end; ++i) {
+						futures.add(frame.get(i).start());
+					}
+					next = end;
+					ListenableFuture<List<Object>> results = Futures.allAsList(futures);
+					if(!results.isDone()) {
+						await(results, futures, frame.get(start));
+						return;
+					}
+					Futures.getUnchecked(results);
+				}
+			} catch(Throwable e) {
+				finish(e);
+				return;
+			}
+			finish(null);
+		}
+		
+		private void await(ListenableFuture<List<Object>> results, final List<ListenableFuture<Object>> futures, 
+				ExectionContext<T, S, E, C> first) {
+			final SettableFuture<Object> outcome = SettableFuture.create();
+			final TransitionException timeoutException = timeoutMillis>0 ? new TransitionException(
+					new TimeoutException("Asynchronous action timed out after "+timeoutMillis+"ms."), 
+					ErrorCodes.FSM_TRANSITION_ERROR, first.from, first.to, first.event, first.context, first.stateMachine) : null;
+			final AtomicBoolean timedOut = new AtomicBoolean(false);
+			Futures.addCallback(results, new FutureCallback<Object>() {
+				@Override
+				public void onSuccess(Object result) {
+					outcome.set(result);
+				}
+				@Override
+				public void onFailure(Throwable t) {
+					outcome.setException(timedOut.get() ? timeoutException : t);
+				}
+			});
+			if(timeoutException!=null) {
+				final ScheduledFuture<?> timer = FSM.timeoutScheduler().schedule(new Runnable() {
+					@Override
+					public void run() {
+						// actions are cancelled before transition continues with timeout failure
+						timedOut.set(true);
+						for(ListenableFuture<Object> future : futures) {
+							future.cancel(true);
+						}
+						outcome.setException(timeoutException);
+					}
+				}, timeoutMillis, TimeUnit.MILLISECONDS);
+				outcome.addListener(new Runnable() {
+					@Override
+					public void run() {
+						timer.cancel(false);
+					}
+				}, MoreExecutors.sameThreadExecutor());
+			}
+			Futures.addCallback(outcome, this, callbackExecutor);
+		}
+		
+		@Override
+		public void onSuccess(Object result) {
+			proceed();
+		}
+		
+		@Override
+		public void onFailure(Throwable t) {
+			finish(t);
+		}
+		
+		private void finish(Throwable failure) {
+			frame.clear();
+			depth--;
+			if(failure==null) {
+				completion.set(null);
+			} else {
+				completion.setException(failure instanceof UncheckedExecutionException ? failure.getCause() : failure);
+			}
+		}
+	}
+	
+	/**
+	 * Execute independent branches of actions between start (inclusive) and end (exclusive) concurrently. 
+	 * The first branch is executed by current thread and the others are submitted to executor service. 
+	 * All the branches are finished before return, and failures are reported together.
+	 */
+	private void executeConcurrently(ExecutionFrame<T, S, E, C> frame, int start, int end) {
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		int firstBranchEnd = frame.endOfBranch(start, end);
+		for(int i=firstBranchEnd; i<end; ) {
+			int branchEnd = frame.endOfBranch(i, end);
+			futures.add(executorService.submit(new BranchTask<T, S, E, C>(frame, i, branchEnd)));
+			i = branchEnd;
+		}
+		
+		List<TransitionException> failures = new ArrayList<TransitionException>();
+		Error error = null;
+		try {
+			new BranchTask<T, S, E, C>(frame, start, firstBranchEnd).run();
+		} catch(TransitionException e) {
+			failures.add(e);
+		} catch(Error e) {
+			error = e;
+		}
+		for(Future<?> future : futures) {
+			try {
+				Uninterruptibles.getUninterruptibly(future);
+			} catch(ExecutionException e) {
+				if(e.getCause() instanceof TransitionException) {
+					failures.add((TransitionException)e.getCause());
+				} else if(e.getCause() instanceof Error) {
+					if(error==null) error = (Error)e.getCause();
+				} else {
+					ExectionContext<T, S, E, C> c = frame.get(start);
+					failures.add(new TransitionException(e.getCause(), ErrorCodes.FSM_TRANSITION_ERROR, 
+							c.from, c.to, c.event, c.context, c.stateMachine));
+				}
+			}
+		}
+		if(error!=null) {
+			throw error;
+		}
+		if(failures.size()==1) {
+			throw failures.get(0);
+		}
+		if(failures.size()>1) {
+			TransitionException first = failures.get(0);
+			throw new TransitionException(failures, ErrorCodes.FSM_TRANSITION_ERROR, first.getSourceState(), 
+					first.getTargetState(), first.getEvent(), first.getContext(), first.getStateMachine());
+		}
+	}
+	
+	@Override
+	public void fork() {
+		Preconditions.checkState(depth>0, "No action execution collection begins.");
+		frames.get(depth-1).fork();
+	}
+	
+	@Override
+	public void branch() {
+		Preconditions.checkState(depth>0, "No action execution collection begins.");
+		frames.get(depth-1).branch();
+	}
+	
+	@Override
+	public void join() {
+		Preconditions.checkState(depth>0, "No action execution collection begins.");
+		frames.get(depth-1).join();
+	}
+	
+	@Override
+	public void setExecutorService(ExecutorService executorService) {
+		this.executorService = executorService;
+	}
 
 	@Override
     public void defer(Action<T, S, E, C> action, S from, S to, E event, C context, T stateMachine) {
 		Preconditions.checkNotNull(action);
-        stack.peek().add(ExectionContext.get(action, from, to, event, context, stateMachine));
+		Preconditions.checkState(depth>0, "No action execution collection begins.");
+		frames.get(depth-1).add(action, from, to, event, context, stateMachine, isIndependent(action));
     }
 	
+	private static boolean isIndependent(Action<?, ?, ?, ?> action) {
+		if(action instanceof MethodCallActionImpl) {
+			return ((MethodCallActionImpl<?, ?, ?, ?>)action).isIndependent();
+		}
+		Boolean independent = independentActionTypes.get(action.getClass());
+		if(independent==null) {
+			independent = action.getClass().isAnnotationPresent(Independent.class);
+			independentActionTypes.put(action.getClass(), independent);
+		}
+		return independent;
+	}
+	
 	@Override
     public void addExecActionListener(ExecActionLisenter<T, S, E, C> listener) {
 		addListener(ExecActionEvent.class, listener, ExecActionLisenter.EXECUTOR_EVENT_METHOD);
@@ -53,14 +321,25 @@ class ActionExecutorImpl<T extends StateMachine<T, S, E, C>, S, E, C> extends Ab
 	}
 	
 	static class ExecActionEventImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements ExecActionEvent<T, S, E, C> {
-		private ExectionContext<T, S, E, C> executionContext;
-		private int pos;
-		private int size;
+		private final Action<T, S, E, C> action;
+		private final S from;
+		private final S to;
+		private final E event;
+		private final C context;
+		private final T stateMachine;
+		private final int pos;
+		private final int size;
 		
+		// copy execution parameters as execution context will be reused by executor
 		ExecActionEventImpl(int pos, int size, ExectionContext<T, S, E, C> executionContext) {
 			this.pos = pos;
 			this.size = size;
-			this.executionContext = executionContext;
+			this.action = executionContext.action;
+			this.from = executionContext.from;
+			this.to = executionContext.to;
+			this.event = executionContext.event;
+			this.context = executionContext.context;
+			this.stateMachine = executionContext.stateMachine;
 		}
 		
 		static <T extends StateMachine<T, S, E, C>, S, E, C> ExecActionEvent<T, S, E, C> get(
@@ -70,32 +349,32 @@ class ActionExecutorImpl<T extends StateMachine<T, S, E, C>, S, E, C> extends Ab
 
 		@Override
         public Action<T, S, E, C> getExecutionTarget() {
-	        return executionContext.action;
+	        return action;
         }
 
 		@Override
         public S getFrom() {
-	        return executionContext.from;
+	        return from;
         }
 
 		@Override
         public S getTo() {
-	        return executionContext.to;
+	        return to;
         }
 
 		@Override
         public E getEvent() {
-	        return executionContext.event;
+	        return event;
         }
 
 		@Override
         public C getContext() {
-	        return executionContext.context;
+	        return context;
         }
 
 		@Override
         public T getStateMachine() {
-	        return executionContext.stateMachine;
+	        return stateMachine;
         }
 
 		@Override
@@ -104,15 +383,139 @@ class ActionExecutorImpl<T extends StateMachine<T, S, E, C>, S, E, C> extends Ab
         }
 	}
 	
+	private static class ExecutionFrame<T extends StateMachine<T, S, E, C>, S, E, C> {
+		private final List<ExectionContext<T, S, E, C>> slots = new ArrayList<ExectionContext<T, S, E, C>>();
+		private int size = 0;
+		
+		// current group of independent branches, zero means actions are not deferred in any group
+		private int forkDepth = 0, group = 0, branch = 0, lastGroup = 0;
+		
+		private boolean hasAsyncAction = false;
+		
+		void add(Action<T, S, E, C> action, S from, S to, E event, C context, T stateMachine, boolean independent) {
+			if(size==slots.size()) {
+				slots.add(new ExectionContext<T, S, E, C>());
+			}
+			ExectionContext<T, S, E, C> slot = slots.get(size++);
+			slot.set(action, from, to, event, context, stateMachine);
+			hasAsyncAction |= action instanceof AsyncAction;
+			slot.independent = independent;
+			slot.group = group;
+			slot.branch = branch;
+		}
+		
+		void fork() {
+			if(forkDepth++==0) {
+				group = ++lastGroup;
+				branch = 0;
+			}
+		}
+		
+		void branch() {
+			if(forkDepth==1) {
+				branch++;
+			}
+		}
+		
+		void join() {
+			if(--forkDepth==0) {
+				group = 0;
+				branch = 0;
+			}
+		}
+		
+		/**
+		 * @return end (exclusive) of actions which can be executed concurrently with action at start
+		 */
+		int endOfIndependentGroup(int start) {
+			ExectionContext<T, S, E, C> first = slots.get(start);
+			int end = start+1;
+			if(first.group>0) {
+				while(end<size && slots.get(end).group==first.group) end++;
+			} else if(first.independent) {
+				while(end<size && slots.get(end).group==0 && slots.get(end).independent && 
+						Objects.equal(slots.get(end).from, first.from) && Objects.equal(slots.get(end).to, first.to)) {
+					end++;
+				}
+			}
+			return end;
+		}
+		
+		/**
+		 * @return end (exclusive) of adjacent asynchronous actions which can be started together with 
+		 * action at start, which must be in different branches of the same group
+		 */
+		int endOfAsyncGroup(int start) {
+			int groupEnd = endOfIndependentGroup(start);
+			int end = start+1;
+			while(end<groupEnd && slots.get(end).action instanceof AsyncAction && 
+					(slots.get(end).group==0 || slots.get(end).branch!=slots.get(end-1).branch)) {
+				end++;
+			}
+			return end;
+		}
+		
+		/**
+		 * @return end (exclusive) of branch which contains action at start
+		 */
+		int endOfBranch(int start, int groupEnd) {
+			ExectionContext<T, S, E, C> first = slots.get(start);
+			int end = start+1;
+			if(first.group>0) {
+				while(end<groupEnd && slots.get(end).branch==first.branch) end++;
+			}
+			return end;
+		}
+		
+		ExectionContext<T, S, E, C> get(int index) {
+			return slots.get(index);
+		}
+		
+		int size() {
+			return size;
+		}
+		
+		void clear() {
+			// release references of executed actions but keep the slots
+			for(int i=0; i<size; ++i) {
+				slots.get(i).set(null, null, null, null, null, null);
+			}
+			size = 0;
+			forkDepth = group = branch = lastGroup = 0;
+			hasAsyncAction = false;
+		}
+	}
+	
+	private static class BranchTask<T extends StateMachine<T, S, E, C>, S, E, C> implements Runnable {
+		private final ExecutionFrame<T, S, E, C> frame;
+		private final int start, end;
+		
+		BranchTask(ExecutionFrame<T, S, E, C> frame, int start, int end) {
+			this.frame = frame;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		public void run() {
+			for(int i=start; i<end; ++i) {
+				frame.get(i).run();
+			}
+		}
+	}
+	
 	private static class ExectionContext<T extends StateMachine<T, S, E, C>, S, E, C> {
-		final Action<T, S, E, C> action;
-		final S from;
-		final S to;
-		final E event;
-		final C context;
-		final T stateMachine;
-		
-		private ExectionContext(Action<T, S, E, C> action, S from, S to, E event, C context, T stateMachine) {
+		Action<T, S, E, C> action;
+		S from;
+		S to;
+		E event;
+		C context;
+		T stateMachine;
+		boolean independent;
+		int group;
+		int branch;
+		
+		void set(Action<T, S, E, C> action, S from, S to, E event, C context, T stateMachine) {
 			this.action = action;
 			this.from = from;
 			this.to = to;
@@ -120,10 +523,47 @@ class ActionExecutorImpl<T extends StateMachine<T, S, E, C>, S, E, C> extends Ab
 			this.context = context;
 			this.stateMachine = stateMachine;
 		}
-		
-		static <T extends StateMachine<T, S, E, C>, S, E, C> ExectionContext<T, S, E, C> get(
-				Action<T, S, E, C> action, S from, S to, E event, C context, T stateMachine) {
-			return new ExectionContext<T, S, E, C>(action, from, to, event, context, stateMachine);
+
+		/**
+		 * Start asynchronous action, failure of the action is wrapped into transition exception.
+		 */
+		@SuppressWarnings("unchecked")
+		ListenableFuture<Object> start() {
+			final SettableFuture<Object> result = SettableFuture.create();
+			final S from = this.from, to = this.to;
+			final E event = this.event;
+			final C context = this.context;
+			final T stateMachine = this.stateMachine;
+			try {
+				final ListenableFuture<Object> future = (ListenableFuture<Object>)
+						((AsyncAction<T, S, E, C>)action).executeAsync(from, to, event, context, stateMachine);
+				if(future==null) {
+					result.set(null);
+					return result;
+				}
+				Futures.addCallback(future, new FutureCallback<Object>() {
+					@Override
+					public void onSuccess(Object value) {
+						result.set(value);
+					}
+					@Override
+					public void onFailure(Throwable t) {
+						result.setException(new TransitionException(t, ErrorCodes.FSM_TRANSITION_ERROR, 
+								from, to, event, context, stateMachine));
+					}
+				});
+				// cancellation on timeout is propagated to the future of action
+				result.addListener(new Runnable() {
+					@Override
+					public void run() {
+						if(result.isCancelled()) future.cancel(true);
+					}
+				}, MoreExecutors.sameThreadExecutor());
+			} catch (Exception e) {
+				result.setException(new TransitionException(e, ErrorCodes.FSM_TRANSITION_ERROR, 
+						from, to, event, context, stateMachine));
+			}
+			return result;
 		}
 
 		public void run() {
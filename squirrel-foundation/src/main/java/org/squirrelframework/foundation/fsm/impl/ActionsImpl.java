@@ -1,7 +1,6 @@
 package org.squirrelframework.foundation.fsm.impl;
 
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.squirrelframework.foundation.fsm.Action;
@@ -16,11 +15,17 @@ public class ActionsImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements
     
     private int beforeActionCounter = 0;
     
-    private LinkedList<Action<T, S, E, C>> actions;
+    private List<Action<T, S, E, C>> actions;
+    
+    // read-only view of actions which is shared by all callers of getAll()
+    private List<Action<T, S, E, C>> unmodifiableActions;
     
     @Override
     public void add(Action<T, S, E, C> newAction) {
-        if(actions==null) actions = Lists.newLinkedList();
+        if(actions==null) {
+            actions = Lists.newArrayList();
+            unmodifiableActions = Collections.unmodifiableList(actions);
+        }
         if(newAction!=null && !actions.contains(newAction)) {
             if(newAction instanceof MethodCallActionImpl) {
                 // sort method call action by its name
@@ -49,7 +54,7 @@ public class ActionsImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements
 
     @Override
     public List<Action<T, S, E, C>> getAll() {
-        return actions==null ? Collections.<Action<T, S, E, C>>emptyList() : Collections.unmodifiableList(actions);
+        return actions==null ? Collections.<Action<T, S, E, C>>emptyList() : unmodifiableActions;
     }
 
     @Override
@@ -0,0 +1,477 @@
+package org.squirrelframework.foundation.fsm.impl;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.squirrelframework.foundation.component.SquirrelProvider;
+import org.squirrelframework.foundation.exception.ErrorCodes;
+import org.squirrelframework.foundation.exception.SquirrelRuntimeException;
+import org.squirrelframework.foundation.fsm.Converter;
+import org.squirrelframework.foundation.fsm.ConverterProvider;
+import org.squirrelframework.foundation.fsm.StateMachine;
+import org.squirrelframework.foundation.fsm.StateMachineData;
+import org.squirrelframework.foundation.fsm.StateMachineDataSerializer;
+import org.squirrelframework.foundation.fsm.StateMachineStatus;
+import org.squirrelframework.foundation.util.Base64;
+import org.squirrelframework.foundation.util.ReflectUtils;
+import org.squirrelframework.foundation.util.TypeReference;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.common.collect.PeekingIterator;
+
+/**
+ * Compact binary serializer of state machine data. Enum states are written as ordinals and other states
+ * as strings converted by registered {@link Converter}, all the numbers are written as variable length
+ * integers, and class names are written only once per stream. Data is written directly into caller
+ * supplied buffer without intermediate copy.
+ * <pre>
+ * stream := magic version record*
+ * record := type(state machine) type(state) type(event) type(context) status
+ *           state(current) state(last) state(initial)
+ *           varint(n) [state(parent) state(last active child)]*n
+ *           varint(n) [state(parallel) varint(k) state(sub state)*k]*n
+ *           varint(n) [state(linked) record]*n
+ * type   := 0 (null) | 1 string(class name) (first occurrence) | index+2
+ * state  := 0 (null) | ordinal+1 (enum) | string(converted state)
+ * string := 0 (null) | length+1 UTF-8 bytes
+ * </pre>
+ * Events are not part of state machine data, so event type is the only event information written.
+ *
+ * @param <T> type of State Machine
+ * @param <S> type of State
+ * @param <E> type of Event
+ * @param <C> type of Context
+ */
+public class BinaryStateMachineDataSerializer<T extends StateMachine<T, S, E, C>, S, E, C>
+    implements StateMachineDataSerializer<T, S, E, C> {
+
+    static final int MAGIC = 0x53514D44;
+
+    static final byte VERSION = 1;
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private static final StateMachineStatus[] STATUS_VALUES = StateMachineStatus.values();
+
+    private static final ConcurrentMap<String, Class<?>> classCache = new MapMaker().weakValues().makeMap();
+
+    @Override
+    public String serialize(StateMachineData.Reader<T, S, E, C> data) {
+        ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        while(true) {
+            try {
+                serialize(data, buffer);
+                break;
+            } catch(BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity()*2);
+            }
+        }
+        byte[] bytes = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(bytes);
+        return Base64.encode(bytes);
+    }
+
+    @Override
+    public StateMachineData.Reader<T, S, E, C> deserialize(String value) {
+        byte[] bytes;
+        try {
+            bytes = Base64.decode(value);
+        } catch(IllegalArgumentException e) {
+            throw new SquirrelRuntimeException(e, ErrorCodes.STATE_MACHINE_DATA_DESERIALIZE_ERROR, e.getMessage());
+        }
+        return deserialize(ByteBuffer.wrap(bytes));
+    }
+
+    @Override
+    public void serialize(StateMachineData.Reader<T, S, E, C> data, ByteBuffer buffer) {
+        int start = buffer.position();
+        try {
+            Encoder encoder = new Encoder(buffer);
+            encoder.writeHeader();
+            encoder.writeRecord(data);
+        } catch(BufferOverflowException e) {
+            buffer.position(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public StateMachineData.Reader<T, S, E, C> deserialize(ByteBuffer buffer) {
+        Decoder decoder = new Decoder(buffer);
+        decoder.readHeader();
+        return decoder.readRecord();
+    }
+
+    @Override
+    public int serializeAll(PeekingIterator<? extends StateMachineData.Reader<T, S, E, C>> data, ByteBuffer buffer) {
+        int start = buffer.position();
+        Encoder encoder = new Encoder(buffer);
+        try {
+            encoder.writeHeader();
+        } catch(BufferOverflowException e) {
+            buffer.position(start);
+            throw e;
+        }
+        int count = 0;
+        while(data.hasNext()) {
+            int recordStart = buffer.position();
+            try {
+                encoder.writeRecord(data.peek());
+            } catch(BufferOverflowException e) {
+                buffer.position(recordStart);
+                encoder.rollback();
+                if(count==0) {
+                    buffer.position(start);
+                    throw e;
+                }
+                break;
+            }
+            encoder.commit();
+            data.next();
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public Iterator<StateMachineData.Reader<T, S, E, C>> deserializeAll(final ByteBuffer buffer) {
+        final Decoder decoder = new Decoder(buffer);
+        decoder.readHeader();
+        return new AbstractIterator<StateMachineData.Reader<T, S, E, C>>() {
+            @Override
+            protected StateMachineData.Reader<T, S, E, C> computeNext() {
+                return buffer.hasRemaining() ? decoder.readRecord() : endOfData();
+            }
+        };
+    }
+
+    private static Class<?> typeOf(String className) {
+        Class<?> type = classCache.get(className);
+        if(type==null) {
+            type = ReflectUtils.getClass(className);
+            classCache.put(className, type);
+        }
+        return type;
+    }
+
+    /**
+     * @return state type declared by data, or inferred from current state if not declared
+     */
+    static Class<?> stateTypeOf(StateMachineData.Reader<?, ?, ?, ?> data) {
+        if(data.typeOfState()!=null) {
+            return data.typeOfState();
+        }
+        Object state = data.currentState()!=null ? data.currentState() : data.initialState();
+        if(state instanceof Enum) {
+            return ((Enum<?>)state).getDeclaringClass();
+        }
+        return state!=null ? state.getClass() : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Converter<Object> converterOf(Class<?> stateType, ErrorCodes errorCode) {
+        Converter<Object> converter = stateType!=null ?
+                (Converter<Object>)ConverterProvider.INSTANCE.getConverter(stateType) : null;
+        if(converter==null) {
+            throw new SquirrelRuntimeException(errorCode, "no converter registered for state type "+
+                    (stateType!=null ? stateType.getName() : null));
+        }
+        return converter;
+    }
+
+    private static final class Encoder {
+
+        private final ByteBuffer buffer;
+
+        private final Map<Class<?>, Integer> typeIndexes = Maps.newHashMap();
+
+        private final List<Class<?>> types = Lists.newArrayList();
+
+        // number of types written by records which are completely written
+        private int committedTypes = 0;
+
+        Encoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void writeHeader() {
+            buffer.putInt(MAGIC);
+            buffer.put(VERSION);
+        }
+
+        void commit() {
+            committedTypes = types.size();
+        }
+
+        void rollback() {
+            while(types.size()>committedTypes) {
+                typeIndexes.remove(types.remove(types.size()-1));
+            }
+        }
+
+        void writeRecord(StateMachineData.Reader<?, ?, ?, ?> data) {
+            Class<?> stateType = stateTypeOf(data);
+            writeType(data.typeOfStateMachine());
+            writeType(stateType);
+            writeType(data.typeOfEvent());
+            writeType(data.typeOfContext());
+            StateMachineStatus status = data.stateMachineStatus();
+            writeVarint(status!=null ? status.ordinal()+1 : 0);
+
+            Converter<Object> converter = (stateType==null || stateType.isEnum()) ?
+                    null : converterOf(stateType, ErrorCodes.STATE_MACHINE_DATA_SERIALIZE_ERROR);
+            writeState(data.currentState(), converter);
+            writeState(data.lastState(), converter);
+            writeState(data.initialState(), converter);
+
+            Collection<?> parentStates = data.activeParentStates();
+            writeVarint(countHistory(data, parentStates));
+            for(Object parentState : parentStates) {
+                Object childState = lastActiveChildStateOf(data, parentState);
+                if(childState!=null) {
+                    writeState(parentState, converter);
+                    writeState(childState, converter);
+                }
+            }
+
+            Collection<?> parallelStates = data.parallelStates();
+            writeVarint(parallelStates.size());
+            for(Object parallelState : parallelStates) {
+                List<?> subStates = subStatesOn(data, parallelState);
+                writeState(parallelState, converter);
+                writeVarint(subStates.size());
+                for(int i=0, size=subStates.size(); i<size; ++i) {
+                    writeState(subStates.get(i), converter);
+                }
+            }
+
+            Collection<?> linkedStates = data.linkedStates();
+            writeVarint(linkedStates.size());
+            for(Object linkedState : linkedStates) {
+                writeState(linkedState, converter);
+                writeRecord(linkedStateDataOf(data, linkedState));
+            }
+        }
+
+        private int countHistory(StateMachineData.Reader<?, ?, ?, ?> data, Collection<?> parentStates) {
+            int count = 0;
+            for(Object parentState : parentStates) {
+                if(lastActiveChildStateOf(data, parentState)!=null) count++;
+            }
+            return count;
+        }
+
+        void writeType(Class<?> type) {
+            if(type==null) {
+                writeVarint(0);
+                return;
+            }
+            Integer index = typeIndexes.get(type);
+            if(index!=null) {
+                writeVarint(index+2);
+            } else {
+                writeVarint(1);
+                writeString(type.getName());
+                typeIndexes.put(type, types.size());
+                types.add(type);
+            }
+        }
+
+        void writeState(Object state, Converter<Object> converter) {
+            if(state==null) {
+                writeVarint(0);
+            } else if(converter==null) {
+                writeVarint(((Enum<?>)state).ordinal()+1);
+            } else {
+                writeString(converter.convertToString(state));
+            }
+        }
+
+        void writeString(String value) {
+            if(value==null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(Charsets.UTF_8);
+            writeVarint(bytes.length+1);
+            buffer.put(bytes);
+        }
+
+        void writeVarint(int value) {
+            while((value & ~0x7F)!=0) {
+                buffer.put((byte)((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte)value);
+        }
+    }
+
+    private final class Decoder {
+
+        private final ByteBuffer buffer;
+
+        private final List<Class<?>> types = Lists.newArrayList();
+
+        Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void readHeader() {
+            try {
+                int magic = buffer.getInt();
+                if(magic!=MAGIC) {
+                    throw new SquirrelRuntimeException(ErrorCodes.STATE_MACHINE_DATA_DESERIALIZE_ERROR,
+                            "unknown format "+Integer.toHexString(magic));
+                }
+                byte version = buffer.get();
+                if(version!=VERSION) {
+                    throw new SquirrelRuntimeException(ErrorCodes.STATE_MACHINE_DATA_DESERIALIZE_ERROR,
+                            "unsupported version "+version);
+                }
+            } catch(BufferUnderflowException e) {
+                throw new SquirrelRuntimeException(e, ErrorCodes.STATE_MACHINE_DATA_DESERIALIZE_ERROR,
+                        "incomplete header");
+            }
+        }
+
+        StateMachineData.Reader<T, S, E, C> readRecord() {
+            try {
+                return doReadRecord();
+            } catch(BufferUnderflowException e) {
+                throw new SquirrelRuntimeException(e, ErrorCodes.STATE_MACHINE_DATA_DESERIALIZE_ERROR,
+                        "incomplete record");
+            } catch(IndexOutOfBoundsException e) {
+                throw new SquirrelRuntimeException(e, ErrorCodes.STATE_MACHINE_DATA_DESERIALIZE_ERROR,
+                        "corrupted record");
+            }
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private StateMachineData.Reader<T, S, E, C> doReadRecord() {
+            StateMachineData<T, S, E, C> data = SquirrelProvider.getInstance().newInstance(
+                    new TypeReference<StateMachineData<T, S, E, C>>(){});
+            StateMachineData.Writer<T, S, E, C> writer = data.write();
+            Class stateMachineType = readType(), stateType = readType(), eventType = readType(), contextType = readType();
+            writer.typeOfStateMachine(stateMachineType);
+            writer.typeOfState(stateType);
+            writer.typeOfEvent(eventType);
+            writer.typeOfContext(contextType);
+            int status = readVarint();
+            writer.stateMachineStatus(status>0 ? STATUS_VALUES[status-1] : null);
+
+            Object[] constants = null;
+            Converter<Object> converter = null;
+            if(stateType!=null && stateType.isEnum()) {
+                constants = stateType.getEnumConstants();
+            } else if(stateType!=null) {
+                converter = converterOf(stateType, ErrorCodes.STATE_MACHINE_DATA_DESERIALIZE_ERROR);
+            }
+            writer.currentState((S)readState(constants, converter));
+            writer.lastState((S)readState(constants, converter));
+            writer.initalState((S)readState(constants, converter));
+
+            for(int i=0, n=readVarint(); i<n; ++i) {
+                S parentState = (S)readState(constants, converter);
+                writer.lastActiveChildStateFor(parentState, (S)readState(constants, converter));
+            }
+
+            for(int i=0, n=readVarint(); i<n; ++i) {
+                S parallelState = (S)readState(constants, converter);
+                for(int j=0, k=readVarint(); j<k; ++j) {
+                    S subState = (S)readState(constants, converter);
+                    if(data instanceof StateMachineDataImpl) {
+                        ((StateMachineDataImpl<T, S, E, C>)data).restoreSubStateFor(parallelState, subState);
+                    } else {
+                        writer.subStateFor(parallelState, subState);
+                    }
+                }
+            }
+
+            for(int i=0, n=readVarint(); i<n; ++i) {
+                S linkedState = (S)readState(constants, converter);
+                writer.linkedStateDataOn(linkedState, (StateMachineData.Reader)doReadRecord());
+            }
+            return data.read();
+        }
+
+        Class<?> readType() {
+            int value = readVarint();
+            if(value==0) {
+                return null;
+            }
+            if(value==1) {
+                Class<?> type = typeOf(readString());
+                types.add(type);
+                return type;
+            }
+            return types.get(value-2);
+        }
+
+        Object readState(Object[] constants, Converter<Object> converter) {
+            if(constants!=null) {
+                int value = readVarint();
+                return value>0 ? constants[value-1] : null;
+            }
+            if(converter!=null) {
+                String value = readString();
+                return value!=null ? converter.convertFromString(value) : null;
+            }
+            // no state type declared means no state is written
+            readVarint();
+            return null;
+        }
+
+        String readString() {
+            int length = readVarint()-1;
+            if(length<0) {
+                return null;
+            }
+            if(buffer.hasArray()) {
+                String value = new String(buffer.array(), buffer.arrayOffset()+buffer.position(), length, Charsets.UTF_8);
+                buffer.position(buffer.position()+length);
+                return value;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, Charsets.UTF_8);
+        }
+
+        int readVarint() {
+            int value = 0;
+            for(int shift=0; shift<32; shift+=7) {
+                byte b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                if((b & 0x80)==0) {
+                    return value;
+                }
+            }
+            throw new SquirrelRuntimeException(ErrorCodes.STATE_MACHINE_DATA_DESERIALIZE_ERROR, "malformed varint");
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object lastActiveChildStateOf(StateMachineData.Reader data, Object parentState) {
+        return data.lastActiveChildStateOf(parentState);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static List<?> subStatesOn(StateMachineData.Reader data, Object parallelState) {
+        return data.subStatesOn(parallelState);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static StateMachineData.Reader<?, ?, ?, ?> linkedStateDataOf(StateMachineData.Reader data, Object linkedState) {
+        return data.linkedStateDataOf(linkedState);
+    }
+}
@@ -0,0 +1,346 @@
+package org.squirrelframework.foundation.fsm.impl;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.squirrelframework.foundation.component.impl.AbstractSubject;
+import org.squirrelframework.foundation.fsm.Action;
+import org.squirrelframework.foundation.fsm.ActionExecutor;
+import org.squirrelframework.foundation.fsm.Condition;
+import org.squirrelframework.foundation.fsm.Conditions;
+import org.squirrelframework.foundation.fsm.HistoryType;
+import org.squirrelframework.foundation.fsm.ImmutableLinkedState;
+import org.squirrelframework.foundation.fsm.ImmutableState;
+import org.squirrelframework.foundation.fsm.ImmutableTransition;
+import org.squirrelframework.foundation.fsm.StateContext;
+import org.squirrelframework.foundation.fsm.StateMachine;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * State machine definition compiled into a generated {@link CompiledDispatcher} class. Each definition
+ * gets its own class, so that condition call sites in generated code only see conditions of this definition
+ * and exit, transition and entry actions are deferred as straight-line code instead of walking state hierarchy.
+ * <p>
+ * Only flat and hierarchical definitions with enum typed events are compiled. Definitions which contain
+ * parallel states, linked states, nested final states, history states or timed transitions are left to 
+ * interpreter.
+ */
+final class CompiledDefinition<T extends StateMachine<T, S, E, C>, S, E, C> {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompiledDefinition.class);
+
+    private static final String PACKAGE_NAME = CompiledDefinition.class.getPackage().getName();
+
+    private static final AtomicInteger classCounter = new AtomicInteger(0);
+
+    private final CompiledDispatcher dispatcher;
+
+    private final StateIndex<S> stateIndex;
+
+    private CompiledDefinition(CompiledDispatcher dispatcher, StateIndex<S> stateIndex) {
+        this.dispatcher = dispatcher;
+        this.stateIndex = stateIndex;
+    }
+
+    /**
+     * Fire event of state context on generated dispatcher and update transition result.
+     */
+    @SuppressWarnings("unchecked")
+    void internalFire(StateContext<T, S, E, C> stateContext) {
+        E event = stateContext.getEvent();
+        if(event==null) return;
+        int target = dispatcher.fire(stateIndex.indexOf(stateContext.getSourceState().getStateId()),
+                ((Enum<?>)event).ordinal(), event, stateContext.getContext(), stateContext.getExecutor(),
+                stateContext.getStateMachine().getThis());
+        if(target>=0) {
+            stateContext.getResult().setAccepted(true).setTargetState(
+                    (ImmutableState<T, S, E, C>)stateIndex.valueOf(target));
+        }
+    }
+
+    /**
+     * Compile state machine definition. The state machine instance is only used to record the order of
+     * deferred actions for each transition.
+     *
+     * @return compiled definition or null if definition is not supported by compiler
+     */
+    static <T extends StateMachine<T, S, E, C>, S, E, C> CompiledDefinition<T, S, E, C> compile(
+            Map<S, ? extends ImmutableState<T, S, E, C>> states, Class<E> eventClazz,
+            AbstractStateMachine<T, S, E, C> stateMachine) {
+        if(!isSupported(states, eventClazz)) {
+            logger.debug("State machine definition of \""+stateMachine.getClass()+"\" is not compiled.");
+            return null;
+        }
+        try {
+            StateIndex<S> stateIndex = StateIndex.of(states);
+            SourceBuilder<T, S, E, C> builder = new SourceBuilder<T, S, E, C>(stateIndex, eventClazz, stateMachine);
+            CompiledDispatcher dispatcher = builder.build();
+            return new CompiledDefinition<T, S, E, C>(dispatcher, stateIndex);
+        } catch(Exception e) {
+            logger.warn("Compile state machine definition of \""+stateMachine.getClass()+
+                    "\" failed, interpreter will be used instead.", e);
+            return null;
+        }
+    }
+
+    private static <T extends StateMachine<T, S, E, C>, S, E, C> boolean isSupported(
+            Map<S, ? extends ImmutableState<T, S, E, C>> states, Class<E> eventClazz) {
+        if(eventClazz==null || !eventClazz.isEnum())
+            return false;
+        for(ImmutableState<T, S, E, C> state : states.values()) {
+            if(state instanceof ImmutableLinkedState || state.isParallelState() || state.isRegion() ||
+                    state.getHistoryType()!=HistoryType.NONE || (state.isFinalState() && !state.isRootState()) ||
+                    !state.getTimedTransitions().isEmpty()) {
+                return false;
+            }
+            for(ImmutableTransition<T, S, E, C> transition : state.getAllTransitions()) {
+                if(!(transition instanceof TransitionImpl)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Generates dispatcher source per state and compiles it with javassist.
+     */
+    private static class SourceBuilder<T extends StateMachine<T, S, E, C>, S, E, C> {
+
+        private static final String CONDITION_TYPE = Condition.class.getName();
+
+        private static final String ACTION_TYPE = Action.class.getName();
+
+        private static final String PARAMETERS = "Object e, Object ctx, "+ActionExecutor.class.getName()+
+                " x, "+StateMachine.class.getName()+" m";
+
+        private final StateIndex<S> stateIndex;
+
+        private final E[] events;
+
+        private final AbstractStateMachine<T, S, E, C> stateMachine;
+
+        private final RecordingExecutor<T, S, E, C> recorder = new RecordingExecutor<T, S, E, C>();
+
+        // constants referenced by generated code, e.g. conditions, actions and state ids
+        private final List<Object> constants = new ArrayList<Object>();
+
+        private final Map<Object, Integer> constantIndexes = new IdentityHashMap<Object, Integer>();
+
+        SourceBuilder(StateIndex<S> stateIndex, Class<E> eventClazz, AbstractStateMachine<T, S, E, C> stateMachine) {
+            this.stateIndex = stateIndex;
+            this.events = eventClazz.getEnumConstants();
+            this.stateMachine = stateMachine;
+        }
+
+        CompiledDispatcher build() throws Exception {
+            ClassPool pool = new ClassPool(true);
+            pool.appendClassPath(new LoaderClassPath(CompiledDispatcher.class.getClassLoader()));
+            CtClass ctClass = pool.makeClass(PACKAGE_NAME+".CompiledDispatcher$$"+
+                    stateMachine.getClass().getSimpleName()+"$$"+classCounter.incrementAndGet());
+            ctClass.addInterface(pool.get(CompiledDispatcher.class.getName()));
+
+            // generate state methods first, so that all the referenced constants are collected
+            StringBuilder fire = new StringBuilder();
+            fire.append("public int fire(int s, int o, ").append(PARAMETERS).append(") {\n");
+            fire.append("switch(s) {\n");
+            List<String> stateMethods = new ArrayList<String>();
+            for(int i=0, size=stateIndex.size(); i<size; ++i) {
+                String body = buildStateMethodBody(i);
+                if(body==null) continue;
+                stateMethods.add("private int s"+i+"(int o, "+PARAMETERS+") {\n"+body+"}");
+                fire.append("case ").append(i).append(": return s").append(i).append("(o, e, ctx, x, m);\n");
+            }
+            fire.append("}\nreturn -1;\n}");
+
+            StringBuilder constructor = new StringBuilder("{\nsuper();\n");
+            for(int i=0; i<constants.size(); ++i) {
+                String type = constantType(constants.get(i));
+                ctClass.addField(CtField.make("private final "+type+" k"+i+";", ctClass));
+                constructor.append("k").append(i).append(" = (").append(type).append(")$1[").append(i).append("];\n");
+            }
+            constructor.append("}");
+            ctClass.addConstructor(CtNewConstructor.make(new CtClass[]{pool.get(Object[].class.getName())}, 
+                    new CtClass[0], constructor.toString(), ctClass));
+            for(String stateMethod : stateMethods) {
+                ctClass.addMethod(CtNewMethod.make(stateMethod, ctClass));
+            }
+            ctClass.addMethod(CtNewMethod.make(fire.toString(), ctClass));
+
+            byte[] bytecode = ctClass.toBytecode();
+            ctClass.detach();
+            Class<?> dispatcherClass = new DispatcherClassLoader(CompiledDispatcher.class.getClassLoader()).
+                    define(ctClass.getName(), bytecode);
+            return (CompiledDispatcher)dispatcherClass.getConstructor(Object[].class).newInstance(
+                    new Object[]{constants.toArray()});
+        }
+
+        private String buildStateMethodBody(int index) {
+            @SuppressWarnings("unchecked")
+            ImmutableState<T, S, E, C> sourceState = (ImmutableState<T, S, E, C>)stateIndex.valueOf(index);
+            StringBuilder body = new StringBuilder();
+            for(E event : events) {
+                StringBuilder eventCase = new StringBuilder();
+                boolean always = false;
+                // transitions of current state are tried first and then bubble up to parent states
+                candidates: for(ImmutableState<T, S, E, C> state=sourceState; state!=null; state=state.getParentState()) {
+                    List<ImmutableTransition<T, S, E, C>> transitions = state.getTransitions(event);
+                    for(int i=0, size=transitions.size(); i<size; ++i) {
+                        always = appendTransition(eventCase, sourceState, event, transitions.get(i));
+                        if(always) break candidates;
+                    }
+                }
+                if(eventCase.length()>0) {
+                    body.append("case ").append(((Enum<?>)event).ordinal()).append(": {\n").append(eventCase);
+                    if(!always) body.append("return -1;\n");
+                    body.append("}\n");
+                }
+            }
+            if(body.length()==0) return null;
+            return "switch(o) {\n"+body+"}\nreturn -1;\n";
+        }
+
+        private boolean appendTransition(StringBuilder code, ImmutableState<T, S, E, C> sourceState,
+                E event, ImmutableTransition<T, S, E, C> transition) {
+            recorder.clear();
+            StateContext<T, S, E, C> stateContext = FSM.newStateContext(stateMachine,
+                    stateMachine.getStateMachineData(), sourceState, event, null, null, recorder);
+            ImmutableState<T, S, E, C> newState = ((TransitionImpl<T, S, E, C>)transition).perform(stateContext);
+
+            Condition<C> condition = transition.getCondition();
+            boolean always = condition instanceof Conditions.Always;
+            if(!always) {
+                code.append("if(k").append(constantOf(condition)).append(".isSatisfied(ctx)) {\n");
+            }
+            for(int i=0, size=recorder.size(); i<size; ++i) {
+                code.append("x.defer(k").append(constantOf(recorder.actions.get(i))).append(", ").
+                    append(constantRef(recorder.froms.get(i))).append(", ").
+                    append(constantRef(recorder.tos.get(i))).append(", e, ctx, m);\n");
+            }
+            code.append("return ").append(stateIndex.indexOf(newState.getStateId())).append(";\n");
+            if(!always) {
+                code.append("}\n");
+            }
+            return always;
+        }
+
+        private String constantRef(Object value) {
+            return value==null ? "null" : "k"+constantOf(value);
+        }
+
+        private int constantOf(Object value) {
+            Integer index = constantIndexes.get(value);
+            if(index==null) {
+                index = constants.size();
+                constants.add(value);
+                constantIndexes.put(value, index);
+            }
+            return index;
+        }
+
+        private static String constantType(Object value) {
+            if(value instanceof Condition) return CONDITION_TYPE;
+            if(value instanceof Action) return ACTION_TYPE;
+            return "Object";
+        }
+    }
+
+    /**
+     * Records deferred actions instead of executing them.
+     */
+    private static class RecordingExecutor<T extends StateMachine<T, S, E, C>, S, E, C>
+        extends AbstractSubject implements ActionExecutor<T, S, E, C> {
+
+        private final List<Action<T, S, E, C>> actions = new ArrayList<Action<T, S, E, C>>();
+
+        private final List<S> froms = new ArrayList<S>();
+
+        private final List<S> tos = new ArrayList<S>();
+
+        @Override
+        public void begin() {
+        }
+
+        @Override
+        public void execute() {
+        }
+
+        @Override
+        public ListenableFuture<?> executeAsync(long timeout, TimeUnit unit, Executor callbackExecutor) {
+            // nothing is executed while recording, asynchronous actions are deferred to real executor
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public void fork() {
+        }
+
+        @Override
+        public void branch() {
+        }
+
+        @Override
+        public void join() {
+        }
+
+        @Override
+        public void setExecutorService(ExecutorService executorService) {
+        }
+
+        @Override
+        public void setDummyExecution(boolean dummyExecution) {
+        }
+
+        @Override
+        public void defer(Action<T, S, E, C> action, S from, S to, E event, C context, T stateMachine) {
+            actions.add(action);
+            froms.add(from);
+            tos.add(to);
+        }
+
+        @Override
+        public void addExecActionListener(ExecActionLisenter<T, S, E, C> listener) {
+            // recorded actions are never executed, so there is no action event to listen
+        }
+
+        @Override
+        public void removeExecActionListener(ExecActionLisenter<T, S, E, C> listener) {
+        }
+
+        int size() {
+            return actions.size();
+        }
+
+        void clear() {
+            actions.clear();
+            froms.clear();
+            tos.clear();
+        }
+    }
+
+    private static class DispatcherClassLoader extends ClassLoader {
+
+        DispatcherClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.squirrelframework.foundation.fsm.impl;
+
+import org.squirrelframework.foundation.fsm.ActionExecutor;
+import org.squirrelframework.foundation.fsm.StateMachine;
+
+/**
+ * Dispatch entry of generated state machine definition class. The generated class switches on 
+ * state index and event ordinal, evaluates transition conditions and defers exit, transition and 
+ * entry actions in the order computed when the definition was compiled.
+ * <p>
+ * This interface is only implemented by classes generated by compiler and should not be used directly.
+ */
+public interface CompiledDispatcher {
+    
+    /**
+     * @param stateIndex dense index of current state
+     * @param eventOrdinal ordinal of fired event
+     * @param event fired event
+     * @param context external context
+     * @param executor action executor which collects deferred actions
+     * @param stateMachine state machine instance
+     * @return dense index of new state or -1 if the event was declined
+     */
+    @SuppressWarnings("rawtypes")
+    int fire(int stateIndex, int eventOrdinal, Object event, Object context, 
+            ActionExecutor executor, StateMachine stateMachine);
+}
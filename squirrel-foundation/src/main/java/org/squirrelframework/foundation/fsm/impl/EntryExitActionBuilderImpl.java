@@ -37,4 +37,9 @@ class EntryExitActionBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C> im
             state.addExitActions(actions);
         }
     }
+
+    @Override
+    public void evalMvel(String expression) {
+        perform(FSM.<T, S, E, C>newMvelAction(expression));
+    }
 }
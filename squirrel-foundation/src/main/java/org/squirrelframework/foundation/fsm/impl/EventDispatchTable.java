@@ -0,0 +1,88 @@
+package org.squirrelframework.foundation.fsm.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.squirrelframework.foundation.fsm.ImmutableTransition;
+import org.squirrelframework.foundation.fsm.StateMachine;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
+
+/**
+ * Immutable event to transitions lookup table of a state, which is frozen when state machine builder
+ * is prepared. For enum typed events transitions are indexed by event ordinal, otherwise a hash map is
+ * used as fallback. Lookup result is shared and never copied, so runtime event dispatch does not allocate.
+ *
+ * @param <T> type of State Machine
+ * @param <S> type of State
+ * @param <E> type of Event
+ * @param <C> type of Context
+ */
+final class EventDispatchTable<T extends StateMachine<T, S, E, C>, S, E, C> {
+
+    private final Class<?> enumType;
+
+    private final List<ImmutableTransition<T, S, E, C>>[] transitionsByOrdinal;
+
+    private final Map<E, List<ImmutableTransition<T, S, E, C>>> transitionsByEvent;
+
+    private EventDispatchTable(Class<?> enumType, List<ImmutableTransition<T, S, E, C>>[] transitionsByOrdinal,
+            Map<E, List<ImmutableTransition<T, S, E, C>>> transitionsByEvent) {
+        this.enumType = enumType;
+        this.transitionsByOrdinal = transitionsByOrdinal;
+        this.transitionsByEvent = transitionsByEvent;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T extends StateMachine<T, S, E, C>, S, E, C> EventDispatchTable<T, S, E, C> build(
+            ListMultimap<E, ImmutableTransition<T, S, E, C>> transitions) {
+        Class<?> enumType = getEnumType(transitions.keySet());
+        if(enumType!=null) {
+            List<ImmutableTransition<T, S, E, C>>[] transitionsByOrdinal =
+                    new List[enumType.getEnumConstants().length];
+            for(E event : transitions.keySet()) {
+                transitionsByOrdinal[((Enum<?>)event).ordinal()] = ImmutableList.copyOf(transitions.get(event));
+            }
+            return new EventDispatchTable<T, S, E, C>(enumType, transitionsByOrdinal, null);
+        }
+
+        ImmutableMap.Builder<E, List<ImmutableTransition<T, S, E, C>>> builder = ImmutableMap.builder();
+        for(E event : transitions.keySet()) {
+            builder.put(event, ImmutableList.copyOf(transitions.get(event)));
+        }
+        return new EventDispatchTable<T, S, E, C>(null, null, builder.build());
+    }
+
+    // all the events must be declared by the same enum type to use ordinal index
+    static Class<?> getEnumType(Collection<?> events) {
+        Class<?> enumType = null;
+        for(Object event : events) {
+            if(!(event instanceof Enum)) {
+                return null;
+            }
+            Class<?> eventEnumType = ((Enum<?>)event).getDeclaringClass();
+            if(enumType==null) {
+                enumType = eventEnumType;
+            } else if(enumType!=eventEnumType) {
+                return null;
+            }
+        }
+        return enumType;
+    }
+
+    List<ImmutableTransition<T, S, E, C>> get(E event) {
+        List<ImmutableTransition<T, S, E, C>> result = null;
+        if(transitionsByOrdinal!=null) {
+            if(event instanceof Enum && ((Enum<?>)event).getDeclaringClass()==enumType) {
+                result = transitionsByOrdinal[((Enum<?>)event).ordinal()];
+            }
+        } else if(event!=null) {
+            result = transitionsByEvent.get(event);
+        }
+        return result!=null ? result : Collections.<ImmutableTransition<T, S, E, C>>emptyList();
+    }
+}
@@ -2,6 +2,9 @@ package org.squirrelframework.foundation.fsm.impl;
 
 import java.lang.reflect.Method;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.squirrelframework.foundation.component.SquirrelProvider;
 import org.squirrelframework.foundation.fsm.ActionExecutor;
@@ -21,10 +24,32 @@ import org.squirrelframework.foundation.fsm.builder.InternalTransitionBuilder;
 import org.squirrelframework.foundation.fsm.builder.LocalTransitionBuilder;
 import org.squirrelframework.foundation.util.TypeReference;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 final class FSM {
 
     private FSM() {
     }
+    
+    // shared by all the state machines which are not provided with specific async executor
+    private static class DefaultAsyncExecutorHolder {
+        static final Executor INSTANCE = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("squirrel-fsm-async-%d").setDaemon(true).build());
+    }
+    
+    static Executor defaultAsyncExecutor() {
+        return DefaultAsyncExecutorHolder.INSTANCE;
+    }
+    
+    // shared by all the state machines to time out asynchronous actions
+    private static class TimeoutSchedulerHolder {
+        static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("squirrel-fsm-timeout-%d").setDaemon(true).build());
+    }
+    
+    static ScheduledExecutorService timeoutScheduler() {
+        return TimeoutSchedulerHolder.INSTANCE;
+    }
 
     static <T extends StateMachine<T, S, E, C>, S, E, C> StateContext<T, S, E, C> newStateContext(
             StateMachine<T, S, E, C> stateMachine, StateMachineData<T, S, E, C> data,
@@ -33,6 +58,19 @@ final class FSM {
         return new StateContextImpl<T, S, E, C>(stateMachine, data, sourceState, event, context, result, executor);
     }
 
+    /**
+     * Reuse state context for next event if possible, otherwise create a new one.
+     */
+    static <T extends StateMachine<T, S, E, C>, S, E, C> StateContext<T, S, E, C> reuseStateContext(
+            StateContext<T, S, E, C> stateContext, StateMachine<T, S, E, C> stateMachine, 
+            StateMachineData<T, S, E, C> data, ImmutableState<T, S, E, C> sourceState, E event, C context, 
+            TransitionResult<T, S, E, C> result, ActionExecutor<T, S, E, C> executor) {
+        if(stateContext instanceof StateContextImpl) {
+            return ((StateContextImpl<T, S, E, C>)stateContext).reset(sourceState, event, context, result);
+        }
+        return newStateContext(stateMachine, data, sourceState, event, context, result, executor);
+    }
+
     static <T extends StateMachine<T, S, E, C>, S, E, C> MutableTransition<T, S, E, C> newTransition() {
         return SquirrelProvider.getInstance().newInstance(new TypeReference<TransitionImpl<T, S, E, C>>() {});
     }
@@ -96,6 +134,16 @@ final class FSM {
                 new Class[] { Method.class }, new Object[] { method });
     }
     
+    static <C> MvelConditionImpl<C> newMvelCondition(String expression) {
+        return SquirrelProvider.getInstance().newInstance(new TypeReference<MvelConditionImpl<C>>() {}, 
+                new Class[] { String.class }, new Object[] { expression });
+    }
+    
+    static <T extends StateMachine<T, S, E, C>, S, E, C> MvelActionImpl<T, S, E, C> newMvelAction(String expression) {
+        return SquirrelProvider.getInstance().newInstance(new TypeReference<MvelActionImpl<T, S, E, C>>() {}, 
+                new Class[] { String.class }, new Object[] { expression });
+    }
+    
     static <T extends StateMachine<T, S, E, C>, S, E, C> Actions<T, S, E, C> newActions() {
         return SquirrelProvider.getInstance().newInstance(new TypeReference<Actions<T, S, E, C>>() {});
     }
@@ -106,6 +154,18 @@ final class FSM {
 				setAccepted(accepted).setTargetState(targetState).setParent(parent);
 	}
     
+    /**
+     * Reuse transition result for next event if possible, otherwise create a new one.
+     */
+    static <T extends StateMachine<T, S, E, C>, S, E, C> TransitionResult<T, S, E, C> reuseResult(
+            TransitionResult<T, S, E, C> result, ImmutableState<T, S, E, C> targetState) {
+        if(result instanceof TransitionResultImpl) {
+            ((TransitionResultImpl<T, S, E, C>)result).reset();
+            return result.setTargetState(targetState);
+        }
+        return newResult(false, targetState, null);
+    }
+    
     @Deprecated
     static <T extends StateMachine<T, S, E, C>, S, E, C> StateMachineBuilder<T, S, E, C> newStateMachineBuilder(
                 Class<? extends T> stateMachineClazz, Class<S> stateClazz, 
@@ -0,0 +1,141 @@
+package org.squirrelframework.foundation.fsm.impl;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.squirrelframework.foundation.fsm.StateMachine;
+import org.squirrelframework.foundation.fsm.StateMachineData;
+import org.squirrelframework.foundation.fsm.StateMachineStatus;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Compact immutable record of state machine data used by flyweight state machine engine. States are 
+ * stored as index of {@link StateIndex}, and history/parallel slots are only allocated when used, so 
+ * an idle record of flat state machine only takes 32 bytes (with compressed oops). Definition of state 
+ * machine is shared and the record is loaded into a driver state machine to process event.
+ */
+final class FlyweightRecord {
+    
+    private static final StateMachineStatus[] STATUS_VALUES = StateMachineStatus.values();
+    
+    private final short currentState;
+    
+    private final short lastState;
+    
+    private final byte status;
+    
+    // pairs of parent state index and last active child state index, null if empty
+    private final short[] lastActiveChildStates;
+    
+    // pairs of parallel state index and sub state index, null if empty
+    private final short[] subStates;
+    
+    private FlyweightRecord(short currentState, short lastState, byte status, 
+            short[] lastActiveChildStates, short[] subStates) {
+        this.currentState = currentState;
+        this.lastState = lastState;
+        this.status = status;
+        this.lastActiveChildStates = lastActiveChildStates;
+        this.subStates = subStates;
+    }
+    
+    static <S> FlyweightRecord initial(S initialState, StateIndex<S> index) {
+        return new FlyweightRecord((short)index.indexOf(initialState), (short)-1, 
+                (byte)StateMachineStatus.INITIALIZED.ordinal(), null, null);
+    }
+    
+    /**
+     * Create record from state machine data. Previous record is returned if nothing changed, and unchanged 
+     * slots are shared with previous record.
+     */
+    static <T extends StateMachine<T, S, E, C>, S, E, C> FlyweightRecord of(
+            StateMachineData.Reader<T, S, E, C> data, StateIndex<S> index, FlyweightRecord previous) {
+        short currentState = (short)index.indexOf(data.currentState());
+        short lastState = (short)index.indexOf(data.lastState());
+        byte status = (byte)data.stateMachineStatus().ordinal();
+        
+        short[] lastActiveChildStates = null;
+        int size = 0;
+        for(S parentState : data.activeParentStates()) {
+            S childState = data.lastActiveChildStateOf(parentState);
+            if(childState==null) continue;
+            lastActiveChildStates = ensureCapacity(lastActiveChildStates, size+2);
+            lastActiveChildStates[size++] = (short)index.indexOf(parentState);
+            lastActiveChildStates[size++] = (short)index.indexOf(childState);
+        }
+        lastActiveChildStates = trim(lastActiveChildStates, size);
+        
+        short[] subStates = null;
+        size = 0;
+        for(S parallelState : data.parallelStates()) {
+            for(S subState : data.subStatesOn(parallelState)) {
+                subStates = ensureCapacity(subStates, size+2);
+                subStates[size++] = (short)index.indexOf(parallelState);
+                subStates[size++] = (short)index.indexOf(subState);
+            }
+        }
+        subStates = trim(subStates, size);
+        
+        if(previous!=null) {
+            if(Arrays.equals(lastActiveChildStates, previous.lastActiveChildStates)) 
+                lastActiveChildStates = previous.lastActiveChildStates;
+            if(Arrays.equals(subStates, previous.subStates)) 
+                subStates = previous.subStates;
+            if(currentState==previous.currentState && lastState==previous.lastState && status==previous.status &&
+                    lastActiveChildStates==previous.lastActiveChildStates && subStates==previous.subStates) {
+                return previous;
+            }
+        }
+        return new FlyweightRecord(currentState, lastState, status, lastActiveChildStates, subStates);
+    }
+    
+    private static short[] ensureCapacity(short[] values, int capacity) {
+        if(values==null) {
+            return new short[Math.max(capacity, 4)];
+        }
+        return values.length>=capacity ? values : Arrays.copyOf(values, values.length*2);
+    }
+    
+    private static short[] trim(short[] values, int size) {
+        if(size==0) {
+            return null;
+        }
+        return values.length==size ? values : Arrays.copyOf(values, size);
+    }
+    
+    /**
+     * Load record into state machine data, all the history and parallel slots of data are replaced.
+     */
+    <T extends StateMachine<T, S, E, C>, S, E, C> void loadInto(StateMachineData<T, S, E, C> data, StateIndex<S> index) {
+        StateMachineData.Writer<T, S, E, C> writer = data.write();
+        writer.currentState(index.stateOf(currentState));
+        writer.lastState(index.stateOf(lastState));
+        writer.stateMachineStatus(STATUS_VALUES[status]);
+        
+        List<S> parentStates = Lists.newArrayList(data.read().activeParentStates());
+        for(int i=0, size=parentStates.size(); i<size; ++i) {
+            writer.lastActiveChildStateFor(parentStates.get(i), null);
+        }
+        if(lastActiveChildStates!=null) {
+            for(int i=0; i<lastActiveChildStates.length; i+=2) {
+                writer.lastActiveChildStateFor(index.stateOf(lastActiveChildStates[i]), 
+                        index.stateOf(lastActiveChildStates[i+1]));
+            }
+        }
+        
+        List<S> parallelStates = Lists.newArrayList(data.read().parallelStates());
+        for(int i=0, size=parallelStates.size(); i<size; ++i) {
+            writer.removeSubStatesOn(parallelStates.get(i));
+        }
+        if(subStates!=null) {
+            for(int i=0; i<subStates.length; i+=2) {
+                writer.subStateFor(index.stateOf(subStates[i]), index.stateOf(subStates[i+1]));
+            }
+        }
+    }
+    
+    StateMachineStatus status() {
+        return STATUS_VALUES[status];
+    }
+}
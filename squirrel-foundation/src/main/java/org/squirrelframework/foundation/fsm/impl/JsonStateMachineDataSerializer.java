@@ -0,0 +1,228 @@
+package org.squirrelframework.foundation.fsm.impl;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.squirrelframework.foundation.component.SquirrelProvider;
+import org.squirrelframework.foundation.exception.ErrorCodes;
+import org.squirrelframework.foundation.exception.SquirrelRuntimeException;
+import org.squirrelframework.foundation.fsm.Converter;
+import org.squirrelframework.foundation.fsm.StateMachine;
+import org.squirrelframework.foundation.fsm.StateMachineData;
+import org.squirrelframework.foundation.fsm.StateMachineDataSerializer;
+import org.squirrelframework.foundation.fsm.StateMachineStatus;
+import org.squirrelframework.foundation.util.ReflectUtils;
+import org.squirrelframework.foundation.util.TypeReference;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.PeekingIterator;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Human readable JSON serializer of state machine data which is mainly used for debugging. All the states
+ * are written as strings converted by registered {@link Converter}. When written into {@link ByteBuffer},
+ * each state machine data is written as one line of UTF-8 encoded JSON.
+ *
+ * @param <T> type of State Machine
+ * @param <S> type of State
+ * @param <E> type of Event
+ * @param <C> type of Context
+ */
+public class JsonStateMachineDataSerializer<T extends StateMachine<T, S, E, C>, S, E, C>
+    implements StateMachineDataSerializer<T, S, E, C> {
+
+    private static final byte LINE_SEPARATOR = '\n';
+
+    private final Gson gson = new Gson();
+
+    @Override
+    public String serialize(StateMachineData.Reader<T, S, E, C> data) {
+        return gson.toJson(toJson(data));
+    }
+
+    @Override
+    public StateMachineData.Reader<T, S, E, C> deserialize(String value) {
+        try {
+            return fromJson(new JsonParser().parse(value).getAsJsonObject());
+        } catch(JsonParseException e) {
+            throw new SquirrelRuntimeException(e, ErrorCodes.STATE_MACHINE_DATA_DESERIALIZE_ERROR, e.getMessage());
+        } catch(IllegalStateException e) {
+            throw new SquirrelRuntimeException(e, ErrorCodes.STATE_MACHINE_DATA_DESERIALIZE_ERROR, e.getMessage());
+        }
+    }
+
+    @Override
+    public void serialize(StateMachineData.Reader<T, S, E, C> data, ByteBuffer buffer) {
+        byte[] bytes = toLine(data);
+        if(buffer.remaining()<bytes.length) {
+            throw new BufferOverflowException();
+        }
+        buffer.put(bytes);
+    }
+
+    @Override
+    public StateMachineData.Reader<T, S, E, C> deserialize(ByteBuffer buffer) {
+        int start = buffer.position(), end = start;
+        while(end<buffer.limit() && buffer.get(end)!=LINE_SEPARATOR) {
+            end++;
+        }
+        byte[] bytes = new byte[end-start];
+        buffer.get(bytes);
+        if(buffer.hasRemaining()) {
+            // skip line separator
+            buffer.get();
+        }
+        return deserialize(new String(bytes, Charsets.UTF_8));
+    }
+
+    @Override
+    public int serializeAll(PeekingIterator<? extends StateMachineData.Reader<T, S, E, C>> data, ByteBuffer buffer) {
+        int count = 0;
+        while(data.hasNext()) {
+            byte[] bytes = toLine(data.peek());
+            if(buffer.remaining()<bytes.length) {
+                if(count==0) {
+                    throw new BufferOverflowException();
+                }
+                break;
+            }
+            buffer.put(bytes);
+            data.next();
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public Iterator<StateMachineData.Reader<T, S, E, C>> deserializeAll(final ByteBuffer buffer) {
+        return new AbstractIterator<StateMachineData.Reader<T, S, E, C>>() {
+            @Override
+            protected StateMachineData.Reader<T, S, E, C> computeNext() {
+                return buffer.hasRemaining() ? deserialize(buffer) : endOfData();
+            }
+        };
+    }
+
+    private byte[] toLine(StateMachineData.Reader<T, S, E, C> data) {
+        return (serialize(data)+(char)LINE_SEPARATOR).getBytes(Charsets.UTF_8);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private JsonObject toJson(StateMachineData.Reader data) {
+        Class<?> stateType = BinaryStateMachineDataSerializer.stateTypeOf(data);
+        Converter<Object> converter = stateType!=null ? BinaryStateMachineDataSerializer.converterOf(
+                stateType, ErrorCodes.STATE_MACHINE_DATA_SERIALIZE_ERROR) : null;
+        JsonObject json = new JsonObject();
+        addType(json, "stateMachineType", data.typeOfStateMachine());
+        addType(json, "stateType", stateType);
+        addType(json, "eventType", data.typeOfEvent());
+        addType(json, "contextType", data.typeOfContext());
+        if(data.stateMachineStatus()!=null) {
+            json.addProperty("status", data.stateMachineStatus().name());
+        }
+        addState(json, "currentState", data.currentState(), converter);
+        addState(json, "lastState", data.lastState(), converter);
+        addState(json, "initialState", data.initialState(), converter);
+
+        JsonObject history = new JsonObject();
+        for(Object parentState : data.activeParentStates()) {
+            Object childState = data.lastActiveChildStateOf(parentState);
+            if(childState!=null) {
+                history.addProperty(converter.convertToString(parentState), converter.convertToString(childState));
+            }
+        }
+        json.add("lastActiveChildStates", history);
+
+        JsonObject parallelStates = new JsonObject();
+        for(Object parallelState : data.parallelStates()) {
+            JsonArray subStates = new JsonArray();
+            for(Object subState : (List<Object>)data.subStatesOn(parallelState)) {
+                subStates.add(gson.toJsonTree(converter.convertToString(subState)));
+            }
+            parallelStates.add(converter.convertToString(parallelState), subStates);
+        }
+        json.add("subStates", parallelStates);
+
+        JsonObject linkedStates = new JsonObject();
+        for(Object linkedState : data.linkedStates()) {
+            linkedStates.add(converter.convertToString(linkedState), toJson(data.linkedStateDataOf(linkedState)));
+        }
+        json.add("linkedStates", linkedStates);
+        return json;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private StateMachineData.Reader<T, S, E, C> fromJson(JsonObject json) {
+        StateMachineData<T, S, E, C> data = SquirrelProvider.getInstance().newInstance(
+                new TypeReference<StateMachineData<T, S, E, C>>(){});
+        StateMachineData.Writer<T, S, E, C> writer = data.write();
+        Class stateType = typeOf(json, "stateType");
+        writer.typeOfStateMachine(typeOf(json, "stateMachineType"));
+        writer.typeOfState(stateType);
+        writer.typeOfEvent(typeOf(json, "eventType"));
+        writer.typeOfContext(typeOf(json, "contextType"));
+        if(json.has("status")) {
+            writer.stateMachineStatus(StateMachineStatus.valueOf(json.get("status").getAsString()));
+        }
+        Converter<Object> converter = stateType!=null ? BinaryStateMachineDataSerializer.converterOf(
+                stateType, ErrorCodes.STATE_MACHINE_DATA_DESERIALIZE_ERROR) : null;
+        writer.currentState((S)stateOf(json, "currentState", converter));
+        writer.lastState((S)stateOf(json, "lastState", converter));
+        writer.initalState((S)stateOf(json, "initialState", converter));
+
+        for(Map.Entry<String, JsonElement> entry : entriesOf(json, "lastActiveChildStates")) {
+            writer.lastActiveChildStateFor((S)converter.convertFromString(entry.getKey()),
+                    (S)converter.convertFromString(entry.getValue().getAsString()));
+        }
+        for(Map.Entry<String, JsonElement> entry : entriesOf(json, "subStates")) {
+            S parallelState = (S)converter.convertFromString(entry.getKey());
+            for(JsonElement element : entry.getValue().getAsJsonArray()) {
+                S subState = (S)converter.convertFromString(element.getAsString());
+                if(data instanceof StateMachineDataImpl) {
+                    ((StateMachineDataImpl<T, S, E, C>)data).restoreSubStateFor(parallelState, subState);
+                } else {
+                    writer.subStateFor(parallelState, subState);
+                }
+            }
+        }
+        for(Map.Entry<String, JsonElement> entry : entriesOf(json, "linkedStates")) {
+            writer.linkedStateDataOn((S)converter.convertFromString(entry.getKey()),
+                    (StateMachineData.Reader)fromJson(entry.getValue().getAsJsonObject()));
+        }
+        return data.read();
+    }
+
+    private static void addType(JsonObject json, String name, Class<?> type) {
+        if(type!=null) {
+            json.addProperty(name, type.getName());
+        }
+    }
+
+    private static void addState(JsonObject json, String name, Object state, Converter<Object> converter) {
+        if(state!=null) {
+            json.addProperty(name, converter.convertToString(state));
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Class typeOf(JsonObject json, String name) {
+        return json.has(name) ? ReflectUtils.getClass(json.get(name).getAsString()) : null;
+    }
+
+    private static Object stateOf(JsonObject json, String name, Converter<Object> converter) {
+        return json.has(name) && converter!=null ? converter.convertFromString(json.get(name).getAsString()) : null;
+    }
+
+    private static Iterable<Map.Entry<String, JsonElement>> entriesOf(JsonObject json, String name) {
+        return json.has(name) ? json.getAsJsonObject(name).entrySet() : new JsonObject().entrySet();
+    }
+}
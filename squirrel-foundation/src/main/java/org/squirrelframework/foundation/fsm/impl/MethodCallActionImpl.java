@@ -6,7 +6,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.squirrelframework.foundation.fsm.Action;
 import org.squirrelframework.foundation.fsm.StateMachine;
+import org.squirrelframework.foundation.fsm.annotation.Independent;
 import org.squirrelframework.foundation.fsm.annotation.LogExecTime;
+import org.squirrelframework.foundation.util.MethodInvoker;
 import org.squirrelframework.foundation.util.ReflectUtils;
 
 import com.google.common.base.Preconditions;
@@ -18,30 +20,52 @@ public class MethodCallActionImpl<T extends StateMachine<T, S, E, C>, S, E, C> i
 
     private final Method method;
     
+    // bound when action is created during state machine builder preparation
+    private final MethodInvoker invoker;
+    
     private boolean logExecTime;
     
+    private final boolean independent;
+    
     private final String methodDesc;
     
     MethodCallActionImpl(Method method) {
         Preconditions.checkNotNull(method, "Method of the action cannot be null.");
         this.method = method;
+        this.invoker = new MethodInvoker(method);
         logExecTime = ReflectUtils.isAnnotatedWith(method, LogExecTime.class);
         if(!logExecTime) {
             logExecTime = method.getDeclaringClass().getAnnotation(LogExecTime.class) != null;
         }
+        independent = ReflectUtils.isAnnotatedWith(method, Independent.class) || 
+                method.getDeclaringClass().getAnnotation(Independent.class) != null;
         methodDesc = ReflectUtils.logMethod(method);
     }
     
+    /**
+     * @return whether method is annotated with {@link Independent}
+     */
+    boolean isIndependent() {
+        return independent;
+    }
+    
     @Override
     public void execute(S from, S to, E event, C context, T stateMachine) {
-        Object[] params = stateMachine.isContextSensitive() ? 
-                new Object[]{from, to, event, context} : new Object[]{from, to, event};
         if(logExecTime && logger.isDebugEnabled()) {
             Stopwatch sw = new Stopwatch().start();
-            ReflectUtils.invoke(method, stateMachine, params);
+            invoke(from, to, event, context, stateMachine);
             logger.debug("Execute Method \""+methodDesc+"\" tooks "+sw.stop().elapsedMillis()+"ms.");
         } else {
-            ReflectUtils.invoke(method, stateMachine, params);
+            invoke(from, to, event, context, stateMachine);
+        }
+    }
+    
+    private void invoke(S from, S to, E event, C context, T stateMachine) {
+        // method arity is fixed by context sensitivity of state machine when method is resolved
+        if(invoker.getArity()==4) {
+            invoker.invoke(stateMachine, from, to, event, context);
+        } else {
+            invoker.invoke(stateMachine, from, to, event);
         }
     }
     
@@ -2,11 +2,32 @@ package org.squirrelframework.foundation.fsm.impl;
 
 import org.squirrelframework.foundation.fsm.Action;
 import org.squirrelframework.foundation.fsm.StateMachine;
+import org.squirrelframework.foundation.util.Expression;
 
+/**
+ * Action defined by expression which is compiled once when action is created. Context is the root object 
+ * of expression, and variables "context", "from", "to", "event" and "stateMachine" can be referred in 
+ * expression, e.g. "count = count + 1; stateMachine.log(event)".
+ */
 public class MvelActionImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements Action<T, S, E, C> {
+    
+    private final Expression expression;
+    
+    public MvelActionImpl(String mvelExpression) {
+        this.expression = Expression.compile(mvelExpression, "context", "from", "to", "event", "stateMachine");
+    }
 
     @Override
     public void execute(S from, S to, E event, C context, T stateMachine) {
-        // TODO-hhe: support action defined in mvel scripts
+        expression.evaluate(context, from, to, event, stateMachine);
+    }
+    
+    public String getExpression() {
+        return expression.getSource();
+    }
+    
+    @Override
+    public String toString() {
+        return "eval("+expression.getSource()+")";
     }
 }
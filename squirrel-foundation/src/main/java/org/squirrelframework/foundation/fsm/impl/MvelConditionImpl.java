@@ -1,19 +1,32 @@
 package org.squirrelframework.foundation.fsm.impl;
 
 import org.squirrelframework.foundation.fsm.Condition;
+import org.squirrelframework.foundation.util.Expression;
 
+/**
+ * Condition defined by expression which is compiled once when condition is created. Context is the root
+ * object of expression, e.g. "amount > 100 &amp;&amp; !vip" reads properties amount and vip of context, and
+ * context can also be referred as variable "context".
+ */
 public class MvelConditionImpl<C> implements Condition<C> {
     
-    private String mvelExpression;
+    private final Expression expression;
     
     public MvelConditionImpl(String mvelExpression) {
-        this.mvelExpression = mvelExpression;
+        this.expression = Expression.compile(mvelExpression, "context");
     }
 
     @Override
     public boolean isSatisfied(C context) {
-        System.out.println("MVEL Expression: " + mvelExpression);
-        return true;
+        return expression.evaluateBoolean(context);
+    }
+    
+    public String getExpression() {
+        return expression.getSource();
+    }
+    
+    @Override
+    public String toString() {
+        return "when("+expression.getSource()+")";
     }
-
 }
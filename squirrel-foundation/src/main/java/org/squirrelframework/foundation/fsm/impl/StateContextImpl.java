@@ -10,10 +10,10 @@ import org.squirrelframework.foundation.fsm.TransitionResult;
 class StateContextImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements StateContext<T, S, E, C> {
     private final StateMachine<T, S, E, C> stateMachine;
     private final StateMachineData<T, S, E, C> stateMachineData;
-    private final ImmutableState<T, S, E, C> sourceState;
-    private final C context;
-    private final E event;
-    private final TransitionResult<T, S, E, C> result;
+    private ImmutableState<T, S, E, C> sourceState;
+    private C context;
+    private E event;
+    private TransitionResult<T, S, E, C> result;
     private final ActionExecutor<T, S, E, C> executor;
     
     StateContextImpl(StateMachine<T, S, E, C> stateMachine, StateMachineData<T, S, E, C> stateMachineData,
@@ -28,6 +28,19 @@ class StateContextImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements S
         this.executor = executor;
     }
     
+    /**
+     * Reset event processing parameters, so that the same context can be reused by state machine 
+     * for next event.
+     */
+    StateContextImpl<T, S, E, C> reset(ImmutableState<T, S, E, C> sourceState, E event, C context, 
+            TransitionResult<T, S, E, C> result) {
+        this.sourceState = sourceState;
+        this.event = event;
+        this.context = context;
+        this.result = result;
+        return this;
+    }
+    
     @Override
     public StateMachine<T, S, E, C> getStateMachine() {
         return stateMachine;
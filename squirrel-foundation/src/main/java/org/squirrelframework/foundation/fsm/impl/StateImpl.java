@@ -2,6 +2,8 @@ package org.squirrelframework.foundation.fsm.impl;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,8 +22,10 @@ import org.squirrelframework.foundation.fsm.StateMachineData;
 import org.squirrelframework.foundation.fsm.TransitionResult;
 import org.squirrelframework.foundation.fsm.Visitor;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 /**
  * The state model of the state machine implementation.
@@ -45,6 +49,19 @@ class StateImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements MutableS
     
     private LinkedListMultimap<E, ImmutableTransition<T, S, E, C>> transitions;
     
+    /**
+     * Frozen event dispatch table which is built when state machine definition is prepared
+     */
+    private EventDispatchTable<T, S, E, C> dispatchTable;
+    
+    /**
+     * Transitions triggered by timeout, which are kept apart from event transitions and armed on entry
+     */
+    private List<ImmutableTransition<T, S, E, C>> timedTransitions = Collections.emptyList();
+    
+    // events accepted by this state and its ancestor states, which is collected when state is prepared
+    private Set<E> acceptableEvents;
+    
     /**
 	 * The super-state of this state. Null for states with <code>level</code> equal to 1.
 	 */
@@ -105,26 +122,45 @@ class StateImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements MutableS
     @Override
     public List<ImmutableTransition<T, S, E, C>> getTransitions(E event) {
     	if(transitions==null) return Collections.emptyList();
+    	if(dispatchTable!=null) return dispatchTable.get(event);
         return Lists.newArrayList(getTransitions().get(event));
     }
     
+    @Override
+    public List<ImmutableTransition<T, S, E, C>> getTimedTransitions() {
+        return timedTransitions;
+    }
+    
     @Override
     public void entry(final StateContext<T, S, E, C> stateContext) {
-        for(final Action<T, S, E, C> entryAction : getEntryActions()) {
-            stateContext.getExecutor().defer(entryAction, 
+        List<Action<T, S, E, C>> actions = getEntryActions();
+        for(int i=0, size=actions.size(); i<size; ++i) {
+            stateContext.getExecutor().defer(actions.get(i), 
                     null, getStateId(), stateContext.getEvent(), 
                     stateContext.getContext(), stateContext.getStateMachine().getThis());
         }
         
         if(isParallelState()) {
             // When a parallel state group is entered, all its child states will be simultaneously entered. 
-            for(ImmutableState<T, S, E, C> parallelState : getChildStates()) {
-                parallelState.entry(stateContext);
-                ImmutableState<T, S, E, C> subState = parallelState.enterByHistory(stateContext);
-                stateContext.getStateMachineData().write().subStateFor(getStateId(), subState.getStateId());
+            // Regions are independent, so entry actions of each region are deferred into its own branch.
+            stateContext.getExecutor().fork();
+            try {
+                for(ImmutableState<T, S, E, C> parallelState : getChildStates()) {
+                    stateContext.getExecutor().branch();
+                    parallelState.entry(stateContext);
+                    ImmutableState<T, S, E, C> subState = parallelState.enterByHistory(stateContext);
+                    stateContext.getStateMachineData().write().subStateFor(getStateId(), subState.getStateId());
+                }
+            } finally {
+                stateContext.getExecutor().join();
             }
         }
-        logger.debug("State \""+getStateId()+"\" entry.");
+        if(!timedTransitions.isEmpty()) {
+            ((AbstractStateMachine<T, S, E, C>)stateContext.getStateMachine()).armTimedTransitions(this);
+        }
+        if(logger.isDebugEnabled()) {
+            logger.debug("State \""+getStateId()+"\" entry.");
+        }
     }
     
     @Override
@@ -134,20 +170,30 @@ class StateImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements MutableS
     	}
     	if(isParallelState()) {
     		List<ImmutableState<T, S, E, C>> subStates = getSubStatesOn(this, stateContext.getStateMachineData().read());
-    		for(ImmutableState<T, S, E, C> subState : subStates) {
-    			if(!subState.isFinalState()) {
-    				subState.exit(stateContext);
+    		stateContext.getExecutor().fork();
+    		try {
+    			for(ImmutableState<T, S, E, C> subState : subStates) {
+    				stateContext.getExecutor().branch();
+    				if(!subState.isFinalState()) {
+    					subState.exit(stateContext);
+    				}
+    				subState.getParentState().exit(stateContext);
     			}
-    			subState.getParentState().exit(stateContext);
+    		} finally {
+    			stateContext.getExecutor().join();
     		}
     		stateContext.getStateMachineData().write().removeSubStatesOn(getStateId());
     	}
     	
-        for(final Action<T, S, E, C> exitAction : getExitActions()) {
-        	stateContext.getExecutor().defer(exitAction,
+        List<Action<T, S, E, C>> actions = getExitActions();
+        for(int i=0, size=actions.size(); i<size; ++i) {
+        	stateContext.getExecutor().defer(actions.get(i),
         			getStateId(), null, stateContext.getEvent(), 
                     stateContext.getContext(), stateContext.getStateMachine().getThis());
         }
+        if(!timedTransitions.isEmpty()) {
+            ((AbstractStateMachine<T, S, E, C>)stateContext.getStateMachine()).cancelTimedTransitions(this);
+        }
          
         if (getParentState() != null) {
         	// update historical state
@@ -159,7 +205,9 @@ class StateImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements MutableS
         		stateContext.getStateMachineData().write().removeSubState(grandParentId, getStateId());
         	}
 		}
-        logger.debug("State \""+getStateId()+"\" exit.");
+        if(logger.isDebugEnabled()) {
+            logger.debug("State \""+getStateId()+"\" exit.");
+        }
     }
     
     @Override
@@ -291,9 +339,54 @@ class StateImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements MutableS
         newTransition.setSourceState(this);
         newTransition.setEvent(event);
         getTransitions().put(event, newTransition);
+        // transitions changed after state prepared, fall back to multimap lookup
+        dispatchTable = null;
+        acceptableEvents = null;
         return newTransition;
     }
     
+    @Override
+    public MutableTransition<T, S, E, C> addTimedTransition(long delay, TimeUnit unit) {
+        MutableTransition<T, S, E, C> newTransition = FSM.newTransition();
+        newTransition.setSourceState(this);
+        newTransition.setDelay(delay, unit);
+        if(timedTransitions.isEmpty()) {
+            timedTransitions = Lists.newArrayListWithCapacity(1);
+        }
+        timedTransitions.add(newTransition);
+        return newTransition;
+    }
+    
+    @Override
+    public void prepare() {
+        if(transitions!=null) {
+            dispatchTable = EventDispatchTable.build(transitions);
+        }
+        acceptableEvents = collectAcceptableEvents();
+    }
+    
+    @Override
+    public Set<E> getAcceptableEvents() {
+        Set<E> events = acceptableEvents;
+        return events!=null ? events : collectAcceptableEvents();
+    }
+    
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Set<E> collectAcceptableEvents() {
+        Set<E> events = Sets.newLinkedHashSet();
+        // event is notified to parent state when declined, except the parent state is region
+        for(ImmutableState<T, S, E, C> state=this; state!=null; state=state.getParentState()) {
+            for(ImmutableTransition<T, S, E, C> transition : state.getAllTransitions()) {
+                events.add(transition.getEvent());
+            }
+            if(state.getParentState()!=null && state.getParentState().isRegion()) break;
+        }
+        if(!events.isEmpty() && EventDispatchTable.getEnumType(events)!=null) {
+            return (Set<E>)Sets.immutableEnumSet((Iterable)events);
+        }
+        return ImmutableSet.copyOf(events);
+    }
+    
     @Override
     public void addEntryAction(Action<T, S, E, C> newAction) {
         entryActions.add(newAction);
@@ -374,6 +467,11 @@ class StateImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements MutableS
             				}
             			}
             			if(allReachedFinal) {
+            			    if(currentTransitionResult.getParentResut()==null) {
+            			        // completion event is processed from the parallel state right after current event
+            			        raiseFinishEvent(stateContext);
+            			        return;
+            			    }
             				StateContext<T, S, E, C> finishContext = FSM.newStateContext(stateContext.getStateMachine(), 
             				        stateContext.getStateMachineData(), grandParentState, abstractStateMachine.getFinishEvent(), 
             				        stateContext.getContext(), currentTransitionResult, stateContext.getExecutor());
@@ -385,24 +483,28 @@ class StateImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements MutableS
     		}
     	}
     	
-    	List<ImmutableTransition<T, S, E, C>> transitions = getTransitions(stateContext.getEvent());
-        for(final ImmutableTransition<T, S, E, C> transition : transitions) {
-        	transition.internalFire(stateContext);
-        	if(currentTransitionResult.isAccepted()) {
-        		ImmutableState<T, S, E, C> targetState = currentTransitionResult.getTargetState();
-        		if(targetState.isFinalState() && !targetState.isRootState()) {
-        			// TODO-hhe: fire event to notify listeners???
-        			ImmutableState<T, S, E, C> parentState = targetState.getParentState();
-    				AbstractStateMachine<T, S, E, C> abstractStateMachine = (AbstractStateMachine<T, S, E, C>)
-                			stateContext.getStateMachine();
-    				StateContext<T, S, E, C> finishContext = FSM.newStateContext(
-    						stateContext.getStateMachine(), stateContext.getStateMachineData(),parentState, 
-            				abstractStateMachine.getFinishEvent(), stateContext.getContext(), 
-            				currentTransitionResult, stateContext.getExecutor());
-            		parentState.internalFire(finishContext);
+    	ImmutableTransition<T, S, E, C> transition = TransitionImpl.select(
+    	        getTransitions(stateContext.getEvent()), stateContext.getContext());
+        if(transition!=null) {
+        	ImmutableState<T, S, E, C> targetState = ((TransitionImpl<T, S, E, C>)transition).perform(stateContext);
+        	currentTransitionResult.setAccepted(true).setTargetState(targetState);
+        	if(targetState.isFinalState() && !targetState.isRootState()) {
+        		// TODO-hhe: fire event to notify listeners???
+        		ImmutableState<T, S, E, C> parentState = targetState.getParentState();
+        		if(currentTransitionResult.getParentResut()==null && !parentState.isRegion()) {
+        		    // completion event bubbles up from the final state when it is processed after current event
+        		    raiseFinishEvent(stateContext);
+        		    return;
         		}
-        		return;
+				AbstractStateMachine<T, S, E, C> abstractStateMachine = (AbstractStateMachine<T, S, E, C>)
+            			stateContext.getStateMachine();
+				StateContext<T, S, E, C> finishContext = FSM.newStateContext(
+						stateContext.getStateMachine(), stateContext.getStateMachineData(),parentState, 
+        				abstractStateMachine.getFinishEvent(), stateContext.getContext(), 
+        				currentTransitionResult, stateContext.getExecutor());
+        		parentState.internalFire(finishContext);
         	}
+        	return;
         }
         
         // fire to super state
@@ -412,6 +514,18 @@ class StateImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements MutableS
         }
     }
     
+    /**
+     * Raise completion event as internal event instead of firing it recursively, unless completion happens 
+     * within a region whose transition result is still being evaluated by the parallel state.
+     */
+    private void raiseFinishEvent(StateContext<T, S, E, C> stateContext) {
+        AbstractStateMachine<T, S, E, C> abstractStateMachine = (AbstractStateMachine<T, S, E, C>)
+                stateContext.getStateMachine();
+        if(abstractStateMachine.getFinishEvent()!=null) {
+            abstractStateMachine.raise(abstractStateMachine.getFinishEvent(), stateContext.getContext());
+        }
+    }
+    
     @Override
     public boolean isRootState() {
 	    return parentState==null;
@@ -523,6 +637,19 @@ class StateImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements MutableS
                 }
             }
         }
+        
+        for(ImmutableTransition<T, S, E, C> t : timedTransitions) {
+            t.verify();
+            if(t.getDelay(TimeUnit.NANOSECONDS)<=0) {
+                throw new RuntimeException(String.format("Timed transition '%s' must have positive delay.", t));
+            }
+            // timed transition is fired from the current state, which is the parallel state for regions
+            for(ImmutableState<T, S, E, C> state=this; state!=null; state=state.getParentState()) {
+                if(state.isRegion()) {
+                    throw new RuntimeException(String.format("Timed transition '%s' within parallel state is not supported.", t));
+                }
+            }
+        }
     }
     
     public ImmutableTransition<T, S, E, C> checkConflictTransitions(ImmutableTransition<T, S, E, C> target, 
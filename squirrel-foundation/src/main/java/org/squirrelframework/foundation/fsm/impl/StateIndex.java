@@ -0,0 +1,144 @@
+package org.squirrelframework.foundation.fsm.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+
+/**
+ * Dense index of state ids which is used to store state as compact int value. For enum typed states 
+ * index is looked up by ordinal, otherwise a hash map is used as fallback.
+ *
+ * @param <S> type of State
+ */
+final class StateIndex<S> {
+    
+    // index is shared by all the state machine instances created from the same state definition map
+    private static final ConcurrentMap<Map<?, ?>, StateIndex<?>> indexCache = new MapMaker().weakKeys().makeMap();
+    
+    private final Object[] states;
+    
+    private final Object[] values;
+    
+    private final Class<?> enumType;
+    
+    private final int[] indexByOrdinal;
+    
+    private final Map<S, Integer> indexByState;
+    
+    StateIndex(Collection<S> stateIds) {
+        this(stateIds.toArray(), null);
+    }
+    
+    private StateIndex(Object[] stateIds, Map<S, ?> stateValues) {
+        states = stateIds;
+        enumType = getEnumType(states);
+        if(enumType!=null) {
+            // enum states are indexed in declaration order
+            Arrays.sort(states, new Comparator<Object>() {
+                @Override
+                public int compare(Object o1, Object o2) {
+                    return ((Enum<?>)o1).ordinal() - ((Enum<?>)o2).ordinal();
+                }
+            });
+        }
+        if(stateValues!=null) {
+            values = new Object[states.length];
+            for(int i=0; i<states.length; ++i) {
+                values[i] = stateValues.get(states[i]);
+            }
+        } else {
+            values = null;
+        }
+        if(enumType!=null) {
+            indexByOrdinal = new int[enumType.getEnumConstants().length];
+            for(int i=0; i<indexByOrdinal.length; ++i) {
+                indexByOrdinal[i] = -1;
+            }
+            for(int i=0; i<states.length; ++i) {
+                indexByOrdinal[((Enum<?>)states[i]).ordinal()] = i;
+            }
+            indexByState = null;
+        } else {
+            indexByOrdinal = null;
+            indexByState = Maps.newHashMapWithExpectedSize(states.length);
+            for(int i=0; i<states.length; ++i) {
+                @SuppressWarnings("unchecked")
+                S state = (S)states[i];
+                indexByState.put(state, i);
+            }
+        }
+    }
+    
+    /**
+     * Get dense index of state definition map, value of state can be looked up by index afterwards. 
+     * Index of the same map instance is built only once.
+     */
+    @SuppressWarnings("unchecked")
+    static <S> StateIndex<S> of(Map<S, ?> states) {
+        StateIndex<S> index = (StateIndex<S>)indexCache.get(states);
+        if(index==null) {
+            index = new StateIndex<S>(states.keySet().toArray(), states);
+            StateIndex<S> existing = (StateIndex<S>)indexCache.putIfAbsent(states, index);
+            if(existing!=null) index = existing;
+        }
+        return index;
+    }
+    
+    private static Class<?> getEnumType(Object[] states) {
+        Class<?> enumType = null;
+        for(Object state : states) {
+            if(!(state instanceof Enum)) {
+                return null;
+            }
+            Class<?> stateEnumType = ((Enum<?>)state).getDeclaringClass();
+            if(enumType==null) {
+                enumType = stateEnumType;
+            } else if(enumType!=stateEnumType) {
+                return null;
+            }
+        }
+        return enumType;
+    }
+    
+    /**
+     * @return index of state or -1 if state is null or unknown
+     */
+    int indexOf(S state) {
+        if(state==null) {
+            return -1;
+        }
+        if(indexByOrdinal!=null) {
+            if(state instanceof Enum && ((Enum<?>)state).getDeclaringClass()==enumType) {
+                return indexByOrdinal[((Enum<?>)state).ordinal()];
+            }
+            return -1;
+        }
+        Integer index = indexByState.get(state);
+        return index!=null ? index : -1;
+    }
+    
+    @SuppressWarnings("unchecked")
+    S stateOf(int index) {
+        return index>=0 ? (S)states[index] : null;
+    }
+    
+    /**
+     * @return value of state in definition map or null if index is not built from map
+     */
+    Object valueOf(int index) {
+        return (index>=0 && values!=null) ? values[index] : null;
+    }
+    
+    boolean isEnumType() {
+        return enumType!=null;
+    }
+    
+    int size() {
+        return states.length;
+    }
+}
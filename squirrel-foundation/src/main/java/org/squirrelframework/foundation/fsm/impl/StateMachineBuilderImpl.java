@@ -7,6 +7,7 @@ import java.lang.reflect.Modifier;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -44,10 +45,12 @@ import org.squirrelframework.foundation.fsm.builder.On;
 import org.squirrelframework.foundation.fsm.builder.To;
 import org.squirrelframework.foundation.fsm.builder.When;
 import org.squirrelframework.foundation.util.DuplicateChecker;
+import org.squirrelframework.foundation.util.MethodIndex;
 import org.squirrelframework.foundation.util.ReflectUtils;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
 
@@ -69,7 +72,8 @@ public class StateMachineBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C
     
     private final Class<C> contextClazz;
     
-    private boolean prepared = false;
+    // state machine instances can be created by multiple threads, e.g. partitions of state machine engine
+    private volatile boolean prepared = false;
     
     private Constructor<? extends T> contructor = null;
     
@@ -81,7 +85,15 @@ public class StateMachineBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C
     
     private Map<String, String> stateAliasToDescription = null;
     
-    private E startEvent, finishEvent, terminateEvent;
+    private E startEvent, finishEvent, terminateEvent, errorEvent;
+    
+    private MethodIndex methodIndex;
+    
+    private boolean compilationEnabled = false;
+    
+    private boolean compiled = false;
+    
+    private CompiledDefinition<T, S, E, C> compiledDefinition;
     
     private StateMachineBuilderImpl(Class<? extends T> stateMachineClazz, Class<S> stateClazz, 
             Class<E> eventClazz, Class<C> contextClazz, Class<?>... extraConstParamTypes) {
@@ -121,6 +133,8 @@ public class StateMachineBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C
     				finishEvent = event;
     			} else if(eventType.value()==EventKind.TERMINATE) {
     				terminateEvent = event;
+    			} else if(eventType.value()==EventKind.ERROR) {
+    				errorEvent = event;
     			} 
     		}
     	}
@@ -182,11 +196,12 @@ public class StateMachineBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C
         return FSM.newInternalTransitionBuilder(states);
     }
     
-    private void addStateEntryExitMethodCallAction(String methodName, Class<?>[] parameterTypes, 
+    private void addStateEntryExitMethodCallActions(String[] methodNames, 
             MutableState<T, S, E, C> mutableState, boolean isEntryAction) {
-        Method method = findMethodCallAction(stateMachineClazz, methodName, parameterTypes);
-        if(method!=null) {
-            Action<T, S, E, C> methodCallAction = FSM.newMethodCallAction(method);
+        Method[] methods = methodIndex.getMethods(methodNames, methodCallParamTypes);
+        for(int i=0; i<methods.length; ++i) {
+            if(methods[i]==null) continue;
+            Action<T, S, E, C> methodCallAction = FSM.newMethodCallAction(methods[i]);
             if(isEntryAction) {
                 mutableState.addEntryAction(methodCallAction);
             } else {
@@ -195,11 +210,12 @@ public class StateMachineBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C
         }
     }
     
-    private void addTransitionMethodCallAction(String methodName, Class<?>[] parameterTypes, 
+    private void addTransitionMethodCallActions(String[] methodNames, 
             MutableTransition<T, S, E, C> mutableTransition) {
-        Method method = findMethodCallAction(stateMachineClazz, methodName, parameterTypes);
-        if(method!=null) {
-            Action<T, S, E, C> methodCallAction = FSM.newMethodCallAction(method);
+        Method[] methods = methodIndex.getMethods(methodNames, methodCallParamTypes);
+        for(int i=0; i<methods.length; ++i) {
+            if(methods[i]==null) continue;
+            Action<T, S, E, C> methodCallAction = FSM.newMethodCallAction(methods[i]);
             mutableTransition.addAction(methodCallAction);
         }
     }
@@ -219,23 +235,36 @@ public class StateMachineBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C
         if(!isInstantiableType(transit.when())) {
             throw new RuntimeException("Condition \'when\' should be concrete class or static inner class.");
         }
+        boolean isMvelCondition = !Strings.isNullOrEmpty(transit.whenMvel());
+        if(isMvelCondition && transit.when()!=Conditions.Always.class) {
+            throw new RuntimeException("Condition \'when\' and \'whenMvel\' cannot be declared together.");
+        }
         if(transit.type()==TransitionType.INTERNAL && !transit.from().equals(transit.to())) {
             throw new RuntimeException("Internal transiton must transit to the same source state.");
         }
         
+        boolean isTimed = transit.after()>0;
+        if(isTimed==!Strings.isNullOrEmpty(transit.on())) {
+            throw new RuntimeException("Transition should declare either event \'on\' or delay \'after\'.");
+        }
+        
         S fromState = stateConverter.convertFromString(parseStateId(transit.from()));
         Preconditions.checkNotNull(fromState, "Cannot convert state of name \""+fromState+"\".");
         S toState = stateConverter.convertFromString(parseStateId(transit.to()));
-        E event = eventConverter.convertFromString(transit.on());
-        Preconditions.checkNotNull(event, "Cannot convert event of name \""+event+"\".");
+        E event = isTimed ? null : eventConverter.convertFromString(transit.on());
+        Preconditions.checkArgument(isTimed || event!=null, "Cannot convert event of name \""+transit.on()+"\".");
         
         // check exited transition which satisfied the criteria
-        if(states.get(fromState)!=null) {
+        if(!isTimed && states.get(fromState)!=null) {
             MutableState<T, S, E, C> theFromState = states.get(fromState);
             for(ImmutableTransition<T, S, E, C> t : theFromState.getAllTransitions()) {
-                if(t.isMatch(fromState, toState, event, transit.when(), transit.type())) {
+                boolean isMatch = isMvelCondition ? 
+                        t.isMatch(fromState, toState, event, MvelConditionImpl.class, transit.type()) &&
+                        ((MvelConditionImpl<C>)t.getCondition()).getExpression().equals(transit.whenMvel()) :
+                        t.isMatch(fromState, toState, event, transit.when(), transit.type());
+                if(isMatch) {
                     MutableTransition<T, S, E, C> mutableTransition = (MutableTransition<T, S, E, C>)t;
-                    Method method = findMethodCallAction(stateMachineClazz, transit.callMethod(), methodCallParamTypes);
+                    Method method = findMethodCallAction(transit.callMethod());
                     if(method!=null) {
                         mutableTransition.addAction(FSM.<T, S, E, C>newMethodCallAction(method));
                     }
@@ -256,7 +285,7 @@ public class StateMachineBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C
             boolean isTargetFinal = transit.isTargetFinal() || FSM.getState(states, toState).isFinalState();
             toBuilder = isTargetFinal ? fromBuilder.toFinal(toState) : fromBuilder.to(toState);
         } 
-        On<T, S, E, C> onBuilder = toBuilder.on(event);
+        On<T, S, E, C> onBuilder = isTimed ? toBuilder.after(transit.after(), transit.timeUnit()) : toBuilder.on(event);
         Condition<C> c = null;
         try {
             if(transit.when()!=Conditions.Always.class) {
@@ -268,10 +297,14 @@ public class StateMachineBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C
             logger.error("Instantiate Condition \""+transit.when().getName()+"\" failed.");
             c = Conditions.never();
         } 
+        if(isMvelCondition) {
+            // expression is compiled here so that malformed expression fails state machine definition
+            c = FSM.newMvelCondition(transit.whenMvel());
+        }
         When<T, S, E, C> whenBuilder = c!=null ? onBuilder.when(c) : onBuilder;
         
         if(!Strings.isNullOrEmpty(transit.callMethod())) {
-            Method method = findMethodCallAction(stateMachineClazz, transit.callMethod(), methodCallParamTypes);
+            Method method = findMethodCallAction(transit.callMethod());
             if(method!=null) {
                 Action<T, S, E, C> methodCallAction = FSM.newMethodCallAction(method);
                 whenBuilder.perform(methodCallAction);
@@ -311,7 +344,7 @@ public class StateMachineBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C
         }
         
         if(!Strings.isNullOrEmpty(state.entryCallMethod())) {
-            Method method = findMethodCallAction(stateMachineClazz, state.entryCallMethod(), methodCallParamTypes);
+            Method method = findMethodCallAction(state.entryCallMethod());
             if(method!=null) {
                 Action<T, S, E, C> methodCallAction = FSM.newMethodCallAction(method);
                 onEntry(stateId).perform(methodCallAction);
@@ -319,7 +352,7 @@ public class StateMachineBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C
         }
         
         if(!Strings.isNullOrEmpty(state.exitCallMethod())) {
-            Method method = findMethodCallAction(stateMachineClazz, state.exitCallMethod(), methodCallParamTypes);
+            Method method = findMethodCallAction(state.exitCallMethod());
             if(method!=null) {
                 Action<T, S, E, C> methodCallAction = FSM.newMethodCallAction(method);
                 onExit(stateId).perform(methodCallAction);
@@ -362,18 +395,49 @@ public class StateMachineBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C
         }
     }
     
-    private void prepare() {
+    private void prepareStates() {
+        for(MutableState<T, S, E, C> state : states.values()) {
+            state.prepare();
+        }
+    }
+    
+    private synchronized void prepare() {
+        if(prepared) return;
+        Stopwatch sw = new Stopwatch().start();
+        // index methods declared by state machine class once, which is shared by builders of the same class
+        methodIndex = MethodIndex.of(stateMachineClazz, AbstractStateMachine.class);
+        long indexTime = lap(sw);
         // install all the declare states, states must be installed before installing transition and extension methods
         install(new DeclareStateFunction());
         // install all the declare transitions
         install(new DeclareTransitionFunction());
+        long declareTime = lap(sw);
         // install all the extension method call when state machine builder freeze
         installExtensionMethods();
         // install final state actions
         installFinalStateActions();
+        long installTime = lap(sw);
         // verify correctness of state machine
         verifyStateMachineDefinition();
+        long verifyTime = lap(sw);
+        // freeze state transitions into dispatch table
+        prepareStates();
+        // assign dense index to states which is shared by all state machine data
+        StateIndex.of(states);
+        long freezeTime = lap(sw);
         prepared = true;
+        if(logger.isDebugEnabled()) {
+            logger.debug("Prepare state machine builder of \""+stateMachineClazz.getName()+"\" with "+states.size()+
+                    " states tooks "+(indexTime+declareTime+installTime+verifyTime+freezeTime)/1000+"ms (method index: "+
+                    indexTime+"us, declared states and transitions: "+declareTime+"us, extension methods: "+installTime+
+                    "us, verify: "+verifyTime+"us, dispatch table: "+freezeTime+"us).");
+        }
+    }
+    
+    private static long lap(Stopwatch sw) {
+        long elapsed = sw.elapsedTime(TimeUnit.MICROSECONDS);
+        sw.reset().start();
+        return elapsed;
     }
     
     private String[] getEntryExitStateMethodNames(ImmutableState<T, S, E, C> state, boolean isEntry) {
@@ -419,27 +483,16 @@ public class StateMachineBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C
             if(state.isFinalState()) continue;
             
             // state exit extension method
-            String[] exitMethodCallCandidates = getEntryExitStateMethodNames(state, false);
-            for(int i=0, size=exitMethodCallCandidates.length; i<size; ++i) {
-                addStateEntryExitMethodCallAction(exitMethodCallCandidates[i], 
-                        methodCallParamTypes, state, false);
-            }
+            addStateEntryExitMethodCallActions(getEntryExitStateMethodNames(state, false), state, false);
             
             // transition extension methods
             for(ImmutableTransition<T, S, E, C> transition : state.getAllTransitions()) {
-                String[] transitionMethodCallCandidates = getTransitionMethodNames(transition);
-                for(int i=0, size=transitionMethodCallCandidates.length; i<size; ++i) {
-                    addTransitionMethodCallAction(transitionMethodCallCandidates[i], methodCallParamTypes, 
-                            (MutableTransition<T, S, E, C>)transition);
-                }
+                addTransitionMethodCallActions(getTransitionMethodNames(transition), 
+                        (MutableTransition<T, S, E, C>)transition);
             }
             
             // state entry extension method
-            String[] entryMethodCallCandidates = getEntryExitStateMethodNames(state, true);
-            for(int i=0, size=entryMethodCallCandidates.length; i<size; ++i) {
-                addStateEntryExitMethodCallAction(entryMethodCallCandidates[i], 
-                        methodCallParamTypes, state, true);
-            }
+            addStateEntryExitMethodCallActions(getEntryExitStateMethodNames(state, true), state, true);
         }
     }
     
@@ -481,24 +534,8 @@ public class StateMachineBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C
                 StateMachine.class.isAssignableFrom(stateMachineClazz);
     }
     
-    private static Method searchMethod(Class<?> targetClass, Class<?> superClass, 
-            String methodName, Class<?>[] parameterTypes) {
-        if(superClass.isAssignableFrom(targetClass)) {
-            Class<?> clazz = targetClass;
-            while(!superClass.equals(clazz)) {
-                try {
-                    return clazz.getDeclaredMethod(methodName, parameterTypes);
-                } catch (NoSuchMethodException e) {
-                    clazz = clazz.getSuperclass();
-                }
-            }
-        }
-        return null;
-    }
-    
-    private Method findMethodCallAction(Class<?> target, String methodName, Class<?>[] parameterTypes) {
-        // TODO-hhe: cache action method in a map and try to get from cache first
-        return searchMethod(target, AbstractStateMachine.class, methodName, parameterTypes);
+    private Method findMethodCallAction(String methodName) {
+        return methodIndex.getMethod(methodName, methodCallParamTypes);
     }
     
     public T newStateMachine(S initialStateId) {
@@ -524,15 +561,34 @@ public class StateMachineBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C
         stateMachineImpl.setStartEvent(startEvent);
         stateMachineImpl.setFinishEvent(finishEvent);
         stateMachineImpl.setTerminateEvent(terminateEvent);
+        stateMachineImpl.setErrorEvent(errorEvent);
         
         stateMachineImpl.setTypeOfStateMachine(stateMachineClazz);
         stateMachineImpl.setTypeOfState(stateClazz);
         stateMachineImpl.setTypeOfEvent(eventClazz);
         stateMachineImpl.setTypeOfContext(contextClazz);
+        if(compilationEnabled) {
+            stateMachineImpl.setCompiledDefinition(getCompiledDefinition(stateMachineImpl));
+        }
         
         return stateMachine;
     }
     
+    private synchronized CompiledDefinition<T, S, E, C> getCompiledDefinition(AbstractStateMachine<T, S, E, C> stateMachine) {
+        if(!compiled) {
+            // definition is compiled once when first state machine instance created
+            compiledDefinition = CompiledDefinition.compile(states, eventClazz, stateMachine);
+            compiled = true;
+        }
+        return compiledDefinition;
+    }
+    
+    @Override
+    public void enableCompilation() {
+        checkState();
+        compilationEnabled = true;
+    }
+    
     private T postProcessStateMachine(Class<T> clz, T component) {
         if(component!=null) {
             List<SquirrelPostProcessor<? super T>> postProcessors = 
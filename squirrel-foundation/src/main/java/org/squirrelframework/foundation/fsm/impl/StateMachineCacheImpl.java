@@ -0,0 +1,400 @@
+package org.squirrelframework.foundation.fsm.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.squirrelframework.foundation.fsm.StateMachine;
+import org.squirrelframework.foundation.fsm.StateMachineBuilder;
+import org.squirrelframework.foundation.fsm.StateMachineCache;
+import org.squirrelframework.foundation.fsm.StateMachineData;
+import org.squirrelframework.foundation.fsm.StateMachineStore;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * LRU state machine cache. Live state machines are kept in access order, and state machines which are
+ * processing events are pinned, so they are never passivated. Data of passivated state machines is queued
+ * as pending writes, which are written into store by a background thread once enough of them are queued
+ * or once the write delay elapses. Pending data is looked up before store, so a rehydrated state machine
+ * always sees its latest data even if it is not written yet.
+ * <p>
+ * Lookup is serialized on the cache, while state machines are rehydrated from store and process events
+ * outside of the cache lock.
+ */
+public class StateMachineCacheImpl<K, T extends StateMachine<T, S, E, C>, S, E, C>
+    implements StateMachineCache<K, T, S, E, C> {
+
+    private static final Logger logger = LoggerFactory.getLogger(StateMachineCacheImpl.class);
+
+    public static final int DEFAULT_WRITE_BATCH_SIZE = 100;
+
+    public static final long DEFAULT_WRITE_DELAY_MILLIS = 1000;
+
+    private final StateMachineBuilder<T, S, E, C> builder;
+
+    private final S initialStateId;
+
+    private final StateMachineStore<K, T, S, E, C> store;
+
+    private final int maximumSize;
+
+    private final long maxIdleNanos;
+
+    private final int writeBatchSize;
+
+    private final Ticker ticker;
+
+    private final ScheduledExecutorService executor;
+
+    private final Runnable writeTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized(StateMachineCacheImpl.this) {
+                writeScheduled = false;
+            }
+            writePendingQuietly();
+        }
+    };
+
+    // following fields are guarded by cache itself
+    private final Map<K, Entry<K, T>> entries = new LinkedHashMap<K, Entry<K, T>>(16, 0.75f, true);
+
+    private final Map<K, StateMachineData.Reader<T, S, E, C>> pending = Maps.newLinkedHashMap();
+
+    private boolean writeScheduled = false;
+
+    private boolean closed = false;
+
+    private long hitCount = 0;
+
+    private long missCount = 0;
+
+    private long loadCount = 0;
+
+    private long evictionCount = 0;
+
+    // writes into store are serialized on this lock
+    private final Object writeLock = new Object();
+
+    private final AtomicLong writeCount = new AtomicLong();
+
+    public StateMachineCacheImpl(StateMachineBuilder<T, S, E, C> builder, S initialStateId,
+            StateMachineStore<K, T, S, E, C> store, int maximumSize) {
+        this(builder, initialStateId, store, maximumSize, 0, DEFAULT_WRITE_BATCH_SIZE, DEFAULT_WRITE_DELAY_MILLIS);
+    }
+
+    /**
+     * @param maximumSize maximum number of live state machines
+     * @param maxIdleMillis state machine idle longer than this is passivated, zero means no idle passivation
+     * @param writeBatchSize number of pending writes which triggers write back
+     * @param writeDelayMillis interval of background write back and idle passivation, zero means both only
+     * happen on demand
+     */
+    public StateMachineCacheImpl(StateMachineBuilder<T, S, E, C> builder, S initialStateId,
+            StateMachineStore<K, T, S, E, C> store, int maximumSize, long maxIdleMillis,
+            int writeBatchSize, long writeDelayMillis) {
+        this(builder, initialStateId, store, maximumSize, maxIdleMillis, writeBatchSize, writeDelayMillis, 
+                Ticker.systemTicker());
+    }
+
+    /**
+     * @param ticker time source of idle time measurement, while write delay is always scheduled on system time
+     */
+    public StateMachineCacheImpl(StateMachineBuilder<T, S, E, C> builder, S initialStateId,
+            StateMachineStore<K, T, S, E, C> store, int maximumSize, long maxIdleMillis,
+            int writeBatchSize, long writeDelayMillis, Ticker ticker) {
+        Preconditions.checkNotNull(builder, "State machine builder cannot be null");
+        Preconditions.checkNotNull(initialStateId, "Initial state cannot be null");
+        Preconditions.checkNotNull(store, "State machine store cannot be null");
+        Preconditions.checkArgument(maximumSize>0, "Maximum size must be positive");
+        Preconditions.checkArgument(maxIdleMillis>=0, "Max idle time cannot be negative");
+        Preconditions.checkArgument(writeBatchSize>0, "Write batch size must be positive");
+        Preconditions.checkArgument(writeDelayMillis>=0, "Write delay cannot be negative");
+        Preconditions.checkNotNull(ticker, "Ticker cannot be null");
+        this.builder = builder;
+        this.initialStateId = initialStateId;
+        this.store = store;
+        this.maximumSize = maximumSize;
+        this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleMillis);
+        this.writeBatchSize = writeBatchSize;
+        this.ticker = ticker;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().
+                setNameFormat("squirrel-fsm-cache-%d").setDaemon(true).build());
+        if(writeDelayMillis>0) {
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    passivateIdle();
+                    writePendingQuietly();
+                }
+            }, writeDelayMillis, writeDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void fire(K id, E event, C context) {
+        Entry<K, T> entry = acquire(id);
+        try {
+            entry.stateMachine.fire(event, context);
+        } finally {
+            release(entry);
+        }
+    }
+
+    @Override
+    public T get(K id) {
+        Entry<K, T> entry = acquire(id);
+        release(entry);
+        return entry.stateMachine;
+    }
+
+    @Override
+    public synchronized T getIfPresent(K id) {
+        Entry<K, T> entry = entries.get(id);
+        if(entry==null || entry.stateMachine==null) {
+            return null;
+        }
+        entry.lastAccessTime = ticker.read();
+        return entry.stateMachine;
+    }
+
+    /**
+     * Pin entry of id. Missing state machine is loaded outside of cache lock, while its pinned placeholder 
+     * entry keeps other callers of the same id waiting and the id from being passivated.
+     */
+    private Entry<K, T> acquire(K id) {
+        Preconditions.checkNotNull(id, "State machine id cannot be null");
+        Entry<K, T> entry;
+        StateMachineData.Reader<T, S, E, C> savedData;
+        synchronized(this) {
+            while(true) {
+                Preconditions.checkState(!closed, "State machine cache is closed.");
+                entry = entries.get(id);
+                if(entry==null) {
+                    break;
+                }
+                if(entry.stateMachine!=null) {
+                    ++hitCount;
+                    ++entry.pins;
+                    return entry;
+                }
+                awaitLoaded();
+            }
+            ++missCount;
+            entry = new Entry<K, T>(id);
+            entry.pins = 1;
+            entries.put(id, entry);
+            savedData = pending.get(id);
+        }
+        T stateMachine = null;
+        boolean loaded = false;
+        try {
+            // data of id cannot be passivated again while placeholder entry exists, so data which is not 
+            // pending any more is already written into store
+            if(savedData==null) {
+                savedData = store.load(id);
+            }
+            stateMachine = builder.newStateMachine(initialStateId);
+            if(savedData!=null) {
+                stateMachine.loadSavedData(savedData);
+                loaded = true;
+            }
+        } finally {
+            synchronized(this) {
+                if(stateMachine!=null) {
+                    entry.stateMachine = stateMachine;
+                    if(loaded) ++loadCount;
+                } else {
+                    entries.remove(id);
+                }
+                notifyAll();
+            }
+        }
+        return entry;
+    }
+
+    // caller must hold cache lock
+    private void awaitLoaded() {
+        boolean interrupted = false;
+        try {
+            while(true) {
+                try {
+                    wait();
+                    return;
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private synchronized void release(Entry<K, T> entry) {
+        --entry.pins;
+        entry.lastAccessTime = ticker.read();
+        if(entries.get(entry.id)==entry && entries.size()>maximumSize) {
+            // lookup above also moved entry to the most recently used end
+            Iterator<Entry<K, T>> iterator = entries.values().iterator();
+            while(entries.size()>maximumSize && iterator.hasNext()) {
+                if(passivate(iterator.next())) {
+                    iterator.remove();
+                }
+            }
+            scheduleWrite();
+        }
+    }
+
+    // caller must hold cache lock and remove entry once it is passivated
+    private boolean passivate(Entry<K, T> entry) {
+        if(entry.pins>0) {
+            return false;
+        }
+        StateMachineData.Reader<T, S, E, C> savedData = entry.stateMachine.dumpSavedData();
+        if(savedData==null) {
+            // state machine is processing event fired on it directly
+            return false;
+        }
+        // passivated instance must not keep firing timed transitions, which are armed again on rehydration
+        if(entry.stateMachine instanceof AbstractStateMachine && 
+                !((AbstractStateMachine<?, ?, ?, ?>)entry.stateMachine).cancelTimedTransitions()) {
+            return false;
+        }
+        pending.put(entry.id, savedData);
+        ++evictionCount;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean passivate(K id) {
+        Entry<K, T> entry = entries.get(id);
+        if(entry!=null && passivate(entry)) {
+            entries.remove(id);
+            scheduleWrite();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized int passivateIdle() {
+        if(maxIdleNanos<=0) {
+            return 0;
+        }
+        int passivated = 0;
+        long now = ticker.read();
+        Iterator<Entry<K, T>> iterator = entries.values().iterator();
+        while(iterator.hasNext()) {
+            Entry<K, T> entry = iterator.next();
+            if(entry.pins==0 && now-entry.lastAccessTime<maxIdleNanos) {
+                // entries are in order of last access, so the rest are not idle either
+                break;
+            }
+            if(passivate(entry)) {
+                iterator.remove();
+                ++passivated;
+            }
+        }
+        scheduleWrite();
+        return passivated;
+    }
+
+    private void scheduleWrite() {
+        if(!writeScheduled && !closed && pending.size()>=writeBatchSize) {
+            writeScheduled = true;
+            executor.execute(writeTask);
+        }
+    }
+
+    @Override
+    public void flush() {
+        synchronized(writeLock) {
+            Map<K, StateMachineData.Reader<T, S, E, C>> batch;
+            synchronized(this) {
+                if(pending.isEmpty()) {
+                    return;
+                }
+                batch = Maps.newLinkedHashMap(pending);
+            }
+            store.saveAll(batch);
+            writeCount.addAndGet(batch.size());
+            synchronized(this) {
+                for(Map.Entry<K, StateMachineData.Reader<T, S, E, C>> written : batch.entrySet()) {
+                    // keep data which is passivated again while batch was written
+                    if(pending.get(written.getKey())==written.getValue()) {
+                        pending.remove(written.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    private void writePendingQuietly() {
+        try {
+            flush();
+        } catch(RuntimeException e) {
+            // pending data is kept and written again by next write back
+            logger.error("Write back of passivated state machines failed.", e);
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized Statistics getStatistics() {
+        return new Statistics(hitCount, missCount, loadCount, evictionCount, writeCount.get());
+    }
+
+    @Override
+    public void close() {
+        synchronized(this) {
+            if(closed) {
+                return;
+            }
+            // check all the entries first, so that cache is left untouched when any of them is in use
+            for(Entry<K, T> entry : entries.values()) {
+                Preconditions.checkState(entry.pins==0, "State machine %s is processing event.", entry.id);
+            }
+            Iterator<Entry<K, T>> iterator = entries.values().iterator();
+            while(iterator.hasNext()) {
+                Entry<K, T> entry = iterator.next();
+                Preconditions.checkState(passivate(entry), "State machine %s is processing event.", entry.id);
+                iterator.remove();
+            }
+            closed = true;
+        }
+        executor.shutdown();
+        flush();
+    }
+
+    private static final class Entry<K, T> {
+
+        final K id;
+
+        // following fields are guarded by cache, and state machine is null while it is being loaded
+        T stateMachine;
+
+        int pins = 0;
+
+        long lastAccessTime;
+
+        Entry(K id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package org.squirrelframework.foundation.fsm.impl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.squirrelframework.foundation.fsm.StateMachine;
+import org.squirrelframework.foundation.fsm.StateMachineData;
+import org.squirrelframework.foundation.fsm.StateMachineStatus;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Delta dumped by {@link StateMachineDataImpl#dumpDelta(long)}. Fields are filled in by state machine data
+ * which dumps the delta, and then the delta is read only.
+ */
+class StateMachineDataDeltaImpl<T extends StateMachine<T, S, E, C>, S, E, C>
+    implements StateMachineData.Delta<T, S, E, C> {
+
+    private static final long serialVersionUID = -2618722830158624187L;
+
+    private static final int CURRENT_STATE = 1;
+
+    private static final int LAST_STATE = 1 << 1;
+
+    private static final int INITIAL_STATE = 1 << 2;
+
+    private static final int TYPE = 1 << 3;
+
+    private final long sinceVersion;
+
+    private final long version;
+
+    // bit set of changed single value fields
+    private int changes = 0;
+
+    private S currentState;
+
+    private S lastState;
+
+    private S initialState;
+
+    private StateMachineStatus status;
+
+    private Class<? extends T> stateMachineType;
+
+    private Class<S> stateType;
+
+    private Class<E> eventType;
+
+    private Class<C> contextType;
+
+    private final Map<S, S> lastActiveChildStates = Maps.newLinkedHashMap();
+
+    private final Map<S, List<S>> subStates = Maps.newLinkedHashMap();
+
+    private final Map<S, StateMachineData.Reader<? extends StateMachine<?, S, E, C>, S, E, C>> linkedStateData =
+            Maps.newLinkedHashMap();
+
+    StateMachineDataDeltaImpl(long sinceVersion, long version) {
+        this.sinceVersion = sinceVersion;
+        this.version = version;
+    }
+
+    void currentState(S currentState) {
+        this.currentState = currentState;
+        changes |= CURRENT_STATE;
+    }
+
+    void lastState(S lastState) {
+        this.lastState = lastState;
+        changes |= LAST_STATE;
+    }
+
+    void initialState(S initialState) {
+        this.initialState = initialState;
+        changes |= INITIAL_STATE;
+    }
+
+    void stateMachineStatus(StateMachineStatus status) {
+        this.status = status;
+    }
+
+    void types(Class<? extends T> stateMachineType, Class<S> stateType, Class<E> eventType, Class<C> contextType) {
+        this.stateMachineType = stateMachineType;
+        this.stateType = stateType;
+        this.eventType = eventType;
+        this.contextType = contextType;
+        changes |= TYPE;
+    }
+
+    void lastActiveChildStateFor(S parentState, S childState) {
+        lastActiveChildStates.put(parentState, childState);
+    }
+
+    void subStatesOn(S parallelState, List<S> states) {
+        subStates.put(parallelState, Collections.unmodifiableList(states));
+    }
+
+    void linkedStateDataOn(S linkedState, StateMachineData.Reader<? extends StateMachine<?, S, E, C>, S, E, C> data) {
+        linkedStateData.put(linkedState, data);
+    }
+
+    @Override
+    public long sinceVersion() {
+        return sinceVersion;
+    }
+
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return changes==0 && status==null && lastActiveChildStates.isEmpty() &&
+                subStates.isEmpty() && linkedStateData.isEmpty();
+    }
+
+    @Override
+    public boolean isCurrentStateChanged() {
+        return (changes & CURRENT_STATE)!=0;
+    }
+
+    @Override
+    public S currentState() {
+        return currentState;
+    }
+
+    @Override
+    public boolean isLastStateChanged() {
+        return (changes & LAST_STATE)!=0;
+    }
+
+    @Override
+    public S lastState() {
+        return lastState;
+    }
+
+    @Override
+    public boolean isInitialStateChanged() {
+        return (changes & INITIAL_STATE)!=0;
+    }
+
+    @Override
+    public S initialState() {
+        return initialState;
+    }
+
+    @Override
+    public StateMachineStatus stateMachineStatus() {
+        return status;
+    }
+
+    @Override
+    public boolean isTypeChanged() {
+        return (changes & TYPE)!=0;
+    }
+
+    @Override
+    public Class<? extends T> typeOfStateMachine() {
+        return stateMachineType;
+    }
+
+    @Override
+    public Class<S> typeOfState() {
+        return stateType;
+    }
+
+    @Override
+    public Class<E> typeOfEvent() {
+        return eventType;
+    }
+
+    @Override
+    public Class<C> typeOfContext() {
+        return contextType;
+    }
+
+    @Override
+    public Map<S, S> lastActiveChildStates() {
+        return Collections.unmodifiableMap(lastActiveChildStates);
+    }
+
+    @Override
+    public Map<S, List<S>> subStates() {
+        return Collections.unmodifiableMap(subStates);
+    }
+
+    @Override
+    public Map<S, StateMachineData.Reader<? extends StateMachine<?, S, E, C>, S, E, C>> linkedStateData() {
+        return Collections.unmodifiableMap(linkedStateData);
+    }
+
+    @Override
+    public String toString() {
+        return "Delta["+sinceVersion+"->"+version+"]";
+    }
+}
@@ -1,5 +1,7 @@
 package org.squirrelframework.foundation.fsm.impl;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -12,7 +14,12 @@ import org.squirrelframework.foundation.fsm.StateMachine;
 import org.squirrelframework.foundation.fsm.StateMachineData;
 import org.squirrelframework.foundation.fsm.StateMachineStatus;
 
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 public class StateMachineDataImpl<T extends StateMachine<T, S, E, C>, S, E, C> 
@@ -28,6 +35,11 @@ implements StateMachineData<T, S, E, C>, StateMachineData.Reader<T, S, E, C>, St
     
     private S initialState;
     
+    /*
+     * History and sub states, either in hash map and multimap below or in index arrays of enum typed states, 
+     * are guarded by this data, as they can be read by other threads through readLocked and isActive while 
+     * state machine is processing events.
+     */
     private final Map<S, S> lastActiveChildStateStore = Maps.newHashMap();
     
     private final ArrayListMultimap<S, S> parallelStatesStore = ArrayListMultimap.create();
@@ -40,7 +52,8 @@ implements StateMachineData<T, S, E, C>, StateMachineData.Reader<T, S, E, C>, St
     
     private Class<C> contextType;
     
-    private StateMachineStatus status = StateMachineStatus.INITIALIZED;
+    // status can be read by other threads when firing events
+    private volatile StateMachineStatus status = StateMachineStatus.INITIALIZED;
     
     private final transient Map<S, ImmutableState<T, S, E, C>> states;
     
@@ -48,12 +61,60 @@ implements StateMachineData<T, S, E, C>, StateMachineData.Reader<T, S, E, C>, St
     
     private Map<S, StateMachineData.Reader<? extends StateMachine<?, S, E, C>, S, E, C>> linkStateDataStore;
     
+    /*
+     * Version is increased on every change, and each field is stamped with the version when it was last 
+     * changed, so that fields changed after a version can be dumped as delta.
+     */
+    private long version = 0;
+    
+    private long currentStateVersion, lastStateVersion, initialStateVersion, statusVersion, typeVersion;
+    
+    // status stamped with status version, which excludes transient BUSY status of event processing
+    private StateMachineStatus versionedStatus = StateMachineStatus.INITIALIZED;
+    
+    private final Map<S, Long> lastActiveChildVersionStore = Maps.newHashMap();
+    
+    private final Map<S, Long> subStateVersionStore = Maps.newHashMap();
+    
+    private Map<S, Long> linkStateVersionStore;
+    
+    /*
+     * For enum typed states, history and parallel sub states are stored by dense state index instead of 
+     * hash map and multimap above. Arrays are allocated on first use.
+     */
+    private final transient StateIndex<S> stateIndex;
+    
+    // last active child state index by parent state index, -1 if none
+    private transient int[] lastActiveChildIndexes;
+    
+    private transient long[] lastActiveChildVersions;
+    
+    // sub state indexes by parallel state index in insertion order, and number of sub states
+    private transient int[][] subStateIndexes;
+    
+    private transient int[] subStateSizes;
+    
+    private transient long[] subStateVersions;
+    
+    // stamp of active configuration, which is only increased by the writer when current state or sub states change
+    private transient volatile int activeConfigStamp = 0;
+    
+    // active configuration built by readers, which is only valid while its stamp is current
+    private transient volatile ActiveConfiguration activeConfiguration;
+    
     public StateMachineDataImpl(Map<S, ImmutableState<T, S, E, C>> states) {
         this.states = Collections.unmodifiableMap(states);
+        StateIndex<S> index = StateIndex.of(states);
+        this.stateIndex = index.isEnumType() ? index : null;
     }
     
     public StateMachineDataImpl() {
         this.states = null;
+        this.stateIndex = null;
+    }
+    
+    private boolean isIndexed() {
+        return stateIndex!=null;
     }
     
     private Map<S, ImmutableState<T, S, E, C>> getStates() {
@@ -75,6 +136,8 @@ implements StateMachineData<T, S, E, C>, StateMachineData.Reader<T, S, E, C>, St
         this.write().initalState(src.initialState());
         this.write().stateMachineStatus(src.stateMachineStatus());
         
+        // history and sub states of this data which are not in source must not survive full dump
+        clearHistoryAndSubStates();
         for(S state : src.activeParentStates()) {
             S lastActiveChildState = src.lastActiveChildStateOf(state);
             if(lastActiveChildState!=null) {
@@ -86,12 +149,155 @@ implements StateMachineData<T, S, E, C>, StateMachineData.Reader<T, S, E, C>, St
             List<S> subStates = src.subStatesOn(state);
             if(subStates!=null && !subStates.isEmpty()) {
                 for(S subState : subStates) {
-                    // ignore parallel state check in subStateFor as no states for reference
-                    // this.write().subStateFor(state, subState);
-                    parallelStatesStore.put(state, subState);
+                    restoreSubStateFor(state, subState);
                 }
             }
         }
+        resetVersion(src.version());
+    }
+    
+    private synchronized void clearHistoryAndSubStates() {
+        if(lastActiveChildIndexes!=null) {
+            Arrays.fill(lastActiveChildIndexes, -1);
+            Arrays.fill(lastActiveChildVersions, 0);
+        }
+        if(subStateSizes!=null) {
+            Arrays.fill(subStateSizes, 0);
+            Arrays.fill(subStateVersions, 0);
+        }
+        lastActiveChildStateStore.clear();
+        lastActiveChildVersionStore.clear();
+        parallelStatesStore.clear();
+        subStateVersionStore.clear();
+        activeConfigChanged();
+    }
+    
+    /*
+     * Stamp all the written fields with specified version. Versions of source data are unknown to its copy, 
+     * so that delta dumped by copy after any earlier version conservatively includes all these fields.
+     */
+    private void resetVersion(long newVersion) {
+        version = newVersion;
+        currentStateVersion = resetVersion(currentStateVersion, newVersion);
+        lastStateVersion = resetVersion(lastStateVersion, newVersion);
+        initialStateVersion = resetVersion(initialStateVersion, newVersion);
+        statusVersion = resetVersion(statusVersion, newVersion);
+        typeVersion = resetVersion(typeVersion, newVersion);
+        if(lastActiveChildVersions!=null) {
+            for(int i=0; i<lastActiveChildVersions.length; ++i) {
+                lastActiveChildVersions[i] = resetVersion(lastActiveChildVersions[i], newVersion);
+            }
+        }
+        if(subStateVersions!=null) {
+            for(int i=0; i<subStateVersions.length; ++i) {
+                subStateVersions[i] = resetVersion(subStateVersions[i], newVersion);
+            }
+        }
+        resetVersions(lastActiveChildVersionStore, newVersion);
+        resetVersions(subStateVersionStore, newVersion);
+        resetVersions(linkStateVersionStore, newVersion);
+    }
+    
+    private static long resetVersion(long fieldVersion, long newVersion) {
+        return fieldVersion>0 ? newVersion : 0;
+    }
+    
+    private static <K> void resetVersions(Map<K, Long> versions, long newVersion) {
+        if(versions==null) return;
+        for(Map.Entry<K, Long> entry : versions.entrySet()) {
+            entry.setValue(newVersion);
+        }
+    }
+    
+    @Override
+    public StateMachineData.Delta<T, S, E, C> dumpDelta(long sinceVersion) {
+        StateMachineDataDeltaImpl<T, S, E, C> delta = new StateMachineDataDeltaImpl<T, S, E, C>(sinceVersion, version);
+        if(typeVersion>sinceVersion) {
+            delta.types(stateMachineType, stateType, eventType, contextType);
+        }
+        if(currentStateVersion>sinceVersion) {
+            delta.currentState(currentState);
+        }
+        if(lastStateVersion>sinceVersion) {
+            delta.lastState(lastState);
+        }
+        if(initialStateVersion>sinceVersion) {
+            delta.initialState(initialState);
+        }
+        if(statusVersion>sinceVersion) {
+            delta.stateMachineStatus(versionedStatus);
+        }
+        if(isIndexed()) {
+            for(int i=0; lastActiveChildVersions!=null && i<lastActiveChildVersions.length; ++i) {
+                if(lastActiveChildVersions[i]>sinceVersion) {
+                    delta.lastActiveChildStateFor(stateIndex.stateOf(i), stateIndex.stateOf(lastActiveChildIndexes[i]));
+                }
+            }
+            for(int i=0; subStateVersions!=null && i<subStateVersions.length; ++i) {
+                if(subStateVersions[i]>sinceVersion) {
+                    S parallelState = stateIndex.stateOf(i);
+                    delta.subStatesOn(parallelState, Lists.newArrayList(subStatesOn(parallelState)));
+                }
+            }
+        } else {
+            for(Map.Entry<S, Long> entry : lastActiveChildVersionStore.entrySet()) {
+                if(entry.getValue()>sinceVersion) {
+                    delta.lastActiveChildStateFor(entry.getKey(), lastActiveChildStateStore.get(entry.getKey()));
+                }
+            }
+            for(Map.Entry<S, Long> entry : subStateVersionStore.entrySet()) {
+                if(entry.getValue()>sinceVersion) {
+                    delta.subStatesOn(entry.getKey(), Lists.newArrayList(parallelStatesStore.get(entry.getKey())));
+                }
+            }
+        }
+        if(linkStateVersionStore!=null) {
+            for(Map.Entry<S, Long> entry : linkStateVersionStore.entrySet()) {
+                if(entry.getValue()>sinceVersion) {
+                    delta.linkedStateDataOn(entry.getKey(), linkStateDataStore.get(entry.getKey()));
+                }
+            }
+        }
+        return delta;
+    }
+    
+    @Override
+    public void merge(StateMachineData.Delta<T, S, E, C> delta) {
+        Preconditions.checkArgument(delta.sinceVersion()<=version && delta.version()>=version, 
+                "Delta from version %s to %s cannot be merged into data of version %s.", 
+                delta.sinceVersion(), delta.version(), version);
+        if(delta.isTypeChanged()) {
+            typeOfStateMachine(delta.typeOfStateMachine());
+            typeOfState(delta.typeOfState());
+            typeOfEvent(delta.typeOfEvent());
+            typeOfContext(delta.typeOfContext());
+        }
+        if(delta.isCurrentStateChanged()) {
+            currentState(delta.currentState());
+        }
+        if(delta.isLastStateChanged()) {
+            lastState(delta.lastState());
+        }
+        if(delta.isInitialStateChanged()) {
+            initalState(delta.initialState());
+        }
+        if(delta.stateMachineStatus()!=null) {
+            stateMachineStatus(delta.stateMachineStatus());
+        }
+        for(Map.Entry<S, S> entry : delta.lastActiveChildStates().entrySet()) {
+            lastActiveChildStateFor(entry.getKey(), entry.getValue());
+        }
+        for(Map.Entry<S, List<S>> entry : delta.subStates().entrySet()) {
+            clearSubStatesOn(entry.getKey());
+            for(S subState : entry.getValue()) {
+                restoreSubStateFor(entry.getKey(), subState);
+            }
+        }
+        for(Map.Entry<S, StateMachineData.Reader<? extends StateMachine<?, S, E, C>, S, E, C>> entry : 
+                delta.linkedStateData().entrySet()) {
+            linkedStateDataOn(entry.getKey(), entry.getValue());
+        }
+        resetVersion(delta.version());
     }
     
     private Map<S, StateMachineData.Reader<? extends StateMachine<?, S, E, C>, S, E, C>> getLinkedStateData() {
@@ -105,6 +311,14 @@ implements StateMachineData<T, S, E, C>, StateMachineData.Reader<T, S, E, C>, St
     public StateMachineData.Reader<T, S, E, C> read() {
         return this;
     }
+    
+    /**
+     * Read data by function from other thread while state machine may be processing events. History and 
+     * sub states cannot be changed until function returns, so that function reads them consistently.
+     */
+    synchronized <R> R readLocked(Function<StateMachineData.Reader<T, S, E, C>, R> function) {
+        return function.apply(this);
+    }
 
     @Override
     public StateMachineData.Writer<T, S, E, C> write() {
@@ -113,46 +327,147 @@ implements StateMachineData<T, S, E, C>, StateMachineData.Reader<T, S, E, C>, St
 
     @Override
     public void currentState(S currentStateId) {
-        this.currentState = currentStateId;
+        if(!Objects.equal(currentState, currentStateId)) {
+            this.currentState = currentStateId;
+            currentStateVersion = ++version;
+            activeConfigChanged();
+        }
     }
 
     @Override
     public void lastState(S lastStateId) {
-        this.lastState = lastStateId;
+        if(!Objects.equal(lastState, lastStateId)) {
+            this.lastState = lastStateId;
+            lastStateVersion = ++version;
+        }
     }
 
     @Override
     public void initalState(S initialStateId) {
-        this.initialState = initialStateId;
+        if(!Objects.equal(initialState, initialStateId)) {
+            this.initialState = initialStateId;
+            initialStateVersion = ++version;
+        }
     }
 
     @Override
-    public void lastActiveChildStateFor(S parentStateId, S childStateId) {
-        lastActiveChildStateStore.put(parentStateId, childStateId);
+    public synchronized void lastActiveChildStateFor(S parentStateId, S childStateId) {
+        if(isIndexed()) {
+            int parentIndex = stateIndex.indexOf(parentStateId);
+            if(parentIndex<0) return;
+            if(lastActiveChildIndexes==null) {
+                if(childStateId==null) return;
+                lastActiveChildIndexes = new int[stateIndex.size()];
+                Arrays.fill(lastActiveChildIndexes, -1);
+                lastActiveChildVersions = new long[stateIndex.size()];
+            }
+            int childIndex = stateIndex.indexOf(childStateId);
+            if(lastActiveChildIndexes[parentIndex]!=childIndex) {
+                lastActiveChildIndexes[parentIndex] = childIndex;
+                lastActiveChildVersions[parentIndex] = ++version;
+            }
+        } else {
+            boolean exists = lastActiveChildStateStore.containsKey(parentStateId);
+            S lastChildStateId = lastActiveChildStateStore.put(parentStateId, childStateId);
+            if(!exists || !Objects.equal(lastChildStateId, childStateId)) {
+                lastActiveChildVersionStore.put(parentStateId, ++version);
+            }
+        }
+    }
+    
+    private boolean isParallelState(S stateId) {
+        ImmutableState<T, S, E, C> rawState = rawStateFrom(stateId);
+        return rawState!=null && rawState.isParallelState();
     }
 
     @Override
     public void subStateFor(S parentStateId, S subStateId) {
-        if(rawStateFrom(parentStateId)!=null && rawStateFrom(parentStateId).isParallelState()) {
-            parallelStatesStore.put(parentStateId, subStateId);
+        if(isParallelState(parentStateId)) {
+            restoreSubStateFor(parentStateId, subStateId);
         } else {
             logger.warn("Cannot set sub states on none parallel state {}.", parentStateId);
         }
     }
     
+    /**
+     * Restore sub state of parallel state without checking parallel state, which is used when data is 
+     * restored from saved data that has no states for reference.
+     */
+    synchronized void restoreSubStateFor(S parentStateId, S subStateId) {
+        if(isIndexed()) {
+            addSubStateIndex(stateIndex.indexOf(parentStateId), stateIndex.indexOf(subStateId));
+        } else {
+            parallelStatesStore.put(parentStateId, subStateId);
+            subStateVersionStore.put(parentStateId, ++version);
+        }
+        activeConfigChanged();
+    }
+    
+    // remove all the sub states of parallel state without checking parallel state
+    private synchronized void clearSubStatesOn(S parentStateId) {
+        if(isIndexed()) {
+            int parentIndex = stateIndex.indexOf(parentStateId);
+            if(subStateSizes!=null && parentIndex>=0 && subStateSizes[parentIndex]>0) {
+                subStateSizes[parentIndex] = 0;
+                subStateVersions[parentIndex] = ++version;
+            }
+        } else if(!parallelStatesStore.removeAll(parentStateId).isEmpty()) {
+            subStateVersionStore.put(parentStateId, ++version);
+        }
+        activeConfigChanged();
+    }
+    
+    private void addSubStateIndex(int parentIndex, int subStateIndex) {
+        if(parentIndex<0 || subStateIndex<0) return;
+        if(subStateIndexes==null) {
+            subStateIndexes = new int[stateIndex.size()][];
+            subStateSizes = new int[stateIndex.size()];
+            subStateVersions = new long[stateIndex.size()];
+        }
+        int[] indexes = subStateIndexes[parentIndex];
+        int size = subStateSizes[parentIndex];
+        if(indexes==null) {
+            indexes = subStateIndexes[parentIndex] = new int[2];
+        } else if(indexes.length==size) {
+            indexes = subStateIndexes[parentIndex] = Arrays.copyOf(indexes, size*2);
+        }
+        indexes[size] = subStateIndex;
+        subStateSizes[parentIndex] = size+1;
+        subStateVersions[parentIndex] = ++version;
+    }
+    
     @Override
-    public void removeSubState(S parentStateId, S subStateId) {
-        if(rawStateFrom(parentStateId)!=null && rawStateFrom(parentStateId).isParallelState()) {
-            parallelStatesStore.remove(parentStateId, subStateId);
+    public synchronized void removeSubState(S parentStateId, S subStateId) {
+        if(isParallelState(parentStateId)) {
+            if(isIndexed()) {
+                removeSubStateIndex(stateIndex.indexOf(parentStateId), stateIndex.indexOf(subStateId));
+            } else if(parallelStatesStore.remove(parentStateId, subStateId)) {
+                subStateVersionStore.put(parentStateId, ++version);
+            }
+            activeConfigChanged();
         } else {
             logger.warn("Cannot remove sub states on none parallel state {}.", parentStateId);
         }
     }
     
+    private void removeSubStateIndex(int parentIndex, int subStateIndex) {
+        if(subStateIndexes==null || parentIndex<0 || subStateIndexes[parentIndex]==null) return;
+        int[] indexes = subStateIndexes[parentIndex];
+        int size = subStateSizes[parentIndex];
+        for(int i=0; i<size; ++i) {
+            if(indexes[i]==subStateIndex) {
+                System.arraycopy(indexes, i+1, indexes, i, size-i-1);
+                subStateSizes[parentIndex] = size-1;
+                subStateVersions[parentIndex] = ++version;
+                return;
+            }
+        }
+    }
+    
     @Override
     public void removeSubStatesOn(S parentStateId) {
-        if(rawStateFrom(parentStateId).isParallelState()) {
-            parallelStatesStore.removeAll(parentStateId);
+        if(isParallelState(parentStateId)) {
+            clearSubStatesOn(parentStateId);
         } 
     }
 
@@ -172,19 +487,140 @@ implements StateMachineData<T, S, E, C>, StateMachineData.Reader<T, S, E, C>, St
     }
 
     @Override
-    public S lastActiveChildStateOf(S parentStateId) {
+    public synchronized S lastActiveChildStateOf(S parentStateId) {
+        if(isIndexed()) {
+            int parentIndex = stateIndex.indexOf(parentStateId);
+            return (lastActiveChildIndexes!=null && parentIndex>=0) ? 
+                    stateIndex.stateOf(lastActiveChildIndexes[parentIndex]) : null;
+        }
         return lastActiveChildStateStore.get(parentStateId);
     }
     
     @Override
-    public Collection<S> activeParentStates() {
-        return Collections.unmodifiableCollection(lastActiveChildStateStore.keySet());
+    public synchronized Collection<S> activeParentStates() {
+        if(isIndexed()) {
+            if(lastActiveChildIndexes==null) {
+                return Collections.emptyList();
+            }
+            List<S> parentStates = Lists.newArrayList();
+            for(int i=0; i<lastActiveChildIndexes.length; ++i) {
+                if(lastActiveChildIndexes[i]>=0) parentStates.add(stateIndex.stateOf(i));
+            }
+            return Collections.unmodifiableList(parentStates);
+        }
+        return ImmutableList.copyOf(lastActiveChildStateStore.keySet());
     }
     
     @Override
-    public List<S> subStatesOn(S parentStateId) {
+    public synchronized List<S> subStatesOn(S parentStateId) {
+        if(isIndexed()) {
+            int parentIndex = stateIndex.indexOf(parentStateId);
+            if(subStateSizes==null || parentIndex<0 || subStateSizes[parentIndex]==0) {
+                return Collections.<S>emptyList();
+            }
+            int size = subStateSizes[parentIndex];
+            int[] indexes = subStateIndexes[parentIndex];
+            List<S> subStates = Lists.newArrayListWithCapacity(size);
+            for(int i=0; i<size; ++i) {
+                subStates.add(stateIndex.stateOf(indexes[i]));
+            }
+            return Collections.unmodifiableList(subStates);
+        }
         List<S> subStates = parallelStatesStore.get(parentStateId);
-        return subStates!=null ? Collections.unmodifiableList(subStates) : Collections.<S>emptyList();
+        return subStates!=null ? ImmutableList.copyOf(subStates) : Collections.<S>emptyList();
+    }
+    
+    @Override
+    public boolean isActive(S stateId) {
+        if(isIndexed()) {
+            int index = stateIndex.indexOf(stateId);
+            if(index<0) return false;
+            return activeConfiguration().states.get(index);
+        }
+        
+        ImmutableState<T, S, E, C> rawState = rawStateFrom(stateId);
+        if(rawState==null) return false;
+        if(isAncestorOrSelf(rawState, currentRawState())) return true;
+        synchronized(this) {
+            for(S subState : parallelStatesStore.values()) {
+                if(isAncestorOrSelf(rawState, rawStateFrom(subState))) return true;
+            }
+        }
+        return false;
+    }
+    
+    private boolean isAncestorOrSelf(ImmutableState<T, S, E, C> ancestor, ImmutableState<T, S, E, C> state) {
+        for(ImmutableState<T, S, E, C> s=state; s!=null; s=s.getParentState()) {
+            if(s==ancestor) return true;
+        }
+        return false;
+    }
+    
+    private void activeConfigChanged() {
+        // only the thread processing events writes data, so increment needs no atomicity
+        activeConfigStamp = activeConfigStamp+1;
+    }
+    
+    /*
+     * Active configuration is rebuilt into a new bit set only when queried after states changed, and then 
+     * published as a whole, so that readers never modify configuration seen by other readers. isActive is 
+     * O(1) while states are unchanged, and the first query after a change pays for the rebuild, which walks 
+     * ancestors of all the active leaf states. Rebuild holds the lock of sub states so that they are read 
+     * consistently, and it is repeated if current state is changed by the writer meanwhile.
+     */
+    private ActiveConfiguration activeConfiguration() {
+        ActiveConfiguration configuration = activeConfiguration;
+        if(configuration!=null && configuration.stamp==activeConfigStamp) {
+            return configuration;
+        }
+        return rebuildActiveConfiguration();
+    }
+    
+    private synchronized ActiveConfiguration rebuildActiveConfiguration() {
+        while(true) {
+            int stamp = activeConfigStamp;
+            ActiveConfiguration configuration = activeConfiguration;
+            if(configuration!=null && configuration.stamp==stamp) {
+                return configuration;
+            }
+            BitSet states = new BitSet(stateIndex.size());
+            markActive(states, rawStateByIndex(stateIndex.indexOf(currentState)));
+            int[] sizes = subStateSizes;
+            int[][] indexes = subStateIndexes;
+            if(sizes!=null && indexes!=null) {
+                for(int i=0; i<sizes.length; ++i) {
+                    for(int j=0; j<sizes[i]; ++j) {
+                        markActive(states, rawStateByIndex(indexes[i][j]));
+                    }
+                }
+            }
+            if(stamp==activeConfigStamp) {
+                configuration = new ActiveConfiguration(states, stamp);
+                activeConfiguration = configuration;
+                return configuration;
+            }
+        }
+    }
+    
+    private void markActive(BitSet states, ImmutableState<T, S, E, C> state) {
+        for(ImmutableState<T, S, E, C> s=state; s!=null; s=s.getParentState()) {
+            states.set(stateIndex.indexOf(s.getStateId()));
+        }
+    }
+    
+    private static final class ActiveConfiguration {
+        final BitSet states;
+        final int stamp;
+        
+        ActiveConfiguration(BitSet states, int stamp) {
+            this.states = states;
+            this.stamp = stamp;
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private ImmutableState<T, S, E, C> rawStateByIndex(int index) {
+        return (ImmutableState<T, S, E, C>)stateIndex.valueOf(index);
     }
     
     @Override
@@ -199,6 +635,9 @@ implements StateMachineData<T, S, E, C>, StateMachineData.Reader<T, S, E, C>, St
     
     @Override
     public ImmutableState<T, S, E, C> rawStateFrom(S stateId) {
+        if(isIndexed()) {
+            return rawStateByIndex(stateIndex.indexOf(stateId));
+        }
         return getStates().get(stateId);
     }
     
@@ -229,22 +668,34 @@ implements StateMachineData<T, S, E, C>, StateMachineData.Reader<T, S, E, C>, St
     
     @Override
     public void typeOfStateMachine(Class<? extends T> stateMachineType) {
-        this.stateMachineType = stateMachineType;
+        if(this.stateMachineType!=stateMachineType) {
+            this.stateMachineType = stateMachineType;
+            typeVersion = ++version;
+        }
     }
     
     @Override
     public void typeOfState(Class<S> stateClass) {
-        this.stateType = stateClass;
+        if(this.stateType!=stateClass) {
+            this.stateType = stateClass;
+            typeVersion = ++version;
+        }
     }
     
     @Override
     public void typeOfEvent(Class<E> eventClass) {
-        this.eventType = eventClass;
+        if(this.eventType!=eventClass) {
+            this.eventType = eventClass;
+            typeVersion = ++version;
+        }
     }
     
     @Override
     public void typeOfContext(Class<C> contextClass) {
-        this.contextType = contextClass;
+        if(this.contextType!=contextClass) {
+            this.contextType = contextClass;
+            typeVersion = ++version;
+        }
     }
     
     @Override
@@ -259,7 +710,19 @@ implements StateMachineData<T, S, E, C>, StateMachineData.Reader<T, S, E, C>, St
 
     @Override
     public Collection<S> parallelStates() {
-        return Collections.unmodifiableCollection(parallelStatesStore.keySet());
+        if(isIndexed()) {
+            if(subStateSizes==null) {
+                return Collections.emptyList();
+            }
+            List<S> parallelStates = Lists.newArrayList();
+            for(int i=0; i<subStateSizes.length; ++i) {
+                if(subStateSizes[i]>0) parallelStates.add(stateIndex.stateOf(i));
+            }
+            return Collections.unmodifiableList(parallelStates);
+        }
+        synchronized(this) {
+            return ImmutableList.copyOf(parallelStatesStore.keySet());
+        }
     }
 
     @Override
@@ -282,11 +745,20 @@ implements StateMachineData<T, S, E, C>, StateMachineData.Reader<T, S, E, C>, St
     public void linkedStateDataOn(S linkedState,
             StateMachineData.Reader<? extends StateMachine<?, S, E, C>, S, E, C> linkStateData) {
         getLinkedStateData().put(linkedState, linkStateData);
+        if(linkStateVersionStore==null) {
+            linkStateVersionStore = Maps.newHashMap();
+        }
+        linkStateVersionStore.put(linkedState, ++version);
     }
 
     @Override
     public void stateMachineStatus(StateMachineStatus status) {
         this.status = status;
+        // toggling between BUSY and IDLE on every event does not make data changed
+        if(status!=StateMachineStatus.BUSY && versionedStatus!=status) {
+            versionedStatus = status;
+            statusVersion = ++version;
+        }
     }
 
     @Override
@@ -294,6 +766,24 @@ implements StateMachineData<T, S, E, C>, StateMachineData.Reader<T, S, E, C>, St
         return status;
     }
     
+    @Override
+    public long version() {
+        return version;
+    }
+    
+    // indexed storage is transient, so serialize a hash based copy instead
+    private Object writeReplace() {
+        if(!isIndexed()) {
+            return this;
+        }
+        StateMachineDataImpl<T, S, E, C> copy = new StateMachineDataImpl<T, S, E, C>();
+        copy.dump(this);
+        if(linkStateDataStore!=null) {
+            copy.getLinkedStateData().putAll(linkStateDataStore);
+        }
+        return copy;
+    }
+    
     @Override
     public boolean isLocked() {
         return lock!=0;
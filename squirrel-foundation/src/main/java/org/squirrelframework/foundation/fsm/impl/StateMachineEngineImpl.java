@@ -0,0 +1,324 @@
+package org.squirrelframework.foundation.fsm.impl;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.squirrelframework.foundation.fsm.Action;
+import org.squirrelframework.foundation.fsm.AsyncAction;
+import org.squirrelframework.foundation.fsm.ImmutableLinkedState;
+import org.squirrelframework.foundation.fsm.ImmutableState;
+import org.squirrelframework.foundation.fsm.ImmutableTransition;
+import org.squirrelframework.foundation.fsm.StateMachine;
+import org.squirrelframework.foundation.fsm.StateMachineBuilder;
+import org.squirrelframework.foundation.fsm.StateMachineData;
+import org.squirrelframework.foundation.fsm.StateMachineEngine;
+import org.squirrelframework.foundation.fsm.TransitionResult;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+public class StateMachineEngineImpl<K, T extends StateMachine<T, S, E, C>, S, E, C> implements StateMachineEngine<K, T, S, E, C> {
+    
+    private final StateMachineBuilder<T, S, E, C> builder;
+    
+    private final S initialStateId;
+    
+    private final Object[] extraParams;
+    
+    private final Partition[] partitions;
+    
+    private volatile boolean shutdown = false;
+    
+    public StateMachineEngineImpl(StateMachineBuilder<T, S, E, C> builder, 
+            S initialStateId, int partitionCount, Object[] extraParams) {
+        this(builder, initialStateId, partitionCount, false, extraParams);
+    }
+    
+    /**
+     * In flyweight mode state machine instances are not kept by engine. Each partition owns one driver 
+     * state machine which shares the definition, and only compact record of state machine data is kept 
+     * for each id. Therefore state machine used in flyweight mode should not keep any data of business 
+     * entity in its fields.
+     */
+    public StateMachineEngineImpl(StateMachineBuilder<T, S, E, C> builder, 
+            S initialStateId, int partitionCount, boolean flyweight, Object[] extraParams) {
+        Preconditions.checkNotNull(builder, "State machine builder cannot be null");
+        Preconditions.checkNotNull(initialStateId, "Initial state cannot be null");
+        Preconditions.checkArgument(partitionCount>0, "Partition count must be positive");
+        this.builder = builder;
+        this.initialStateId = initialStateId;
+        this.extraParams = extraParams!=null ? extraParams : new Object[0];
+        this.partitions = new StateMachineEngineImpl.Partition[partitionCount];
+        for(int i=0; i<partitionCount; ++i) {
+            partitions[i] = flyweight ? new FlyweightPartition(i) : new InstancePartition(i);
+        }
+    }
+    
+    @Override
+    public ListenableFuture<TransitionResult<T, S, E, C>> dispatch(final K id, final E event, final C context) {
+        Preconditions.checkNotNull(id, "State machine id cannot be null");
+        if(shutdown) {
+            return Futures.immediateFailedFuture(new RejectedExecutionException("State machine engine is shutdown."));
+        }
+        final Partition partition = partitions[getPartitionOf(id)];
+        final SettableFuture<TransitionResult<T, S, E, C>> future = SettableFuture.create();
+        try {
+            partition.worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Futures.addCallback(partition.process(id, event, context), 
+                                new FutureCallback<TransitionResult<T, S, E, C>>() {
+                                    @Override
+                                    public void onSuccess(TransitionResult<T, S, E, C> result) {
+                                        future.set(result);
+                                    }
+                                    @Override
+                                    public void onFailure(Throwable t) {
+                                        future.setException(t);
+                                    }
+                                });
+                    } catch(RuntimeException e) {
+                        future.setException(e);
+                    }
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            future.setException(e);
+        }
+        return future;
+    }
+    
+    @Override
+    public T getStateMachine(K id) {
+        return partitions[getPartitionOf(id)].get(id);
+    }
+    
+    @Override
+    public T removeStateMachine(K id) {
+        return partitions[getPartitionOf(id)].remove(id);
+    }
+    
+    @Override
+    public int size() {
+        int size = 0;
+        for(Partition partition : partitions) {
+            size += partition.size();
+        }
+        return size;
+    }
+    
+    @Override
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+    
+    @Override
+    public int getPartitionOf(K id) {
+        // spread higher bits of hash code as ids may have poor distributed hash codes
+        int h = id.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return (h & 0x7fffffff) % partitions.length;
+    }
+    
+    @Override
+    public int getQueueDepth(int partition) {
+        return partitions[partition].worker.getQueue().size();
+    }
+    
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        for(Partition partition : partitions) {
+            partition.worker.shutdown();
+        }
+    }
+    
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+    
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for(Partition partition : partitions) {
+            long remaining = deadline - System.nanoTime();
+            if(!partition.worker.awaitTermination(remaining, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private T newStateMachine() {
+        T stateMachine = builder.newStateMachine(initialStateId, extraParams);
+        // events of state machine are always processed by partition worker thread
+        ((AbstractStateMachine<T, S, E, C>)stateMachine).setAsyncExecutor(MoreExecutors.sameThreadExecutor());
+        return stateMachine;
+    }
+    
+    private abstract class Partition {
+        
+        final ThreadPoolExecutor worker;
+        
+        Partition(int index) {
+            worker = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), 
+                    new ThreadFactoryBuilder().setNameFormat("squirrel-fsm-engine-"+index).setDaemon(true).build());
+        }
+        
+        // always called by worker thread of partition
+        abstract ListenableFuture<TransitionResult<T, S, E, C>> process(K id, E event, C context);
+        
+        abstract T get(K id);
+        
+        abstract T remove(K id);
+        
+        abstract int size();
+    }
+    
+    private class InstancePartition extends Partition {
+        
+        // instances are only created by the worker thread of partition, but can be read by other threads
+        private final ConcurrentMap<K, T> stateMachines = new ConcurrentHashMap<K, T>();
+        
+        InstancePartition(int index) {
+            super(index);
+        }
+        
+        @Override
+        ListenableFuture<TransitionResult<T, S, E, C>> process(K id, E event, C context) {
+            T stateMachine = stateMachines.get(id);
+            if(stateMachine==null) {
+                stateMachine = newStateMachine();
+                stateMachines.put(id, stateMachine);
+            }
+            // event is processed in place as async executor of state machine is same thread executor
+            return stateMachine.fireAsync(event, context);
+        }
+        
+        @Override
+        T get(K id) {
+            return stateMachines.get(id);
+        }
+        
+        @Override
+        T remove(K id) {
+            return stateMachines.remove(id);
+        }
+        
+        @Override
+        int size() {
+            return stateMachines.size();
+        }
+    }
+    
+    private class FlyweightPartition extends Partition {
+        
+        // records are replaced instead of modified, so that they can be safely read by other threads
+        private final ConcurrentMap<K, FlyweightRecord> records = new ConcurrentHashMap<K, FlyweightRecord>();
+        
+        private final AbstractStateMachine<T, S, E, C> driver;
+        
+        private final StateIndex<S> stateIndex;
+        
+        private final FlyweightRecord initialRecord;
+        
+        FlyweightPartition(int index) {
+            super(index);
+            driver = (AbstractStateMachine<T, S, E, C>)newStateMachine();
+            StateMachineData.Reader<T, S, E, C> data = driver.getStateMachineData().read();
+            for(ImmutableState<T, S, E, C> rawState : data.rawStates()) {
+                if(rawState instanceof ImmutableLinkedState) {
+                    throw new IllegalArgumentException("Flyweight state machine engine does not support linked state.");
+                }
+                // record of id is saved when event returns, which is before asynchronous action completed
+                Preconditions.checkArgument(!hasAsyncAction(rawState), 
+                        "Flyweight state machine engine does not support asynchronous action.");
+                // timeouts would be armed on the shared driver instead of the state machine of each id
+                Preconditions.checkArgument(rawState.getTimedTransitions().isEmpty(), 
+                        "Flyweight state machine engine does not support timed transition.");
+            }
+            Preconditions.checkArgument(data.states().size()<=Short.MAX_VALUE, 
+                    "Too many states for flyweight state machine engine.");
+            stateIndex = new StateIndex<S>(data.states());
+            initialRecord = FlyweightRecord.initial(initialStateId, stateIndex);
+        }
+        
+        @Override
+        ListenableFuture<TransitionResult<T, S, E, C>> process(K id, E event, C context) {
+            FlyweightRecord record = records.get(id);
+            if(record==null) {
+                record = initialRecord;
+            }
+            StateMachineData<T, S, E, C> data = driver.getStateMachineData();
+            record.loadInto(data, stateIndex);
+            try {
+                return driver.fireAsync(event, context);
+            } finally {
+                FlyweightRecord newRecord = FlyweightRecord.of(data.read(), stateIndex, record);
+                if(newRecord!=record || record==initialRecord) {
+                    records.put(id, newRecord);
+                }
+            }
+        }
+        
+        private boolean hasAsyncAction(ImmutableState<T, S, E, C> state) {
+            if(hasAsyncAction(state.getEntryActions()) || hasAsyncAction(state.getExitActions())) {
+                return true;
+            }
+            for(ImmutableTransition<T, S, E, C> transition : state.getAllTransitions()) {
+                if(hasAsyncAction(transition.getActions())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private boolean hasAsyncAction(List<Action<T, S, E, C>> actions) {
+            for(Action<T, S, E, C> action : actions) {
+                if(action instanceof AsyncAction) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        // create a detached state machine instance from the record
+        private T materialize(FlyweightRecord record) {
+            if(record==null) {
+                return null;
+            }
+            T stateMachine = newStateMachine();
+            record.loadInto(((AbstractStateMachine<T, S, E, C>)stateMachine).getStateMachineData(), stateIndex);
+            return stateMachine;
+        }
+        
+        @Override
+        T get(K id) {
+            return materialize(records.get(id));
+        }
+        
+        @Override
+        T remove(K id) {
+            return materialize(records.remove(id));
+        }
+        
+        @Override
+        int size() {
+            return records.size();
+        }
+    }
+}
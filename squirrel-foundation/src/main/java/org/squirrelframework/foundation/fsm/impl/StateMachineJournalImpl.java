@@ -0,0 +1,564 @@
+package org.squirrelframework.foundation.fsm.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.squirrelframework.foundation.exception.ErrorCodes;
+import org.squirrelframework.foundation.exception.SquirrelRuntimeException;
+import org.squirrelframework.foundation.fsm.Converter;
+import org.squirrelframework.foundation.fsm.StateMachine;
+import org.squirrelframework.foundation.fsm.StateMachineBuilder;
+import org.squirrelframework.foundation.fsm.StateMachineData;
+import org.squirrelframework.foundation.fsm.StateMachineJournal;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * File based state machine journal. Events are appended into memory mapped segment files of fixed size, and
+ * mapped segment is forced to disk once every configured number of events or once the oldest unforced event
+ * is older than configured interval, whichever comes first. Snapshot is saved as a separate file which
+ * contains data of each state machine serialized by {@link BinaryStateMachineDataSerializer}.
+ * <p>
+ * Each event is appended as one record with checksum and sequence number. When journal is opened, records
+ * are scanned from the first segment and the scan stops at first torn or corrupted record, which is then
+ * overwritten by following records.
+ */
+public class StateMachineJournalImpl<K, T extends StateMachine<T, S, E, C>, S, E, C>
+    implements StateMachineJournal<K, T, S, E, C> {
+
+    private static final Logger logger = LoggerFactory.getLogger(StateMachineJournalImpl.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64*1024*1024;
+
+    public static final int DEFAULT_SYNC_EVENTS = 1000;
+
+    public static final long DEFAULT_SYNC_INTERVAL_MICROS = 1000;
+
+    static final String SEGMENT_PREFIX = "journal-";
+
+    static final String SEGMENT_SUFFIX = ".log";
+
+    static final String SNAPSHOT_PREFIX = "snapshot-";
+
+    static final String SNAPSHOT_SUFFIX = ".snp";
+
+    // record := int(body length) int(checksum of body) body
+    // body   := long(sequence) string(id) string(event) string(context)
+    // string := int(length, -1 for null) UTF-8 bytes
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final File directory;
+
+    private final Converter<K> idConverter;
+
+    private final Converter<E> eventConverter;
+
+    private final Converter<C> contextConverter;
+
+    private final int segmentSize;
+
+    private final int syncEvents;
+
+    private final long syncIntervalNanos;
+
+    private final ScheduledExecutorService syncer;
+
+    private final BinaryStateMachineDataSerializer<T, S, E, C> dataSerializer =
+            new BinaryStateMachineDataSerializer<T, S, E, C>();
+
+    // following fields are guarded by journal itself
+    private final List<Segment> segments = Lists.newArrayList();
+
+    private Segment current;
+
+    private ByteBuffer body = ByteBuffer.allocate(256);
+
+    private final CRC32 checksum = new CRC32();
+
+    private long lastSequence = 0;
+
+    private int unsyncedEvents = 0;
+
+    private long firstUnsyncedTime;
+
+    private boolean closed = false;
+
+    public StateMachineJournalImpl(File directory, Converter<K> idConverter, Converter<E> eventConverter,
+            Converter<C> contextConverter) {
+        this(directory, idConverter, eventConverter, contextConverter,
+                DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_EVENTS, DEFAULT_SYNC_INTERVAL_MICROS);
+    }
+
+    /**
+     * @param segmentSize size of each segment file in bytes
+     * @param syncEvents maximum number of events recorded between two syncs
+     * @param syncIntervalMicros maximum age of unsynced event in microseconds, zero means events are only
+     * synced by number
+     */
+    public StateMachineJournalImpl(File directory, Converter<K> idConverter, Converter<E> eventConverter,
+            Converter<C> contextConverter, int segmentSize, int syncEvents, long syncIntervalMicros) {
+        Preconditions.checkNotNull(directory, "Journal directory cannot be null");
+        Preconditions.checkNotNull(idConverter, "Converter of state machine id cannot be null");
+        Preconditions.checkNotNull(eventConverter, "Converter of event cannot be null");
+        Preconditions.checkNotNull(contextConverter, "Converter of context cannot be null");
+        Preconditions.checkArgument(segmentSize>RECORD_HEADER_SIZE, "Segment size is too small");
+        Preconditions.checkArgument(syncEvents>0, "Sync events must be positive");
+        Preconditions.checkArgument(syncIntervalMicros>=0, "Sync interval cannot be negative");
+        this.directory = directory;
+        this.idConverter = idConverter;
+        this.eventConverter = eventConverter;
+        this.contextConverter = contextConverter;
+        this.segmentSize = segmentSize;
+        this.syncEvents = syncEvents;
+        this.syncIntervalNanos = TimeUnit.MICROSECONDS.toNanos(syncIntervalMicros);
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new SquirrelRuntimeException(ErrorCodes.JOURNAL_IO_ERROR, directory, "cannot create directory");
+        }
+        open();
+        if(syncIntervalMicros>0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().
+                    setNameFormat("squirrel-fsm-journal-%d").setDaemon(true).build());
+            syncer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    syncIfDue();
+                }
+            }, syncIntervalMicros, syncIntervalMicros, TimeUnit.MICROSECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    private void open() {
+        long snapshotSequence = latestSnapshotSequence();
+        List<File> files = listFiles(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+        boolean corrupted = false;
+        for(File file : files) {
+            long firstSequence = sequenceOf(file, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+            if(corrupted || (!segments.isEmpty() && firstSequence!=lastSequence+1)) {
+                // records of segment cannot be reached after a corrupted record
+                logger.warn("Journal segment \""+file+"\" is discarded.");
+                file.delete();
+                corrupted = true;
+                continue;
+            }
+            if(segments.isEmpty()) {
+                lastSequence = firstSequence-1;
+            }
+            Segment segment = new Segment(file, firstSequence);
+            ByteBuffer buffer = map(file, false, 0);
+            lastSequence = scan(buffer, lastSequence, null);
+            segment.length = buffer.position();
+            corrupted = buffer.remaining()>=4 && buffer.getInt(buffer.position())!=0;
+            segments.add(segment);
+        }
+        lastSequence = Math.max(lastSequence, snapshotSequence);
+        if(!segments.isEmpty()) {
+            current = segments.get(segments.size()-1);
+            current.buffer = map(current.file, true, segmentSize);
+            current.buffer.position(current.length);
+            if(corrupted) {
+                // clear torn record, so that it is not mistaken as part of new records
+                while(current.buffer.hasRemaining()) {
+                    current.buffer.put((byte)0);
+                }
+                current.buffer.position(current.length);
+            }
+        }
+    }
+
+    @Override
+    public synchronized long record(K id, E event, C context) {
+        Preconditions.checkNotNull(id, "State machine id cannot be null");
+        Preconditions.checkNotNull(event, "Event cannot be null");
+        Preconditions.checkState(!closed, "Journal is closed.");
+        long sequence = lastSequence+1;
+        body.clear();
+        while(true) {
+            try {
+                body.putLong(sequence);
+                putString(idConverter.convertToString(id));
+                putString(eventConverter.convertToString(event));
+                putString(context!=null ? contextConverter.convertToString(context) : null);
+                break;
+            } catch(BufferOverflowException e) {
+                body = ByteBuffer.allocate(body.capacity()*2);
+            }
+        }
+        int length = body.position();
+        checksum.reset();
+        checksum.update(body.array(), 0, length);
+        if(current==null || current.buffer.remaining()<RECORD_HEADER_SIZE+length) {
+            rollSegment(sequence, RECORD_HEADER_SIZE+length);
+        }
+        current.buffer.putInt(length);
+        current.buffer.putInt((int)checksum.getValue());
+        current.buffer.put(body.array(), 0, length);
+        lastSequence = sequence;
+        if(unsyncedEvents++==0) {
+            firstUnsyncedTime = System.nanoTime();
+        }
+        if(unsyncedEvents>=syncEvents) {
+            sync();
+        }
+        return sequence;
+    }
+
+    private void putString(String value) {
+        if(value==null) {
+            body.putInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(Charsets.UTF_8);
+            body.putInt(bytes.length);
+            body.put(bytes);
+        }
+    }
+
+    private void rollSegment(long firstSequence, int recordSize) {
+        Preconditions.checkArgument(recordSize<=segmentSize,
+                "Event record of %s bytes exceeds segment size %s.", recordSize, segmentSize);
+        if(current!=null) {
+            current.buffer.force();
+            current.buffer = null;
+            unsyncedEvents = 0;
+        }
+        File file = new File(directory, fileName(SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+        current = new Segment(file, firstSequence);
+        current.buffer = map(file, true, segmentSize);
+        segments.add(current);
+    }
+
+    @Override
+    public void fire(K id, T stateMachine, E event, C context) {
+        record(id, event, context);
+        stateMachine.fire(event, context);
+    }
+
+    @Override
+    public synchronized void sync() {
+        if(unsyncedEvents>0 && current!=null) {
+            current.buffer.force();
+            unsyncedEvents = 0;
+        }
+    }
+
+    private synchronized void syncIfDue() {
+        if(!closed && unsyncedEvents>0 && System.nanoTime()-firstUnsyncedTime>=syncIntervalNanos) {
+            sync();
+        }
+    }
+
+    @Override
+    public void snapshot(Map<K, ? extends T> stateMachines) {
+        long sequence;
+        synchronized(this) {
+            Preconditions.checkState(!closed, "Journal is closed.");
+            sync();
+            sequence = lastSequence;
+        }
+        File file = new File(directory, fileName(SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+        File temp = new File(directory, file.getName()+".tmp");
+        try {
+            FileOutputStream fileOut = new FileOutputStream(temp);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                out.writeInt(stateMachines.size());
+                ByteBuffer buffer = ByteBuffer.allocate(1024);
+                for(Map.Entry<K, ? extends T> entry : stateMachines.entrySet()) {
+                    StateMachineData.Reader<T, S, E, C> data = entry.getValue().dumpSavedData();
+                    Preconditions.checkState(data!=null, "State machine %s is processing event.", entry.getKey());
+                    while(true) {
+                        try {
+                            buffer.clear();
+                            dataSerializer.serialize(data, buffer);
+                            break;
+                        } catch(BufferOverflowException e) {
+                            buffer = ByteBuffer.allocate(buffer.capacity()*2);
+                        }
+                    }
+                    out.writeUTF(idConverter.convertToString(entry.getKey()));
+                    out.writeInt(buffer.position());
+                    out.write(buffer.array(), 0, buffer.position());
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                fileOut.close();
+            }
+            if(file.exists() && !file.delete() || !temp.renameTo(file)) {
+                throw new IOException("cannot rename "+temp);
+            }
+        } catch(IOException e) {
+            throw new SquirrelRuntimeException(e, ErrorCodes.JOURNAL_IO_ERROR, directory, e.getMessage());
+        }
+        deleteObsoleteFiles(sequence);
+    }
+
+    private synchronized void deleteObsoleteFiles(long snapshotSequence) {
+        for(File file : listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if(sequenceOf(file, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)<snapshotSequence) {
+                file.delete();
+            }
+        }
+        // segment can be deleted when all of its events are covered by snapshot
+        while(segments.size()>1 && segments.get(1).firstSequence<=snapshotSequence+1) {
+            segments.remove(0).file.delete();
+        }
+    }
+
+    @Override
+    public Map<K, T> recover(StateMachineBuilder<T, S, E, C> builder, S initialStateId, Object... extraParams) {
+        Map<K, T> stateMachines = Maps.newLinkedHashMap();
+        long snapshotSequence = loadSnapshot(stateMachines, builder, initialStateId, extraParams);
+        replay(snapshotSequence, stateMachines, builder, initialStateId, extraParams);
+        return stateMachines;
+    }
+
+    private long loadSnapshot(Map<K, T> stateMachines, StateMachineBuilder<T, S, E, C> builder,
+            S initialStateId, Object[] extraParams) {
+        long snapshotSequence = latestSnapshotSequence();
+        if(snapshotSequence<0) {
+            return 0;
+        }
+        File file = new File(directory, fileName(SNAPSHOT_PREFIX, snapshotSequence, SNAPSHOT_SUFFIX));
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                for(int i=0, size=in.readInt(); i<size; ++i) {
+                    K id = idConverter.convertFromString(in.readUTF());
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    T stateMachine = builder.newStateMachine(initialStateId, extraParams);
+                    stateMachine.loadSavedData(dataSerializer.deserialize(ByteBuffer.wrap(bytes)));
+                    stateMachines.put(id, stateMachine);
+                }
+            } finally {
+                in.close();
+            }
+        } catch(IOException e) {
+            throw new SquirrelRuntimeException(e, ErrorCodes.JOURNAL_IO_ERROR, directory, e.getMessage());
+        }
+        return snapshotSequence;
+    }
+
+    private void replay(long snapshotSequence, final Map<K, T> stateMachines, final StateMachineBuilder<T, S, E, C> builder,
+            final S initialStateId, final Object[] extraParams) {
+        List<ByteBuffer> buffers = Lists.newArrayList();
+        long firstSequence;
+        synchronized(this) {
+            if(segments.isEmpty()) {
+                return;
+            }
+            firstSequence = segments.get(0).firstSequence;
+            for(Segment segment : segments) {
+                if(segment==current) {
+                    ByteBuffer buffer = current.buffer.duplicate();
+                    buffer.flip();
+                    buffers.add(buffer);
+                } else {
+                    buffers.add(map(segment.file, false, 0));
+                }
+            }
+        }
+        RecordVisitor visitor = new RecordVisitor(snapshotSequence) {
+            @Override
+            void visit(String idValue, String eventValue, String contextValue) {
+                K id = idConverter.convertFromString(idValue);
+                T stateMachine = stateMachines.get(id);
+                if(stateMachine==null) {
+                    stateMachine = builder.newStateMachine(initialStateId, extraParams);
+                    stateMachines.put(id, stateMachine);
+                }
+                E event = eventConverter.convertFromString(eventValue);
+                C context = contextValue!=null ? contextConverter.convertFromString(contextValue) : null;
+                replay(stateMachine, event, context);
+            }
+        };
+        long sequence = firstSequence-1;
+        for(ByteBuffer buffer : buffers) {
+            sequence = scan(buffer, sequence, visitor);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void replay(T stateMachine, E event, C context) {
+        AbstractStateMachine<T, S, E, C> dummyStateMachine = stateMachine instanceof AbstractStateMachine ?
+                (AbstractStateMachine<T, S, E, C>)stateMachine : null;
+        if(dummyStateMachine!=null) {
+            dummyStateMachine.setDummyExecution(true);
+        }
+        try {
+            stateMachine.fire(event, context);
+        } catch(RuntimeException e) {
+            logger.warn("Replay event \""+event+"\" failed.", e);
+        } finally {
+            if(dummyStateMachine!=null) {
+                dummyStateMachine.setDummyExecution(false);
+            }
+        }
+    }
+
+    /**
+     * Scan records from current position of buffer. Scan stops at the end of records, or at the first record
+     * which is torn, corrupted or out of sequence, and buffer position is left at the start of that record.
+     *
+     * @return sequence of last valid record
+     */
+    private static long scan(ByteBuffer buffer, long lastSequence, RecordVisitor visitor) {
+        CRC32 crc = new CRC32();
+        while(buffer.remaining()>=RECORD_HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int expectedChecksum = buffer.getInt();
+            if(length<=0 || length>buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            crc.reset();
+            crc.update(bytes);
+            ByteBuffer record = ByteBuffer.wrap(bytes);
+            if((int)crc.getValue()!=expectedChecksum || record.getLong()!=lastSequence+1) {
+                buffer.position(start);
+                break;
+            }
+            lastSequence++;
+            if(visitor!=null && lastSequence>visitor.fromSequence) {
+                visitor.visit(getString(record), getString(record), getString(record));
+            }
+        }
+        return lastSequence;
+    }
+
+    private static String getString(ByteBuffer record) {
+        int length = record.getInt();
+        if(length<0) {
+            return null;
+        }
+        String value = new String(record.array(), record.position(), length, Charsets.UTF_8);
+        record.position(record.position()+length);
+        return value;
+    }
+
+    @Override
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    @Override
+    public synchronized void close() {
+        if(closed) {
+            return;
+        }
+        sync();
+        closed = true;
+        current = null;
+        segments.clear();
+        if(syncer!=null) {
+            syncer.shutdown();
+        }
+    }
+
+    private long latestSnapshotSequence() {
+        long sequence = -1;
+        for(File file : listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            sequence = Math.max(sequence, sequenceOf(file, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX));
+        }
+        return sequence;
+    }
+
+    private List<File> listFiles(final String prefix, final String suffix) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && name.endsWith(suffix);
+            }
+        });
+        if(files==null) {
+            return Lists.newArrayList();
+        }
+        // sequence is zero padded in file name
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    private static String fileName(String prefix, long sequence, String suffix) {
+        return prefix+String.format("%020d", sequence)+suffix;
+    }
+
+    private static long sequenceOf(File file, String prefix, String suffix) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(prefix.length(), name.length()-suffix.length()));
+    }
+
+    private MappedByteBuffer map(File file, boolean writable, int size) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+            try {
+                // mapping is still valid after file is closed
+                return writable ?
+                        raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, raf.length())) :
+                        raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            } finally {
+                raf.close();
+            }
+        } catch(IOException e) {
+            throw new SquirrelRuntimeException(e, ErrorCodes.JOURNAL_IO_ERROR, file, e.getMessage());
+        }
+    }
+
+    private static final class Segment {
+
+        final File file;
+
+        final long firstSequence;
+
+        // length of valid records when segment is opened
+        int length;
+
+        // only the segment being written is mapped
+        MappedByteBuffer buffer;
+
+        Segment(File file, long firstSequence) {
+            this.file = file;
+            this.firstSequence = firstSequence;
+        }
+    }
+
+    private static abstract class RecordVisitor {
+
+        final long fromSequence;
+
+        RecordVisitor(long fromSequence) {
+            this.fromSequence = fromSequence;
+        }
+
+        abstract void visit(String id, String event, String context);
+    }
+}
@@ -0,0 +1,160 @@
+package org.squirrelframework.foundation.fsm.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+import org.squirrelframework.foundation.exception.ErrorCodes;
+import org.squirrelframework.foundation.exception.SquirrelRuntimeException;
+import org.squirrelframework.foundation.fsm.Converter;
+import org.squirrelframework.foundation.fsm.StateMachine;
+import org.squirrelframework.foundation.fsm.StateMachineData;
+import org.squirrelframework.foundation.fsm.StateMachineStore;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * File based state machine store. Data of each state machine is serialized by
+ * {@link BinaryStateMachineDataSerializer} into its own file named after the id, and the file is memory
+ * mapped when data is loaded. Data is written and synced into temporary file first and then renamed over
+ * the existing file, so that loaded data is never partially written and never missing.
+ */
+public class StateMachineStoreImpl<K, T extends StateMachine<T, S, E, C>, S, E, C>
+    implements StateMachineStore<K, T, S, E, C> {
+
+    static final String FILE_PREFIX = "fsm-";
+
+    static final String FILE_SUFFIX = ".dat";
+
+    private final File directory;
+
+    private final Converter<K> idConverter;
+
+    private final BinaryStateMachineDataSerializer<T, S, E, C> dataSerializer =
+            new BinaryStateMachineDataSerializer<T, S, E, C>();
+
+    private ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+    public StateMachineStoreImpl(File directory, Converter<K> idConverter) {
+        Preconditions.checkNotNull(directory, "Store directory cannot be null");
+        Preconditions.checkNotNull(idConverter, "Converter of state machine id cannot be null");
+        this.directory = directory;
+        this.idConverter = idConverter;
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new SquirrelRuntimeException(ErrorCodes.STATE_MACHINE_STORE_IO_ERROR, directory, "cannot create directory");
+        }
+    }
+
+    @Override
+    public StateMachineData.Reader<T, S, E, C> load(K id) {
+        File file = fileOf(id);
+        if(!file.exists()) {
+            // save may be interrupted after existing file was moved aside
+            file = backupOf(file);
+            if(!file.exists()) {
+                return null;
+            }
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                // mapping is still valid after file is closed
+                return dataSerializer.deserialize(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+            } finally {
+                raf.close();
+            }
+        } catch(IOException e) {
+            throw new SquirrelRuntimeException(e, ErrorCodes.STATE_MACHINE_STORE_IO_ERROR, file, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void save(K id, StateMachineData.Reader<T, S, E, C> data) {
+        Preconditions.checkNotNull(data, "Saved data cannot be null");
+        File file = fileOf(id);
+        File temp = new File(directory, file.getName()+".tmp");
+        while(true) {
+            try {
+                buffer.clear();
+                dataSerializer.serialize(data, buffer);
+                break;
+            } catch(BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity()*2);
+            }
+        }
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(buffer.array(), 0, buffer.position());
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            replace(temp, file);
+        } catch(IOException e) {
+            throw new SquirrelRuntimeException(e, ErrorCodes.STATE_MACHINE_STORE_IO_ERROR, file, e.getMessage());
+        }
+    }
+
+    // rename replaces existing file atomically on POSIX file systems, while on other platforms the existing 
+    // file is moved aside first and restored if temporary file cannot take its place
+    private void replace(File temp, File file) throws IOException {
+        if(temp.renameTo(file)) {
+            return;
+        }
+        File backup = backupOf(file);
+        if(file.exists()) {
+            // backup left by interrupted save is older than existing file
+            backup.delete();
+        }
+        if(file.exists() && !file.renameTo(backup)) {
+            throw new IOException("cannot rename "+file);
+        }
+        if(!temp.renameTo(file)) {
+            backup.renameTo(file);
+            throw new IOException("cannot rename "+temp);
+        }
+        backup.delete();
+    }
+
+    private File backupOf(File file) {
+        return new File(directory, file.getName()+".bak");
+    }
+
+    @Override
+    public synchronized void saveAll(Map<K, ? extends StateMachineData.Reader<T, S, E, C>> data) {
+        for(Map.Entry<K, ? extends StateMachineData.Reader<T, S, E, C>> entry : data.entrySet()) {
+            save(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public synchronized void remove(K id) {
+        File file = fileOf(id);
+        if(file.exists() && !file.delete()) {
+            throw new SquirrelRuntimeException(ErrorCodes.STATE_MACHINE_STORE_IO_ERROR, file, "cannot delete file");
+        }
+        backupOf(file).delete();
+    }
+
+    @Override
+    public void close() {
+        // nothing is held open between calls
+    }
+
+    private File fileOf(K id) {
+        Preconditions.checkNotNull(id, "State machine id cannot be null");
+        try {
+            return new File(directory, FILE_PREFIX+URLEncoder.encode(idConverter.convertToString(id), "UTF-8")+FILE_SUFFIX);
+        } catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
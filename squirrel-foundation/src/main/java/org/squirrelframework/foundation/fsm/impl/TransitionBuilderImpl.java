@@ -2,6 +2,7 @@ package org.squirrelframework.foundation.fsm.impl;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.squirrelframework.foundation.component.SquirrelComponent;
 import org.squirrelframework.foundation.fsm.Action;
@@ -46,6 +47,11 @@ class TransitionBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C> impleme
     public void perform(List<Action<T, S, E, C>> actions) {
         transition.addActions(actions);
     }
+    
+    @Override
+    public void evalMvel(String expression) {
+        transition.addAction(FSM.<T, S, E, C>newMvelAction(expression));
+    }
 
     @Override
     public On<T, S, E, C> on(E event) {
@@ -55,6 +61,14 @@ class TransitionBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C> impleme
         return this;
     }
 
+    @Override
+    public On<T, S, E, C> after(long delay, TimeUnit unit) {
+        transition = sourceState.addTimedTransition(delay, unit);
+        transition.setTargetState(targetState);
+        transition.setType(transitionType);
+        return this;
+    }
+
     @Override
     public To<T, S, E, C> to(S stateId) {
         targetState = FSM.getState(states, stateId);
@@ -82,6 +96,12 @@ class TransitionBuilderImpl<T extends StateMachine<T, S, E, C>, S, E, C> impleme
         return this;
     }
     
+    @Override
+    public When<T, S, E, C> whenMvel(String expression) {
+        transition.setCondition(FSM.<C>newMvelCondition(expression));
+        return this;
+    }
+    
     @Override
     public To<T, S, E, C> within(S stateId) {
         sourceState = targetState = FSM.getState(states, stateId);
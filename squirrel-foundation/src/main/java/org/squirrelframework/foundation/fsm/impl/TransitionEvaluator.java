@@ -0,0 +1,335 @@
+package org.squirrelframework.foundation.fsm.impl;
+
+import java.util.List;
+import java.util.Set;
+
+import org.squirrelframework.foundation.fsm.HistoryType;
+import org.squirrelframework.foundation.fsm.ImmutableLinkedState;
+import org.squirrelframework.foundation.fsm.ImmutableState;
+import org.squirrelframework.foundation.fsm.ImmutableTransition;
+import org.squirrelframework.foundation.fsm.StateMachine;
+import org.squirrelframework.foundation.fsm.StateMachineData;
+import org.squirrelframework.foundation.fsm.StateMachineStatus;
+import org.squirrelframework.foundation.fsm.TransitionType;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Evaluates target state of event by walking transition tables from current state read-only. Evaluation
+ * follows the same rules as {@link StateImpl#internalFire} and selects transitions by
+ * {@link TransitionImpl#select}, but
+ * only transition conditions are evaluated. No action is deferred, no listener is notified and state machine
+ * data is never written, so that event can be tested without copying state machine data.
+ * <p>
+ * History recorded by states exited during the evaluated transition is derived from the transition path
+ * instead of being written to state machine data.
+ */
+final class TransitionEvaluator {
+
+    private TransitionEvaluator() {
+    }
+
+    /**
+     * @return target state of event or null if event is declined
+     */
+    static <T extends StateMachine<T, S, E, C>, S, E, C> ImmutableState<T, S, E, C> evaluate(
+            ImmutableState<T, S, E, C> currentState, E event, C context, E finishEvent,
+            StateMachineData.Reader<T, S, E, C> data) {
+        return fire(currentState, currentState, event, context, finishEvent, data);
+    }
+
+    /**
+     * @return state entered by history when state machine starts from given state
+     */
+    static <T extends StateMachine<T, S, E, C>, S, E, C> ImmutableState<T, S, E, C> enter(
+            ImmutableState<T, S, E, C> state, StateMachineData.Reader<T, S, E, C> data) {
+        return enterByHistory(state, null, null, data);
+    }
+
+    /**
+     * Collect events which would be accepted by current state. Candidate events of each active state are 
+     * collected when state is prepared, and only transition conditions are evaluated here.
+     */
+    static <T extends StateMachine<T, S, E, C>, S, E, C> void collectAcceptableEvents(
+            ImmutableState<T, S, E, C> currentState, C context, StateMachineData.Reader<T, S, E, C> data, 
+            Set<E> acceptableEvents) {
+        Set<E> candidateEvents = collectCandidateEvents(currentState, context, data, acceptableEvents);
+        for(E event : candidateEvents) {
+            if(!acceptableEvents.contains(event) && isAccepted(currentState, event, context, data)) {
+                acceptableEvents.add(event);
+            }
+        }
+    }
+    
+    private static <T extends StateMachine<T, S, E, C>, S, E, C> Set<E> collectCandidateEvents(
+            ImmutableState<T, S, E, C> state, C context, StateMachineData.Reader<T, S, E, C> data, 
+            Set<E> acceptableEvents) {
+        Set<E> candidateEvents = state.getAcceptableEvents();
+        boolean copied = false;
+        for(ImmutableState<T, S, E, C> s=state; s!=null; s=s.getParentState()) {
+            if(s.isParallelState()) {
+                for(S subStateId : data.subStatesOn(s.getStateId())) {
+                    ImmutableState<T, S, E, C> subState = data.rawStateFrom(subStateId);
+                    if(subState==null || subState.isFinalState()) continue;
+                    if(!copied) {
+                        candidateEvents = Sets.newLinkedHashSet(candidateEvents);
+                        copied = true;
+                    }
+                    candidateEvents.addAll(collectCandidateEvents(subState, context, data, acceptableEvents));
+                }
+            }
+            if(s instanceof ImmutableLinkedState) {
+                StateMachine<? extends StateMachine<?, S, E, C>, S, E, C> linkedStateMachine = 
+                        ((ImmutableLinkedState<T, S, E, C>)s).getLinkedStateMachine();
+                if(linkedStateMachine!=null && linkedStateMachine.getStatus()!=StateMachineStatus.TERMINATED) {
+                    // events accepted by linked state machine are accepted without further evaluation
+                    acceptableEvents.addAll(linkedStateMachine.getAcceptableEvents(context));
+                }
+            }
+            if(s.getParentState()!=null && s.getParentState().isRegion()) break;
+        }
+        return candidateEvents;
+    }
+    
+    /**
+     * Same as {@link #evaluate} but event is also accepted when it only changes state of parallel regions.
+     */
+    private static <T extends StateMachine<T, S, E, C>, S, E, C> boolean isAccepted(
+            ImmutableState<T, S, E, C> state, E event, C context, StateMachineData.Reader<T, S, E, C> data) {
+        if(state instanceof ImmutableLinkedState && isAcceptedByLinkedStateMachine(
+                ((ImmutableLinkedState<T, S, E, C>)state).getLinkedStateMachine(), event, context)) {
+            return true;
+        }
+        if(state.isParallelState()) {
+            for(S subStateId : data.subStatesOn(state.getStateId())) {
+                ImmutableState<T, S, E, C> subState = data.rawStateFrom(subStateId);
+                if(subState!=null && !subState.isFinalState() && isAccepted(subState, event, context, data)) {
+                    return true;
+                }
+            }
+        }
+        if(TransitionImpl.select(state.getTransitions(event), context)!=null) {
+            return true;
+        }
+        ImmutableState<T, S, E, C> parentState = state.getParentState();
+        return parentState!=null && !parentState.isRegion() && isAccepted(parentState, event, context, data);
+    }
+
+    private static <T extends StateMachine<T, S, E, C>, S, E, C> ImmutableState<T, S, E, C> fire(
+            ImmutableState<T, S, E, C> state, ImmutableState<T, S, E, C> origin, E event, C context,
+            E finishEvent, StateMachineData.Reader<T, S, E, C> data) {
+        if(state instanceof ImmutableLinkedState && isAcceptedByLinkedStateMachine(
+                ((ImmutableLinkedState<T, S, E, C>)state).getLinkedStateMachine(), event, context)) {
+            // event accepted by linked state machine does not change state of containing state machine
+            return state;
+        }
+
+        if(state.isParallelState()) {
+            ImmutableState<T, S, E, C> target = fireParallel(state, event, context, finishEvent, data);
+            if(target!=null) {
+                return target;
+            }
+        }
+
+        ImmutableTransition<T, S, E, C> transition = TransitionImpl.select(state.getTransitions(event), context);
+        if(transition!=null) {
+            return targetOf(transition, origin, context, finishEvent, data);
+        }
+
+        ImmutableState<T, S, E, C> parentState = state.getParentState();
+        if(parentState!=null && !parentState.isRegion()) {
+            return fire(parentState, origin, event, context, finishEvent, data);
+        }
+        return null;
+    }
+
+    /**
+     * Event is dispatched to each region, only transition which leaves parallel state or finishes all the
+     * regions changes state of state machine.
+     */
+    private static <T extends StateMachine<T, S, E, C>, S, E, C> ImmutableState<T, S, E, C> fireParallel(
+            ImmutableState<T, S, E, C> parallelState, E event, C context, E finishEvent,
+            StateMachineData.Reader<T, S, E, C> data) {
+        List<S> subStateIds = data.subStatesOn(parallelState.getStateId());
+        int size = subStateIds.size();
+        if(size==0) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        ImmutableState<T, S, E, C>[] subStates = new ImmutableState[size];
+        for(int i=0; i<size; ++i) {
+            subStates[i] = data.rawStateFrom(subStateIds.get(i));
+        }
+        for(int i=0; i<size; ++i) {
+            if(subStates[i]==null || subStates[i].isFinalState()) continue;
+            ImmutableState<T, S, E, C> target = fire(subStates[i], subStates[i], event, context, finishEvent, data);
+            if(target==null) continue;
+            if(!isAncestor(parallelState, target)) {
+                return target;
+            }
+            subStates[i] = target;
+            if(target.isFinalState() && target.getParentState().getParentState()==parallelState &&
+                    isAllFinal(subStates)) {
+                return fire(parallelState, parallelState, finishEvent, context, finishEvent, data);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finish event is processed by the first satisfied transition of parent state of reached final state.
+     */
+    private static <T extends StateMachine<T, S, E, C>, S, E, C> ImmutableState<T, S, E, C> fireFinish(
+            ImmutableState<T, S, E, C> parentState, C context, E finishEvent,
+            StateMachineData.Reader<T, S, E, C> data) {
+        ImmutableTransition<T, S, E, C> transition = TransitionImpl.select(
+                parentState.getTransitions(finishEvent), context);
+        return transition!=null ? targetOf(transition, parentState, context, finishEvent, data) : null;
+    }
+
+    /**
+     * @return target state of selected transition, or state reached by finish event if target is final state
+     */
+    private static <T extends StateMachine<T, S, E, C>, S, E, C> ImmutableState<T, S, E, C> targetOf(
+            ImmutableTransition<T, S, E, C> transition, ImmutableState<T, S, E, C> origin, C context, 
+            E finishEvent, StateMachineData.Reader<T, S, E, C> data) {
+        ImmutableState<T, S, E, C> target = targetOf(transition, origin, data);
+        if(target.isFinalState() && !target.isRootState()) {
+            ImmutableState<T, S, E, C> finishTarget = fireFinish(target.getParentState(), context, finishEvent, data);
+            return finishTarget!=null ? finishTarget : target;
+        }
+        return target;
+    }
+
+    private static <T extends StateMachine<T, S, E, C>, S, E, C> ImmutableState<T, S, E, C> targetOf(
+            ImmutableTransition<T, S, E, C> transition, ImmutableState<T, S, E, C> origin,
+            StateMachineData.Reader<T, S, E, C> data) {
+        if(transition.getType()==TransitionType.INTERNAL) {
+            return transition.getTargetState();
+        }
+        ImmutableState<T, S, E, C> topExited = topExitedState(transition);
+        ImmutableState<T, S, E, C> exitBoundary = topExited!=null ?
+                topExited.getParentState() : transition.getSourceState();
+        return enterByHistory(transition.getTargetState(), origin, exitBoundary, data);
+    }
+
+    /**
+     * Same traversal as {@link TransitionImpl} performs to exit states from transition source state.
+     * @return the outermost state exited by transition or null if no state above origin is exited
+     */
+    private static <T extends StateMachine<T, S, E, C>, S, E, C> ImmutableState<T, S, E, C> topExitedState(
+            ImmutableTransition<T, S, E, C> transition) {
+        ImmutableState<T, S, E, C> source = transition.getSourceState(), target = transition.getTargetState();
+        ImmutableState<T, S, E, C> topExited = null;
+        if(source.getLevel()<target.getLevel() && transition.getType()==TransitionType.EXTERNAL) {
+            topExited = source;
+        }
+        while(true) {
+            if(source==transition.getTargetState()) {
+                if(transition.getType()!=TransitionType.LOCAL) {
+                    topExited = source;
+                }
+                return topExited;
+            } else if(source==target) {
+                return topExited;
+            } else if(source.getParentState()==target.getParentState()) {
+                return source;
+            } else if(source.getLevel()>target.getLevel()) {
+                topExited = source;
+                source = source.getParentState();
+            } else if(source.getLevel()<target.getLevel()) {
+                target = target.getParentState();
+            } else {
+                topExited = source;
+                source = source.getParentState();
+                target = target.getParentState();
+            }
+        }
+    }
+
+    private static <T extends StateMachine<T, S, E, C>, S, E, C> ImmutableState<T, S, E, C> enterByHistory(
+            ImmutableState<T, S, E, C> state, ImmutableState<T, S, E, C> origin,
+            ImmutableState<T, S, E, C> exitBoundary, StateMachineData.Reader<T, S, E, C> data) {
+        if(state.isFinalState() || state.isParallelState()) {
+            return state;
+        }
+        ImmutableState<T, S, E, C> lastActiveState;
+        switch (state.getHistoryType()) {
+        case NONE:
+            return state.getInitialState()!=null ? enterShallow(state.getInitialState()) : state;
+        case SHALLOW:
+            lastActiveState = lastActiveChildStateOf(state, origin, exitBoundary, data);
+            return lastActiveState!=null ? enterShallow(lastActiveState) : state;
+        case DEEP:
+            lastActiveState = lastActiveChildStateOf(state, origin, exitBoundary, data);
+            return lastActiveState!=null ? enterDeep(lastActiveState, origin, exitBoundary, data) : state;
+        default:
+            throw new IllegalArgumentException("Unknown HistoryType : " + state.getHistoryType());
+        }
+    }
+
+    private static <T extends StateMachine<T, S, E, C>, S, E, C> ImmutableState<T, S, E, C> enterShallow(
+            ImmutableState<T, S, E, C> state) {
+        while(state.getInitialState()!=null) {
+            state = state.getInitialState();
+        }
+        return state;
+    }
+
+    private static <T extends StateMachine<T, S, E, C>, S, E, C> ImmutableState<T, S, E, C> enterDeep(
+            ImmutableState<T, S, E, C> state, ImmutableState<T, S, E, C> origin,
+            ImmutableState<T, S, E, C> exitBoundary, StateMachineData.Reader<T, S, E, C> data) {
+        ImmutableState<T, S, E, C> lastActiveState = lastActiveChildStateOf(state, origin, exitBoundary, data);
+        while(lastActiveState!=null) {
+            state = lastActiveState;
+            lastActiveState = lastActiveChildStateOf(state, origin, exitBoundary, data);
+        }
+        return state;
+    }
+
+    /**
+     * States from origin up to exit boundary (exclusive) are exited before target state is entered, and
+     * each of them is recorded as last active child state of its parent if parent keeps history.
+     */
+    private static <T extends StateMachine<T, S, E, C>, S, E, C> ImmutableState<T, S, E, C> lastActiveChildStateOf(
+            ImmutableState<T, S, E, C> parentState, ImmutableState<T, S, E, C> origin,
+            ImmutableState<T, S, E, C> exitBoundary, StateMachineData.Reader<T, S, E, C> data) {
+        if(parentState.getHistoryType()!=HistoryType.NONE) {
+            for(ImmutableState<T, S, E, C> state=origin; state!=null && state!=exitBoundary; state=state.getParentState()) {
+                if(state.getParentState()==parentState) {
+                    return state;
+                }
+            }
+        }
+        S childStateId = data.lastActiveChildStateOf(parentState.getStateId());
+        return childStateId!=null ? data.rawStateFrom(childStateId) : parentState.getInitialState();
+    }
+
+    private static <T extends StateMachine<T, S, E, C>, S, E, C> boolean isAncestor(
+            ImmutableState<T, S, E, C> ancestor, ImmutableState<T, S, E, C> state) {
+        for(ImmutableState<T, S, E, C> parent=state.getParentState(); parent!=null; parent=parent.getParentState()) {
+            if(parent==ancestor) return true;
+        }
+        return false;
+    }
+
+    private static <T extends StateMachine<T, S, E, C>, S, E, C> boolean isAllFinal(
+            ImmutableState<T, S, E, C>[] states) {
+        for(ImmutableState<T, S, E, C> state : states) {
+            if(state==null || !state.isFinalState()) return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static <S, E, C> boolean isAcceptedByLinkedStateMachine(
+            StateMachine<? extends StateMachine<?, S, E, C>, S, E, C> linkedStateMachine, E event, C context) {
+        if(linkedStateMachine==null || linkedStateMachine.getStatus()==StateMachineStatus.TERMINATED) {
+            return false;
+        }
+        if(linkedStateMachine instanceof AbstractStateMachine) {
+            return ((AbstractStateMachine)linkedStateMachine).evaluate(event, context)!=null;
+        }
+        return !linkedStateMachine.test(event, context).equals(linkedStateMachine.getCurrentState());
+    }
+}
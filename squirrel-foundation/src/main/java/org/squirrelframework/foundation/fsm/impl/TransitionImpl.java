@@ -1,12 +1,14 @@
 package org.squirrelframework.foundation.fsm.impl;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.squirrelframework.foundation.fsm.Action;
 import org.squirrelframework.foundation.fsm.Actions;
 import org.squirrelframework.foundation.fsm.Condition;
 import org.squirrelframework.foundation.fsm.Conditions;
 import org.squirrelframework.foundation.fsm.ImmutableState;
+import org.squirrelframework.foundation.fsm.ImmutableTransition;
 import org.squirrelframework.foundation.fsm.MutableTransition;
 import org.squirrelframework.foundation.fsm.StateContext;
 import org.squirrelframework.foundation.fsm.StateMachine;
@@ -21,6 +23,9 @@ class TransitionImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements Mut
     
     private E event;
     
+    // delay of timed transition, zero for transition triggered by event
+    private long delayNanos = 0;
+    
     private Actions<T, S, E, C> actions = FSM.newActions();
     
     private Condition<C> condition = Conditions.always();
@@ -44,8 +49,9 @@ class TransitionImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements Mut
 
     @Override
     public ImmutableState<T, S, E, C> transit(final StateContext<T, S, E, C> stateContext) {
-        for(final Action<T, S, E, C> action : getActions()) {
-        	stateContext.getExecutor().defer(action,
+        List<Action<T, S, E, C>> transitActions = getActions();
+        for(int i=0, size=transitActions.size(); i<size; ++i) {
+        	stateContext.getExecutor().defer(transitActions.get(i),
         			sourceState.getStateId(), targetState.getStateId(), stateContext.getEvent(), 
                     stateContext.getContext(), stateContext.getStateMachine().getThis());
         }
@@ -92,6 +98,16 @@ class TransitionImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements Mut
         this.event = event;
     }
     
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(delayNanos, TimeUnit.NANOSECONDS);
+    }
+    
+    @Override
+    public void setDelay(long delay, TimeUnit unit) {
+        this.delayNanos = unit.toNanos(delay);
+    }
+    
     @Override
     public TransitionType getType() {
         return type;
@@ -182,27 +198,59 @@ class TransitionImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements Mut
     @Override
     public void internalFire(StateContext<T, S, E, C> stateContext) {
     	if(condition.isSatisfied(stateContext.getContext())) {
-    		ImmutableState<T, S, E, C> newState = stateContext.getSourceState();
-        	if(type==TransitionType.INTERNAL) {
-        		newState = transit(stateContext);
-        	} else {
-        		// exit origin states
-        		unwindSubStates(stateContext.getSourceState(), stateContext);
-        		// perform transition actions
-        		doTransit(getSourceState(), getTargetState(), stateContext);
-        		// enter new states
-        		newState = getTargetState().enterByHistory(stateContext);
-        	}
+    		ImmutableState<T, S, E, C> newState = perform(stateContext);
         	stateContext.getResult().setAccepted(true).setTargetState(newState);
     	}
     }
     
+    /**
+     * Select the transition taken by event, which is the first transition whose condition is satisfied. 
+     * Transitions fired by {@link StateImpl#internalFire} and evaluated by {@link TransitionEvaluator} are 
+     * both selected here.
+     * @return selected transition or null if no condition is satisfied
+     */
+    static <T extends StateMachine<T, S, E, C>, S, E, C> ImmutableTransition<T, S, E, C> select(
+            List<ImmutableTransition<T, S, E, C>> transitions, C context) {
+        for(int i=0, size=transitions.size(); i<size; ++i) {
+            ImmutableTransition<T, S, E, C> transition = transitions.get(i);
+            if(transition.getCondition().isSatisfied(context)) {
+                return transition;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Perform transition without checking condition, which defers all the exit, transition and entry 
+     * actions to executor in order and returns the new state.
+     */
+    ImmutableState<T, S, E, C> perform(StateContext<T, S, E, C> stateContext) {
+    	if(type==TransitionType.INTERNAL) {
+    		return transit(stateContext);
+    	}
+    	// exit origin states
+    	unwindSubStates(stateContext.getSourceState(), stateContext);
+    	// perform transition actions
+    	doTransit(getSourceState(), getTargetState(), stateContext);
+    	// enter new states
+    	return getTargetState().enterByHistory(stateContext);
+    }
+    
     private void unwindSubStates(ImmutableState<T, S, E, C> orgState, StateContext<T, S, E, C> stateContext) {
 		for (ImmutableState<T, S, E, C> state=orgState; state!=getSourceState(); state=state.getParentState()) {
+			// final state which raised completion event is left without exit, as if completion event 
+			// were fired from its parent state
+			if(state==orgState && isCompletionOf(state, stateContext)) continue;
 			if(state!=null) { state.exit(stateContext); }
 		}
 	}
     
+    private boolean isCompletionOf(ImmutableState<T, S, E, C> state, StateContext<T, S, E, C> stateContext) {
+        if(state==null || !state.isFinalState()) return false;
+        E finishEvent = ((AbstractStateMachine<T, S, E, C>)stateContext.getStateMachine()).getFinishEvent();
+        return finishEvent!=null && finishEvent.equals(stateContext.getEvent());
+    }
+    
     @Override
     public void accept(Visitor<T, S, E, C> visitor) {
         visitor.visitOnEntry(this);
@@ -234,7 +282,7 @@ class TransitionImpl<T extends StateMachine<T, S, E, C>, S, E, C> implements Mut
     
     @Override
     public String toString() {
-        return sourceState + "-[" + event.toString() +", "+
+        return sourceState + "-[" + (event!=null ? event.toString() : "after "+delayNanos+"ns") +", "+
                 condition.getClass().getSimpleName()+ "]->" + targetState;
     }
 
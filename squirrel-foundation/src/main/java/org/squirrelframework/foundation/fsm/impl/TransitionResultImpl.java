@@ -13,8 +13,12 @@ class TransitionResultImpl<T extends StateMachine<T, S, E, C>, S, E, C> implemen
 	
 	private  boolean accepted;
 	
+	private ImmutableState<T, S, E, C> sourceState;
+	
 	private ImmutableState<T, S, E, C> targetState;
 	
+	private Exception exception;
+	
 	private TransitionResult<T, S, E, C> parent;
 	
 	private List<TransitionResult<T, S, E, C>> subResults;
@@ -25,13 +29,27 @@ class TransitionResultImpl<T extends StateMachine<T, S, E, C>, S, E, C> implemen
 		subResults.add(subResult);
 	}
 
+	/**
+	 * Reset result to initial status, so that the same result can be reused by state machine for 
+	 * next event.
+	 */
+	void reset() {
+		accepted = false;
+		sourceState = null;
+		targetState = null;
+		exception = null;
+		parent = null;
+		if(subResults!=null) 
+			subResults.clear();
+	}
+
 	@Override
     public boolean isAccepted() {
 		if(accepted) {
 			return true;
 		} else if(subResults!=null) {
-			for(TransitionResult<T, S, E, C> subResult : getSubResults()) {
-				if(subResult.isAccepted()) return true;
+			for(int i=0, size=subResults.size(); i<size; ++i) {
+				if(subResults.get(i).isAccepted()) return true;
 			}
 		}
 	    return false;
@@ -95,6 +113,33 @@ class TransitionResultImpl<T extends StateMachine<T, S, E, C>, S, E, C> implemen
 
 	@Override
     public boolean isDeclined() {
-	    return !isAccepted();
+	    return !isFailed() && !isAccepted();
+    }
+	
+	@Override
+    public boolean isFailed() {
+	    return exception!=null;
+    }
+	
+	@Override
+    public Exception getException() {
+	    return exception;
+    }
+	
+	@Override
+    public TransitionResult<T, S, E, C> setException(Exception exception) {
+	    this.exception = exception;
+	    return this;
+    }
+	
+	@Override
+    public ImmutableState<T, S, E, C> getSourceState() {
+	    return sourceState;
+    }
+	
+	@Override
+    public TransitionResult<T, S, E, C> setSourceState(ImmutableState<T, S, E, C> sourceState) {
+	    this.sourceState = sourceState;
+	    return this;
     }
 }
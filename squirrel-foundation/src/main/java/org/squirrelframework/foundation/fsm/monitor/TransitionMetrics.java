@@ -0,0 +1,422 @@
+package org.squirrelframework.foundation.fsm.monitor;
+
+import java.beans.ConstructorProperties;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.squirrelframework.foundation.fsm.TransitionResult;
+import org.squirrelframework.foundation.util.LatencyHistogram;
+import org.squirrelframework.foundation.util.StripedCounter;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Transition metrics of one state machine type, which are recorded by state machines per source state and
+ * event. Recording looks up counters without allocation once the pair of source state and event is seen,
+ * and updates them with striped counters and lock-free histograms, so it is cheap enough to stay enabled
+ * in production.
+ * <p>
+ * Busy time is the time state machines own event processing without waiting for asynchronous actions,
+ * and queue depth is the number of external events waiting ahead when event is queued.
+ */
+public class TransitionMetrics<S, E> implements TransitionMetricsMXBean {
+
+    // concurrent map does not take null key, which is event of timed transitions
+    private static final Object NULL_KEY = new Object();
+
+    private final String stateMachineType;
+
+    private final ConcurrentMap<Object, ConcurrentMap<Object, TransitionCounters>> counters =
+            new ConcurrentHashMap<Object, ConcurrentMap<Object, TransitionCounters>>();
+
+    private static final Function<TransitionCounters, StripedCounter> ACCEPTED_COUNT = 
+            new Function<TransitionCounters, StripedCounter>() {
+        @Override
+        public StripedCounter apply(TransitionCounters transitionCounters) {
+            return transitionCounters.acceptedCount;
+        }
+    };
+
+    private static final Function<TransitionCounters, StripedCounter> DECLINED_COUNT = 
+            new Function<TransitionCounters, StripedCounter>() {
+        @Override
+        public StripedCounter apply(TransitionCounters transitionCounters) {
+            return transitionCounters.declinedCount;
+        }
+    };
+
+    private static final Function<TransitionCounters, StripedCounter> EXCEPTION_COUNT = 
+            new Function<TransitionCounters, StripedCounter>() {
+        @Override
+        public StripedCounter apply(TransitionCounters transitionCounters) {
+            return transitionCounters.exceptionCount;
+        }
+    };
+
+    private final StripedCounter busyTimeNanos = new StripedCounter();
+
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    private final LatencyHistogram queueDepths = new LatencyHistogram();
+
+    public TransitionMetrics(String stateMachineType) {
+        Preconditions.checkNotNull(stateMachineType, "State machine type cannot be null");
+        this.stateMachineType = stateMachineType;
+    }
+
+    /**
+     * Record transition of event from source state which took elapsed nanoseconds, including the time
+     * spent on asynchronous actions.
+     */
+    public void record(S sourceState, E event, TransitionResult<?, ?, ?, ?> result, long elapsedNanos) {
+        TransitionCounters transitionCounters = countersOf(sourceState, event);
+        if(result.isFailed()) {
+            transitionCounters.exceptionCount.increment();
+        } else if(result.isAccepted()) {
+            transitionCounters.acceptedCount.increment();
+        } else {
+            transitionCounters.declinedCount.increment();
+        }
+        transitionCounters.latencies.record(elapsedNanos);
+    }
+
+    private TransitionCounters countersOf(S sourceState, E event) {
+        Object eventKey = event!=null ? event : NULL_KEY;
+        ConcurrentMap<Object, TransitionCounters> countersOfState = counters.get(sourceState);
+        if(countersOfState==null) {
+            countersOfState = new ConcurrentHashMap<Object, TransitionCounters>();
+            ConcurrentMap<Object, TransitionCounters> existing = counters.putIfAbsent(sourceState, countersOfState);
+            if(existing!=null) countersOfState = existing;
+        }
+        TransitionCounters transitionCounters = countersOfState.get(eventKey);
+        if(transitionCounters==null) {
+            transitionCounters = new TransitionCounters(String.valueOf(sourceState), String.valueOf(event));
+            TransitionCounters existing = countersOfState.putIfAbsent(eventKey, transitionCounters);
+            if(existing!=null) transitionCounters = existing;
+        }
+        return transitionCounters;
+    }
+
+    public void recordQueueDepth(int depth) {
+        queueDepths.record(depth);
+        long currentMax = maxQueueDepth.get();
+        while(depth>currentMax && !maxQueueDepth.compareAndSet(currentMax, depth)) {
+            currentMax = maxQueueDepth.get();
+        }
+    }
+
+    public void addBusyTime(long nanos) {
+        busyTimeNanos.add(nanos);
+    }
+
+    /**
+     * @return copy of metrics of each transition, which can be inspected without touching counters being
+     * recorded. Counters are read one by one without stopping recording, so transitions recorded while
+     * snapshot is taken may be counted in some of the metrics but not in others.
+     */
+    public Snapshot snapshot() {
+        List<TransitionStats> transitionStats = Lists.newArrayList();
+        long accepted = 0, declined = 0, exceptions = 0;
+        for(Map<Object, TransitionCounters> countersOfState : counters.values()) {
+            for(TransitionCounters transitionCounters : countersOfState.values()) {
+                TransitionStats stats = transitionCounters.toStats();
+                accepted += stats.getAcceptedCount();
+                declined += stats.getDeclinedCount();
+                exceptions += stats.getExceptionCount();
+                transitionStats.add(stats);
+            }
+        }
+        long[] depths = queueDepths.getValuesAtPercentiles(50, 99);
+        return new Snapshot(stateMachineType, accepted, declined, exceptions, busyTimeNanos.sum(),
+                depths[0], depths[1], maxQueueDepth.get(), transitionStats);
+    }
+
+    // sum up one counter of all the transitions without taking a snapshot of the other metrics
+    private long sumOf(Function<TransitionCounters, StripedCounter> counter) {
+        long sum = 0;
+        for(Map<Object, TransitionCounters> countersOfState : counters.values()) {
+            for(TransitionCounters transitionCounters : countersOfState.values()) {
+                sum += counter.apply(transitionCounters).sum();
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public String getStateMachineType() {
+        return stateMachineType;
+    }
+
+    @Override
+    public long getAcceptedCount() {
+        return sumOf(ACCEPTED_COUNT);
+    }
+
+    @Override
+    public long getDeclinedCount() {
+        return sumOf(DECLINED_COUNT);
+    }
+
+    @Override
+    public long getExceptionCount() {
+        return sumOf(EXCEPTION_COUNT);
+    }
+
+    @Override
+    public long getBusyTimeNanos() {
+        return busyTimeNanos.sum();
+    }
+
+    @Override
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    @Override
+    public List<TransitionStats> getTransitionStats() {
+        return snapshot().getTransitionStats();
+    }
+
+    /**
+     * Reset all the metrics. Transitions recorded concurrently may be partially reset.
+     */
+    @Override
+    public void reset() {
+        for(Map<Object, TransitionCounters> countersOfState : counters.values()) {
+            for(TransitionCounters transitionCounters : countersOfState.values()) {
+                transitionCounters.reset();
+            }
+        }
+        busyTimeNanos.reset();
+        queueDepths.reset();
+        maxQueueDepth.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "TransitionMetrics["+stateMachineType+"]";
+    }
+
+    private static final class TransitionCounters {
+
+        final String sourceState;
+
+        final String event;
+
+        final StripedCounter acceptedCount = new StripedCounter();
+
+        final StripedCounter declinedCount = new StripedCounter();
+
+        final StripedCounter exceptionCount = new StripedCounter();
+
+        final LatencyHistogram latencies = new LatencyHistogram();
+
+        TransitionCounters(String sourceState, String event) {
+            this.sourceState = sourceState;
+            this.event = event;
+        }
+
+        TransitionStats toStats() {
+            long count = latencies.getCount();
+            long[] percentiles = latencies.getValuesAtPercentiles(50, 90, 99);
+            return new TransitionStats(sourceState, event, acceptedCount.sum(), declinedCount.sum(),
+                    exceptionCount.sum(), count==0 ? 0 : latencies.getTotal()/count,
+                    percentiles[0], percentiles[1], percentiles[2], latencies.getMax());
+        }
+
+        void reset() {
+            acceptedCount.reset();
+            declinedCount.reset();
+            exceptionCount.reset();
+            latencies.reset();
+        }
+    }
+
+    /**
+     * Metrics of transitions of one event from one source state. Latencies are in nanoseconds.
+     */
+    public static final class TransitionStats {
+
+        private final String sourceState;
+
+        private final String event;
+
+        private final long acceptedCount;
+
+        private final long declinedCount;
+
+        private final long exceptionCount;
+
+        private final long meanNanos;
+
+        private final long p50Nanos;
+
+        private final long p90Nanos;
+
+        private final long p99Nanos;
+
+        private final long maxNanos;
+
+        @ConstructorProperties({"sourceState", "event", "acceptedCount", "declinedCount", "exceptionCount",
+            "meanNanos", "p50Nanos", "p90Nanos", "p99Nanos", "maxNanos"})
+        public TransitionStats(String sourceState, String event, long acceptedCount, long declinedCount,
+                long exceptionCount, long meanNanos, long p50Nanos, long p90Nanos, long p99Nanos, long maxNanos) {
+            this.sourceState = sourceState;
+            this.event = event;
+            this.acceptedCount = acceptedCount;
+            this.declinedCount = declinedCount;
+            this.exceptionCount = exceptionCount;
+            this.meanNanos = meanNanos;
+            this.p50Nanos = p50Nanos;
+            this.p90Nanos = p90Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public String getSourceState() {
+            return sourceState;
+        }
+
+        public String getEvent() {
+            return event;
+        }
+
+        public long getAcceptedCount() {
+            return acceptedCount;
+        }
+
+        public long getDeclinedCount() {
+            return declinedCount;
+        }
+
+        public long getExceptionCount() {
+            return exceptionCount;
+        }
+
+        public long getMeanNanos() {
+            return meanNanos;
+        }
+
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        public long getP90Nanos() {
+            return p90Nanos;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "TransitionStats["+sourceState+" on "+event+": accepted="+acceptedCount+", declined="+
+                    declinedCount+", exception="+exceptionCount+", mean="+meanNanos+"ns, p99="+p99Nanos+
+                    "ns, max="+maxNanos+"ns]";
+        }
+    }
+
+    /**
+     * Metrics of one state machine type at the time snapshot is taken.
+     */
+    public static final class Snapshot {
+
+        private final String stateMachineType;
+
+        private final long acceptedCount;
+
+        private final long declinedCount;
+
+        private final long exceptionCount;
+
+        private final long busyTimeNanos;
+
+        private final long medianQueueDepth;
+
+        private final long p99QueueDepth;
+
+        private final long maxQueueDepth;
+
+        private final List<TransitionStats> transitionStats;
+
+        Snapshot(String stateMachineType, long acceptedCount, long declinedCount, long exceptionCount,
+                long busyTimeNanos, long medianQueueDepth, long p99QueueDepth, long maxQueueDepth,
+                List<TransitionStats> transitionStats) {
+            this.stateMachineType = stateMachineType;
+            this.acceptedCount = acceptedCount;
+            this.declinedCount = declinedCount;
+            this.exceptionCount = exceptionCount;
+            this.busyTimeNanos = busyTimeNanos;
+            this.medianQueueDepth = medianQueueDepth;
+            this.p99QueueDepth = p99QueueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.transitionStats = Collections.unmodifiableList(transitionStats);
+        }
+
+        public String getStateMachineType() {
+            return stateMachineType;
+        }
+
+        public long getAcceptedCount() {
+            return acceptedCount;
+        }
+
+        public long getDeclinedCount() {
+            return declinedCount;
+        }
+
+        public long getExceptionCount() {
+            return exceptionCount;
+        }
+
+        public long getBusyTimeNanos() {
+            return busyTimeNanos;
+        }
+
+        public long getMedianQueueDepth() {
+            return medianQueueDepth;
+        }
+
+        public long getP99QueueDepth() {
+            return p99QueueDepth;
+        }
+
+        public long getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        public List<TransitionStats> getTransitionStats() {
+            return transitionStats;
+        }
+
+        /**
+         * @return metrics of event from source state, or null if it is never recorded
+         */
+        public TransitionStats getTransitionStats(Object sourceState, Object event) {
+            String sourceStateName = String.valueOf(sourceState), eventName = String.valueOf(event);
+            for(TransitionStats stats : transitionStats) {
+                if(stats.getSourceState().equals(sourceStateName) && stats.getEvent().equals(eventName)) {
+                    return stats;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot["+stateMachineType+": accepted="+acceptedCount+", declined="+declinedCount+
+                    ", exception="+exceptionCount+", busy="+busyTimeNanos+"ns, maxQueueDepth="+maxQueueDepth+"]";
+        }
+    }
+}
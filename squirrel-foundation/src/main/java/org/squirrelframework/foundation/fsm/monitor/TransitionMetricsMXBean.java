@@ -0,0 +1,25 @@
+package org.squirrelframework.foundation.fsm.monitor;
+
+import java.util.List;
+
+/**
+ * JMX view of transition metrics of one state machine type.
+ */
+public interface TransitionMetricsMXBean {
+
+    String getStateMachineType();
+
+    long getAcceptedCount();
+
+    long getDeclinedCount();
+
+    long getExceptionCount();
+
+    long getBusyTimeNanos();
+
+    long getMaxQueueDepth();
+
+    List<TransitionMetrics.TransitionStats> getTransitionStats();
+
+    void reset();
+}
@@ -0,0 +1,111 @@
+package org.squirrelframework.foundation.fsm.monitor;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Registry of transition metrics per state machine type. State machines created after their type is
+ * registered record into the metrics of their type, and each registered metrics is also exposed as an
+ * MXBean named "org.squirrelframework.foundation.fsm:type=TransitionMetrics,name=&lt;class name&gt;".
+ */
+public class TransitionMetricsRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransitionMetricsRegistry.class);
+
+    public static final String OBJECT_NAME_DOMAIN = "org.squirrelframework.foundation.fsm";
+
+    private static final TransitionMetricsRegistry instance = new TransitionMetricsRegistry();
+
+    private final ConcurrentMap<Class<?>, TransitionMetrics<?, ?>> registry =
+            new ConcurrentHashMap<Class<?>, TransitionMetrics<?, ?>>();
+
+    public static TransitionMetricsRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * Enable transition metrics of state machine type.
+     * @return metrics of state machine type, which is created if not registered yet
+     */
+    @SuppressWarnings("unchecked")
+    public <S, E> TransitionMetrics<S, E> register(Class<?> stateMachineType) {
+        Preconditions.checkNotNull(stateMachineType, "State machine type cannot be null");
+        TransitionMetrics<?, ?> metrics = registry.get(stateMachineType);
+        if(metrics==null) {
+            TransitionMetrics<?, ?> newMetrics = new TransitionMetrics<S, E>(stateMachineType.getName());
+            metrics = registry.putIfAbsent(stateMachineType, newMetrics);
+            if(metrics==null) {
+                metrics = newMetrics;
+                registerMBean(stateMachineType, metrics);
+            }
+        }
+        return (TransitionMetrics<S, E>) metrics;
+    }
+
+    /**
+     * @return metrics of state machine type, or null if it is not registered
+     */
+    @SuppressWarnings("unchecked")
+    public <S, E> TransitionMetrics<S, E> get(Class<?> stateMachineType) {
+        return (TransitionMetrics<S, E>) registry.get(stateMachineType);
+    }
+
+    /**
+     * Disable transition metrics of state machine type. State machines already created keep recording
+     * into the removed metrics.
+     */
+    public void unregister(Class<?> stateMachineType) {
+        if(registry.remove(stateMachineType)!=null) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = objectNameOf(stateMachineType);
+                if(server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch(JMException e) {
+                logger.warn("Unregister transition metrics MBean of \""+stateMachineType.getName()+"\" failed.", e);
+            }
+        }
+    }
+
+    /**
+     * @return snapshots of all the registered state machine types
+     */
+    public List<TransitionMetrics.Snapshot> snapshot() {
+        List<TransitionMetrics.Snapshot> snapshots = Lists.newArrayList();
+        for(TransitionMetrics<?, ?> metrics : registry.values()) {
+            snapshots.add(metrics.snapshot());
+        }
+        return snapshots;
+    }
+
+    public static ObjectName objectNameOf(Class<?> stateMachineType) throws JMException {
+        return new ObjectName(OBJECT_NAME_DOMAIN+":type=TransitionMetrics,name="+
+                ObjectName.quote(stateMachineType.getName()));
+    }
+
+    private static void registerMBean(Class<?> stateMachineType, TransitionMetrics<?, ?> metrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectNameOf(stateMachineType);
+            if(!server.isRegistered(name)) {
+                server.registerMBean(metrics, name);
+            }
+        } catch(JMException e) {
+            // metrics are still available through snapshot
+            logger.warn("Register transition metrics MBean of \""+stateMachineType.getName()+"\" failed.", e);
+        }
+    }
+}
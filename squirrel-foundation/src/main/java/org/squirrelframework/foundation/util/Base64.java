@@ -0,0 +1,75 @@
+package org.squirrelframework.foundation.util;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Standard base64 codec with padding (RFC 4648), which does not depend on JDK internal or removed
+ * classes such as javax.xml.bind.DatatypeConverter.
+ */
+public final class Base64 {
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private static final int[] DECODE_TABLE = new int[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, -1);
+        for(int i=0; i<ALPHABET.length; ++i) {
+            DECODE_TABLE[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64() {}
+
+    public static String encode(byte[] bytes) {
+        Preconditions.checkNotNull(bytes);
+        char[] chars = new char[(bytes.length+2)/3*4];
+        int index = 0;
+        for(int i=0; i<bytes.length; i+=3) {
+            int remaining = bytes.length-i;
+            int bits = (bytes[i]&0xFF)<<16;
+            if(remaining>1) bits |= (bytes[i+1]&0xFF)<<8;
+            if(remaining>2) bits |= bytes[i+2]&0xFF;
+            chars[index++] = ALPHABET[(bits>>>18) & 0x3F];
+            chars[index++] = ALPHABET[(bits>>>12) & 0x3F];
+            chars[index++] = remaining>1 ? ALPHABET[(bits>>>6) & 0x3F] : '=';
+            chars[index++] = remaining>2 ? ALPHABET[bits & 0x3F] : '=';
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @throws IllegalArgumentException if value is not padded base64 text
+     */
+    public static byte[] decode(String value) {
+        Preconditions.checkNotNull(value);
+        int length = value.length();
+        Preconditions.checkArgument(length%4==0, "Base64 text length %s is not multiple of 4", length);
+        int padding = 0;
+        if(length>0 && value.charAt(length-1)=='=') ++padding;
+        if(length>1 && value.charAt(length-2)=='=') ++padding;
+        byte[] bytes = new byte[length/4*3-padding];
+        int index = 0;
+        for(int i=0; i<length; i+=4) {
+            int bits = 0;
+            for(int j=0; j<4; ++j) {
+                char c = value.charAt(i+j);
+                int sextet;
+                if(c=='=' && i+j>=length-padding) {
+                    sextet = 0;
+                } else {
+                    sextet = c<128 ? DECODE_TABLE[c] : -1;
+                    Preconditions.checkArgument(sextet>=0, "Illegal base64 character '%s'", c);
+                }
+                bits = (bits<<6) | sextet;
+            }
+            bytes[index++] = (byte)(bits>>>16);
+            if(index<bytes.length) bytes[index++] = (byte)(bits>>>8);
+            if(index<bytes.length) bytes[index++] = (byte)bits;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,132 @@
+package org.squirrelframework.foundation.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+
+import org.squirrelframework.foundation.exception.ErrorCodes;
+import org.squirrelframework.foundation.exception.SquirrelRuntimeException;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Compiled expression. Source text is parsed only once when expression is compiled and compiled expression
+ * is shared by all the callers of the same source and variable names. Parsed node tree is compiled into a
+ * generated class by {@link ExpressionCompiler}, and evaluating expression runs generated code against variable
+ * values given in the same order as the variable names.
+ * <p>
+ * Names which are not declared variables are resolved as properties or methods of the first variable, e.g.
+ * expression "amount > 100" compiled with variable "context" reads property amount of context.
+ */
+public final class Expression {
+
+    private static final ConcurrentMap<String, Expression> expressionCache =
+            new MapMaker().softValues().makeMap();
+
+    private final String source;
+
+    private final String[] variables;
+
+    private final ExpressionNode root;
+
+    private Expression(String source, String[] variables, ExpressionNode root) {
+        this.source = source;
+        this.variables = variables;
+        this.root = root;
+    }
+
+    /**
+     * Compile expression source with given variable names.
+     * @throws SquirrelRuntimeException if source cannot be parsed
+     */
+    public static Expression compile(String source, String... variables) {
+        Preconditions.checkNotNull(source, "Expression source cannot be null.");
+        String key = Arrays.toString(variables)+source;
+        Expression expression = expressionCache.get(key);
+        if(expression==null) {
+            ExpressionNode root;
+            try {
+                root = new ExpressionParser(source, variables).parse();
+            } catch(RuntimeException e) {
+                throw new SquirrelRuntimeException(e, ErrorCodes.EXPRESSION_PARSE_ERROR, source, e.getMessage());
+            }
+            expression = new Expression(source, variables.clone(), ExpressionCompiler.compile(root, variables.length));
+            Expression existing = expressionCache.putIfAbsent(key, expression);
+            if(existing!=null) {
+                expression = existing;
+            }
+        }
+        return expression;
+    }
+
+    /**
+     * Evaluate expression with variable values in the same order of variable names.
+     * @throws SquirrelRuntimeException if evaluating expression failed
+     */
+    public Object evaluate(Object... values) {
+        checkVariableCount(values.length);
+        try {
+            return root.eval(values);
+        } catch(SquirrelRuntimeException e) {
+            throw e;
+        } catch(RuntimeException e) {
+            throw new SquirrelRuntimeException(e, ErrorCodes.EXPRESSION_EVALUATE_ERROR, source, e.getMessage());
+        }
+    }
+
+    /**
+     * Evaluate expression of single variable as boolean without allocating variable array, null result is 
+     * evaluated as false.
+     */
+    public boolean evaluateBoolean(Object value) {
+        checkVariableCount(1);
+        Object result;
+        try {
+            result = root.evalSingle(value);
+        } catch(SquirrelRuntimeException e) {
+            throw e;
+        } catch(RuntimeException e) {
+            throw new SquirrelRuntimeException(e, ErrorCodes.EXPRESSION_EVALUATE_ERROR, source, e.getMessage());
+        }
+        return toBoolean(result);
+    }
+
+    /**
+     * Evaluate expression as boolean, null result is evaluated as false.
+     */
+    public boolean evaluateBoolean(Object... values) {
+        return toBoolean(evaluate(values));
+    }
+
+    private boolean toBoolean(Object result) {
+        try {
+            return ExpressionNode.toBoolean(result);
+        } catch(IllegalArgumentException e) {
+            throw new SquirrelRuntimeException(e, ErrorCodes.EXPRESSION_EVALUATE_ERROR, source, e.getMessage());
+        }
+    }
+
+    // checked without Preconditions, whose message arguments are boxed into array on each evaluation
+    private void checkVariableCount(int count) {
+        if(count!=variables.length) {
+            throw new IllegalArgumentException("Expected "+variables.length+" variable values but found "+count+".");
+        }
+    }
+
+    boolean isCompiled() {
+        return ExpressionCompiler.isCompiled(root);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String[] getVariables() {
+        return variables.clone();
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
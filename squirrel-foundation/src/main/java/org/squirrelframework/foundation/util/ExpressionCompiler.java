@@ -0,0 +1,146 @@
+package org.squirrelframework.foundation.util;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles expression node tree into one generated {@link ExpressionNode} class with javassist, so that
+ * evaluating expression runs straight-line code instead of walking the node tree. Property and method nodes
+ * are kept as constants of generated class and called directly, and their getters, setters and methods are
+ * called through {@link MethodInvoker} direct calls.
+ * <p>
+ * Expression of single variable also gets evalSingle generated, which takes variable value without array.
+ * Expression which cannot be compiled, e.g. method invocation of more than four arguments, is left to
+ * node tree.
+ */
+final class ExpressionCompiler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpressionCompiler.class);
+
+    private static final String NODE_TYPE = ExpressionNode.class.getName();
+
+    private static final AtomicInteger classCounter = new AtomicInteger(0);
+
+    // constants referenced by generated code, e.g. constant values, property and method nodes
+    private final List<Object> constants = new ArrayList<Object>();
+
+    private final Map<Object, Integer> constantIndexes = new IdentityHashMap<Object, Integer>();
+
+    private boolean single;
+
+    private ExpressionCompiler() {
+    }
+
+    /**
+     * @return generated node which evaluates the same as root, or root itself if it cannot be compiled
+     */
+    static ExpressionNode compile(ExpressionNode root, int variableCount) {
+        if(root.isConstant()) {
+            return root;
+        }
+        try {
+            return new ExpressionCompiler().build(root, variableCount);
+        } catch(Exception e) {
+            logger.debug("Compile expression failed, node tree will be evaluated instead.", e);
+            return root;
+        } catch(LinkageError e) {
+            logger.debug("Compile expression failed, node tree will be evaluated instead.", e);
+            return root;
+        }
+    }
+
+    static boolean isCompiled(ExpressionNode node) {
+        return node.getClass().getName().startsWith(NODE_TYPE+"$$Compiled$$");
+    }
+
+    private ExpressionNode build(ExpressionNode root, int variableCount) throws Exception {
+        // generate methods first, so that all the referenced constants are collected
+        List<String> methods = new ArrayList<String>();
+        methods.add("public Object eval(Object[] v) {\nreturn "+root.toSource(this)+";\n}");
+        methods.add("String toSource("+ExpressionCompiler.class.getName()+" c) {\n"+
+                "throw new UnsupportedOperationException();\n}");
+        if(variableCount==1) {
+            single = true;
+            try {
+                methods.add("public Object evalSingle(Object v) {\nreturn "+root.toSource(this)+";\n}");
+            } catch(UnsupportedOperationException e) {
+                // variable is assigned, which needs variable array
+            }
+        }
+
+        ClassPool pool = new ClassPool(true);
+        pool.appendClassPath(new LoaderClassPath(ExpressionNode.class.getClassLoader()));
+        CtClass ctClass = pool.makeClass(NODE_TYPE+"$$Compiled$$"+classCounter.incrementAndGet());
+        ctClass.setSuperclass(pool.get(NODE_TYPE));
+        StringBuilder constructor = new StringBuilder("{\nsuper();\n");
+        for(int i=0; i<constants.size(); ++i) {
+            String type = constantType(constants.get(i));
+            ctClass.addField(CtField.make("private final "+type+" k"+i+";", ctClass));
+            constructor.append("k").append(i).append(" = (").append(type).append(")$1[").append(i).append("];\n");
+        }
+        constructor.append("}");
+        ctClass.addConstructor(CtNewConstructor.make(new CtClass[]{pool.get(Object[].class.getName())},
+                new CtClass[0], constructor.toString(), ctClass));
+        for(String method : methods) {
+            ctClass.addMethod(CtNewMethod.make(method, ctClass));
+        }
+        // generated class extends package private node class, so it is defined in the same package
+        Class<?> nodeClass = ctClass.toClass(ExpressionNode.class.getClassLoader(),
+                ExpressionNode.class.getProtectionDomain());
+        ctClass.detach();
+        return (ExpressionNode)nodeClass.getConstructor(Object[].class).newInstance(
+                new Object[]{constants.toArray()});
+    }
+
+    String constant(Object value) {
+        if(value==null) {
+            return "null";
+        }
+        Integer index = constantIndexes.get(value);
+        if(index==null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndexes.put(value, index);
+        }
+        return "k"+index;
+    }
+
+    String variable(int index) {
+        return single ? "v" : "v["+index+"]";
+    }
+
+    String assignVariable(int index, String value) {
+        if(single) {
+            throw new UnsupportedOperationException("Cannot assign variable without variable array.");
+        }
+        return nodeClass(ExpressionNode.Variable.class)+".assign(v, "+index+", "+value+")";
+    }
+
+    String toBoolean(ExpressionNode node) {
+        return NODE_TYPE+".toBoolean("+node.toSource(this)+")";
+    }
+
+    String nodeClass(Class<? extends ExpressionNode> type) {
+        return type.getName();
+    }
+
+    private static String constantType(Object value) {
+        if(value instanceof ExpressionNode.Property || value instanceof ExpressionNode.Invocation) {
+            return value.getClass().getName();
+        }
+        return "Object";
+    }
+}
@@ -0,0 +1,798 @@
+package org.squirrelframework.foundation.util;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.Map;
+
+import com.google.common.primitives.Primitives;
+
+/**
+ * Node of compiled expression. Expression is parsed once into a tree of nodes and each node evaluates
+ * itself directly against variables, so that evaluating expression does not interpret source text.
+ * Property and method nodes keep accessor resolved for the last receiver class (monomorphic inline cache),
+ * and method lookup only happens when receiver class changes.
+ * <p>
+ * Each node also generates its source for {@link ExpressionCompiler}, which compiles the whole tree into
+ * one generated node class.
+ */
+abstract class ExpressionNode {
+
+    abstract Object eval(Object[] variables);
+
+    /**
+     * Evaluate expression of single variable. Generated node evaluates it without variable array.
+     */
+    Object evalSingle(Object variable) {
+        return eval(new Object[]{variable});
+    }
+
+    /**
+     * @return java source of this node evaluated as object, which is compiled by {@link ExpressionCompiler}
+     */
+    abstract String toSource(ExpressionCompiler compiler);
+
+    boolean isConstant() {
+        return false;
+    }
+
+    boolean isAssignable() {
+        return false;
+    }
+
+    void assign(Object[] variables, Object value) {
+        throw new IllegalStateException("Expression cannot be assigned.");
+    }
+
+    String toAssignSource(ExpressionCompiler compiler, String value) {
+        throw new IllegalStateException("Expression cannot be assigned.");
+    }
+
+    static boolean toBoolean(Object value) {
+        if(value instanceof Boolean) {
+            return ((Boolean)value).booleanValue();
+        }
+        if(value==null) {
+            return false;
+        }
+        throw new IllegalArgumentException("Value '"+value+"' is not boolean.");
+    }
+
+    static final class Constant extends ExpressionNode {
+        private final Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object eval(Object[] variables) {
+            return value;
+        }
+
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+
+        @Override
+        String toSource(ExpressionCompiler compiler) {
+            return compiler.constant(value);
+        }
+    }
+
+    static final class Variable extends ExpressionNode {
+        private final int index;
+
+        Variable(int index) {
+            this.index = index;
+        }
+
+        @Override
+        Object eval(Object[] variables) {
+            return variables[index];
+        }
+
+        @Override
+        boolean isAssignable() {
+            return true;
+        }
+
+        @Override
+        void assign(Object[] variables, Object value) {
+            variables[index] = value;
+        }
+
+        @Override
+        String toSource(ExpressionCompiler compiler) {
+            return compiler.variable(index);
+        }
+
+        @Override
+        String toAssignSource(ExpressionCompiler compiler, String value) {
+            return compiler.assignVariable(index, value);
+        }
+
+        static Object assign(Object[] variables, int index, Object value) {
+            variables[index] = value;
+            return value;
+        }
+    }
+
+    static final class Not extends ExpressionNode {
+        private final ExpressionNode operand;
+
+        Not(ExpressionNode operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        Object eval(Object[] variables) {
+            return !toBoolean(operand.eval(variables));
+        }
+
+        @Override
+        String toSource(ExpressionCompiler compiler) {
+            return "Boolean.valueOf(!"+compiler.toBoolean(operand)+")";
+        }
+    }
+
+    static final class Negate extends ExpressionNode {
+        private final ExpressionNode operand;
+
+        Negate(ExpressionNode operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        Object eval(Object[] variables) {
+            return Arithmetic.calculate('-', 0, operand.eval(variables));
+        }
+
+        @Override
+        String toSource(ExpressionCompiler compiler) {
+            return compiler.nodeClass(Arithmetic.class)+".calculate('-', "+compiler.constant(0)+", "+
+                    operand.toSource(compiler)+")";
+        }
+    }
+
+    static final class And extends ExpressionNode {
+        private final ExpressionNode left, right;
+
+        And(ExpressionNode left, ExpressionNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object eval(Object[] variables) {
+            return toBoolean(left.eval(variables)) && toBoolean(right.eval(variables));
+        }
+
+        @Override
+        String toSource(ExpressionCompiler compiler) {
+            return "Boolean.valueOf("+compiler.toBoolean(left)+" && "+compiler.toBoolean(right)+")";
+        }
+    }
+
+    static final class Or extends ExpressionNode {
+        private final ExpressionNode left, right;
+
+        Or(ExpressionNode left, ExpressionNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object eval(Object[] variables) {
+            return toBoolean(left.eval(variables)) || toBoolean(right.eval(variables));
+        }
+
+        @Override
+        String toSource(ExpressionCompiler compiler) {
+            return "Boolean.valueOf("+compiler.toBoolean(left)+" || "+compiler.toBoolean(right)+")";
+        }
+    }
+
+    static final class Ternary extends ExpressionNode {
+        private final ExpressionNode condition, whenTrue, whenFalse;
+
+        Ternary(ExpressionNode condition, ExpressionNode whenTrue, ExpressionNode whenFalse) {
+            this.condition = condition;
+            this.whenTrue = whenTrue;
+            this.whenFalse = whenFalse;
+        }
+
+        @Override
+        Object eval(Object[] variables) {
+            return toBoolean(condition.eval(variables)) ? whenTrue.eval(variables) : whenFalse.eval(variables);
+        }
+
+        @Override
+        String toSource(ExpressionCompiler compiler) {
+            return "("+compiler.toBoolean(condition)+" ? (Object)"+whenTrue.toSource(compiler)+
+                    " : (Object)"+whenFalse.toSource(compiler)+")";
+        }
+    }
+
+    static final class Sequence extends ExpressionNode {
+        private final ExpressionNode[] statements;
+
+        Sequence(ExpressionNode[] statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        Object eval(Object[] variables) {
+            Object result = null;
+            for(int i=0; i<statements.length; ++i) {
+                result = statements[i].eval(variables);
+            }
+            return result;
+        }
+
+        @Override
+        String toSource(ExpressionCompiler compiler) {
+            // arguments are evaluated from left to right, so the last statement is evaluated last
+            String source = statements[statements.length-1].toSource(compiler);
+            for(int i=statements.length-2; i>=0; --i) {
+                source = compiler.nodeClass(Sequence.class)+".last("+statements[i].toSource(compiler)+", "+source+")";
+            }
+            return source;
+        }
+
+        static Object last(Object previous, Object result) {
+            return result;
+        }
+    }
+
+    static final class Assign extends ExpressionNode {
+        private final ExpressionNode target, value;
+
+        Assign(ExpressionNode target, ExpressionNode value) {
+            this.target = target;
+            this.value = value;
+        }
+
+        @Override
+        Object eval(Object[] variables) {
+            Object result = value.eval(variables);
+            target.assign(variables, result);
+            return result;
+        }
+
+        @Override
+        String toSource(ExpressionCompiler compiler) {
+            return target.toAssignSource(compiler, value.toSource(compiler));
+        }
+    }
+
+    static final class Arithmetic extends ExpressionNode {
+        private final char operator;
+        private final ExpressionNode left, right;
+
+        Arithmetic(char operator, ExpressionNode left, ExpressionNode right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object eval(Object[] variables) {
+            return calculate(operator, left.eval(variables), right.eval(variables));
+        }
+
+        @Override
+        String toSource(ExpressionCompiler compiler) {
+            return compiler.nodeClass(Arithmetic.class)+".calculate('"+operator+"', "+left.toSource(compiler)+", "+
+                    right.toSource(compiler)+")";
+        }
+
+        static Object calculate(char operator, Object left, Object right) {
+            if(operator=='+' && (left instanceof String || right instanceof String)) {
+                return String.valueOf(left)+String.valueOf(right);
+            }
+            Number a = toNumber(left), b = toNumber(right);
+            if(a instanceof BigDecimal || b instanceof BigDecimal) {
+                BigDecimal x = toBigDecimal(a), y = toBigDecimal(b);
+                switch(operator) {
+                case '+': return x.add(y);
+                case '-': return x.subtract(y);
+                case '*': return x.multiply(y);
+                case '/': return x.divide(y, MathContext.DECIMAL128);
+                default:  return x.remainder(y);
+                }
+            }
+            if(isFloating(a) || isFloating(b)) {
+                double x = a.doubleValue(), y = b.doubleValue();
+                switch(operator) {
+                case '+': return x+y;
+                case '-': return x-y;
+                case '*': return x*y;
+                case '/': return x/y;
+                default:  return x%y;
+                }
+            }
+            if(a instanceof Long || b instanceof Long || a instanceof BigInteger || b instanceof BigInteger) {
+                long x = a.longValue(), y = b.longValue();
+                switch(operator) {
+                case '+': return x+y;
+                case '-': return x-y;
+                case '*': return x*y;
+                case '/': return x/y;
+                default:  return x%y;
+                }
+            }
+            int x = a.intValue(), y = b.intValue();
+            switch(operator) {
+            case '+': return x+y;
+            case '-': return x-y;
+            case '*': return x*y;
+            case '/': return x/y;
+            default:  return x%y;
+            }
+        }
+    }
+
+    static final class Comparison extends ExpressionNode {
+        private final String operator;
+        private final ExpressionNode left, right;
+
+        Comparison(String operator, ExpressionNode left, ExpressionNode right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object eval(Object[] variables) {
+            Object l = left.eval(variables), r = right.eval(variables);
+            if(operator=="==") return isEqual(l, r);
+            if(operator=="!=") return !isEqual(l, r);
+            int c = compare(l, r);
+            if(operator=="<")  return c<0;
+            if(operator=="<=") return c<=0;
+            if(operator==">")  return c>0;
+            return c>=0;
+        }
+
+        @Override
+        String toSource(ExpressionCompiler compiler) {
+            String comparison = compiler.nodeClass(Comparison.class);
+            String l = left.toSource(compiler), r = right.toSource(compiler);
+            if(operator=="==") return "Boolean.valueOf("+comparison+".isEqual("+l+", "+r+"))";
+            if(operator=="!=") return "Boolean.valueOf(!"+comparison+".isEqual("+l+", "+r+"))";
+            return "Boolean.valueOf("+comparison+".compare("+l+", "+r+")"+operator+"0)";
+        }
+
+        static boolean isEqual(Object left, Object right) {
+            if(left==right) return true;
+            if(left==null || right==null) return false;
+            if(left instanceof Number && right instanceof Number) {
+                return compareNumbers((Number)left, (Number)right)==0;
+            }
+            // enum can be compared with its name
+            if(left instanceof Enum && right instanceof String) {
+                return ((Enum<?>)left).name().equals(right);
+            }
+            if(left instanceof String && right instanceof Enum) {
+                return ((Enum<?>)right).name().equals(left);
+            }
+            if(left instanceof Character && right instanceof String || left instanceof String && right instanceof Character) {
+                return left.toString().equals(right.toString());
+            }
+            return left.equals(right);
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        static int compare(Object left, Object right) {
+            if(left instanceof Number && right instanceof Number) {
+                return compareNumbers((Number)left, (Number)right);
+            }
+            if(left instanceof Comparable && right!=null && left.getClass()==right.getClass()) {
+                return ((Comparable)left).compareTo(right);
+            }
+            throw new IllegalArgumentException("Cannot compare '"+left+"' with '"+right+"'.");
+        }
+
+        static int compareNumbers(Number a, Number b) {
+            if(a instanceof BigDecimal || b instanceof BigDecimal) {
+                return toBigDecimal(a).compareTo(toBigDecimal(b));
+            }
+            if(isFloating(a) || isFloating(b)) {
+                return Double.compare(a.doubleValue(), b.doubleValue());
+            }
+            long x = a.longValue(), y = b.longValue();
+            return x<y ? -1 : (x==y ? 0 : 1);
+        }
+    }
+
+    /**
+     * Property of target value, which is read by getter, public field or map key.
+     */
+    static final class Property extends ExpressionNode {
+        private final ExpressionNode target;
+        private final String name;
+        private volatile Accessor accessor;
+
+        Property(ExpressionNode target, String name) {
+            this.target = target;
+            this.name = name;
+        }
+
+        @Override
+        Object eval(Object[] variables) {
+            return read(target.eval(variables));
+        }
+
+        Object read(Object value) {
+            if(value==null) {
+                throw new NullPointerException("Cannot read property '"+name+"' of null.");
+            }
+            return accessorOf(value).get(value);
+        }
+
+        Object write(Object value, Object newValue) {
+            if(value==null) {
+                throw new NullPointerException("Cannot write property '"+name+"' of null.");
+            }
+            accessorOf(value).set(value, newValue);
+            return newValue;
+        }
+
+        @Override
+        String toSource(ExpressionCompiler compiler) {
+            return compiler.constant(this)+".read("+target.toSource(compiler)+")";
+        }
+
+        @Override
+        String toAssignSource(ExpressionCompiler compiler, String value) {
+            return compiler.constant(this)+".write("+target.toSource(compiler)+", "+value+")";
+        }
+
+        @Override
+        boolean isAssignable() {
+            return true;
+        }
+
+        @Override
+        void assign(Object[] variables, Object newValue) {
+            write(target.eval(variables), newValue);
+        }
+
+        private Accessor accessorOf(Object value) {
+            Accessor current = accessor;
+            if(current==null || current.type!=value.getClass()) {
+                accessor = current = Accessor.resolve(value.getClass(), name);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Method invocation on target value. Method is resolved by name and runtime types of arguments.
+     */
+    static final class Invocation extends ExpressionNode {
+        private static final int MAX_COMPILED_ARGUMENTS = 4;
+        private static final Object[] NO_ARGUMENTS = new Object[0];
+        private final ExpressionNode target;
+        private final String name;
+        private final ExpressionNode[] arguments;
+        private volatile ResolvedMethod resolved;
+
+        Invocation(ExpressionNode target, String name, ExpressionNode[] arguments) {
+            this.target = target;
+            this.name = name;
+            this.arguments = arguments;
+        }
+
+        @Override
+        Object eval(Object[] variables) {
+            Object value = target.eval(variables);
+            Object[] args = new Object[arguments.length];
+            for(int i=0; i<args.length; ++i) {
+                args[i] = arguments[i].eval(variables);
+            }
+            return invoke(value, args);
+        }
+
+        Object invoke(Object value, Object[] args) {
+            if(value==null) {
+                throw new NullPointerException("Cannot invoke method '"+name+"' of null.");
+            }
+            ResolvedMethod current = resolved;
+            if(current==null || current.type!=value.getClass() || !current.isApplicable(args)) {
+                resolved = current = ResolvedMethod.resolve(value.getClass(), name, args);
+            }
+            return current.invoke(value, args);
+        }
+
+        @Override
+        String toSource(ExpressionCompiler compiler) {
+            StringBuilder source = new StringBuilder(compiler.constant(this)).append(".invoke(").
+                    append(target.toSource(compiler)).append(", ");
+            if(arguments.length==0) {
+                return source.append(compiler.constant(NO_ARGUMENTS)).append(")").toString();
+            }
+            if(arguments.length>MAX_COMPILED_ARGUMENTS) {
+                throw new UnsupportedOperationException("Cannot compile invocation of more than "+
+                        MAX_COMPILED_ARGUMENTS+" arguments.");
+            }
+            source.append(compiler.nodeClass(Invocation.class)).append(".arguments(");
+            for(int i=0; i<arguments.length; ++i) {
+                if(i>0) source.append(", ");
+                source.append(arguments[i].toSource(compiler));
+            }
+            return source.append("))").toString();
+        }
+
+        // generated code cannot call varargs method, so arguments are collected by method of the same arity
+        static Object[] arguments(Object arg0) {
+            return new Object[]{arg0};
+        }
+
+        static Object[] arguments(Object arg0, Object arg1) {
+            return new Object[]{arg0, arg1};
+        }
+
+        static Object[] arguments(Object arg0, Object arg1, Object arg2) {
+            return new Object[]{arg0, arg1, arg2};
+        }
+
+        static Object[] arguments(Object arg0, Object arg1, Object arg2, Object arg3) {
+            return new Object[]{arg0, arg1, arg2, arg3};
+        }
+    }
+
+    static final class ResolvedMethod {
+        final Class<?> type;
+        final Class<?>[] parameterTypes;
+        final MethodInvoker invoker;
+
+        private ResolvedMethod(Class<?> type, Method method) {
+            this.type = type;
+            this.parameterTypes = method.getParameterTypes();
+            this.invoker = new MethodInvoker(method);
+        }
+
+        static ResolvedMethod resolve(Class<?> type, String name, Object[] args) {
+            for(Class<?> clazz = type; clazz!=null; clazz = clazz.getSuperclass()) {
+                for(Method method : clazz.getDeclaredMethods()) {
+                    if(method.getName().equals(name) && !method.isBridge() &&
+                            isApplicable(method.getParameterTypes(), args)) {
+                        return new ResolvedMethod(type, method);
+                    }
+                }
+            }
+            for(Method method : type.getMethods()) {
+                if(method.getName().equals(name) && isApplicable(method.getParameterTypes(), args)) {
+                    return new ResolvedMethod(type, method);
+                }
+            }
+            throw new IllegalArgumentException("Method '"+name+"' of "+type.getName()+
+                    " applicable to "+args.length+" arguments not found.");
+        }
+
+        boolean isApplicable(Object[] args) {
+            return isApplicable(parameterTypes, args);
+        }
+
+        private static boolean isApplicable(Class<?>[] parameterTypes, Object[] args) {
+            if(parameterTypes.length!=args.length) return false;
+            for(int i=0; i<args.length; ++i) {
+                if(!isAssignable(parameterTypes[i], args[i])) return false;
+            }
+            return true;
+        }
+
+        Object invoke(Object target, Object[] args) {
+            for(int i=0; i<args.length; ++i) {
+                args[i] = coerce(args[i], parameterTypes[i]);
+            }
+            return invoker.invokeWithArgs(target, args);
+        }
+    }
+
+    static abstract class Accessor {
+        final Class<?> type;
+
+        Accessor(Class<?> type) {
+            this.type = type;
+        }
+
+        abstract Object get(Object target);
+
+        abstract void set(Object target, Object value);
+
+        static Accessor resolve(Class<?> type, String name) {
+            if(Map.class.isAssignableFrom(type)) {
+                return new MapAccessor(type, name);
+            }
+            if(type.isArray() && name.equals("length")) {
+                return new ArrayLengthAccessor(type);
+            }
+            String capitalized = Character.toUpperCase(name.charAt(0))+name.substring(1);
+            Method getter = null, setter = null;
+            for(Class<?> clazz = type; clazz!=null; clazz = clazz.getSuperclass()) {
+                for(Method method : clazz.getDeclaredMethods()) {
+                    if(Modifier.isStatic(method.getModifiers()) || method.isBridge()) continue;
+                    int arity = method.getParameterTypes().length;
+                    if(getter==null && arity==0 && (method.getName().equals("get"+capitalized) ||
+                            method.getName().equals("is"+capitalized) && isBoolean(method.getReturnType()))) {
+                        getter = method;
+                    } else if(setter==null && arity==1 && method.getName().equals("set"+capitalized)) {
+                        setter = method;
+                    }
+                }
+            }
+            if(getter==null) {
+                for(Method method : type.getMethods()) {
+                    if(method.getParameterTypes().length==0 && (method.getName().equals("get"+capitalized) ||
+                            method.getName().equals("is"+capitalized))) {
+                        getter = method;
+                    }
+                }
+            }
+            Field field = findField(type, name);
+            if(getter==null && field==null) {
+                throw new IllegalArgumentException("Property '"+name+"' of "+type.getName()+" not found.");
+            }
+            return new BeanAccessor(type, name, getter, setter, field);
+        }
+
+        private static Field findField(Class<?> type, String name) {
+            for(Class<?> clazz = type; clazz!=null; clazz = clazz.getSuperclass()) {
+                for(Field field : clazz.getDeclaredFields()) {
+                    if(field.getName().equals(name) && !Modifier.isStatic(field.getModifiers())) {
+                        field.setAccessible(true);
+                        return field;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private static boolean isBoolean(Class<?> type) {
+            return type==boolean.class || type==Boolean.class;
+        }
+    }
+
+    static final class BeanAccessor extends Accessor {
+        private final String name;
+        private final MethodInvoker getter;
+        private final Method setter;
+        private final MethodInvoker setterInvoker;
+        private final Field field;
+
+        BeanAccessor(Class<?> type, String name, Method getter, Method setter, Field field) {
+            super(type);
+            this.name = name;
+            this.getter = getter!=null ? new MethodInvoker(getter) : null;
+            this.setter = setter;
+            this.setterInvoker = setter!=null ? new MethodInvoker(setter) : null;
+            this.field = field;
+        }
+
+        @Override
+        Object get(Object target) {
+            if(getter!=null) {
+                return getter.invoke(target);
+            }
+            try {
+                return field.get(target);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        void set(Object target, Object value) {
+            if(setterInvoker!=null) {
+                setterInvoker.invoke(target, coerce(value, setter.getParameterTypes()[0]));
+                return;
+            }
+            if(field==null || Modifier.isFinal(field.getModifiers())) {
+                throw new IllegalArgumentException("Property '"+name+"' of "+type.getName()+" is read only.");
+            }
+            try {
+                field.set(target, coerce(value, field.getType()));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    static final class MapAccessor extends Accessor {
+        private final String key;
+
+        MapAccessor(Class<?> type, String key) {
+            super(type);
+            this.key = key;
+        }
+
+        @Override
+        Object get(Object target) {
+            return ((Map<?, ?>)target).get(key);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        void set(Object target, Object value) {
+            ((Map<Object, Object>)target).put(key, value);
+        }
+    }
+
+    static final class ArrayLengthAccessor extends Accessor {
+        ArrayLengthAccessor(Class<?> type) {
+            super(type);
+        }
+
+        @Override
+        Object get(Object target) {
+            return Array.getLength(target);
+        }
+
+        @Override
+        void set(Object target, Object value) {
+            throw new IllegalArgumentException("Array length is read only.");
+        }
+    }
+
+    static Number toNumber(Object value) {
+        if(value instanceof Number) {
+            return (Number)value;
+        }
+        if(value instanceof Character) {
+            return (int)((Character)value).charValue();
+        }
+        throw new IllegalArgumentException("Value '"+value+"' is not a number.");
+    }
+
+    static boolean isFloating(Number value) {
+        return value instanceof Double || value instanceof Float;
+    }
+
+    static BigDecimal toBigDecimal(Number value) {
+        if(value instanceof BigDecimal) return (BigDecimal)value;
+        if(value instanceof BigInteger) return new BigDecimal((BigInteger)value);
+        if(isFloating(value)) return BigDecimal.valueOf(value.doubleValue());
+        return BigDecimal.valueOf(value.longValue());
+    }
+
+    private static boolean isAssignable(Class<?> type, Object value) {
+        if(value==null) {
+            return !type.isPrimitive();
+        }
+        if(type.isInstance(value)) {
+            return true;
+        }
+        Class<?> boxed = Primitives.wrap(type);
+        if(boxed.isInstance(value)) {
+            return true;
+        }
+        // numbers are converted to parameter type, e.g. result of integer arithmetic to long parameter
+        return value instanceof Number && Number.class.isAssignableFrom(boxed) && boxed!=BigDecimal.class && boxed!=BigInteger.class;
+    }
+
+    static Object coerce(Object value, Class<?> type) {
+        if(!(value instanceof Number)) {
+            return value;
+        }
+        Class<?> boxed = Primitives.wrap(type);
+        if(boxed.isInstance(value)) {
+            return value;
+        }
+        Number number = (Number)value;
+        if(boxed==Integer.class) return number.intValue();
+        if(boxed==Long.class)    return number.longValue();
+        if(boxed==Double.class)  return number.doubleValue();
+        if(boxed==Float.class)   return number.floatValue();
+        if(boxed==Short.class)   return number.shortValue();
+        if(boxed==Byte.class)    return number.byteValue();
+        return value;
+    }
+}
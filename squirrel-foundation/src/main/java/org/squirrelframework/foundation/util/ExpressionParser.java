@@ -0,0 +1,394 @@
+package org.squirrelframework.foundation.util;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Recursive descent parser which turns expression source into tree of {@link ExpressionNode}. Sub expressions
+ * which only consist of literals are folded into constants while parsing. Supported syntax:
+ * <pre>
+ * statements  := assignment (';' assignment)*
+ * assignment  := ternary ('=' assignment)?
+ * ternary     := or ('?' ternary ':' ternary)?
+ * or          := and ('||' and)*
+ * and         := equality ('&&' equality)*
+ * equality    := relational (('==' | '!=') relational)*
+ * relational  := additive (('&lt;' | '&lt;=' | '&gt;' | '&gt;=') additive)*
+ * additive    := term (('+' | '-') term)*
+ * term        := unary (('*' | '/' | '%') unary)*
+ * unary       := ('!' | '-') unary | postfix
+ * postfix     := primary ('.' identifier ('(' arguments ')')?)*
+ * primary     := number | string | 'true' | 'false' | 'null' | identifier ('(' arguments ')')? | '(' statements ')'
+ * </pre>
+ * Identifier which is not a declared variable is resolved as property (or method) of the first variable.
+ */
+final class ExpressionParser {
+
+    private static final String END = "<end>";
+
+    private final String source;
+
+    private final String[] variables;
+
+    private int position = 0;
+
+    // current token, number or string literal token is kept in value
+    private String token;
+
+    private Object value;
+
+    private boolean literal;
+
+    ExpressionParser(String source, String[] variables) {
+        this.source = source;
+        this.variables = variables;
+    }
+
+    ExpressionNode parse() {
+        next();
+        ExpressionNode node = parseStatements();
+        if(token!=END) {
+            throw error("unexpected '"+token+"'");
+        }
+        return node;
+    }
+
+    private ExpressionNode parseStatements() {
+        List<ExpressionNode> statements = Lists.newArrayList();
+        statements.add(parseAssignment());
+        while(accept(";")) {
+            if(token==END || token==")") break;
+            statements.add(parseAssignment());
+        }
+        return statements.size()==1 ? statements.get(0) :
+            new ExpressionNode.Sequence(statements.toArray(new ExpressionNode[statements.size()]));
+    }
+
+    private ExpressionNode parseAssignment() {
+        ExpressionNode target = parseTernary();
+        if(accept("=")) {
+            if(!target.isAssignable()) {
+                throw error("left side of assignment is not assignable");
+            }
+            return new ExpressionNode.Assign(target, parseAssignment());
+        }
+        return target;
+    }
+
+    private ExpressionNode parseTernary() {
+        ExpressionNode condition = parseOr();
+        if(accept("?")) {
+            ExpressionNode whenTrue = parseTernary();
+            expect(":");
+            ExpressionNode whenFalse = parseTernary();
+            if(condition.isConstant()) {
+                return ExpressionNode.toBoolean(condition.eval(null)) ? whenTrue : whenFalse;
+            }
+            return new ExpressionNode.Ternary(condition, whenTrue, whenFalse);
+        }
+        return condition;
+    }
+
+    private ExpressionNode parseOr() {
+        ExpressionNode left = parseAnd();
+        while(accept("||")) {
+            left = fold(new ExpressionNode.Or(left, parseAnd()), left);
+        }
+        return left;
+    }
+
+    private ExpressionNode parseAnd() {
+        ExpressionNode left = parseEquality();
+        while(accept("&&")) {
+            left = fold(new ExpressionNode.And(left, parseEquality()), left);
+        }
+        return left;
+    }
+
+    private ExpressionNode parseEquality() {
+        ExpressionNode left = parseRelational();
+        while(true) {
+            String operator;
+            if(accept("==")) {
+                operator = "==";
+            } else if(accept("!=")) {
+                operator = "!=";
+            } else {
+                return left;
+            }
+            ExpressionNode right = parseRelational();
+            left = fold(new ExpressionNode.Comparison(operator, left, right), left, right);
+        }
+    }
+
+    private ExpressionNode parseRelational() {
+        ExpressionNode left = parseAdditive();
+        while(true) {
+            String operator;
+            if(accept("<")) {
+                operator = "<";
+            } else if(accept("<=")) {
+                operator = "<=";
+            } else if(accept(">")) {
+                operator = ">";
+            } else if(accept(">=")) {
+                operator = ">=";
+            } else {
+                return left;
+            }
+            ExpressionNode right = parseAdditive();
+            left = fold(new ExpressionNode.Comparison(operator, left, right), left, right);
+        }
+    }
+
+    private ExpressionNode parseAdditive() {
+        ExpressionNode left = parseTerm();
+        while(token=="+" || token=="-") {
+            char operator = token.charAt(0);
+            next();
+            ExpressionNode right = parseTerm();
+            left = fold(new ExpressionNode.Arithmetic(operator, left, right), left, right);
+        }
+        return left;
+    }
+
+    private ExpressionNode parseTerm() {
+        ExpressionNode left = parseUnary();
+        while(token=="*" || token=="/" || token=="%") {
+            char operator = token.charAt(0);
+            next();
+            ExpressionNode right = parseUnary();
+            left = fold(new ExpressionNode.Arithmetic(operator, left, right), left, right);
+        }
+        return left;
+    }
+
+    private ExpressionNode parseUnary() {
+        if(accept("!")) {
+            ExpressionNode operand = parseUnary();
+            return fold(new ExpressionNode.Not(operand), operand);
+        }
+        if(accept("-")) {
+            ExpressionNode operand = parseUnary();
+            return fold(new ExpressionNode.Negate(operand), operand);
+        }
+        return parsePostfix();
+    }
+
+    private ExpressionNode parsePostfix() {
+        ExpressionNode node = parsePrimary();
+        while(accept(".")) {
+            String name = expectIdentifier();
+            if(accept("(")) {
+                node = new ExpressionNode.Invocation(node, name, parseArguments());
+            } else {
+                node = new ExpressionNode.Property(node, name);
+            }
+        }
+        return node;
+    }
+
+    private ExpressionNode parsePrimary() {
+        if(literal) {
+            Object literalValue = value;
+            next();
+            return new ExpressionNode.Constant(literalValue);
+        }
+        if(accept("(")) {
+            ExpressionNode node = parseStatements();
+            expect(")");
+            return node;
+        }
+        if(token==END || !Character.isJavaIdentifierStart(token.charAt(0))) {
+            throw error(token==END ? "unexpected end of expression" : "unexpected '"+token+"'");
+        }
+        String name = token;
+        next();
+        if(name.equals("true")) return new ExpressionNode.Constant(Boolean.TRUE);
+        if(name.equals("false")) return new ExpressionNode.Constant(Boolean.FALSE);
+        if(name.equals("null")) return new ExpressionNode.Constant(null);
+        for(int i=0; i<variables.length; ++i) {
+            if(variables[i].equals(name)) {
+                return new ExpressionNode.Variable(i);
+            }
+        }
+        if(variables.length==0) {
+            throw error("unknown variable '"+name+"'");
+        }
+        // unqualified name is resolved against root object
+        ExpressionNode root = new ExpressionNode.Variable(0);
+        if(accept("(")) {
+            return new ExpressionNode.Invocation(root, name, parseArguments());
+        }
+        return new ExpressionNode.Property(root, name);
+    }
+
+    private ExpressionNode[] parseArguments() {
+        List<ExpressionNode> arguments = Lists.newArrayList();
+        if(!accept(")")) {
+            do {
+                arguments.add(parseTernary());
+            } while(accept(","));
+            expect(")");
+        }
+        return arguments.toArray(new ExpressionNode[arguments.size()]);
+    }
+
+    private ExpressionNode fold(ExpressionNode node, ExpressionNode... operands) {
+        for(ExpressionNode operand : operands) {
+            if(!operand.isConstant()) return node;
+        }
+        try {
+            return new ExpressionNode.Constant(node.eval(null));
+        } catch(RuntimeException e) {
+            throw error(e.getMessage());
+        }
+    }
+
+    private boolean accept(String expected) {
+        if(!literal && token==expected) {
+            next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String expected) {
+        if(!accept(expected)) {
+            throw error("expected '"+expected+"' but found '"+token+"'");
+        }
+    }
+
+    private String expectIdentifier() {
+        if(literal || token==END || !Character.isJavaIdentifierStart(token.charAt(0))) {
+            throw error("expected identifier but found '"+token+"'");
+        }
+        String name = token;
+        next();
+        return name;
+    }
+
+    private void next() {
+        literal = false;
+        value = null;
+        while(position<source.length() && Character.isWhitespace(source.charAt(position))) {
+            position++;
+        }
+        if(position>=source.length()) {
+            token = END;
+            return;
+        }
+        char c = source.charAt(position);
+        if(Character.isDigit(c)) {
+            readNumber();
+        } else if(c=='\'' || c=='"') {
+            readString(c);
+        } else if(Character.isJavaIdentifierStart(c)) {
+            int start = position;
+            while(position<source.length() && Character.isJavaIdentifierPart(source.charAt(position))) {
+                position++;
+            }
+            token = source.substring(start, position);
+        } else {
+            readOperator(c);
+        }
+    }
+
+    private void readNumber() {
+        int start = position;
+        boolean decimal = false;
+        while(position<source.length()) {
+            char c = source.charAt(position);
+            if(c=='.' && !decimal && position+1<source.length() && Character.isDigit(source.charAt(position+1))) {
+                decimal = true;
+            } else if(!Character.isDigit(c)) {
+                break;
+            }
+            position++;
+        }
+        String text = source.substring(start, position);
+        char suffix = position<source.length() ? Character.toUpperCase(source.charAt(position)) : 0;
+        if(suffix=='L' && !decimal) {
+            value = Long.valueOf(text);
+            position++;
+        } else if(suffix=='D') {
+            value = Double.valueOf(text);
+            position++;
+        } else if(suffix=='B') {
+            value = new BigDecimal(text);
+            position++;
+        } else if(decimal) {
+            value = Double.valueOf(text);
+        } else {
+            long number = Long.parseLong(text);
+            if(number<=Integer.MAX_VALUE) {
+                value = Integer.valueOf((int)number);
+            } else {
+                value = Long.valueOf(number);
+            }
+        }
+        token = text;
+        literal = true;
+    }
+
+    private void readString(char quote) {
+        StringBuilder builder = new StringBuilder();
+        position++;
+        while(true) {
+            if(position>=source.length()) {
+                throw error("unterminated string literal");
+            }
+            char c = source.charAt(position++);
+            if(c==quote) break;
+            if(c=='\\' && position<source.length()) {
+                char escaped = source.charAt(position++);
+                switch(escaped) {
+                case 'n': c = '\n'; break;
+                case 't': c = '\t'; break;
+                case 'r': c = '\r'; break;
+                default:  c = escaped;
+                }
+            }
+            builder.append(c);
+        }
+        value = builder.toString();
+        token = quote+(String)value+quote;
+        literal = true;
+    }
+
+    private void readOperator(char c) {
+        char n = position+1<source.length() ? source.charAt(position+1) : 0;
+        String operator = null;
+        switch(c) {
+        case '=': operator = n=='=' ? "==" : "="; break;
+        case '!': operator = n=='=' ? "!=" : "!"; break;
+        case '<': operator = n=='=' ? "<=" : "<"; break;
+        case '>': operator = n=='=' ? ">=" : ">"; break;
+        case '&': operator = n=='&' ? "&&" : null; break;
+        case '|': operator = n=='|' ? "||" : null; break;
+        case '+': operator = "+"; break;
+        case '-': operator = "-"; break;
+        case '*': operator = "*"; break;
+        case '/': operator = "/"; break;
+        case '%': operator = "%"; break;
+        case '?': operator = "?"; break;
+        case ':': operator = ":"; break;
+        case ';': operator = ";"; break;
+        case ',': operator = ","; break;
+        case '.': operator = "."; break;
+        case '(': operator = "("; break;
+        case ')': operator = ")"; break;
+        }
+        if(operator==null) {
+            throw error("unexpected character '"+c+"'");
+        }
+        position += operator.length();
+        token = operator;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message+" at position "+position);
+    }
+}
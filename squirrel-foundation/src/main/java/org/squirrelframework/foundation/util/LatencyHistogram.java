@@ -0,0 +1,112 @@
+package org.squirrelframework.foundation.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Log-linear histogram of non-negative values such as latencies in nanoseconds. Each power of two range
+ * is split into 32 linear sub buckets, so recorded values are kept with relative error below 1/32 while
+ * the whole range of long values fits into less than two thousand buckets. Recording only increments
+ * one bucket atomically and never blocks or allocates.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKET_COUNT = (64-SUB_BUCKET_BITS)*SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final StripedCounter total = new StripedCounter();
+
+    private final AtomicLong max = new AtomicLong();
+
+    static int bucketIndex(long value) {
+        if(value<SUB_BUCKET_COUNT) {
+            return (int)value;
+        }
+        int magnitude = 63-Long.numberOfLeadingZeros(value);
+        int subBucket = (int)(value>>>(magnitude-SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT-1);
+        return (magnitude-SUB_BUCKET_BITS+1)*SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @return lowest value which falls into bucket
+     */
+    static long bucketValue(int index) {
+        if(index<SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int magnitude = index/SUB_BUCKET_COUNT+SUB_BUCKET_BITS-1;
+        long subBucket = index & (SUB_BUCKET_COUNT-1);
+        return (SUB_BUCKET_COUNT+subBucket) << (magnitude-SUB_BUCKET_BITS);
+    }
+
+    public void record(long value) {
+        if(value<0) value = 0;
+        counts.incrementAndGet(bucketIndex(value));
+        total.add(value);
+        long currentMax = max.get();
+        while(value>currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount() {
+        long count = 0;
+        for(int i=0; i<BUCKET_COUNT; ++i) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Evaluate several percentiles over one copy of bucket counts, so that they are consistent to each
+     * other even if values are recorded meanwhile.
+     * @param percentiles percentiles between 0 and 100 in ascending order
+     * @return lowest value of bucket where each percentile falls into, or zero if nothing is recorded
+     */
+    public long[] getValuesAtPercentiles(double... percentiles) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long count = 0;
+        for(int i=0; i<BUCKET_COUNT; ++i) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        long[] values = new long[percentiles.length];
+        if(count==0) {
+            return values;
+        }
+        int index = 0;
+        long seen = snapshot[0];
+        for(int i=0; i<percentiles.length; ++i) {
+            Preconditions.checkArgument(percentiles[i]>=0 && percentiles[i]<=100, "Percentile must be within [0, 100]");
+            long rank = Math.max(1, (long)Math.ceil(percentiles[i]/100*count));
+            while(seen<rank && index<BUCKET_COUNT-1) {
+                seen += snapshot[++index];
+            }
+            values[i] = Math.min(bucketValue(index), getMax());
+        }
+        return values;
+    }
+
+    public void reset() {
+        for(int i=0; i<BUCKET_COUNT; ++i) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        max.set(0);
+    }
+}
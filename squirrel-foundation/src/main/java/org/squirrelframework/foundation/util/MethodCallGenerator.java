@@ -0,0 +1,210 @@
+package org.squirrelframework.foundation.util;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Primitives;
+
+/**
+ * Generates class for each method which calls the method directly, so that {@link MethodInvoker} does not
+ * go through reflection. Public method of public class is called from a class defined by a new class loader,
+ * while other none private method is called from a class defined in the package of its declaring class,
+ * which must be loaded by a class loader that also sees {@link MethodInvoker.DirectCall}.
+ * <p>
+ * Method which cannot be linked from generated code, e.g. private method or method with parameter types
+ * not accessible from its package, gets no direct call and is left to reflection.
+ */
+final class MethodCallGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodCallGenerator.class);
+
+    static final int MAX_ARITY = 4;
+
+    private static final AtomicInteger classCounter = new AtomicInteger(0);
+
+    // direct calls are shared by invokers of methods declared by the same class and released together with them
+    private static final ConcurrentMap<Class<?>, DirectCalls> callCache =
+            new MapMaker().weakKeys().weakValues().makeMap();
+
+    private MethodCallGenerator() {
+    }
+
+    /**
+     * @return direct calls of methods declared by class, which must be kept by caller as long as they are used
+     */
+    static DirectCalls callsOf(Class<?> declaringClass) {
+        DirectCalls calls = callCache.get(declaringClass);
+        if(calls==null) {
+            calls = new DirectCalls();
+            DirectCalls existing = callCache.putIfAbsent(declaringClass, calls);
+            if(existing!=null) calls = existing;
+        }
+        return calls;
+    }
+
+    static final class DirectCalls {
+
+        // guarded by this, and method which cannot be called directly is mapped to null
+        private final Map<Method, MethodInvoker.DirectCall> calls = Maps.newHashMap();
+
+        /**
+         * @return direct call of method, which is generated only once, or null if method cannot be called directly
+         */
+        synchronized MethodInvoker.DirectCall callOf(Method method) {
+            if(calls.containsKey(method)) {
+                return calls.get(method);
+            }
+            MethodInvoker.DirectCall call = generate(method);
+            calls.put(method, call);
+            return call;
+        }
+    }
+
+    private static MethodInvoker.DirectCall generate(Method method) {
+        Class<?> declaringClass = method.getDeclaringClass();
+        if(method.getParameterTypes().length>MAX_ARITY || Modifier.isPrivate(method.getModifiers())) {
+            return null;
+        }
+        boolean inPackage = !isPublic(method);
+        ClassLoader loader = declaringClass.getClassLoader();
+        if(inPackage) {
+            if(loader==null || !seesDirectCall(loader)) return null;
+            for(Class<?> parameterType : method.getParameterTypes()) {
+                if(!isAccessible(parameterType, declaringClass)) return null;
+            }
+        } else if(loader==null || !seesDirectCall(loader)) {
+            loader = MethodInvoker.class.getClassLoader();
+        }
+        try {
+            ClassPool pool = new ClassPool(true);
+            pool.appendClassPath(new LoaderClassPath(MethodInvoker.class.getClassLoader()));
+            if(declaringClass.getClassLoader()!=null) {
+                pool.insertClassPath(new LoaderClassPath(declaringClass.getClassLoader()));
+            }
+            String className = (inPackage ? declaringClass.getName() : MethodInvoker.class.getName())+
+                    "$$DirectCall$$"+classCounter.incrementAndGet();
+            CtClass ctClass = pool.makeClass(className);
+            ctClass.addInterface(pool.get(MethodInvoker.DirectCall.class.getName()));
+            ctClass.addConstructor(CtNewConstructor.defaultConstructor(ctClass));
+            ctClass.addMethod(CtNewMethod.make(buildSource(method), ctClass));
+            Class<?> callClass;
+            if(inPackage) {
+                callClass = ctClass.toClass(loader, declaringClass.getProtectionDomain());
+            } else {
+                byte[] bytecode = ctClass.toBytecode();
+                callClass = new CallClassLoader(loader).define(className, bytecode);
+            }
+            ctClass.detach();
+            return (MethodInvoker.DirectCall)callClass.newInstance();
+        } catch(Exception e) {
+            logger.debug("Generate direct call of method \""+method+"\" failed, reflection will be used instead.", e);
+            return null;
+        } catch(LinkageError e) {
+            logger.debug("Generate direct call of method \""+method+"\" failed, reflection will be used instead.", e);
+            return null;
+        }
+    }
+
+    private static String buildSource(Method method) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        StringBuilder invocation = new StringBuilder();
+        if(Modifier.isStatic(method.getModifiers())) {
+            invocation.append(sourceName(method.getDeclaringClass()));
+        } else {
+            invocation.append("((").append(sourceName(method.getDeclaringClass())).append(")t)");
+        }
+        invocation.append('.').append(method.getName()).append('(');
+        for(int i=0; i<parameterTypes.length; ++i) {
+            if(i>0) invocation.append(", ");
+            if(parameterTypes[i].isPrimitive()) {
+                invocation.append("((").append(boxedName(parameterTypes[i])).append(")a").append(i).append(").").
+                    append(parameterTypes[i].getName()).append("Value()");
+            } else {
+                invocation.append("((").append(sourceName(parameterTypes[i])).append(")a").append(i).append(')');
+            }
+        }
+        invocation.append(')');
+
+        StringBuilder source = new StringBuilder(
+                "public Object call(Object t, Object a0, Object a1, Object a2, Object a3) {\n");
+        Class<?> returnType = method.getReturnType();
+        if(returnType==void.class) {
+            source.append(invocation).append(";\nreturn null;\n");
+        } else if(returnType.isPrimitive()) {
+            source.append("return ").append(boxedName(returnType)).append(".valueOf(").append(invocation).append(");\n");
+        } else {
+            source.append("return ").append(invocation).append(";\n");
+        }
+        return source.append("}").toString();
+    }
+
+    private static String sourceName(Class<?> type) {
+        return type.isArray() ? sourceName(type.getComponentType())+"[]" : type.getName();
+    }
+
+    private static String boxedName(Class<?> primitiveType) {
+        return Primitives.wrap(primitiveType).getName();
+    }
+
+    private static boolean isPublic(Method method) {
+        if(!Modifier.isPublic(method.getModifiers()) || !isPublic(method.getDeclaringClass())) {
+            return false;
+        }
+        for(Class<?> parameterType : method.getParameterTypes()) {
+            if(!isPublic(parameterType)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isPublic(Class<?> type) {
+        while(type.isArray()) {
+            type = type.getComponentType();
+        }
+        for(Class<?> clazz = type; clazz!=null; clazz = clazz.getEnclosingClass()) {
+            if(!clazz.isPrimitive() && !Modifier.isPublic(clazz.getModifiers())) return false;
+        }
+        return true;
+    }
+
+    // whether type can be referenced from class defined in package of declaring class
+    private static boolean isAccessible(Class<?> type, Class<?> declaringClass) {
+        while(type.isArray()) {
+            type = type.getComponentType();
+        }
+        return isPublic(type) || (type.getClassLoader()==declaringClass.getClassLoader() &&
+                ReflectUtils.getPackageName(type.getName()).equals(ReflectUtils.getPackageName(declaringClass.getName())));
+    }
+
+    private static boolean seesDirectCall(ClassLoader loader) {
+        try {
+            return loader.loadClass(MethodInvoker.DirectCall.class.getName())==MethodInvoker.DirectCall.class;
+        } catch(ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static class CallClassLoader extends ClassLoader {
+
+        CallClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.squirrelframework.foundation.util;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Index of methods declared by a class and its super classes below a stop class, keyed by method name
+ * and parameter types. The index is built by one pass over declared methods, so that probing method
+ * names which are not declared does not need to throw and catch {@link NoSuchMethodException}.
+ * <p>
+ * Method found in sub class hides method of the same signature declared in its super class, which is
+ * consistent with looking up declared method from target class up to the stop class.
+ */
+public final class MethodIndex {
+
+    // index is shared by all the builders of the same class and released together with the builders
+    private static final ConcurrentMap<Class<?>, MethodIndex> indexCache =
+            new MapMaker().weakKeys().weakValues().makeMap();
+
+    private final Class<?> stopClass;
+
+    private final Map<String, IndexedMethod[]> methodsByName = new HashMap<String, IndexedMethod[]>();
+
+    private MethodIndex(Class<?> targetClass, Class<?> stopClass) {
+        this.stopClass = stopClass;
+        if(stopClass.isAssignableFrom(targetClass)) {
+            for(Class<?> clazz = targetClass; !stopClass.equals(clazz); clazz = clazz.getSuperclass()) {
+                for(Method method : clazz.getDeclaredMethods()) {
+                    addMethod(method);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get method index of target class which includes methods declared by target class and its super classes
+     * until stop class (exclusive). If target class is not sub type of stop class, the index is empty.
+     */
+    public static MethodIndex of(Class<?> targetClass, Class<?> stopClass) {
+        MethodIndex index = indexCache.get(targetClass);
+        if(index==null || index.stopClass!=stopClass) {
+            index = new MethodIndex(targetClass, stopClass);
+            indexCache.put(targetClass, index);
+        }
+        return index;
+    }
+
+    private void addMethod(Method method) {
+        IndexedMethod indexedMethod = new IndexedMethod(method);
+        IndexedMethod[] methods = methodsByName.get(method.getName());
+        if(methods==null) {
+            methodsByName.put(method.getName(), new IndexedMethod[]{indexedMethod});
+            return;
+        }
+        for(int i=0; i<methods.length; ++i) {
+            if(Arrays.equals(methods[i].parameterTypes, indexedMethod.parameterTypes)) {
+                // prefer method declared in sub class and non-bridge method declared in the same class
+                if(methods[i].method.getDeclaringClass()==method.getDeclaringClass() && methods[i].method.isBridge()) {
+                    methods[i] = indexedMethod;
+                }
+                return;
+            }
+        }
+        IndexedMethod[] newMethods = Arrays.copyOf(methods, methods.length+1);
+        newMethods[methods.length] = indexedMethod;
+        methodsByName.put(method.getName(), newMethods);
+    }
+
+    /**
+     * @return method of given name and parameter types or null if not found
+     */
+    public Method getMethod(String methodName, Class<?>[] parameterTypes) {
+        IndexedMethod[] methods = methodsByName.get(methodName);
+        if(methods!=null) {
+            for(int i=0; i<methods.length; ++i) {
+                if(Arrays.equals(methods[i].parameterTypes, parameterTypes)) {
+                    return methods[i].method;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resolve method names of the same parameter types in bulk.
+     *
+     * @return methods of each name in the same order, element is null if method not found
+     */
+    public Method[] getMethods(String[] methodNames, Class<?>[] parameterTypes) {
+        Method[] result = new Method[methodNames.length];
+        for(int i=0; i<methodNames.length; ++i) {
+            result[i] = getMethod(methodNames[i], parameterTypes);
+        }
+        return result;
+    }
+
+    /**
+     * @return number of indexed methods
+     */
+    public int size() {
+        int size = 0;
+        for(IndexedMethod[] methods : methodsByName.values()) {
+            size += methods.length;
+        }
+        return size;
+    }
+
+    private static class IndexedMethod {
+        final Method method;
+
+        // parameter types are kept as Method.getParameterTypes() returns a copy on each call
+        final Class<?>[] parameterTypes;
+
+        IndexedMethod(Method method) {
+            this.method = method;
+            this.parameterTypes = method.getParameterTypes();
+        }
+    }
+}
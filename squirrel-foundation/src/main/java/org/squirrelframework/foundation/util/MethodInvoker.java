@@ -0,0 +1,168 @@
+package org.squirrelframework.foundation.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+import org.squirrelframework.foundation.exception.ErrorCodes;
+import org.squirrelframework.foundation.exception.SquirrelRuntimeException;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Primitives;
+
+/**
+ * Invoker prepared for a method with fixed arity. Method which is not private and has accessible parameter
+ * types is called through a class generated once per method by javassist, so that invocation neither goes
+ * through reflection nor creates parameter array. Other methods, and arguments which reflection would 
+ * convert but a cast cannot, e.g. widened primitive values, are invoked by reflection, of which method 
+ * accessibility is resolved once when invoker is created.
+ */
+public final class MethodInvoker {
+    
+    private static final Object[] EMPTY_ARGS = new Object[0];
+    
+    private final Method method;
+    
+    private final int arity;
+    
+    // null if method is only invoked by reflection
+    private final DirectCall directCall;
+    
+    // keeps generated direct calls of declaring class from being released while invoker is in use
+    private final MethodCallGenerator.DirectCalls directCalls;
+    
+    private final boolean instanceMethod;
+    
+    private final Class<?>[] parameterTypes;
+    
+    // parameter types with primitive types boxed, which arguments of direct call must be instances of
+    private final Class<?>[] argumentTypes;
+    
+    public MethodInvoker(Method method) {
+        Preconditions.checkNotNull(method, "Method of invoker cannot be null.");
+        this.method = method;
+        this.parameterTypes = method.getParameterTypes();
+        this.arity = parameterTypes.length;
+        this.instanceMethod = !Modifier.isStatic(method.getModifiers());
+        this.argumentTypes = new Class<?>[arity];
+        for(int i=0; i<arity; ++i) {
+            argumentTypes[i] = Primitives.wrap(parameterTypes[i]);
+        }
+        this.directCalls = MethodCallGenerator.callsOf(method.getDeclaringClass());
+        this.directCall = directCalls.callOf(method);
+        if(!method.isAccessible()) {
+            method.setAccessible(true);
+        }
+    }
+    
+    public Method getMethod() {
+        return method;
+    }
+    
+    public int getArity() {
+        return arity;
+    }
+    
+    /**
+     * @return whether method is called through generated class instead of reflection
+     */
+    boolean isDirectCall() {
+        return directCall!=null;
+    }
+    
+    public Object invoke(Object target) {
+        checkArity(0);
+        if(isCallable(target, null, null, null, null)) {
+            return call(target, null, null, null, null);
+        }
+        return doInvoke(target, EMPTY_ARGS);
+    }
+    
+    public Object invoke(Object target, Object arg0) {
+        checkArity(1);
+        if(isCallable(target, arg0, null, null, null)) {
+            return call(target, arg0, null, null, null);
+        }
+        return doInvoke(target, new Object[]{arg0});
+    }
+    
+    public Object invoke(Object target, Object arg0, Object arg1, Object arg2) {
+        checkArity(3);
+        if(isCallable(target, arg0, arg1, arg2, null)) {
+            return call(target, arg0, arg1, arg2, null);
+        }
+        return doInvoke(target, new Object[]{arg0, arg1, arg2});
+    }
+    
+    public Object invoke(Object target, Object arg0, Object arg1, Object arg2, Object arg3) {
+        checkArity(4);
+        if(isCallable(target, arg0, arg1, arg2, arg3)) {
+            return call(target, arg0, arg1, arg2, arg3);
+        }
+        return doInvoke(target, new Object[]{arg0, arg1, arg2, arg3});
+    }
+    
+    /**
+     * Invoke method with arguments of any arity, which is used when arity is not known by caller.
+     */
+    public Object invokeWithArgs(Object target, Object[] args) {
+        checkArity(args.length);
+        if(arity<=MethodCallGenerator.MAX_ARITY) {
+            Object arg0 = arity>0 ? args[0] : null, arg1 = arity>1 ? args[1] : null, 
+                    arg2 = arity>2 ? args[2] : null, arg3 = arity>3 ? args[3] : null;
+            if(isCallable(target, arg0, arg1, arg2, arg3)) {
+                return call(target, arg0, arg1, arg2, arg3);
+            }
+        }
+        return doInvoke(target, args);
+    }
+    
+    private void checkArity(int expected) {
+        if(arity!=expected) {
+            throw new SquirrelRuntimeException(ErrorCodes.METHOD_UNEXPECTED_PARAMETERS);
+        }
+    }
+    
+    // arguments are checked so that exception thrown by direct call can only be thrown by method itself
+    private boolean isCallable(Object target, Object arg0, Object arg1, Object arg2, Object arg3) {
+        return directCall!=null && (!instanceMethod || method.getDeclaringClass().isInstance(target)) && 
+                (arity<1 || isArgument(0, arg0)) && (arity<2 || isArgument(1, arg1)) && 
+                (arity<3 || isArgument(2, arg2)) && (arity<4 || isArgument(3, arg3));
+    }
+    
+    private boolean isArgument(int index, Object arg) {
+        return arg!=null ? argumentTypes[index].isInstance(arg) : !parameterTypes[index].isPrimitive();
+    }
+    
+    private Object call(Object target, Object arg0, Object arg1, Object arg2, Object arg3) {
+        try {
+            return directCall.call(target, arg0, arg1, arg2, arg3);
+        } catch (Throwable e) {
+            Object[] args = Arrays.copyOf(new Object[]{arg0, arg1, arg2, arg3}, arity);
+            throw new SquirrelRuntimeException(e, ErrorCodes.METHOD_INVOKE_ERROR, 
+                    method, Arrays.toString(args), target, e.getCause());
+        }
+    }
+    
+    private Object doInvoke(Object target, Object[] args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable targetException = e.getTargetException();
+            throw new SquirrelRuntimeException(targetException, ErrorCodes.METHOD_INVOKE_ERROR, 
+                    method, Arrays.toString(args), target, targetException.getCause());
+        } catch (Exception e) {
+            throw new SquirrelRuntimeException(e, ErrorCodes.METHOD_INVOKE_ERROR, 
+                    method, Arrays.toString(args), target, e.getMessage());
+        }
+    }
+    
+    /**
+     * Direct call of method generated by invoker. It is only public because generated class may be defined 
+     * in package of invoked method, and it is not meant to be implemented by users.
+     */
+    public interface DirectCall {
+        Object call(Object target, Object arg0, Object arg1, Object arg2, Object arg3);
+    }
+}
@@ -0,0 +1,59 @@
+package org.squirrelframework.foundation.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter which spreads increments of different threads over padded cells, so that threads updating the
+ * counter concurrently rarely contend on the same cache line. Reading the counter sums up all the cells,
+ * which is not atomic against concurrent updates.
+ */
+public class StripedCounter {
+
+    // one cell per cache line of 64 bytes
+    private static final int PADDING = 8;
+
+    private static final int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES*PADDING);
+
+    private static int stripes() {
+        int stripes = 1;
+        while(stripes<Runtime.getRuntime().availableProcessors() && stripes<64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    private static int cellIndex() {
+        long id = Thread.currentThread().getId();
+        int hash = (int)(id ^ (id>>>32)) * 0x9E3779B9;
+        return ((hash>>>16) & (STRIPES-1)) * PADDING;
+    }
+
+    public void add(long delta) {
+        cells.addAndGet(cellIndex(), delta);
+    }
+
+    public void increment() {
+        cells.incrementAndGet(cellIndex());
+    }
+
+    public long sum() {
+        long sum = 0;
+        for(int i=0, size=cells.length(); i<size; i+=PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for(int i=0, size=cells.length(); i<size; i+=PADDING) {
+            cells.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+}
@@ -0,0 +1,324 @@
+package org.squirrelframework.foundation.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+/**
+ * Hierarchical timing wheel which keeps a large number of pending timeouts at fixed tick resolution. Each
+ * level has 256 buckets and covers 256 times the span of level below it, and timeouts of higher level are
+ * cascaded down when lower level wraps around. Pending timeout is a node of doubly linked bucket list, so
+ * that scheduling and cancelling are O(1) and do not allocate besides the timeout itself.
+ * <p>
+ * Timing wheel either follows system clock on its own daemon thread, which also runs expired tasks, or
+ * uses a virtual clock which is only advanced by {@link #advance(long, TimeUnit)} and runs expired tasks on
+ * calling thread, so that timed behavior can be tested deterministically.
+ */
+public class TimingWheel {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+
+    public static final long DEFAULT_TICK_MILLIS = 10;
+
+    private static final int WHEEL_BITS = 8;
+
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE-1;
+
+    private static final int LEVELS = 4;
+
+    // timeout later than this is parked at top level and rescheduled when cascaded
+    private static final long MAX_TICKS = 1L << (WHEEL_BITS*LEVELS);
+
+    private static TimingWheel defaultInstance;
+
+    private final long tickNanos;
+
+    private final Ticker ticker;
+
+    private final long startTime;
+
+    private final Thread worker;
+
+    private volatile boolean stopped = false;
+
+    // following fields are guarded by timing wheel itself
+    private final Timeout[][] wheels = new Timeout[LEVELS][WHEEL_SIZE];
+
+    private final int[] levelSizes = new int[LEVELS];
+
+    private long currentTick = 0;
+
+    private int size = 0;
+
+    /**
+     * Create timing wheel which follows system clock.
+     */
+    public TimingWheel(long tickDuration, TimeUnit unit) {
+        this(tickDuration, unit, false);
+    }
+
+    /**
+     * @param virtualClock whether clock is only advanced by {@link #advance(long, TimeUnit)}
+     */
+    public TimingWheel(long tickDuration, TimeUnit unit, boolean virtualClock) {
+        Preconditions.checkArgument(tickDuration>0, "Tick duration must be positive");
+        this.tickNanos = unit.toNanos(tickDuration);
+        for(int level=0; level<LEVELS; ++level) {
+            for(int i=0; i<WHEEL_SIZE; ++i) {
+                wheels[level][i] = new Timeout(this, null, 0);
+            }
+        }
+        if(virtualClock) {
+            ticker = null;
+            startTime = 0;
+            worker = null;
+        } else {
+            ticker = Ticker.systemTicker();
+            startTime = ticker.read();
+            worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "squirrel-fsm-timer");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * @return timing wheel shared by all the state machines unless they are given their own
+     */
+    public static synchronized TimingWheel getDefault() {
+        if(defaultInstance==null) {
+            defaultInstance = new TimingWheel(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Schedule task to run once after delay. Delay is rounded up to whole ticks.
+     */
+    public synchronized Timeout schedule(TimerTask task, long delay, TimeUnit unit) {
+        Preconditions.checkNotNull(task, "Timer task cannot be null");
+        Preconditions.checkState(!stopped, "Timing wheel is stopped.");
+        long delayNanos = unit.toNanos(delay);
+        long ticks = Math.max(1, (delayNanos+tickNanos-1)/tickNanos);
+        Timeout timeout = new Timeout(this, task, currentTick+ticks);
+        add(timeout);
+        ++size;
+        return timeout;
+    }
+
+    private void add(Timeout timeout) {
+        long ticks = timeout.deadline-currentTick;
+        long deadline = ticks<MAX_TICKS ? timeout.deadline : currentTick+MAX_TICKS-1;
+        int level = 0;
+        while(level<LEVELS-1 && ticks>=1L<<(WHEEL_BITS*(level+1))) {
+            ++level;
+        }
+        Timeout head = wheels[level][(int)((deadline>>>(WHEEL_BITS*level)) & WHEEL_MASK)];
+        timeout.level = level;
+        ++levelSizes[level];
+        timeout.prev = head.prev;
+        timeout.next = head;
+        head.prev.next = timeout;
+        head.prev = timeout;
+    }
+
+    private synchronized boolean cancel(Timeout timeout) {
+        if(timeout.state!=Timeout.PENDING) {
+            return false;
+        }
+        unlink(timeout);
+        timeout.state = Timeout.CANCELLED;
+        --size;
+        return true;
+    }
+
+    private void unlink(Timeout timeout) {
+        --levelSizes[timeout.level];
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+        timeout.prev = timeout.next = null;
+    }
+
+    /**
+     * Advance wheel to target tick and collect expired timeouts.
+     * @return expired timeouts chained by {@link Timeout#nextExpired}
+     */
+    private synchronized Timeout advanceTo(long targetTick) {
+        if(size==0) {
+            // nothing to cascade or expire on the way
+            currentTick = Math.max(currentTick, targetTick);
+            return null;
+        }
+        Timeout expired = null, last = null;
+        while(currentTick<targetTick) {
+            // skip to next cascade point of the first non-empty level when lower levels are empty
+            long nextTick = currentTick+1;
+            for(int level=0; level<LEVELS-1 && levelSizes[level]==0; ++level) {
+                long span = 1L<<(WHEEL_BITS*(level+1));
+                nextTick = (currentTick/span+1)*span;
+            }
+            currentTick = size==0 ? targetTick : Math.min(nextTick, targetTick);
+            for(int level=1; level<LEVELS; ++level) {
+                if((currentTick & ((1L<<(WHEEL_BITS*level))-1))!=0) break;
+                Timeout head = wheels[level][(int)((currentTick>>>(WHEEL_BITS*level)) & WHEEL_MASK)];
+                while(head.next!=head) {
+                    Timeout timeout = head.next;
+                    unlink(timeout);
+                    add(timeout);
+                }
+            }
+            Timeout head = wheels[0][(int)(currentTick & WHEEL_MASK)];
+            while(head.next!=head) {
+                Timeout timeout = head.next;
+                unlink(timeout);
+                timeout.state = Timeout.EXPIRED;
+                --size;
+                if(last==null) {
+                    expired = timeout;
+                } else {
+                    last.nextExpired = timeout;
+                }
+                last = timeout;
+            }
+        }
+        return expired;
+    }
+
+    private static int runExpired(Timeout expired) {
+        int count = 0;
+        while(expired!=null) {
+            Timeout timeout = expired;
+            expired = timeout.nextExpired;
+            timeout.nextExpired = null;
+            try {
+                timeout.task.run(timeout);
+            } catch(Throwable t) {
+                logger.error("Timer task \""+timeout.task+"\" failed.", t);
+            }
+            ++count;
+        }
+        return count;
+    }
+
+    private void work() {
+        while(!stopped) {
+            long now = ticker.read()-startTime;
+            long nextTickTime;
+            synchronized(this) {
+                nextTickTime = (currentTick+1)*tickNanos;
+            }
+            if(now<nextTickTime) {
+                LockSupport.parkNanos(this, nextTickTime-now);
+                continue;
+            }
+            runExpired(advanceTo(now/tickNanos));
+        }
+    }
+
+    /**
+     * Advance virtual clock and run expired tasks on calling thread.
+     * @return number of expired tasks
+     */
+    public int advance(long duration, TimeUnit unit) {
+        Preconditions.checkState(worker==null, "Only timing wheel of virtual clock can be advanced.");
+        long targetTick;
+        synchronized(this) {
+            targetTick = currentTick+unit.toNanos(duration)/tickNanos;
+        }
+        return runExpired(advanceTo(targetTick));
+    }
+
+    /**
+     * @return number of pending timeouts
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Stop timer thread. Pending timeouts are dropped.
+     */
+    public void stop() {
+        stopped = true;
+        if(worker!=null) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * Task run by timing wheel when its timeout expires.
+     */
+    public interface TimerTask {
+        void run(Timeout timeout);
+    }
+
+    /**
+     * Handle of scheduled task.
+     */
+    public static final class Timeout {
+
+        static final int PENDING = 0;
+
+        static final int CANCELLED = 1;
+
+        static final int EXPIRED = 2;
+
+        private final TimingWheel wheel;
+
+        private final TimerTask task;
+
+        private final long deadline;
+
+        // following fields are guarded by timing wheel
+        private Timeout prev, next, nextExpired;
+
+        private int state = PENDING;
+
+        private int level;
+
+        private Timeout(TimingWheel wheel, TimerTask task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+            if(task==null) {
+                // bucket head
+                prev = next = this;
+            }
+        }
+
+        public TimerTask getTask() {
+            return task;
+        }
+
+        /**
+         * Cancel timeout if it is still pending.
+         * @return false if timeout already expired or was cancelled
+         */
+        public boolean cancel() {
+            return wheel.cancel(this);
+        }
+
+        public boolean isCancelled() {
+            synchronized(wheel) {
+                return state==CANCELLED;
+            }
+        }
+
+        public boolean isExpired() {
+            synchronized(wheel) {
+                return state==EXPIRED;
+            }
+        }
+    }
+}
@@ -6,6 +6,7 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.Matchers.sameInstance;
 
 import java.util.List;
@@ -34,6 +35,26 @@ public class ComponentPostProcessorTest {
         SquirrelPostProcessorProvider.getInstance().unregister(Person.class);
     }
     
+    @Test
+    public void testRegisterPostProcessorAfterInstanceCreated() {
+        Person p = SquirrelProvider.getInstance().newInstance(Person.class);
+        assertThat(p.getName(), nullValue());
+        
+        // post processor resolved with cached factory is refreshed by registration
+        SquirrelPostProcessorProvider.getInstance().register(Person.class, new SquirrelPostProcessor<Person>() {
+            @Override
+            public void postProcess(Person p) {
+                p.setName("Henry");
+            }
+        });
+        p = SquirrelProvider.getInstance().newInstance(Person.class);
+        assertThat(p.getName(), equalTo("Henry"));
+        
+        SquirrelPostProcessorProvider.getInstance().unregister(Person.class);
+        p = SquirrelProvider.getInstance().newInstance(Person.class);
+        assertThat(p.getName(), nullValue());
+    }
+    
     @SuppressWarnings("unchecked")
     @Test
     public void testAssignablePostProcessor() {
@@ -3,6 +3,7 @@ package org.squirrelframework.foundation.component;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 
 import org.junit.Test;
@@ -65,4 +66,33 @@ public class ComponentProviderTest {
         assertThat(p, instanceOf(StudentImpl.class));
         SquirrelProvider.getInstance().unregister(Person.class);
     }
+    
+    @Test
+    public void testRegisterAfterInstanceCreated() {
+        assertThat(SquirrelProvider.getInstance().newInstance(Person.class), instanceOf(PersonImpl.class));
+        SquirrelProvider.getInstance().register(Person.class, StudentImpl.class);
+        try {
+            assertThat(SquirrelProvider.getInstance().newInstance(Person.class), instanceOf(StudentImpl.class));
+        } finally {
+            SquirrelProvider.getInstance().unregister(Person.class);
+        }
+        Person p = SquirrelProvider.getInstance().newInstance(Person.class);
+        assertThat(p, instanceOf(PersonImpl.class));
+        assertThat(p, not(instanceOf(StudentImpl.class)));
+    }
+    
+    @Test
+    public void testNewInstanceWithDifferentArgTypes() {
+        Class<?>[] argTypes = new Class[]{String.class};
+        for(int i=0; i<3; ++i) {
+            assertThat(SquirrelProvider.getInstance().newInstance(Person.class).getName(), 
+                    not(equalTo("Henry")));
+            assertThat(SquirrelProvider.getInstance().newInstance(Person.class, argTypes, 
+                    new Object[]{"Henry"}).getName(), equalTo("Henry"));
+        }
+        // argument types array reused by caller does not change resolved factory
+        argTypes[0] = Object.class;
+        assertThat(SquirrelProvider.getInstance().newInstance(Person.class, new Class[]{String.class}, 
+                new Object[]{"Henry"}).getName(), equalTo("Henry"));
+    }
 }
@@ -0,0 +1,158 @@
+package org.squirrelframework.foundation.event;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.squirrelframework.foundation.event.AsyncEventDispatcher.OverflowPolicy;
+import org.squirrelframework.foundation.util.ReflectUtils;
+
+import com.google.common.collect.Lists;
+
+public class AsyncEventDispatcherTest {
+    
+    public static class AsyncListener implements AsyncEventListener {
+        private final List<Object> events = Lists.newCopyOnWriteArrayList();
+        
+        private final CountDownLatch gate;
+        
+        private final CountDownLatch entered = new CountDownLatch(1);
+        
+        private volatile Thread thread;
+        
+        AsyncListener(CountDownLatch gate) {
+            this.gate = gate;
+        }
+        
+        public void onEvent(Object event) throws InterruptedException {
+            entered.countDown();
+            gate.await();
+            thread = Thread.currentThread();
+            events.add(event);
+        }
+    }
+    
+    public static class SyncListener {
+        private volatile Thread thread;
+        
+        public void onEvent(Object event) {
+            thread = Thread.currentThread();
+        }
+    }
+    
+    private AsyncEventDispatcher dispatcher;
+    
+    @After
+    public void teardown() {
+        if(dispatcher!=null) dispatcher.shutdown();
+    }
+    
+    @Test
+    public void testAsyncListenerNotifiedOnDispatcherThread() throws Exception {
+        dispatcher = new AsyncEventDispatcher(16, OverflowPolicy.BLOCK);
+        CountDownLatch gate = new CountDownLatch(1);
+        AsyncListener asyncListener = new AsyncListener(gate);
+        SyncListener syncListener = new SyncListener();
+        
+        EventMediator mediator = new EventMediator();
+        mediator.setAsyncDispatcher(dispatcher);
+        mediator.register(Integer.class, asyncListener, ReflectUtils.getFirstMethodOfName(AsyncListener.class, "onEvent"));
+        mediator.register(Integer.class, syncListener, ReflectUtils.getFirstMethodOfName(SyncListener.class, "onEvent"));
+        for(int i=0; i<10; ++i) {
+            mediator.fireEvent(i);
+        }
+        // slow asynchronous listener does not block publisher
+        assertThat(syncListener.thread, is(Thread.currentThread()));
+        assertThat(asyncListener.events.isEmpty(), is(true));
+        
+        gate.countDown();
+        assertThat(dispatcher.awaitDelivered(5, TimeUnit.SECONDS), is(true));
+        assertThat(asyncListener.events, equalTo((List<Object>)Lists.<Object>newArrayList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9)));
+        assertThat(asyncListener.thread.getName().startsWith("squirrel-event-dispatcher-"), is(true));
+        assertThat(dispatcher.getDeliveredCount(), is(10L));
+    }
+    
+    @Test
+    public void testDropOldestWhenFull() throws Exception {
+        dispatcher = new AsyncEventDispatcher(4, 1, OverflowPolicy.DROP_OLDEST, 1);
+        CountDownLatch gate = new CountDownLatch(1);
+        AsyncListener listener = new AsyncListener(gate);
+        Method method = ReflectUtils.getFirstMethodOfName(AsyncListener.class, "onEvent");
+        ListenerMethod listenerMethod = new ListenerMethod(Integer.class, listener, method);
+        
+        // first event is taken by consumer thread and blocked in listener
+        dispatcher.publish(listenerMethod, 0);
+        listener.entered.await();
+        for(int i=1; i<=10; ++i) {
+            dispatcher.publish(listenerMethod, i);
+        }
+        gate.countDown();
+        assertThat(dispatcher.awaitDelivered(5, TimeUnit.SECONDS), is(true));
+        assertThat(listener.events, equalTo((List<Object>)Lists.<Object>newArrayList(0, 7, 8, 9, 10)));
+        assertThat(dispatcher.getDroppedCount(), is(6L));
+    }
+    
+    @Test
+    public void testSampleWhenFull() throws Exception {
+        dispatcher = new AsyncEventDispatcher(2, 1, OverflowPolicy.SAMPLE, 3);
+        CountDownLatch gate = new CountDownLatch(1);
+        AsyncListener listener = new AsyncListener(gate);
+        Method method = ReflectUtils.getFirstMethodOfName(AsyncListener.class, "onEvent");
+        ListenerMethod listenerMethod = new ListenerMethod(Integer.class, listener, method);
+        
+        dispatcher.publish(listenerMethod, 0);
+        listener.entered.await();
+        int accepted = 0;
+        for(int i=1; i<=8; ++i) {
+            if(dispatcher.publish(listenerMethod, i)) accepted++;
+        }
+        gate.countDown();
+        assertThat(dispatcher.awaitDelivered(5, TimeUnit.SECONDS), is(true));
+        // 1 and 2 fill buffer, then one of every three overflowing events is kept
+        assertThat(accepted, is(4));
+        assertThat(listener.events, equalTo((List<Object>)Lists.<Object>newArrayList(0, 3, 6)));
+        assertThat(dispatcher.getDroppedCount(), is(6L));
+    }
+    
+    public static class RepublishListener implements AsyncEventListener {
+        private final List<Object> events = Lists.newCopyOnWriteArrayList();
+        
+        private AsyncEventDispatcher dispatcher;
+        
+        private ListenerMethod self;
+        
+        public void onEvent(Object event) {
+            events.add(event);
+            int value = (Integer)event;
+            if(value<100) {
+                // fill buffer from consumer thread
+                for(int i=1; i<=4; ++i) {
+                    dispatcher.publish(self, value*100+i);
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testPublishOnConsumerThreadWhenFull() throws Exception {
+        dispatcher = new AsyncEventDispatcher(2, 1, OverflowPolicy.BLOCK, 1);
+        RepublishListener listener = new RepublishListener();
+        Method method = ReflectUtils.getFirstMethodOfName(RepublishListener.class, "onEvent");
+        listener.dispatcher = dispatcher;
+        listener.self = new ListenerMethod(Integer.class, listener, method);
+        
+        dispatcher.publish(listener.self, 1);
+        assertThat(dispatcher.awaitDelivered(5, TimeUnit.SECONDS), is(true));
+        // consumer thread does not wait for itself to free buffer
+        assertThat(listener.events.size(), is(5));
+        assertThat(dispatcher.getDeliveredCount(), is(5L));
+        assertThat(dispatcher.getDroppedCount(), is(0L));
+    }
+}
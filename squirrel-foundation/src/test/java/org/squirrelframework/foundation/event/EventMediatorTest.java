@@ -0,0 +1,72 @@
+package org.squirrelframework.foundation.event;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.lang.reflect.Method;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.squirrelframework.foundation.util.ReflectUtils;
+
+public class EventMediatorTest {
+    
+    static class BaseEvent {}
+    
+    static class SubEvent extends BaseEvent {}
+    
+    static class OtherEvent {}
+    
+    public static class Listener {
+        private final StringBuilder logger = new StringBuilder();
+        
+        public void onEvent(Object event) {
+            logger.append(event.getClass().getSimpleName()).append('.');
+        }
+    }
+    
+    private EventMediator mediator;
+    
+    private Listener listener;
+    
+    private Method method;
+    
+    @Before
+    public void setup() {
+        mediator = new EventMediator();
+        listener = new Listener();
+        method = ReflectUtils.getFirstMethodOfName(Listener.class, "onEvent");
+    }
+    
+    @Test
+    public void testDispatchByEventClass() {
+        mediator.register(BaseEvent.class, listener, method);
+        mediator.register(BaseEvent.class, listener, method);
+        assertThat(mediator.hasListeners(SubEvent.class), is(true));
+        assertThat(mediator.hasListeners(OtherEvent.class), is(false));
+        
+        mediator.fireEvent(new BaseEvent());
+        mediator.fireEvent(new SubEvent());
+        mediator.fireEvent(new OtherEvent());
+        assertThat(listener.logger.toString(), equalTo("BaseEvent.SubEvent."));
+    }
+    
+    @Test
+    public void testIndexInvalidatedOnRegistration() {
+        assertThat(mediator.hasListeners(OtherEvent.class), is(false));
+        mediator.register(BaseEvent.class, listener, method);
+        assertThat(mediator.hasListeners(OtherEvent.class), is(false));
+        mediator.register(OtherEvent.class, listener, method);
+        assertThat(mediator.hasListeners(OtherEvent.class), is(true));
+        
+        mediator.unregister(OtherEvent.class, listener);
+        assertThat(mediator.hasListeners(OtherEvent.class), is(false));
+        assertThat(mediator.hasListeners(SubEvent.class), is(true));
+        
+        mediator.unregister(BaseEvent.class, listener, method);
+        assertThat(mediator.hasListeners(SubEvent.class), is(false));
+        mediator.fireEvent(new SubEvent());
+        assertThat(listener.logger.toString(), equalTo(""));
+    }
+}
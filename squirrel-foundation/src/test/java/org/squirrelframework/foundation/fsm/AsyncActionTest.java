@@ -0,0 +1,175 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.squirrelframework.foundation.exception.TransitionException;
+import org.squirrelframework.foundation.fsm.annotation.EventType;
+import org.squirrelframework.foundation.fsm.impl.AbstractAsyncAction;
+import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class AsyncActionTest {
+    
+    enum AState {
+        A, B, C, Failed
+    }
+    
+    enum AEvent {
+        ToB, ToC, @EventType(EventKind.ERROR) Error
+    }
+    
+    static class AsyncStateMachine extends AbstractStateMachine<AsyncStateMachine, AState, AEvent, Integer> {
+        
+        private final StringBuffer logger = new StringBuffer();
+        
+        protected AsyncStateMachine(ImmutableState<AsyncStateMachine, AState, AEvent, Integer> initialState,
+                Map<AState, ImmutableState<AsyncStateMachine, AState, AEvent, Integer>> states) {
+            super(initialState, states);
+        }
+        
+        @Override
+        protected void afterTransitionCausedException(Exception e, AState fromState, AState toState, AEvent event, Integer context) {
+            logger.append("exception(").append(event).append(").");
+            super.afterTransitionCausedException(e, fromState, toState, event, context);
+        }
+    }
+    
+    static class LogAction implements Action<AsyncStateMachine, AState, AEvent, Integer> {
+        private final String name;
+        
+        LogAction(String name) {
+            this.name = name;
+        }
+        
+        @Override
+        public void execute(AState from, AState to, AEvent event, Integer context, AsyncStateMachine stateMachine) {
+            stateMachine.logger.append(name).append('.');
+        }
+    }
+    
+    static class RemoteCall extends AbstractAsyncAction<AsyncStateMachine, AState, AEvent, Integer> {
+        
+        private SettableFuture<Object> future;
+        
+        @Override
+        public ListenableFuture<?> executeAsync(AState from, AState to, AEvent event, Integer context, 
+                AsyncStateMachine stateMachine) {
+            stateMachine.logger.append("call.");
+            future = SettableFuture.create();
+            return future;
+        }
+    }
+    
+    private RemoteCall remoteCall;
+    
+    private AsyncStateMachine stateMachine;
+    
+    @Before
+    public void setup() {
+        stateMachine = newStateMachine(false);
+    }
+    
+    private AsyncStateMachine newStateMachine(boolean compiled) {
+        remoteCall = new RemoteCall();
+        StateMachineBuilder<AsyncStateMachine, AState, AEvent, Integer> builder = StateMachineBuilderFactory.create(
+                AsyncStateMachine.class, AState.class, AEvent.class, Integer.class);
+        if(compiled) {
+            builder.enableCompilation();
+        }
+        builder.externalTransition().from(AState.A).to(AState.B).on(AEvent.ToB).perform(remoteCall);
+        builder.externalTransition().from(AState.B).to(AState.C).on(AEvent.ToC).perform(new LogAction("transitB2C"));
+        builder.externalTransition().from(AState.A).to(AState.Failed).on(AEvent.Error).perform(new LogAction("transitA2Failed"));
+        builder.onExit(AState.A).perform(new LogAction("exitA"));
+        builder.onEntry(AState.B).perform(new LogAction("entryB"));
+        AsyncStateMachine newStateMachine = builder.newStateMachine(AState.A);
+        // complete transition on the thread completing asynchronous action
+        newStateMachine.setAsyncExecutor(MoreExecutors.sameThreadExecutor());
+        newStateMachine.start(0);
+        return newStateMachine;
+    }
+    
+    @Test
+    public void testTransitionCompletedByFuture() {
+        stateMachine.fire(AEvent.ToB, 0);
+        assertThat(stateMachine.getStatus(), is(StateMachineStatus.WAITING));
+        assertThat(stateMachine.getCurrentState(), is(AState.A));
+        assertThat(stateMachine.logger.toString(), equalTo("exitA.call."));
+        
+        // event fired during asynchronous transition is processed after transition completed
+        stateMachine.fire(AEvent.ToC, 0);
+        assertThat(stateMachine.getCurrentState(), is(AState.A));
+        
+        remoteCall.future.set("done");
+        assertThat(stateMachine.getStatus(), is(StateMachineStatus.IDLE));
+        assertThat(stateMachine.getCurrentState(), is(AState.C));
+        assertThat(stateMachine.logger.toString(), equalTo("exitA.call.entryB.transitB2C."));
+    }
+    
+    @Test
+    public void testCompiledTransitionCompletedByFuture() {
+        stateMachine = newStateMachine(true);
+        stateMachine.fire(AEvent.ToB, 0);
+        assertThat(stateMachine.getStatus(), is(StateMachineStatus.WAITING));
+        assertThat(stateMachine.logger.toString(), equalTo("exitA.call."));
+        stateMachine.fire(AEvent.ToC, 0);
+        
+        remoteCall.future.set("done");
+        assertThat(stateMachine.getStatus(), is(StateMachineStatus.IDLE));
+        assertThat(stateMachine.getCurrentState(), is(AState.C));
+        assertThat(stateMachine.logger.toString(), equalTo("exitA.call.entryB.transitB2C."));
+    }
+    
+    @Test
+    public void testFireAsyncResultCompletedByFuture() throws Exception {
+        ListenableFuture<TransitionResult<AsyncStateMachine, AState, AEvent, Integer>> result = 
+                stateMachine.fireAsync(AEvent.ToB, 0);
+        while(remoteCall.future==null) {
+            Thread.sleep(1);
+        }
+        assertThat(result.isDone(), is(false));
+        remoteCall.future.set("done");
+        assertThat(result.get(5, TimeUnit.SECONDS).isAccepted(), is(true));
+        assertThat(stateMachine.getCurrentState(), is(AState.B));
+    }
+    
+    @Test
+    public void testFailureFiresErrorEvent() {
+        stateMachine.fire(AEvent.ToB, 0);
+        remoteCall.future.setException(new IllegalStateException("remote failure"));
+        assertThat(stateMachine.getCurrentState(), is(AState.Failed));
+        assertThat(stateMachine.getStatus(), is(StateMachineStatus.IDLE));
+        // failed transition is aborted, so error transition starts from source state again
+        assertThat(stateMachine.logger.toString(), equalTo("exitA.call.exception(ToB).exitA.transitA2Failed."));
+    }
+    
+    @Test
+    public void testTimeoutFiresErrorEvent() throws Exception {
+        stateMachine.setAsyncActionTimeout(50, TimeUnit.MILLISECONDS);
+        ListenableFuture<TransitionResult<AsyncStateMachine, AState, AEvent, Integer>> result = 
+                stateMachine.fireAsync(AEvent.ToB, 0);
+        TransitionResult<AsyncStateMachine, AState, AEvent, Integer> transitionResult = result.get(5, TimeUnit.SECONDS);
+        assertThat(transitionResult.isFailed(), is(true));
+        assertThat(((TransitionException)transitionResult.getException()).getTargetException(), 
+                instanceOf(TimeoutException.class));
+        // action is cancelled when timed out
+        assertThat(remoteCall.future.isCancelled(), is(true));
+        
+        long deadline = System.currentTimeMillis()+5000;
+        while(stateMachine.getCurrentState()!=AState.Failed && System.currentTimeMillis()<deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(stateMachine.getCurrentState(), is(AState.Failed));
+    }
+}
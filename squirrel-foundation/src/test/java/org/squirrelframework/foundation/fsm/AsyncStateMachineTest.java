@@ -0,0 +1,147 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.squirrelframework.foundation.exception.TransitionException;
+import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class AsyncStateMachineTest extends AbstractStateMachineTest {
+
+    static class AsyncStateMachine extends AbstractStateMachine<AsyncStateMachine, TestState, TestEvent, Integer> {
+
+        private final List<Integer> contexts = Lists.newArrayList();
+
+        private volatile Thread actionThread;
+
+        protected AsyncStateMachine(ImmutableState<AsyncStateMachine, TestState, TestEvent, Integer> initialState,
+                Map<TestState, ImmutableState<AsyncStateMachine, TestState, TestEvent, Integer>> states) {
+            super(initialState, states);
+        }
+
+        @Override
+        protected void afterTransitionCausedException(Exception e, TestState fromState, TestState toState, 
+                TestEvent event, Integer context) {
+            // keep state machine working after failure
+        }
+    }
+
+    private final CountDownLatch actionLatch = new CountDownLatch(1);
+
+    private AsyncStateMachine stateMachine;
+
+    private ExecutorService executorService;
+
+    @Before
+    public void setup() {
+        StateMachineBuilder<AsyncStateMachine, TestState, TestEvent, Integer> builder = StateMachineBuilderFactory.
+                create(AsyncStateMachine.class, TestState.class, TestEvent.class, Integer.class);
+        builder.externalTransition().from(TestState.A).to(TestState.B).on(TestEvent.ToB).perform(
+                new Action<AsyncStateMachine, TestState, TestEvent, Integer>() {
+                    @Override
+                    public void execute(TestState from, TestState to, TestEvent event, Integer context,
+                            AsyncStateMachine stateMachine) {
+                        stateMachine.actionThread = Thread.currentThread();
+                        try {
+                            actionLatch.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+        builder.externalTransition().from(TestState.B).to(TestState.C).on(TestEvent.ToC).perform(
+                new Action<AsyncStateMachine, TestState, TestEvent, Integer>() {
+                    @Override
+                    public void execute(TestState from, TestState to, TestEvent event, Integer context,
+                            AsyncStateMachine stateMachine) {
+                        throw new IllegalStateException("failed on purpose");
+                    }
+                });
+        builder.internalTransition().within(TestState.B).on(TestEvent.ToD).perform(
+                new Action<AsyncStateMachine, TestState, TestEvent, Integer>() {
+                    @Override
+                    public void execute(TestState from, TestState to, TestEvent event, Integer context,
+                            AsyncStateMachine stateMachine) {
+                        stateMachine.contexts.add(context);
+                    }
+                });
+        stateMachine = builder.newStateMachine(TestState.A);
+        executorService = Executors.newSingleThreadExecutor();
+        stateMachine.setAsyncExecutor(executorService);
+    }
+
+    @After
+    public void teardown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testFireAsyncAccepted() throws Exception {
+        ListenableFuture<TransitionResult<AsyncStateMachine, TestState, TestEvent, Integer>> future = 
+                stateMachine.fireAsync(TestEvent.ToB, 1);
+        // caller is not blocked by action
+        assertThat(future.isDone(), is(false));
+        actionLatch.countDown();
+
+        TransitionResult<AsyncStateMachine, TestState, TestEvent, Integer> result = future.get(5, TimeUnit.SECONDS);
+        assertThat(result.isAccepted(), is(true));
+        assertThat(result.isFailed(), is(false));
+        assertThat(result.getSourceState().getStateId(), equalTo(TestState.A));
+        assertThat(result.getTargetState().getStateId(), equalTo(TestState.B));
+        assertThat(stateMachine.actionThread==Thread.currentThread(), is(false));
+        assertThat(stateMachine.getCurrentState(), equalTo(TestState.B));
+    }
+
+    @Test
+    public void testFireAsyncDeclinedAndFailed() throws Exception {
+        actionLatch.countDown();
+        TransitionResult<AsyncStateMachine, TestState, TestEvent, Integer> declined = 
+                stateMachine.fireAsync(TestEvent.ToC, 1).get(5, TimeUnit.SECONDS);
+        assertThat(declined.isDeclined(), is(true));
+        assertThat(declined.getSourceState().getStateId(), equalTo(TestState.A));
+
+        stateMachine.fireAsync(TestEvent.ToB, 2);
+        TransitionResult<AsyncStateMachine, TestState, TestEvent, Integer> failed = 
+                stateMachine.fireAsync(TestEvent.ToC, 3).get(5, TimeUnit.SECONDS);
+        assertThat(failed.isFailed(), is(true));
+        assertThat(failed.isDeclined(), is(false));
+        assertThat(failed.getException(), instanceOf(TransitionException.class));
+        assertThat(failed.getSourceState().getStateId(), equalTo(TestState.B));
+    }
+
+    @Test
+    public void testFireAsyncInOrder() throws Exception {
+        actionLatch.countDown();
+        stateMachine.fireAsync(TestEvent.ToB, 0);
+        ListenableFuture<TransitionResult<AsyncStateMachine, TestState, TestEvent, Integer>> last = null;
+        for(int i=1; i<=100; ++i) {
+            last = stateMachine.fireAsync(TestEvent.ToD, i);
+            if(i%10==0) {
+                // synchronous fire shares the same event queue
+                stateMachine.fire(TestEvent.ToD, -i);
+            }
+        }
+        last.get(5, TimeUnit.SECONDS);
+        List<Integer> expected = Lists.newArrayList();
+        for(int i=1; i<=100; ++i) {
+            expected.add(i);
+            if(i%10==0) expected.add(-i);
+        }
+        assertThat(stateMachine.contexts, equalTo(expected));
+    }
+}
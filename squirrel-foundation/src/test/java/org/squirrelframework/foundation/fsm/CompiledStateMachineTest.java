@@ -0,0 +1,163 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
+
+public class CompiledStateMachineTest {
+
+    enum CState {
+        P, P1, P1a, P1b, P2, Q, Q1, End
+    }
+
+    enum CEvent {
+        ToP1b, ToP2, ToQ, ToP, Up, Inc, Reset, ToEnd
+    }
+
+    static class CompiledStateMachine extends AbstractStateMachine<CompiledStateMachine, CState, CEvent, Integer> {
+
+        private final StringBuilder logger = new StringBuilder();
+
+        protected CompiledStateMachine(ImmutableState<CompiledStateMachine, CState, CEvent, Integer> initialState,
+                Map<CState, ImmutableState<CompiledStateMachine, CState, CEvent, Integer>> states) {
+            super(initialState, states);
+        }
+
+        @Override
+        protected void afterTransitionDeclined(CState fromState, CEvent event, Integer context) {
+            logger.append("declined.");
+        }
+    }
+
+    static class LogAction implements Action<CompiledStateMachine, CState, CEvent, Integer> {
+        private final String name;
+
+        LogAction(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void execute(CState from, CState to, CEvent event, Integer context, CompiledStateMachine stateMachine) {
+            stateMachine.logger.append(name).append('(').append(from).append(',').append(to).append(").");
+        }
+    }
+
+    static class Even implements Condition<Integer> {
+        @Override
+        public boolean isSatisfied(Integer context) {
+            return context!=null && context%2==0;
+        }
+    }
+
+    static class GreaterThanFive implements Condition<Integer> {
+        @Override
+        public boolean isSatisfied(Integer context) {
+            return context!=null && context>5;
+        }
+    }
+
+    static class InterpreterProbe implements Condition<Integer> {
+        private Boolean interpreted;
+
+        @Override
+        public boolean isSatisfied(Integer context) {
+            interpreted = false;
+            for(StackTraceElement element : new Throwable().getStackTrace()) {
+                if(element.getClassName().endsWith("TransitionImpl")) {
+                    interpreted = true;
+                }
+            }
+            return true;
+        }
+    }
+
+    private StateMachineBuilder<CompiledStateMachine, CState, CEvent, Integer> newBuilder() {
+        StateMachineBuilder<CompiledStateMachine, CState, CEvent, Integer> builder = StateMachineBuilderFactory.
+                create(CompiledStateMachine.class, CState.class, CEvent.class, Integer.class);
+        builder.defineSequentialStatesOn(CState.P, CState.P1, CState.P2);
+        builder.defineSequentialStatesOn(CState.P1, CState.P1a, CState.P1b);
+        builder.defineSequentialStatesOn(CState.Q, CState.Q1);
+        builder.defineFinalState(CState.End);
+        for(CState state : CState.values()) {
+            builder.onEntry(state).perform(new LogAction("entry"+state));
+            if(state!=CState.End) {
+                builder.onExit(state).perform(new LogAction("exit"+state));
+            }
+        }
+        builder.externalTransition().from(CState.P1a).to(CState.P1b).on(CEvent.ToP1b).perform(new LogAction("t1"));
+        builder.localTransition().from(CState.P1b).to(CState.P1a).on(CEvent.ToP1b).when(new Even()).perform(new LogAction("t2"));
+        builder.externalTransition().from(CState.P1).to(CState.P2).on(CEvent.ToP2).perform(new LogAction("t3"));
+        builder.externalTransition().from(CState.P).to(CState.Q1).on(CEvent.ToQ).perform(new LogAction("t4"));
+        builder.externalTransition().from(CState.Q).to(CState.P).on(CEvent.ToP).perform(new LogAction("t5"));
+        builder.externalTransition().from(CState.P1b).to(CState.P1).on(CEvent.Up).perform(new LogAction("t6"));
+        builder.localTransition().from(CState.P1a).to(CState.P1).on(CEvent.Up).perform(new LogAction("t7"));
+        builder.internalTransition().within(CState.P).on(CEvent.Inc).perform(new LogAction("t8"));
+        builder.externalTransition().from(CState.P1a).to(CState.P1a).on(CEvent.Reset).perform(new LogAction("t9"));
+        builder.externalTransition().from(CState.P).to(CState.P1b).on(CEvent.Reset).perform(new LogAction("t10"));
+        builder.externalTransition().from(CState.Q1).to(CState.End).on(CEvent.ToEnd).when(new GreaterThanFive()).perform(new LogAction("t11"));
+        builder.externalTransition().from(CState.Q).to(CState.Q).on(CEvent.ToEnd).perform(new LogAction("t12"));
+        return builder;
+    }
+
+    @Test
+    public void testCompiledAndInterpretedBehaveSame() {
+        StateMachineBuilder<CompiledStateMachine, CState, CEvent, Integer> interpretedBuilder = newBuilder();
+        StateMachineBuilder<CompiledStateMachine, CState, CEvent, Integer> compiledBuilder = newBuilder();
+        compiledBuilder.enableCompilation();
+
+        Random random = new Random(20131017L);
+        CompiledStateMachine interpreted = null, compiled = null;
+        for(int i=0; i<5000; ++i) {
+            if(interpreted==null || interpreted.getCurrentState()==CState.End) {
+                interpreted = interpretedBuilder.newStateMachine(CState.P);
+                compiled = compiledBuilder.newStateMachine(CState.P);
+                interpreted.start(0);
+                compiled.start(0);
+            }
+            CEvent event = CEvent.values()[random.nextInt(CEvent.values().length)];
+            Integer context = random.nextInt(10);
+            interpreted.fire(event, context);
+            compiled.fire(event, context);
+            assertThat(compiled.getCurrentState(), equalTo(interpreted.getCurrentState()));
+            assertThat(compiled.getLastState(), equalTo(interpreted.getLastState()));
+            assertThat(compiled.logger.toString(), equalTo(interpreted.logger.toString()));
+        }
+    }
+
+    @Test
+    public void testCompiledDispatcherUsed() {
+        StateMachineBuilder<CompiledStateMachine, CState, CEvent, Integer> builder = newBuilder();
+        InterpreterProbe probe = new InterpreterProbe();
+        builder.externalTransition().from(CState.P2).to(CState.P1).on(CEvent.Up).when(probe);
+        builder.enableCompilation();
+
+        CompiledStateMachine stateMachine = builder.newStateMachine(CState.P2);
+        stateMachine.start(0);
+        stateMachine.fire(CEvent.Up, 0);
+        assertThat(probe.interpreted, is(false));
+        assertThat(stateMachine.getCurrentState(), is(CState.P1a));
+        assertThat(stateMachine.logger.toString(), equalTo("entryP(null,P).entryP2(null,P2)." +
+        		"exitP2(P2,null).entryP1(null,P1).entryP1a(null,P1a)."));
+    }
+
+    @Test
+    public void testUnsupportedDefinitionInterpreted() {
+        StateMachineBuilder<CompiledStateMachine, CState, CEvent, Integer> builder = newBuilder();
+        InterpreterProbe probe = new InterpreterProbe();
+        builder.defineState(CState.P1).setHistoryType(HistoryType.DEEP);
+        builder.externalTransition().from(CState.P2).to(CState.P1).on(CEvent.Up).when(probe);
+        builder.enableCompilation();
+
+        CompiledStateMachine stateMachine = builder.newStateMachine(CState.P2);
+        stateMachine.start(0);
+        stateMachine.fire(CEvent.Up, 0);
+        assertThat(probe.interpreted, is(true));
+        assertThat(stateMachine.getCurrentState(), is(CState.P1a));
+    }
+}
@@ -0,0 +1,77 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
+
+public class ConcurrentStateMachineTest extends AbstractStateMachineTest {
+
+    private static final int THREADS = 8;
+
+    private static final int EVENTS_PER_THREAD = 10000;
+
+    static class CounterStateMachine extends AbstractStateMachine<CounterStateMachine, TestState, TestEvent, Integer> {
+
+        // not thread safe on purpose, state machine guarantees actions are executed serially
+        private long counter = 0;
+
+        protected CounterStateMachine(ImmutableState<CounterStateMachine, TestState, TestEvent, Integer> initialState,
+                Map<TestState, ImmutableState<CounterStateMachine, TestState, TestEvent, Integer>> states) {
+            super(initialState, states);
+        }
+    }
+
+    private CounterStateMachine stateMachine;
+
+    @Before
+    public void setup() {
+        StateMachineBuilder<CounterStateMachine, TestState, TestEvent, Integer> builder = StateMachineBuilderFactory.
+                create(CounterStateMachine.class, TestState.class, TestEvent.class, Integer.class);
+        builder.internalTransition().within(TestState.A).on(TestEvent.InternalA).perform(
+                new Action<CounterStateMachine, TestState, TestEvent, Integer>() {
+                    @Override
+                    public void execute(TestState from, TestState to, TestEvent event, Integer context,
+                            CounterStateMachine stateMachine) {
+                        stateMachine.counter++;
+                    }
+                });
+        stateMachine = builder.newStateMachine(TestState.A);
+    }
+
+    @Test
+    public void testConcurrentFire() throws InterruptedException {
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for(int i=0; i<THREADS; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for(int j=0; j<EVENTS_PER_THREAD; ++j) {
+                        stateMachine.fire(TestEvent.InternalA, null);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        startSignal.countDown();
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        // every event is processed once either by firing thread or by thread owning processing
+        assertThat(stateMachine.counter, equalTo((long)THREADS*EVENTS_PER_THREAD));
+        assertThat(stateMachine.getCurrentState(), is(TestState.A));
+        assertThat(stateMachine.getStatus(), is(StateMachineStatus.IDLE));
+    }
+}
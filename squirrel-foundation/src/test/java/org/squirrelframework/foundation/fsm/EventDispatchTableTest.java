@@ -0,0 +1,104 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
+
+import com.google.common.collect.Lists;
+
+public class EventDispatchTableTest extends AbstractStateMachineTest {
+
+    static class EnumEventStateMachine extends AbstractStateMachine<EnumEventStateMachine, TestState, TestEvent, Integer> {
+        protected EnumEventStateMachine(ImmutableState<EnumEventStateMachine, TestState, TestEvent, Integer> initialState,
+                Map<TestState, ImmutableState<EnumEventStateMachine, TestState, TestEvent, Integer>> states) {
+            super(initialState, states);
+        }
+    }
+
+    static class StringEventStateMachine extends AbstractStateMachine<StringEventStateMachine, TestState, String, Integer> {
+        protected StringEventStateMachine(ImmutableState<StringEventStateMachine, TestState, String, Integer> initialState,
+                Map<TestState, ImmutableState<StringEventStateMachine, TestState, String, Integer>> states) {
+            super(initialState, states);
+        }
+    }
+
+    static class Positive implements Condition<Integer> {
+        @Override
+        public boolean isSatisfied(Integer context) {
+            return context!=null && context>0;
+        }
+    }
+
+    private static <T extends StateMachine<T, TestState, E, Integer>, E> List<TestState> targetsOf(
+            List<ImmutableTransition<T, TestState, E, Integer>> transitions) {
+        List<TestState> targets = Lists.newArrayList();
+        for(ImmutableTransition<T, TestState, E, Integer> transition : transitions) {
+            targets.add(transition.getTargetState().getStateId());
+        }
+        return targets;
+    }
+
+    @Test
+    public void testEnumEventLookup() {
+        StateMachineBuilder<EnumEventStateMachine, TestState, TestEvent, Integer> builder = StateMachineBuilderFactory.
+                create(EnumEventStateMachine.class, TestState.class, TestEvent.class, Integer.class);
+        builder.externalTransition().from(TestState.A).to(TestState.B).on(TestEvent.ToB).when(new Positive());
+        builder.externalTransition().from(TestState.A).to(TestState.C).on(TestEvent.ToB);
+        builder.externalTransition().from(TestState.A).to(TestState.D).on(TestEvent.ToD);
+        EnumEventStateMachine stateMachine = builder.newStateMachine(TestState.A);
+        ImmutableState<EnumEventStateMachine, TestState, TestEvent, Integer> state = stateMachine.getRawStateFrom(TestState.A);
+
+        // transitions are kept in declaration order and lookup result is shared instead of copied
+        List<ImmutableTransition<EnumEventStateMachine, TestState, TestEvent, Integer>> transitions =
+                state.getTransitions(TestEvent.ToB);
+        assertThat(targetsOf(transitions), equalTo((List<TestState>)Lists.newArrayList(TestState.B, TestState.C)));
+        assertThat(state.getTransitions(TestEvent.ToB), sameInstance(transitions));
+        assertThat(targetsOf(state.getTransitions(TestEvent.ToD)), equalTo((List<TestState>)Lists.newArrayList(TestState.D)));
+        assertThat(state.getTransitions(TestEvent.ToC).isEmpty(), is(true));
+        assertThat(state.getTransitions(null).isEmpty(), is(true));
+
+        // first transition whose condition is satisfied is taken
+        stateMachine.fire(TestEvent.ToB, 0);
+        assertThat(stateMachine.getCurrentState(), equalTo(TestState.C));
+        stateMachine = builder.newStateMachine(TestState.A);
+        stateMachine.fire(TestEvent.ToB, 1);
+        assertThat(stateMachine.getCurrentState(), equalTo(TestState.B));
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testLookupResultImmutable() {
+        StateMachineBuilder<EnumEventStateMachine, TestState, TestEvent, Integer> builder = StateMachineBuilderFactory.
+                create(EnumEventStateMachine.class, TestState.class, TestEvent.class, Integer.class);
+        builder.externalTransition().from(TestState.A).to(TestState.B).on(TestEvent.ToB);
+        EnumEventStateMachine stateMachine = builder.newStateMachine(TestState.A);
+        stateMachine.getRawStateFrom(TestState.A).getTransitions(TestEvent.ToB).clear();
+    }
+
+    @Test
+    public void testNoneEnumEventLookup() {
+        StateMachineBuilder<StringEventStateMachine, TestState, String, Integer> builder = StateMachineBuilderFactory.
+                create(StringEventStateMachine.class, TestState.class, String.class, Integer.class);
+        builder.externalTransition().from(TestState.A).to(TestState.B).on("ToB").when(new Positive());
+        builder.externalTransition().from(TestState.A).to(TestState.C).on("ToB");
+        StringEventStateMachine stateMachine = builder.newStateMachine(TestState.A);
+        ImmutableState<StringEventStateMachine, TestState, String, Integer> state = stateMachine.getRawStateFrom(TestState.A);
+
+        // events which are equal but not identical are dispatched to the same transitions
+        List<ImmutableTransition<StringEventStateMachine, TestState, String, Integer>> transitions =
+                state.getTransitions(new String("ToB"));
+        assertThat(targetsOf(transitions), equalTo((List<TestState>)Lists.newArrayList(TestState.B, TestState.C)));
+        assertThat(state.getTransitions("ToB"), sameInstance(transitions));
+        assertThat(state.getTransitions("ToC").isEmpty(), is(true));
+        assertThat(state.getTransitions(null).isEmpty(), is(true));
+
+        stateMachine.fire("ToB", 1);
+        assertThat(stateMachine.getCurrentState(), equalTo(TestState.B));
+    }
+}
@@ -4,13 +4,16 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 
+import java.io.File;
 import java.util.Map;
 
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.squirrelframework.foundation.component.SquirrelPostProcessor;
 import org.squirrelframework.foundation.component.SquirrelPostProcessorProvider;
 import org.squirrelframework.foundation.component.SquirrelProvider;
@@ -25,6 +28,9 @@ import org.squirrelframework.foundation.fsm.monitor.TransitionProgressMonitor;
 import org.squirrelframework.foundation.util.TypeReference;
 
 public class HierarchicalStateMachineTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
 	
 	public enum HState {
 		A, A1, A1a, A1a1, A2, A2a, A3, A4, B, B1, B2, B2a, B3, C
@@ -540,7 +546,7 @@ public class HierarchicalStateMachineTest {
         SCXMLVisitor<HierachicalStateMachine, HState, HEvent, Integer> visitor = SquirrelProvider.getInstance().newInstance(
         		new TypeReference<SCXMLVisitor<HierachicalStateMachine, HState, HEvent, Integer>>() {} );
         stateMachine.accept(visitor);
-        visitor.convertSCXMLFile("HierarchicalStateMachine", true);
+        visitor.convertSCXMLFile(new File(folder.getRoot(), "HierarchicalStateMachine").getPath(), true);
     }
 	
 	@Test
@@ -548,6 +554,6 @@ public class HierarchicalStateMachineTest {
         DotVisitor<HierachicalStateMachine, HState, HEvent, Integer> visitor = SquirrelProvider.getInstance().newInstance(
                 new TypeReference<DotVisitor<HierachicalStateMachine, HState, HEvent, Integer>>() {} );
         stateMachine.accept(visitor);
-        visitor.convertDotFile("HierarchicalStateMachine");
+        visitor.convertDotFile(new File(folder.getRoot(), "HierarchicalStateMachine").getPath());
     }
 }
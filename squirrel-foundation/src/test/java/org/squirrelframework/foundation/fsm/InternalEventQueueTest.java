@@ -0,0 +1,208 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.squirrelframework.foundation.exception.ErrorCodes;
+import org.squirrelframework.foundation.exception.SquirrelRuntimeException;
+import org.squirrelframework.foundation.fsm.StateMachine.TransitionExceptionEvent;
+import org.squirrelframework.foundation.fsm.StateMachine.TransitionExceptionListener;
+import org.squirrelframework.foundation.fsm.annotation.EventType;
+import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class InternalEventQueueTest {
+
+    enum QState {
+        A, B, C, D
+    }
+
+    enum QEvent {
+        Start, Internal1, Internal2, External, Ping, Reset, Spawn
+    }
+
+    enum FState {
+        P, P1, PF, X
+    }
+
+    enum FEvent {
+        ToFinal, Leave, @EventType(EventKind.FINISH) Finish
+    }
+
+    static class FinalStateMachine extends AbstractStateMachine<FinalStateMachine, FState, FEvent, Integer> {
+
+        final StringBuilder logger = new StringBuilder();
+
+        protected FinalStateMachine(ImmutableState<FinalStateMachine, FState, FEvent, Integer> initialState,
+                Map<FState, ImmutableState<FinalStateMachine, FState, FEvent, Integer>> states) {
+            super(initialState, states);
+        }
+    }
+
+    static class LogAction implements Action<FinalStateMachine, FState, FEvent, Integer> {
+        private final String name;
+
+        LogAction(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void execute(FState from, FState to, FEvent event, Integer context, FinalStateMachine stateMachine) {
+            stateMachine.logger.append(name).append('.');
+        }
+    }
+
+    static class QueueStateMachine extends AbstractStateMachine<QueueStateMachine, QState, QEvent, Integer> {
+
+        final List<QEvent> processed = Lists.newArrayList();
+
+        final List<Integer> queuedEvents = Lists.newArrayList();
+
+        protected QueueStateMachine(ImmutableState<QueueStateMachine, QState, QEvent, Integer> initialState,
+                Map<QState, ImmutableState<QueueStateMachine, QState, QEvent, Integer>> states) {
+            super(initialState, states);
+        }
+
+        int queuedEventSize() {
+            return getQueuedEventSize();
+        }
+
+        @Override
+        protected void afterTransitionCompleted(QState fromState, QState toState, QEvent event, Integer context) {
+            processed.add(event);
+        }
+    }
+
+    private StateMachineBuilder<QueueStateMachine, QState, QEvent, Integer> builder;
+
+    @Before
+    public void setup() {
+        builder = StateMachineBuilderFactory.create(QueueStateMachine.class, QState.class, QEvent.class, Integer.class);
+        builder.externalTransition().from(QState.A).to(QState.B).on(QEvent.Start).perform(
+                new Action<QueueStateMachine, QState, QEvent, Integer>() {
+                    @Override
+                    public void execute(QState from, QState to, QEvent event, Integer context, QueueStateMachine stateMachine) {
+                        stateMachine.raise(QEvent.Internal1, context);
+                        stateMachine.fire(QEvent.External, context);
+                        stateMachine.raise(QEvent.Internal2, context);
+                    }
+                });
+        builder.externalTransition().from(QState.B).to(QState.C).on(QEvent.Internal1);
+        builder.externalTransition().from(QState.C).to(QState.D).on(QEvent.Internal2);
+        builder.externalTransition().from(QState.D).to(QState.A).on(QEvent.External);
+        builder.internalTransition().within(QState.A).on(QEvent.Ping).perform(
+                new Action<QueueStateMachine, QState, QEvent, Integer>() {
+                    @Override
+                    public void execute(QState from, QState to, QEvent event, Integer context, QueueStateMachine stateMachine) {
+                        stateMachine.raise(QEvent.Ping, context);
+                    }
+                });
+        builder.externalTransition().from(QState.A).to(QState.B).on(QEvent.Reset);
+        builder.internalTransition().within(QState.A).on(QEvent.Spawn).perform(
+                new Action<QueueStateMachine, QState, QEvent, Integer>() {
+                    @Override
+                    public void execute(QState from, QState to, QEvent event, Integer context, final QueueStateMachine stateMachine) {
+                        Thread thread = new Thread() {
+                            @Override
+                            public void run() {
+                                stateMachine.raise(QEvent.Reset, 0);
+                            }
+                        };
+                        thread.start();
+                        Uninterruptibles.joinUninterruptibly(thread);
+                        stateMachine.queuedEvents.add(stateMachine.queuedEventSize());
+                    }
+                });
+    }
+
+    @Test
+    public void testInternalEventsProcessedBeforeExternalEvents() {
+        QueueStateMachine stateMachine = builder.newStateMachine(QState.A);
+        stateMachine.fire(QEvent.Start, 0);
+        assertThat(stateMachine.processed, is(equalTo((List<QEvent>)Lists.newArrayList(
+                QEvent.Start, QEvent.Internal1, QEvent.Internal2, QEvent.External))));
+        assertThat(stateMachine.getCurrentState(), is(equalTo(QState.A)));
+
+        // event raised outside of event processing is fired directly
+        stateMachine.raise(QEvent.Reset, 0);
+        assertThat(stateMachine.getCurrentState(), is(equalTo(QState.B)));
+    }
+
+    @Test
+    public void testMacroStepLimitExceeded() {
+        QueueStateMachine stateMachine = builder.newStateMachine(QState.A);
+        stateMachine.setMacroStepLimit(10);
+        final List<Exception> exceptions = Lists.newArrayList();
+        stateMachine.addTransitionExceptionListener(new TransitionExceptionListener<QueueStateMachine, QState, QEvent, Integer>() {
+            @Override
+            public void transitionException(TransitionExceptionEvent<QueueStateMachine, QState, QEvent, Integer> event) {
+                exceptions.add(event.getException());
+            }
+        });
+        stateMachine.fire(QEvent.Ping, 0);
+        // external event and internal events up to the limit are processed before loop is broken
+        assertThat(stateMachine.processed.size(), is(equalTo(11)));
+        assertThat(exceptions.size(), is(equalTo(1)));
+        assertThat(exceptions.get(0), is(instanceOf(SquirrelRuntimeException.class)));
+        assertThat(((SquirrelRuntimeException)exceptions.get(0)).getErrorCodeId(),
+                is(equalTo(ErrorCodes.MACRO_STEP_LIMIT_EXCEEDED.getCode())));
+        assertThat(stateMachine.getStatus(), is(equalTo(StateMachineStatus.ERROR)));
+
+        // state machine keeps processing later external events
+        stateMachine.fire(QEvent.Reset, 0);
+        assertThat(stateMachine.getCurrentState(), is(equalTo(QState.B)));
+    }
+
+    @Test
+    public void testRaiseFromOtherThreadQueuedAsExternalEvent() {
+        QueueStateMachine stateMachine = builder.newStateMachine(QState.A);
+        stateMachine.fire(QEvent.Spawn, 0);
+        // event raised by thread not processing events does not jump ahead of external events
+        assertThat(stateMachine.queuedEvents, is(equalTo((List<Integer>)Lists.newArrayList(1))));
+        assertThat(stateMachine.getCurrentState(), is(equalTo(QState.B)));
+    }
+
+    private FinalStateMachine newFinalStateMachine(boolean leaveOnFinish) {
+        StateMachineBuilder<FinalStateMachine, FState, FEvent, Integer> finalBuilder = StateMachineBuilderFactory.create(
+                FinalStateMachine.class, FState.class, FEvent.class, Integer.class);
+        finalBuilder.defineFinalState(FState.PF);
+        finalBuilder.defineSequentialStatesOn(FState.P, FState.P1, FState.PF);
+        finalBuilder.externalTransition().from(FState.P1).to(FState.PF).on(FEvent.ToFinal);
+        finalBuilder.externalTransition().from(FState.P).to(FState.X).on(leaveOnFinish ? FEvent.Finish : FEvent.Leave);
+        finalBuilder.onExit(FState.PF).perform(new LogAction("exitPF"));
+        finalBuilder.onExit(FState.P).perform(new LogAction("exitP"));
+        FinalStateMachine stateMachine = finalBuilder.newStateMachine(FState.P);
+        stateMachine.start(0);
+        return stateMachine;
+    }
+
+    @Test
+    public void testFinalStateNotExitedOnItsCompletion() {
+        FinalStateMachine stateMachine = newFinalStateMachine(true);
+        stateMachine.fire(FEvent.ToFinal, 0);
+        assertThat(stateMachine.getCurrentState(), is(equalTo(FState.X)));
+        assertThat(stateMachine.logger.toString(), is(equalTo("exitP.")));
+    }
+
+    @Test
+    public void testFinalStateNotSkippedOnOtherEvent() {
+        FinalStateMachine stateMachine = newFinalStateMachine(false);
+        stateMachine.fire(FEvent.ToFinal, 0);
+        assertThat(stateMachine.getCurrentState(), is(equalTo(FState.PF)));
+        // only completion event of final state leaves it silently, other events still try to exit final 
+        // state, which is never allowed
+        stateMachine.fire(FEvent.Leave, 0);
+        assertThat(stateMachine.getStatus(), is(equalTo(StateMachineStatus.ERROR)));
+        assertThat(stateMachine.getCurrentState(), is(equalTo(FState.PF)));
+        assertThat(stateMachine.logger.toString(), is(equalTo("")));
+    }
+}
@@ -7,6 +7,7 @@ import static org.junit.Assert.assertThat;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -21,7 +22,9 @@ import java.util.Map;
 import junit.framework.Assert;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.squirrelframework.foundation.fsm.annotation.State;
 import org.squirrelframework.foundation.fsm.annotation.States;
 import org.squirrelframework.foundation.fsm.annotation.Transit;
@@ -30,6 +33,9 @@ import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
 
 public class LinkedStateMachineTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     enum LState {
         A, B, C, D, A1, A2, A3
     }
@@ -337,7 +343,7 @@ public class LinkedStateMachineTest {
 
         try {
             // use buffering
-            OutputStream file = new FileOutputStream("data.sqr");
+            OutputStream file = new FileOutputStream(new File(folder.getRoot(), "data.sqr"));
             OutputStream buffer = new BufferedOutputStream(file);
             ObjectOutput output = new ObjectOutputStream(buffer);
             try {
@@ -353,7 +359,7 @@ public class LinkedStateMachineTest {
 
         try {
             // use buffering
-            InputStream file = new FileInputStream("data.sqr");
+            InputStream file = new FileInputStream(new File(folder.getRoot(), "data.sqr"));
             InputStream buffer = new BufferedInputStream(file);
             ObjectInput input = new ObjectInputStream(buffer);
             try {
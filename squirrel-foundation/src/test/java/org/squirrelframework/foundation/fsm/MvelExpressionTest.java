@@ -0,0 +1,172 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import org.junit.Test;
+import org.squirrelframework.foundation.exception.ErrorCodes;
+import org.squirrelframework.foundation.exception.SquirrelRuntimeException;
+import org.squirrelframework.foundation.fsm.annotation.Transit;
+import org.squirrelframework.foundation.fsm.annotation.Transitions;
+import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
+import org.squirrelframework.foundation.fsm.impl.MvelActionImpl;
+import org.squirrelframework.foundation.fsm.impl.MvelConditionImpl;
+import org.squirrelframework.foundation.util.Expression;
+
+import com.google.common.collect.Maps;
+
+public class MvelExpressionTest {
+    
+    enum MState {
+        New, Approved, Rejected, Review
+    }
+    
+    enum MEvent {
+        Submit, Reopen
+    }
+    
+    public static class Order {
+        private int amount;
+        private boolean vip;
+        private BigDecimal discount = BigDecimal.ZERO;
+        public final Map<String, Object> attributes = Maps.newHashMap();
+        
+        Order(int amount, boolean vip) {
+            this.amount = amount;
+            this.vip = vip;
+        }
+        
+        public int getAmount() {
+            return amount;
+        }
+        
+        public boolean isVip() {
+            return vip;
+        }
+        
+        public BigDecimal getDiscount() {
+            return discount;
+        }
+        
+        public void setDiscount(BigDecimal discount) {
+            this.discount = discount;
+        }
+        
+        public int limit(int base, long factor) {
+            return (int)(base*factor);
+        }
+    }
+    
+    @Transitions({
+        @Transit(from="New", to="Approved", on="Submit", whenMvel="amount <= limit(10, 10) || vip"),
+        @Transit(from="New", to="Review", on="Submit", whenMvel="amount > 100 && !vip", callMethod="markReview"),
+        @Transit(from="Rejected", to="New", on="Reopen", whenMvel="attributes.reopenable == true")
+    })
+    static class OrderStateMachine extends AbstractStateMachine<OrderStateMachine, MState, MEvent, Order> {
+        
+        private final StringBuilder logger = new StringBuilder();
+        
+        protected OrderStateMachine(ImmutableState<OrderStateMachine, MState, MEvent, Order> initialState,
+                Map<MState, ImmutableState<OrderStateMachine, MState, MEvent, Order>> states) {
+            super(initialState, states);
+        }
+        
+        protected void markReview(MState from, MState to, MEvent event, Order context) {
+            context.attributes.put("review", true);
+        }
+        
+        public void log(Object message) {
+            logger.append(message).append('.');
+        }
+    }
+    
+    private StateMachineBuilder<OrderStateMachine, MState, MEvent, Order> newBuilder() {
+        return StateMachineBuilderFactory.create(OrderStateMachine.class, MState.class, MEvent.class, Order.class);
+    }
+    
+    @Test
+    public void testDeclaredExpressionCondition() {
+        StateMachineBuilder<OrderStateMachine, MState, MEvent, Order> builder = newBuilder();
+        
+        OrderStateMachine stateMachine = builder.newStateMachine(MState.New);
+        stateMachine.fire(MEvent.Submit, new Order(80, false));
+        assertThat(stateMachine.getCurrentState(), is(MState.Approved));
+        
+        stateMachine = builder.newStateMachine(MState.New);
+        stateMachine.fire(MEvent.Submit, new Order(500, true));
+        assertThat(stateMachine.getCurrentState(), is(MState.Approved));
+        
+        stateMachine = builder.newStateMachine(MState.New);
+        Order order = new Order(500, false);
+        stateMachine.fire(MEvent.Submit, order);
+        assertThat(stateMachine.getCurrentState(), is(MState.Review));
+        assertThat(order.attributes.get("review"), equalTo((Object)Boolean.TRUE));
+        
+        stateMachine = builder.newStateMachine(MState.Rejected);
+        stateMachine.fire(MEvent.Reopen, order);
+        assertThat(stateMachine.getCurrentState(), is(MState.Rejected));
+        order.attributes.put("reopenable", true);
+        stateMachine.fire(MEvent.Reopen, order);
+        assertThat(stateMachine.getCurrentState(), is(MState.New));
+    }
+    
+    @Test
+    public void testBuilderExpressionConditionAndAction() {
+        StateMachineBuilder<OrderStateMachine, MState, MEvent, Order> builder = newBuilder();
+        builder.externalTransition().from(MState.Review).to(MState.Rejected).on(MEvent.Submit).
+            whenMvel("attributes.score != null && attributes.score < 3").
+            evalMvel("discount = discount + 0.5B; stateMachine.log(from + '->' + to + ':' + event)");
+        builder.onEntry(MState.Rejected).evalMvel("stateMachine.log('entry' + (vip ? 'Vip' : 'Normal'))");
+        
+        OrderStateMachine stateMachine = builder.newStateMachine(MState.Review);
+        Order order = new Order(500, false);
+        order.attributes.put("score", 5);
+        stateMachine.fire(MEvent.Submit, order);
+        assertThat(stateMachine.getCurrentState(), is(MState.Review));
+        order.attributes.put("score", 2L);
+        stateMachine.fire(MEvent.Submit, order);
+        assertThat(stateMachine.getCurrentState(), is(MState.Rejected));
+        assertThat(order.getDiscount(), equalTo(new BigDecimal("0.5")));
+        assertThat(stateMachine.logger.toString(), equalTo("Review->Rejected:Submit.entryNormal."));
+    }
+    
+    @Test
+    public void testExpressionEvaluation() {
+        Expression expression = Expression.compile("a * (b + 2) - 7 % 4 / 2.0", "a", "b");
+        assertThat(expression.evaluate(3, 4L), equalTo((Object)16.5));
+        assertThat(Expression.compile("a * (b + 2) - 7 % 4 / 2.0", "a", "b"), is(expression));
+        assertThat(Expression.compile("1 + 2 > 2 ? 'yes' : 'no'").evaluate(), equalTo((Object)"yes"));
+        assertThat(Expression.compile("state == 'Approved'", "state").evaluateBoolean(MState.Approved), is(true));
+        assertThat(Expression.compile("missing", "map").evaluateBoolean(Maps.newHashMap()), is(false));
+        
+        MvelConditionImpl<Order> condition = new MvelConditionImpl<Order>("context.amount >= 100");
+        assertThat(condition.isSatisfied(new Order(100, false)), is(true));
+        assertThat(condition.getExpression(), equalTo("context.amount >= 100"));
+        
+        Order order = new Order(1, false);
+        new MvelActionImpl<OrderStateMachine, MState, MEvent, Order>("attributes.total = amount + 1").
+            execute(null, null, null, order, null);
+        assertThat(order.attributes.get("total"), equalTo((Object)2));
+    }
+    
+    @Test
+    public void testMalformedExpression() {
+        try {
+            Expression.compile("amount > ", "context");
+            fail();
+        } catch(SquirrelRuntimeException e) {
+            assertThat(e.getErrorCodeId(), is(ErrorCodes.EXPRESSION_PARSE_ERROR.getCode()));
+        }
+        try {
+            Expression.compile("unknown > 1", "context").evaluate(new Order(1, false));
+            fail();
+        } catch(SquirrelRuntimeException e) {
+            assertThat(e.getErrorCodeId(), is(ErrorCodes.EXPRESSION_EVALUATE_ERROR.getCode()));
+        }
+    }
+}
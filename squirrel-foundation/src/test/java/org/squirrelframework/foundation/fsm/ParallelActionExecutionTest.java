@@ -0,0 +1,185 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.squirrelframework.foundation.exception.TransitionException;
+import org.squirrelframework.foundation.fsm.annotation.Independent;
+import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
+
+import com.google.common.collect.Lists;
+
+public class ParallelActionExecutionTest {
+    
+    enum PState {
+        Idle, P, R1, R1a, R2, R2a, R3, R3a
+    }
+    
+    enum PEvent {
+        Start, Stop
+    }
+    
+    static class RegionStateMachine extends AbstractStateMachine<RegionStateMachine, PState, PEvent, Integer> {
+        
+        private final List<String> logger = Collections.synchronizedList(Lists.<String>newArrayList());
+        
+        private Exception lastException;
+        
+        protected RegionStateMachine(ImmutableState<RegionStateMachine, PState, PEvent, Integer> initialState,
+                Map<PState, ImmutableState<RegionStateMachine, PState, PEvent, Integer>> states) {
+            super(initialState, states);
+        }
+        
+        @Override
+        protected void afterTransitionCausedException(Exception e, PState fromState, PState toState, PEvent event, Integer context) {
+            lastException = e;
+            super.afterTransitionCausedException(e, fromState, toState, event, context);
+        }
+    }
+    
+    static class LogAction implements Action<RegionStateMachine, PState, PEvent, Integer> {
+        private final String name;
+        
+        LogAction(String name) {
+            this.name = name;
+        }
+        
+        @Override
+        public void execute(PState from, PState to, PEvent event, Integer context, RegionStateMachine stateMachine) {
+            stateMachine.logger.add(name);
+        }
+    }
+    
+    /**
+     * Waits until all the parties arrive, which never happens when actions are executed in sequence.
+     */
+    @Independent
+    static class BarrierAction implements Action<RegionStateMachine, PState, PEvent, Integer> {
+        private final CyclicBarrier barrier;
+        
+        BarrierAction(CyclicBarrier barrier) {
+            this.barrier = barrier;
+        }
+        
+        @Override
+        public void execute(PState from, PState to, PEvent event, Integer context, RegionStateMachine stateMachine) {
+            try {
+                barrier.await(5, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+    
+    static class FailAction implements Action<RegionStateMachine, PState, PEvent, Integer> {
+        @Override
+        public void execute(PState from, PState to, PEvent event, Integer context, RegionStateMachine stateMachine) {
+            throw new IllegalArgumentException(String.valueOf(to));
+        }
+    }
+    
+    private static List<Action<RegionStateMachine, PState, PEvent, Integer>> actions(
+            Action<RegionStateMachine, PState, PEvent, Integer>... actions) {
+        return Lists.newArrayList(actions);
+    }
+    
+    private ExecutorService executorService;
+    
+    private StateMachineBuilder<RegionStateMachine, PState, PEvent, Integer> builder;
+    
+    @Before
+    public void setup() {
+        executorService = Executors.newCachedThreadPool();
+        builder = StateMachineBuilderFactory.create(RegionStateMachine.class, PState.class, PEvent.class, Integer.class);
+        builder.defineParallelStatesOn(PState.P, PState.R1, PState.R2, PState.R3);
+        builder.defineSequentialStatesOn(PState.R1, PState.R1a);
+        builder.defineSequentialStatesOn(PState.R2, PState.R2a);
+        builder.defineSequentialStatesOn(PState.R3, PState.R3a);
+        builder.externalTransition().from(PState.Idle).to(PState.P).on(PEvent.Start).perform(new LogAction("start"));
+        builder.externalTransition().from(PState.P).to(PState.Idle).on(PEvent.Stop).perform(new LogAction("stop"));
+        builder.onEntry(PState.P).perform(new LogAction("entryP"));
+        builder.onExit(PState.P).perform(new LogAction("exitP"));
+        builder.onEntry(PState.Idle).perform(new LogAction("entryIdle"));
+        builder.onExit(PState.Idle).perform(new LogAction("exitIdle"));
+    }
+    
+    @After
+    public void teardown() {
+        executorService.shutdownNow();
+    }
+    
+    @Test
+    public void testRegionsExecutedConcurrently() {
+        CyclicBarrier entryBarrier = new CyclicBarrier(3), exitBarrier = new CyclicBarrier(3);
+        for(PState region : new PState[]{PState.R1, PState.R2, PState.R3}) {
+            builder.onEntry(region).perform(actions(new BarrierAction(entryBarrier), new LogAction("entry"+region)));
+            builder.onExit(region).perform(actions(new BarrierAction(exitBarrier), new LogAction("exit"+region)));
+        }
+        for(PState subState : new PState[]{PState.R1a, PState.R2a, PState.R3a}) {
+            builder.onEntry(subState).perform(new LogAction("entry"+subState));
+        }
+        RegionStateMachine stateMachine = builder.newStateMachine(PState.Idle);
+        stateMachine.setActionExecutorService(executorService);
+        stateMachine.start(0);
+        stateMachine.logger.clear();
+        
+        stateMachine.fire(PEvent.Start, 0);
+        assertThat(stateMachine.lastException, is((Exception)null));
+        assertThat(stateMachine.getSubStatesOn(PState.P).size(), is(3));
+        List<String> log = stateMachine.logger;
+        assertThat(log.subList(0, 3), equalTo((List<String>)Lists.newArrayList("exitIdle", "start", "entryP")));
+        assertThat(log.size(), is(9));
+        // actions of the same region are still executed in order
+        for(String region : new String[]{"R1", "R2", "R3"}) {
+            assertThat(log.indexOf("entry"+region)<log.indexOf("entry"+region+"a"), is(true));
+        }
+        
+        stateMachine.fire(PEvent.Stop, 0);
+        assertThat(stateMachine.lastException, is((Exception)null));
+        assertThat(stateMachine.getCurrentState(), is(PState.Idle));
+        assertThat(log.subList(log.size()-3, log.size()), equalTo((List<String>)Lists.newArrayList("exitP", "stop", "entryIdle")));
+    }
+    
+    @Test
+    public void testIndependentActionsExecutedConcurrently() {
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        builder.onEntry(PState.Idle).perform(actions(new BarrierAction(barrier), new BarrierAction(barrier)));
+        RegionStateMachine stateMachine = builder.newStateMachine(PState.Idle);
+        stateMachine.setActionExecutorService(executorService);
+        stateMachine.start(0);
+        assertThat(stateMachine.getCurrentState(), is(PState.Idle));
+        assertThat(stateMachine.logger, equalTo((List<String>)Lists.newArrayList("entryIdle")));
+    }
+    
+    @Test
+    public void testRegionFailuresAggregated() {
+        builder.onEntry(PState.R1).perform(new FailAction());
+        builder.onEntry(PState.R3).perform(new FailAction());
+        builder.onEntry(PState.R2a).perform(new LogAction("entryR2a"));
+        RegionStateMachine stateMachine = builder.newStateMachine(PState.Idle);
+        stateMachine.setActionExecutorService(executorService);
+        stateMachine.start(0);
+        stateMachine.fire(PEvent.Start, 0);
+        
+        assertThat(stateMachine.lastException, instanceOf(TransitionException.class));
+        List<Throwable> failures = ((TransitionException)stateMachine.lastException).getTargetExceptions();
+        assertThat(failures.size(), is(2));
+        assertThat(((TransitionException)failures.get(0)).getTargetState(), equalTo((Object)PState.R1));
+        assertThat(((TransitionException)failures.get(1)).getTargetState(), equalTo((Object)PState.R3));
+        // independent region is not affected by failures of other regions
+        assertThat(stateMachine.logger.contains("entryR2a"), is(true));
+    }
+}
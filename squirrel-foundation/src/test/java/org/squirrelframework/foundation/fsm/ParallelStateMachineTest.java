@@ -6,13 +6,19 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 
+import java.io.File;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.squirrelframework.foundation.component.SquirrelProvider;
 import org.squirrelframework.foundation.fsm.StateMachine.TransitionDeclinedEvent;
 import org.squirrelframework.foundation.fsm.annotation.EventType;
@@ -24,8 +30,12 @@ import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
 import org.squirrelframework.foundation.util.TypeReference;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 public class ParallelStateMachineTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
 	
 	enum PState {
 		Total, A, A1, A1a, A1b, A1c, A2, A2a, A2b, A2c, B, C
@@ -381,12 +391,106 @@ public class ParallelStateMachineTest {
 		assertThat(stateMachine.getSubStatesOn(PState.A), contains(PState.A1b, PState.A2a));
 	}
 	
+	@Test
+	public void testActiveStates() {
+		stateMachine.start(null);
+		assertThat(stateMachine.isActive(PState.Total), is(true));
+		assertThat(stateMachine.isActive(PState.A), is(true));
+		assertThat(stateMachine.isActive(PState.A1), is(true));
+		assertThat(stateMachine.isActive(PState.A1a), is(true));
+		assertThat(stateMachine.isActive(PState.A2b), is(true));
+		assertThat(stateMachine.isActive(PState.A1b), is(false));
+		assertThat(stateMachine.isActive(PState.B), is(false));
+		
+		stateMachine.fire(PEvent.A1a2A1b, 1);
+		assertThat(stateMachine.isActive(PState.A1a), is(false));
+		assertThat(stateMachine.isActive(PState.A1b), is(true));
+		assertThat(stateMachine.isActive(PState.A2), is(true));
+		
+		stateMachine.fire(PEvent.A2B, 1);
+		assertThat(stateMachine.isActive(PState.B), is(true));
+		assertThat(stateMachine.isActive(PState.Total), is(true));
+		assertThat(stateMachine.isActive(PState.A), is(false));
+		assertThat(stateMachine.isActive(PState.A1b), is(false));
+		assertThat(stateMachine.isActive(PState.A2b), is(false));
+	}
+	
+	@Test
+	public void testActiveStatesReadConcurrently() throws Exception {
+		stateMachine.start(null);
+		for(int round=0; round<200; ++round) {
+			stateMachine.fire(round%2==0 ? PEvent.A1a2A1b : PEvent.A1b2A1a, 1);
+			final boolean a1aActive = round%2!=0;
+			final CountDownLatch startSignal = new CountDownLatch(1);
+			final AtomicInteger wrongAnswers = new AtomicInteger(0);
+			List<Thread> readers = Lists.newArrayList();
+			for(int i=0; i<4; ++i) {
+				Thread reader = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Uninterruptibles.awaitUninterruptibly(startSignal);
+						for(int j=0; j<100; ++j) {
+							if(stateMachine.isActive(PState.A1a)!=a1aActive || stateMachine.isActive(PState.A1b)==a1aActive || 
+									!stateMachine.isActive(PState.A2b)) {
+								wrongAnswers.incrementAndGet();
+							}
+						}
+					}
+				});
+				reader.start();
+				readers.add(reader);
+			}
+			startSignal.countDown();
+			for(Thread reader : readers) {
+				reader.join();
+			}
+			assertThat(wrongAnswers.get(), is(equalTo(0)));
+		}
+	}
+	
+	@Test
+	public void testActiveStatesReadWhileProcessing() throws Exception {
+		stateMachine.start(null);
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicInteger wrongAnswers = new AtomicInteger(0);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while(done.getCount()>0) {
+						// root state is always active while sub states of parallel state are being changed
+						if(!stateMachine.isActive(PState.Total)) {
+							wrongAnswers.incrementAndGet();
+						}
+						for(PState state : PState.values()) {
+							stateMachine.isActive(state);
+						}
+					}
+				} catch(Throwable e) {
+					failure.set(e);
+				}
+			}
+		});
+		reader.start();
+		PEvent[] cycle = {PEvent.A1a2A1b, PEvent.A2b2A2a, PEvent.A2B, PEvent.B2A, PEvent.A1b2A1a, PEvent.A2a2A2b};
+		for(int i=0; i<3000*cycle.length; ++i) {
+			stateMachine.fire(cycle[i%cycle.length], 1);
+		}
+		done.countDown();
+		reader.join();
+		assertThat(failure.get(), is(equalTo(null)));
+		assertThat(wrongAnswers.get(), is(equalTo(0)));
+		assertThat(stateMachine.isActive(PState.A1a), is(true));
+		assertThat(stateMachine.isActive(PState.A2b), is(true));
+	}
+	
 	@Test
 	public void testExportParallelState() {
 		SCXMLVisitor<ParallelStateMachine, PState, PEvent, Integer> visitor = SquirrelProvider.getInstance().newInstance(
 				new TypeReference<SCXMLVisitor<ParallelStateMachine, PState, PEvent, Integer>>() {} );
         stateMachine.accept(visitor);
-        visitor.convertSCXMLFile("ParallelStateMachine", true);
+        visitor.convertSCXMLFile(new File(folder.getRoot(), "ParallelStateMachine").getPath(), true);
 	}
 
 }
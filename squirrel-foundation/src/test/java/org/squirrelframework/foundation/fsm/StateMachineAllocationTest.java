@@ -0,0 +1,182 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
+import org.squirrelframework.foundation.fsm.monitor.TransitionMetrics;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class StateMachineAllocationTest extends AbstractStateMachineTest {
+
+    private static final int WARMUP_EVENTS = 200000;
+
+    private static final int MEASURED_EVENTS = 100000;
+    
+    private static final int MAX_MEASURED_ROUNDS = 5;
+
+    static class FlatStateMachine extends AbstractStateMachine<FlatStateMachine, TestState, TestEvent, Integer> {
+
+        private long counter = 0;
+
+        protected FlatStateMachine(ImmutableState<FlatStateMachine, TestState, TestEvent, Integer> initialState,
+                Map<TestState, ImmutableState<FlatStateMachine, TestState, TestEvent, Integer>> states) {
+            super(initialState, states);
+        }
+    }
+
+    static class CountAction implements Action<FlatStateMachine, TestState, TestEvent, Integer> {
+        @Override
+        public void execute(TestState from, TestState to, TestEvent event, Integer context, FlatStateMachine stateMachine) {
+            stateMachine.counter++;
+        }
+    }
+
+    private FlatStateMachine stateMachine;
+
+    @Before
+    public void setup() {
+        StateMachineBuilder<FlatStateMachine, TestState, TestEvent, Integer> builder = StateMachineBuilderFactory.
+                create(FlatStateMachine.class, TestState.class, TestEvent.class, Integer.class);
+        CountAction action = new CountAction();
+        builder.externalTransition().from(TestState.A).to(TestState.B).on(TestEvent.ToB).perform(action);
+        builder.externalTransition().from(TestState.B).to(TestState.A).on(TestEvent.ToA).perform(action);
+        builder.onEntry(TestState.A).perform(action);
+        builder.onExit(TestState.A).perform(action);
+        stateMachine = builder.newStateMachine(TestState.A);
+        stateMachine.start(null);
+    }
+
+    private void fireEvents(int count, Integer context) {
+        for(int i=0; i<count; ++i) {
+            // ToC is declined by both states
+            stateMachine.fire(TestEvent.ToB, context);
+            stateMachine.fire(TestEvent.ToC, context);
+            stateMachine.fire(TestEvent.ToA, context);
+        }
+    }
+
+    @Test
+    public void testFireWithoutAllocation() {
+        assertFireWithoutAllocation();
+    }
+    
+    @Test
+    public void testFireWithMetricsWithoutAllocation() {
+        TransitionMetrics<TestState, TestEvent> metrics = new TransitionMetrics<TestState, TestEvent>(
+                FlatStateMachine.class.getName());
+        stateMachine.setTransitionMetrics(metrics);
+        long fired = assertFireWithoutAllocation();
+        assertThat(metrics.snapshot().getTransitionStats(TestState.A, TestEvent.ToB).getAcceptedCount(), 
+                equalTo(fired));
+    }
+    
+    /**
+     * @return number of fired event cycles
+     */
+    private long assertFireWithoutAllocation() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+        assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        Integer context = Integer.valueOf(1000);
+        long threadId = Thread.currentThread().getId();
+        fireEvents(WARMUP_EVENTS, context);
+        
+        // reading allocated bytes allocates a few bytes itself, which is measured without firing events
+        long overhead = Long.MAX_VALUE;
+        for(int i=0; i<MAX_MEASURED_ROUNDS; ++i) {
+            long before = allocationBean.getThreadAllocatedBytes(threadId);
+            overhead = Math.min(overhead, allocationBean.getThreadAllocatedBytes(threadId)-before);
+        }
+        
+        // steady state must not allocate a single byte over a round of events, so that even one object leaked 
+        // per round fails every round, while round disturbed by JVM itself is measured again
+        long allocated = Long.MAX_VALUE;
+        int rounds = 0;
+        while(allocated>0 && rounds<MAX_MEASURED_ROUNDS) {
+            long before = allocationBean.getThreadAllocatedBytes(threadId);
+            fireEvents(MEASURED_EVENTS, context);
+            long after = allocationBean.getThreadAllocatedBytes(threadId);
+            allocated = Math.max(after-before-overhead, 0);
+            ++rounds;
+        }
+
+        assertThat(allocated, equalTo(0L));
+        assertThat(stateMachine.getCurrentState(), is(TestState.A));
+        long fired = WARMUP_EVENTS+(long)MEASURED_EVENTS*rounds;
+        assertThat(stateMachine.counter, equalTo(1L+fired*4L));
+        return fired;
+    }
+    
+    @Test
+    public void testDetachedResultNotShared() throws Exception {
+        stateMachine.setAsyncExecutor(MoreExecutors.sameThreadExecutor());
+        TransitionResult<FlatStateMachine, TestState, TestEvent, Integer> accepted = 
+                stateMachine.fireAsync(TestEvent.ToB, 1).get(5, TimeUnit.SECONDS);
+        stateMachine.fire(TestEvent.ToA, 1);
+        TransitionResult<FlatStateMachine, TestState, TestEvent, Integer> declined = 
+                stateMachine.fireAsync(TestEvent.ToC, 1).get(5, TimeUnit.SECONDS);
+        stateMachine.fire(TestEvent.ToB, 1);
+        
+        // result handed to future is never reused by later event processing
+        assertThat(declined, not(sameInstance(accepted)));
+        assertThat(accepted.isAccepted(), is(true));
+        assertThat(accepted.getTargetState().getStateId(), equalTo(TestState.B));
+        assertThat(declined.isAccepted(), is(false));
+        assertThat(stateMachine.getCurrentState(), equalTo(TestState.B));
+    }
+    
+    @Test
+    public void testFireWithinTransitionDoesNotShareResult() throws Exception {
+        final AtomicReference<ListenableFuture<TransitionResult<FlatStateMachine, TestState, TestEvent, Integer>>> 
+                nested = new AtomicReference<ListenableFuture<TransitionResult<FlatStateMachine, TestState, TestEvent, Integer>>>();
+        StateMachineBuilder<FlatStateMachine, TestState, TestEvent, Integer> builder = StateMachineBuilderFactory.
+                create(FlatStateMachine.class, TestState.class, TestEvent.class, Integer.class);
+        builder.externalTransition().from(TestState.A).to(TestState.B).on(TestEvent.ToB).perform(
+                new Action<FlatStateMachine, TestState, TestEvent, Integer>() {
+            @Override
+            public void execute(TestState from, TestState to, TestEvent event, Integer context, 
+                    FlatStateMachine stateMachine) {
+                // events fired while processing are queued and processed after current event
+                nested.set(stateMachine.fireAsync(TestEvent.ToC, context));
+                stateMachine.fire(TestEvent.ToA, context);
+            }
+        });
+        builder.externalTransition().from(TestState.B).to(TestState.C).on(TestEvent.ToC);
+        builder.externalTransition().from(TestState.B).to(TestState.A).on(TestEvent.ToA);
+        FlatStateMachine stateMachine = builder.newStateMachine(TestState.A);
+        stateMachine.setAsyncExecutor(MoreExecutors.sameThreadExecutor());
+        
+        TransitionResult<FlatStateMachine, TestState, TestEvent, Integer> outer = 
+                stateMachine.fireAsync(TestEvent.ToB, 1).get(5, TimeUnit.SECONDS);
+        TransitionResult<FlatStateMachine, TestState, TestEvent, Integer> inner = 
+                nested.get().get(5, TimeUnit.SECONDS);
+        // declined by current state, which is processed with reusable result
+        stateMachine.fire(TestEvent.ToB, 1);
+        
+        assertThat(inner, not(sameInstance(outer)));
+        assertThat(outer.isAccepted(), is(true));
+        assertThat(outer.getSourceState().getStateId(), equalTo(TestState.A));
+        assertThat(outer.getTargetState().getStateId(), equalTo(TestState.B));
+        assertThat(inner.isAccepted(), is(true));
+        assertThat(inner.getSourceState().getStateId(), equalTo(TestState.B));
+        assertThat(inner.getTargetState().getStateId(), equalTo(TestState.C));
+        assertThat(stateMachine.getCurrentState(), equalTo(TestState.C));
+    }
+}
@@ -0,0 +1,242 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class StateMachineCacheTest {
+
+    enum OrderState {
+        Created, Paid, Shipped
+    }
+
+    enum OrderEvent {
+        Pay, Ship
+    }
+
+    static class OrderStateMachine extends AbstractStateMachine<OrderStateMachine, OrderState, OrderEvent, Integer> {
+        protected OrderStateMachine(ImmutableState<OrderStateMachine, OrderState, OrderEvent, Integer> initialState,
+                Map<OrderState, ImmutableState<OrderStateMachine, OrderState, OrderEvent, Integer>> states) {
+            super(initialState, states);
+        }
+    }
+
+    static class FakeTicker extends Ticker {
+        private final AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+
+        void advance(long millis) {
+            nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StateMachineBuilder<OrderStateMachine, OrderState, OrderEvent, Integer> builder;
+
+    private StateMachineStore<String, OrderStateMachine, OrderState, OrderEvent, Integer> store;
+
+    private StateMachineCache<String, OrderStateMachine, OrderState, OrderEvent, Integer> cache;
+
+    @Before
+    public void setup() {
+        builder = StateMachineBuilderFactory.create(OrderStateMachine.class, OrderState.class, OrderEvent.class, Integer.class);
+        builder.externalTransition().from(OrderState.Created).to(OrderState.Paid).on(OrderEvent.Pay);
+        builder.externalTransition().from(OrderState.Paid).to(OrderState.Shipped).on(OrderEvent.Ship);
+        store = StateMachineStoreFactory.create(folder.getRoot(), String.class);
+    }
+
+    @After
+    public void teardown() {
+        if(cache!=null) {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testPassivateLeastRecentlyUsed() {
+        cache = StateMachineCacheFactory.create(builder, OrderState.Created, store, 2, 0, 100, 0);
+        cache.fire("order-1", OrderEvent.Pay, null);
+        cache.fire("order-2", OrderEvent.Pay, null);
+        cache.fire("order-1", OrderEvent.Ship, null);
+        cache.fire("order-3", OrderEvent.Pay, null);
+        assertThat(cache.size(), is(equalTo(2)));
+        assertThat(cache.getIfPresent("order-2"), is(nullValue()));
+        assertThat(cache.getIfPresent("order-1").getCurrentState(), is(equalTo(OrderState.Shipped)));
+        // write back is pending until batch is full or cache is flushed
+        assertThat(store.load("order-2"), is(nullValue()));
+
+        // rehydrated from pending data
+        cache.fire("order-2", OrderEvent.Ship, null);
+        assertThat(cache.getIfPresent("order-2").getCurrentState(), is(equalTo(OrderState.Shipped)));
+
+        cache.flush();
+        // lookup of order-1 above made order-3 the least recently used one
+        assertThat(cache.getIfPresent("order-3"), is(nullValue()));
+        assertThat(store.load("order-1"), is(nullValue()));
+        assertThat(store.load("order-3").currentState(), is(equalTo(OrderState.Paid)));
+        assertThat(store.load("order-2").currentState(), is(equalTo(OrderState.Paid)));
+        StateMachineCache.Statistics statistics = cache.getStatistics();
+        assertThat(statistics.getHitCount(), is(equalTo(1L)));
+        assertThat(statistics.getMissCount(), is(equalTo(4L)));
+        assertThat(statistics.getLoadCount(), is(equalTo(1L)));
+        assertThat(statistics.getEvictionCount(), is(equalTo(2L)));
+        assertThat(statistics.getWriteCount(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testPassivateIdle() {
+        FakeTicker ticker = new FakeTicker();
+        cache = StateMachineCacheFactory.create(builder, OrderState.Created, store, 10, 1, 1, 0, ticker);
+        cache.fire("order-1", OrderEvent.Pay, null);
+        ticker.advance(1);
+        cache.fire("order-2", OrderEvent.Pay, null);
+        assertThat(cache.passivateIdle(), is(equalTo(1)));
+        assertThat(cache.getIfPresent("order-1"), is(nullValue()));
+        assertThat(cache.getIfPresent("order-2"), is(notNullValue()));
+
+        cache.fire("order-1", OrderEvent.Ship, null);
+        assertThat(cache.getIfPresent("order-1").getCurrentState(), is(equalTo(OrderState.Shipped)));
+        assertThat(cache.getStatistics().getLoadCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testRehydrateFromStoreAfterClose() {
+        cache = StateMachineCacheFactory.create(builder, OrderState.Created, store, 10);
+        cache.fire("order-1", OrderEvent.Pay, null);
+        cache.fire("order/2", OrderEvent.Pay, null);
+        cache.fire("order/2", OrderEvent.Ship, null);
+        cache.close();
+
+        cache = StateMachineCacheFactory.create(builder, OrderState.Created, store, 10);
+        assertThat(cache.size(), is(equalTo(0)));
+        assertThat(cache.get("order-1").getCurrentState(), is(equalTo(OrderState.Paid)));
+        assertThat(cache.get("order/2").getCurrentState(), is(equalTo(OrderState.Shipped)));
+        assertThat(cache.get("order-3").getCurrentState(), is(equalTo(OrderState.Created)));
+        assertThat(cache.getStatistics().getLoadCount(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testGetIfPresentKeepsEntryActive() {
+        FakeTicker ticker = new FakeTicker();
+        cache = StateMachineCacheFactory.create(builder, OrderState.Created, store, 10, 50, 1, 0, ticker);
+        cache.fire("order-1", OrderEvent.Pay, null);
+        cache.fire("order-2", OrderEvent.Pay, null);
+        ticker.advance(50);
+        assertThat(cache.getIfPresent("order-1"), is(notNullValue()));
+        assertThat(cache.passivateIdle(), is(equalTo(1)));
+        assertThat(cache.getIfPresent("order-1"), is(notNullValue()));
+        assertThat(cache.getIfPresent("order-2"), is(nullValue()));
+    }
+
+    @Test
+    public void testCloseFailsWithoutPassivatingWhenInUse() {
+        final List<RuntimeException> failures = Lists.newArrayList();
+        builder.internalTransition().within(OrderState.Created).on(OrderEvent.Ship).perform(
+                new Action<OrderStateMachine, OrderState, OrderEvent, Integer>() {
+                    @Override
+                    public void execute(OrderState from, OrderState to, OrderEvent event, Integer context,
+                            OrderStateMachine stateMachine) {
+                        try {
+                            cache.close();
+                        } catch(IllegalStateException e) {
+                            failures.add(e);
+                        }
+                    }
+                });
+        cache = StateMachineCacheFactory.create(builder, OrderState.Created, store, 10);
+        cache.fire("order-1", OrderEvent.Pay, null);
+        cache.fire("order-2", OrderEvent.Ship, null);
+        assertThat(failures.size(), is(equalTo(1)));
+        // entry not in use is not passivated either
+        assertThat(cache.size(), is(equalTo(2)));
+        assertThat(cache.getStatistics().getEvictionCount(), is(equalTo(0L)));
+        cache.fire("order-1", OrderEvent.Ship, null);
+        assertThat(cache.getIfPresent("order-1").getCurrentState(), is(equalTo(OrderState.Shipped)));
+    }
+
+    @Test
+    public void testLoadOutsideCacheLock() throws Exception {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        StateMachineStore<String, OrderStateMachine, OrderState, OrderEvent, Integer> slowStore = 
+                new StateMachineStore<String, OrderStateMachine, OrderState, OrderEvent, Integer>() {
+            @Override
+            public StateMachineData.Reader<OrderStateMachine, OrderState, OrderEvent, Integer> load(String id) {
+                if(id.equals("order-1")) {
+                    loads.incrementAndGet();
+                    loading.countDown();
+                    Uninterruptibles.awaitUninterruptibly(resume);
+                }
+                return store.load(id);
+            }
+            @Override
+            public void save(String id, StateMachineData.Reader<OrderStateMachine, OrderState, OrderEvent, Integer> data) {
+                store.save(id, data);
+            }
+            @Override
+            public void saveAll(Map<String, ? extends StateMachineData.Reader<OrderStateMachine, OrderState, OrderEvent, Integer>> data) {
+                store.saveAll(data);
+            }
+            @Override
+            public void remove(String id) {
+                store.remove(id);
+            }
+            @Override
+            public void close() {
+                store.close();
+            }
+        };
+        cache = StateMachineCacheFactory.create(builder, OrderState.Created, slowStore, 10);
+        final List<OrderStateMachine> loaded = Lists.newCopyOnWriteArrayList();
+        List<Thread> threads = Lists.newArrayList();
+        for(int i=0; i<2; ++i) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    loaded.add(cache.get("order-1"));
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        loading.await();
+        // other ids are served while order-1 is being loaded
+        cache.fire("order-2", OrderEvent.Pay, null);
+        assertThat(cache.getIfPresent("order-1"), is(nullValue()));
+        resume.countDown();
+        for(Thread thread : threads) {
+            thread.join(5000);
+        }
+        assertThat(loads.get(), is(equalTo(1)));
+        assertThat(loaded.size(), is(equalTo(2)));
+        assertThat(loaded.get(0)==loaded.get(1), is(true));
+        assertThat(cache.getStatistics().getHitCount(), is(equalTo(1L)));
+    }
+}
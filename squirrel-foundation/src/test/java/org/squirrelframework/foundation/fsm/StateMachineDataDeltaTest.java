@@ -0,0 +1,131 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.squirrelframework.foundation.component.SquirrelProvider;
+import org.squirrelframework.foundation.fsm.ParallelStateMachineTest.PEvent;
+import org.squirrelframework.foundation.fsm.ParallelStateMachineTest.PState;
+import org.squirrelframework.foundation.fsm.ParallelStateMachineTest.ParallelStateMachine;
+import org.squirrelframework.foundation.util.TypeReference;
+
+import com.google.common.collect.Lists;
+
+public class StateMachineDataDeltaTest {
+
+    private StateMachineBuilder<ParallelStateMachine, PState, PEvent, Integer> builder;
+
+    private ParallelStateMachine stateMachine;
+
+    @Before
+    public void setup() {
+        builder = StateMachineBuilderFactory.create(ParallelStateMachine.class, PState.class, PEvent.class, Integer.class);
+        stateMachine = builder.newStateMachine(PState.A);
+        stateMachine.start(null);
+    }
+
+    private StateMachineData<ParallelStateMachine, PState, PEvent, Integer> newData() {
+        return SquirrelProvider.getInstance().newInstance(
+                new TypeReference<StateMachineData<ParallelStateMachine, PState, PEvent, Integer>>(){});
+    }
+
+    @Test
+    public void testDumpChangedFieldsOnly() {
+        StateMachineData.Reader<ParallelStateMachine, PState, PEvent, Integer> base = stateMachine.dumpSavedData();
+        assertThat(base.version(), is(equalTo(stateMachine.dumpDelta(0).version())));
+        assertThat(stateMachine.dumpDelta(base.version()).isEmpty(), is(true));
+
+        stateMachine.fire(PEvent.A1a2A1b, 1);
+        StateMachineData.Delta<ParallelStateMachine, PState, PEvent, Integer> delta = stateMachine.dumpDelta(base.version());
+        assertThat(delta.sinceVersion(), is(equalTo(base.version())));
+        assertThat(delta.isTypeChanged(), is(false));
+        assertThat(delta.isCurrentStateChanged(), is(false));
+        assertThat(delta.isInitialStateChanged(), is(false));
+        assertThat(delta.lastActiveChildStates().keySet(), is(equalTo(Collections.singleton(PState.A1))));
+        assertThat(delta.subStates().get(PState.A), is(equalTo((List<PState>)Lists.newArrayList(PState.A2b, PState.A1b))));
+    }
+
+    @Test
+    public void testRebuildFromSnapshotAndDeltas() {
+        StateMachineData.Reader<ParallelStateMachine, PState, PEvent, Integer> base = stateMachine.dumpSavedData();
+        StateMachineData<ParallelStateMachine, PState, PEvent, Integer> rebuilt = newData();
+        rebuilt.dump(base);
+        assertThat(rebuilt.read().version(), is(equalTo(base.version())));
+
+        // checkpoint after every transition
+        long version = base.version();
+        for(PEvent event : new PEvent[] {PEvent.A1a2A1b, PEvent.A2b2A2a, PEvent.A1b2A1a}) {
+            stateMachine.fire(event, 1);
+            StateMachineData.Delta<ParallelStateMachine, PState, PEvent, Integer> delta = stateMachine.dumpDelta(version);
+            rebuilt.merge(delta);
+            version = delta.version();
+        }
+        assertThat(rebuilt.read().version(), is(equalTo(version)));
+        assertThat(rebuilt.read().subStatesOn(PState.A), is(equalTo(stateMachine.getSubStatesOn(PState.A))));
+        StateMachineData.Reader<ParallelStateMachine, PState, PEvent, Integer> expected = stateMachine.dumpSavedData();
+        assertThat(rebuilt.read().lastActiveChildStateOf(PState.A1), is(equalTo(expected.lastActiveChildStateOf(PState.A1))));
+        assertThat(rebuilt.read().lastActiveChildStateOf(PState.A2), is(equalTo(expected.lastActiveChildStateOf(PState.A2))));
+
+        ParallelStateMachine restored = builder.newStateMachine(PState.A);
+        restored.loadSavedData(rebuilt.read());
+        restored.fire(PEvent.A2B, 1);
+        assertThat(restored.getCurrentState(), is(equalTo(PState.B)));
+        restored.fire(PEvent.B2A, 1);
+        // deep history of regions is rebuilt from deltas
+        stateMachine.fire(PEvent.A2B, 1);
+        stateMachine.fire(PEvent.B2A, 1);
+        assertThat(restored.getSubStatesOn(PState.A), is(equalTo(stateMachine.getSubStatesOn(PState.A))));
+    }
+
+    @Test
+    public void testRebuildFromDeltasOnly() {
+        StateMachineData<ParallelStateMachine, PState, PEvent, Integer> rebuilt = newData();
+        StateMachineData.Delta<ParallelStateMachine, PState, PEvent, Integer> full = stateMachine.dumpDelta(0);
+        rebuilt.merge(full);
+        stateMachine.fire(PEvent.A2B, 1);
+        rebuilt.merge(stateMachine.dumpDelta(full.version()));
+
+        assertThat(rebuilt.read().currentState(), is(equalTo(PState.B)));
+        assertThat(rebuilt.read().typeOfState(), is(equalTo(PState.class)));
+        assertThat(rebuilt.read().parallelStates().isEmpty(), is(true));
+        assertThat(rebuilt.read().stateMachineStatus(), is(equalTo(StateMachineStatus.IDLE)));
+    }
+
+    @Test
+    public void testEventWithoutChangeLeavesDeltaEmpty() {
+        long version = stateMachine.dumpDelta(0).version();
+        // declined event still toggles status between busy and idle
+        stateMachine.fire(PEvent.B2A, 1);
+        assertThat(stateMachine.getStatus(), is(equalTo(StateMachineStatus.IDLE)));
+        assertThat(stateMachine.dumpDelta(version).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testFullDumpReplacesHistoryAndSubStates() {
+        StateMachineData.Reader<ParallelStateMachine, PState, PEvent, Integer> base = stateMachine.dumpSavedData();
+        stateMachine.fire(PEvent.A1a2A1b, 1);
+        stateMachine.fire(PEvent.A2b2A2a, 1);
+        StateMachineData<ParallelStateMachine, PState, PEvent, Integer> data = newData();
+        data.dump(stateMachine.dumpSavedData());
+        data.dump(base);
+        assertThat(data.read().subStatesOn(PState.A), is(equalTo(base.subStatesOn(PState.A))));
+        assertThat(data.read().lastActiveChildStateOf(PState.A1), is(equalTo(base.lastActiveChildStateOf(PState.A1))));
+        assertThat(data.read().lastActiveChildStateOf(PState.A2), is(equalTo(base.lastActiveChildStateOf(PState.A2))));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRejectDeltaWithGap() {
+        StateMachineData<ParallelStateMachine, PState, PEvent, Integer> rebuilt = newData();
+        rebuilt.merge(stateMachine.dumpDelta(0));
+        stateMachine.fire(PEvent.A1a2A1b, 1);
+        long version = stateMachine.dumpDelta(0).version();
+        stateMachine.fire(PEvent.A1b2A1a, 1);
+        rebuilt.merge(stateMachine.dumpDelta(version));
+    }
+}
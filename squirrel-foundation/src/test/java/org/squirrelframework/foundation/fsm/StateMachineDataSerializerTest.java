@@ -0,0 +1,154 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.squirrelframework.foundation.exception.ErrorCodes;
+import org.squirrelframework.foundation.exception.SquirrelRuntimeException;
+import org.squirrelframework.foundation.fsm.ParallelStateMachineTest.PEvent;
+import org.squirrelframework.foundation.fsm.ParallelStateMachineTest.PState;
+import org.squirrelframework.foundation.fsm.ParallelStateMachineTest.ParallelStateMachine;
+import org.squirrelframework.foundation.fsm.impl.BinaryStateMachineDataSerializer;
+import org.squirrelframework.foundation.fsm.impl.JsonStateMachineDataSerializer;
+import org.squirrelframework.foundation.util.Base64;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
+
+public class StateMachineDataSerializerTest {
+
+    private StateMachineBuilder<ParallelStateMachine, PState, PEvent, Integer> builder;
+
+    private StateMachineData.Reader<ParallelStateMachine, PState, PEvent, Integer> savedData;
+
+    @Before
+    public void setup() {
+        builder = StateMachineBuilderFactory.create(ParallelStateMachine.class, PState.class, PEvent.class, Integer.class);
+        ParallelStateMachine stateMachine = builder.newStateMachine(PState.A);
+        stateMachine.start(null);
+        stateMachine.fire(PEvent.A1a2A1b, 1);
+        stateMachine.fire(PEvent.A1b2A1c, 1);
+        savedData = stateMachine.dumpSavedData();
+    }
+
+    private void assertResumable(StateMachineData.Reader<ParallelStateMachine, PState, PEvent, Integer> data) {
+        assertThat(data.typeOfStateMachine().getName(), is(equalTo(savedData.typeOfStateMachine().getName())));
+        assertThat(data.typeOfEvent(), is(equalTo(savedData.typeOfEvent())));
+        assertThat(data.stateMachineStatus(), is(equalTo(savedData.stateMachineStatus())));
+        assertThat(data.currentState(), is(equalTo(PState.A)));
+        assertThat(data.lastActiveChildStateOf(PState.A1), is(equalTo(PState.A1b)));
+        assertThat(data.subStatesOn(PState.A), is(equalTo(savedData.subStatesOn(PState.A))));
+
+        ParallelStateMachine stateMachine = builder.newStateMachine(PState.A);
+        stateMachine.loadSavedData(data);
+        stateMachine.fire(PEvent.A2b2A2c, 1);
+        assertThat(stateMachine.getCurrentState(), is(equalTo(PState.C)));
+    }
+
+    @Test
+    public void testBinaryRoundTrip() {
+        StateMachineDataSerializer<ParallelStateMachine, PState, PEvent, Integer> serializer =
+                new BinaryStateMachineDataSerializer<ParallelStateMachine, PState, PEvent, Integer>();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        serializer.serialize(savedData, buffer);
+        buffer.flip();
+        assertResumable(serializer.deserialize(buffer));
+        assertThat(buffer.hasRemaining(), is(false));
+
+        String jsonForm = new JsonStateMachineDataSerializer<ParallelStateMachine, PState, PEvent, Integer>().serialize(savedData);
+        assertThat(buffer.limit(), is(lessThan(jsonForm.length())));
+        assertResumable(serializer.deserialize(serializer.serialize(savedData)));
+    }
+
+    @Test
+    public void testJsonRoundTrip() {
+        StateMachineDataSerializer<ParallelStateMachine, PState, PEvent, Integer> serializer =
+                new JsonStateMachineDataSerializer<ParallelStateMachine, PState, PEvent, Integer>();
+        assertResumable(serializer.deserialize(serializer.serialize(savedData)));
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        serializer.serialize(savedData, buffer);
+        buffer.flip();
+        assertResumable(serializer.deserialize(buffer));
+    }
+
+    @Test
+    public void testStreamInBulk() {
+        StateMachineDataSerializer<ParallelStateMachine, PState, PEvent, Integer> serializer =
+                new BinaryStateMachineDataSerializer<ParallelStateMachine, PState, PEvent, Integer>();
+        ByteBuffer single = ByteBuffer.allocate(1024);
+        serializer.serialize(savedData, single);
+        ByteBuffer twice = ByteBuffer.allocate(1024);
+        serializer.serializeAll(Iterators.peekingIterator(Lists.newArrayList(savedData, savedData).iterator()), twice);
+        // class names are written only once, so following records are much smaller than the first one
+        int followingSize = twice.position()-single.position();
+        assertThat(followingSize, is(lessThan(single.position()/4)));
+
+        List<StateMachineData.Reader<ParallelStateMachine, PState, PEvent, Integer>> all = Lists.newArrayList();
+        for(int i=0; i<5; ++i) {
+            all.add(savedData);
+        }
+        PeekingIterator<StateMachineData.Reader<ParallelStateMachine, PState, PEvent, Integer>> source =
+                Iterators.peekingIterator(all.iterator());
+        ByteBuffer buffer = ByteBuffer.allocate(single.position()+followingSize*2+followingSize/2);
+        assertThat(serializer.serializeAll(source, buffer), is(equalTo(3)));
+        assertThat(source.hasNext(), is(true));
+
+        buffer.flip();
+        Iterator<StateMachineData.Reader<ParallelStateMachine, PState, PEvent, Integer>> result = serializer.deserializeAll(buffer);
+        int read = 0;
+        while(result.hasNext()) {
+            assertResumable(result.next());
+            read++;
+        }
+        assertThat(read, is(equalTo(3)));
+        assertThat(Iterators.size(source), is(equalTo(2)));
+    }
+
+    @Test
+    public void testRejectUnknownFormat() {
+        StateMachineDataSerializer<ParallelStateMachine, PState, PEvent, Integer> serializer =
+                new BinaryStateMachineDataSerializer<ParallelStateMachine, PState, PEvent, Integer>();
+        try {
+            serializer.deserialize(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5}));
+            fail();
+        } catch(SquirrelRuntimeException e) {
+            assertThat(e.getErrorCodeId(), is(equalTo(ErrorCodes.STATE_MACHINE_DATA_DESERIALIZE_ERROR.getCode())));
+        }
+    }
+
+    @Test
+    public void testBase64Codec() {
+        String[] plain = { "", "f", "fo", "foo", "foob", "fooba", "foobar" };
+        String[] encoded = { "", "Zg==", "Zm8=", "Zm9v", "Zm9vYg==", "Zm9vYmE=", "Zm9vYmFy" };
+        for(int i=0; i<plain.length; ++i) {
+            assertThat(Base64.encode(plain[i].getBytes(Charsets.UTF_8)), is(equalTo(encoded[i])));
+            assertThat(new String(Base64.decode(encoded[i]), Charsets.UTF_8), is(equalTo(plain[i])));
+        }
+        byte[] bytes = new byte[256];
+        for(int i=0; i<bytes.length; ++i) {
+            bytes[i] = (byte)i;
+        }
+        assertThat(Base64.decode(Base64.encode(bytes)), is(equalTo(bytes)));
+
+        StateMachineDataSerializer<ParallelStateMachine, PState, PEvent, Integer> serializer =
+                new BinaryStateMachineDataSerializer<ParallelStateMachine, PState, PEvent, Integer>();
+        try {
+            serializer.deserialize("not base64!");
+            fail();
+        } catch(SquirrelRuntimeException e) {
+            assertThat(e.getErrorCodeId(), is(equalTo(ErrorCodes.STATE_MACHINE_DATA_DESERIALIZE_ERROR.getCode())));
+        }
+    }
+}
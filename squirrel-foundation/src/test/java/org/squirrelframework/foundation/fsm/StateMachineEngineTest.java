@@ -0,0 +1,215 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.squirrelframework.foundation.exception.SquirrelRuntimeException;
+import org.squirrelframework.foundation.fsm.impl.AbstractAsyncAction;
+import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class StateMachineEngineTest extends AbstractStateMachineTest {
+
+    private static final int PARTITIONS = 4;
+
+    static class EntityStateMachine extends AbstractStateMachine<EntityStateMachine, TestState, TestEvent, Integer> {
+
+        private final List<Integer> contexts = Lists.newArrayList();
+
+        private volatile Thread workerThread;
+
+        protected EntityStateMachine(ImmutableState<EntityStateMachine, TestState, TestEvent, Integer> initialState,
+                Map<TestState, ImmutableState<EntityStateMachine, TestState, TestEvent, Integer>> states) {
+            super(initialState, states);
+        }
+    }
+
+    private CountDownLatch blockLatch;
+
+    private StateMachineEngine<String, EntityStateMachine, TestState, TestEvent, Integer> engine;
+
+    @Before
+    public void setup() {
+        StateMachineBuilder<EntityStateMachine, TestState, TestEvent, Integer> builder = StateMachineBuilderFactory.
+                create(EntityStateMachine.class, TestState.class, TestEvent.class, Integer.class);
+        builder.internalTransition().within(TestState.A).on(TestEvent.InternalA).perform(
+                new Action<EntityStateMachine, TestState, TestEvent, Integer>() {
+                    @Override
+                    public void execute(TestState from, TestState to, TestEvent event, Integer context,
+                            EntityStateMachine stateMachine) {
+                        stateMachine.contexts.add(context);
+                        stateMachine.workerThread = Thread.currentThread();
+                    }
+                });
+        builder.internalTransition().within(TestState.A).on(TestEvent.ToD).perform(
+                new Action<EntityStateMachine, TestState, TestEvent, Integer>() {
+                    @Override
+                    public void execute(TestState from, TestState to, TestEvent event, Integer context,
+                            EntityStateMachine stateMachine) {
+                        try {
+                            blockLatch.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+        blockLatch = new CountDownLatch(1);
+        engine = StateMachineEngineFactory.create(builder, TestState.A, PARTITIONS);
+    }
+
+    @After
+    public void teardown() {
+        blockLatch.countDown();
+        engine.shutdown();
+    }
+
+    @Test
+    public void testDispatchInOrderPerId() throws Exception {
+        int ids = 50, events = 200;
+        for(int i=0; i<events; ++i) {
+            for(int j=0; j<ids; ++j) {
+                engine.dispatch("entity-"+j, TestEvent.InternalA, i);
+            }
+        }
+        engine.shutdown();
+        assertThat(engine.awaitTermination(10, TimeUnit.SECONDS), is(true));
+        assertThat(engine.size(), equalTo(ids));
+
+        List<Integer> expected = Lists.newArrayList();
+        for(int i=0; i<events; ++i) expected.add(i);
+        for(int j=0; j<ids; ++j) {
+            EntityStateMachine stateMachine = engine.getStateMachine("entity-"+j);
+            assertThat(stateMachine.contexts, equalTo(expected));
+            assertThat(stateMachine.getCurrentState(), equalTo(TestState.A));
+            assertThat(stateMachine.workerThread.getName(), 
+                    equalTo("squirrel-fsm-engine-"+engine.getPartitionOf("entity-"+j)));
+        }
+    }
+
+    @Test
+    public void testDispatchResult() throws Exception {
+        TransitionResult<EntityStateMachine, TestState, TestEvent, Integer> result = 
+                engine.dispatch("entity", TestEvent.InternalA, 1).get(5, TimeUnit.SECONDS);
+        assertThat(result.isAccepted(), is(true));
+        assertThat(result.getSourceState().getStateId(), equalTo(TestState.A));
+        result = engine.dispatch("entity", TestEvent.ToB, 2).get(5, TimeUnit.SECONDS);
+        assertThat(result.isDeclined(), is(true));
+        assertThat(engine.getStateMachine("other"), nullValue());
+        assertThat(engine.removeStateMachine("entity").contexts.size(), equalTo(1));
+        assertThat(engine.size(), equalTo(0));
+    }
+
+    @Test
+    public void testQueueDepthAndShutdown() throws Exception {
+        String id = "blocked";
+        int partition = engine.getPartitionOf(id);
+        engine.dispatch(id, TestEvent.ToD, 0);
+        for(int i=0; i<10; ++i) {
+            engine.dispatch(id, TestEvent.InternalA, i);
+        }
+        // first event may still be queued before worker takes it
+        assertThat(engine.getQueueDepth(partition)>=10, is(true));
+        for(int i=0; i<PARTITIONS; ++i) {
+            if(i!=partition) assertThat(engine.getQueueDepth(i), equalTo(0));
+        }
+
+        engine.shutdown();
+        assertThat(engine.isShutdown(), is(true));
+        try {
+            engine.dispatch(id, TestEvent.InternalA, 11).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch(ExecutionException e) {
+            assertThat(e.getCause() instanceof RejectedExecutionException, is(true));
+        }
+        assertThat(engine.awaitTermination(100, TimeUnit.MILLISECONDS), is(false));
+        blockLatch.countDown();
+        assertThat(engine.awaitTermination(5, TimeUnit.SECONDS), is(true));
+        // events dispatched before shutdown are still processed
+        assertThat(engine.getStateMachine(id).contexts.size(), equalTo(10));
+        assertThat(engine.getQueueDepth(partition), equalTo(0));
+    }
+
+    @Test
+    public void testFlyweightEngine() throws Exception {
+        StateMachineBuilder<ParallelStateMachineTest.ParallelStateMachine, ParallelStateMachineTest.PState, 
+            ParallelStateMachineTest.PEvent, Integer> builder = StateMachineBuilderFactory.create(
+                ParallelStateMachineTest.ParallelStateMachine.class, ParallelStateMachineTest.PState.class, 
+                ParallelStateMachineTest.PEvent.class, Integer.class);
+        StateMachineEngine<Integer, ParallelStateMachineTest.ParallelStateMachine, ParallelStateMachineTest.PState, 
+            ParallelStateMachineTest.PEvent, Integer> flyweightEngine = StateMachineEngineFactory.createFlyweight(
+                builder, ParallelStateMachineTest.PState.A, PARTITIONS);
+        
+        int ids = 20, events = 50;
+        ParallelStateMachineTest.PEvent[] values = ParallelStateMachineTest.PEvent.values();
+        List<ParallelStateMachineTest.ParallelStateMachine> expected = Lists.newArrayList();
+        Random random = new Random(20140101L);
+        for(int j=0; j<ids; ++j) {
+            expected.add(builder.newStateMachine(ParallelStateMachineTest.PState.A));
+        }
+        for(int i=0; i<events; ++i) {
+            for(int j=0; j<ids; ++j) {
+                // finish event will leave parallel state for good, so make it rare
+                ParallelStateMachineTest.PEvent event = values[random.nextInt(values.length-1)];
+                expected.get(j).fire(event, i);
+                flyweightEngine.dispatch(j, event, i);
+            }
+        }
+        flyweightEngine.shutdown();
+        assertThat(flyweightEngine.awaitTermination(10, TimeUnit.SECONDS), is(true));
+        assertThat(flyweightEngine.size(), equalTo(ids));
+        
+        for(int j=0; j<ids; ++j) {
+            ParallelStateMachineTest.ParallelStateMachine actual = flyweightEngine.getStateMachine(j);
+            assertThat(actual.getCurrentState(), equalTo(expected.get(j).getCurrentState()));
+            assertThat(actual.getLastState(), equalTo(expected.get(j).getLastState()));
+            assertThat(actual.getSubStatesOn(ParallelStateMachineTest.PState.A), 
+                    equalTo(expected.get(j).getSubStatesOn(ParallelStateMachineTest.PState.A)));
+            assertThat(actual.getLastActiveChildStateOf(ParallelStateMachineTest.PState.A1), 
+                    equalTo(expected.get(j).getLastActiveChildStateOf(ParallelStateMachineTest.PState.A1)));
+            assertThat(actual.getLastActiveChildStateOf(ParallelStateMachineTest.PState.A2), 
+                    equalTo(expected.get(j).getLastActiveChildStateOf(ParallelStateMachineTest.PState.A2)));
+        }
+    }
+    
+    @Test
+    public void testFlyweightEngineRejectsAsyncAction() {
+        StateMachineBuilder<EntityStateMachine, TestState, TestEvent, Integer> builder = StateMachineBuilderFactory.
+                create(EntityStateMachine.class, TestState.class, TestEvent.class, Integer.class);
+        builder.externalTransition().from(TestState.A).to(TestState.B).on(TestEvent.ToB).perform(
+                new AbstractAsyncAction<EntityStateMachine, TestState, TestEvent, Integer>() {
+                    @Override
+                    public ListenableFuture<?> executeAsync(TestState from, TestState to, TestEvent event, 
+                            Integer context, EntityStateMachine stateMachine) {
+                        return Futures.immediateFuture(null);
+                    }
+                });
+        try {
+            StateMachineEngineFactory.createFlyweight(builder, TestState.A, 1);
+            fail();
+        } catch(SquirrelRuntimeException e) {
+            Throwable cause = ((InvocationTargetException)e.getTargetException()).getTargetException();
+            assertThat(cause, instanceOf(IllegalArgumentException.class));
+        }
+        // async action is still supported by engine keeping instances
+        StateMachineEngineFactory.create(builder, TestState.A, 1).shutdown();
+    }
+}
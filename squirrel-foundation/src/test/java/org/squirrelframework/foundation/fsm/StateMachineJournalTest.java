@@ -0,0 +1,205 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
+
+import com.google.common.collect.Maps;
+
+public class StateMachineJournalTest {
+
+    enum JState {
+        Idle, Running, Paused, Done
+    }
+
+    enum JEvent {
+        Start, Pause, Resume, Finish
+    }
+
+    static class JournaledStateMachine extends AbstractStateMachine<JournaledStateMachine, JState, JEvent, Integer> {
+        protected JournaledStateMachine(ImmutableState<JournaledStateMachine, JState, JEvent, Integer> initialState,
+                Map<JState, ImmutableState<JournaledStateMachine, JState, JEvent, Integer>> states) {
+            super(initialState, states);
+        }
+    }
+
+    static class IntegerConverter implements Converter<Integer> {
+        @Override
+        public String convertToString(Integer obj) {
+            return obj.toString();
+        }
+
+        @Override
+        public Integer convertFromString(String name) {
+            return Integer.valueOf(name);
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger executedActions = new AtomicInteger();
+
+    private StateMachineBuilder<JournaledStateMachine, JState, JEvent, Integer> builder;
+
+    private StateMachineJournal<String, JournaledStateMachine, JState, JEvent, Integer> journal;
+
+    @Before
+    public void setup() {
+        ConverterProvider.INSTANCE.register(Integer.class, new IntegerConverter());
+        builder = StateMachineBuilderFactory.create(JournaledStateMachine.class, JState.class, JEvent.class, Integer.class);
+        Action<JournaledStateMachine, JState, JEvent, Integer> countAction =
+                new Action<JournaledStateMachine, JState, JEvent, Integer>() {
+            @Override
+            public void execute(JState from, JState to, JEvent event, Integer context, JournaledStateMachine stateMachine) {
+                executedActions.incrementAndGet();
+            }
+        };
+        builder.externalTransition().from(JState.Idle).to(JState.Running).on(JEvent.Start).perform(countAction);
+        builder.externalTransition().from(JState.Running).to(JState.Paused).on(JEvent.Pause).perform(countAction);
+        builder.externalTransition().from(JState.Paused).to(JState.Running).on(JEvent.Resume).perform(countAction);
+        builder.externalTransition().from(JState.Running).to(JState.Done).on(JEvent.Finish).
+            when(new Condition<Integer>() {
+                @Override
+                public boolean isSatisfied(Integer context) {
+                    return context!=null && context>10;
+                }
+            }).perform(countAction);
+    }
+
+    @After
+    public void teardown() {
+        if(journal!=null) {
+            journal.close();
+        }
+        ConverterProvider.INSTANCE.unregister(Integer.class);
+    }
+
+    private StateMachineJournal<String, JournaledStateMachine, JState, JEvent, Integer> openJournal() {
+        // small segments and sync on every 4 events, so that several segments are written
+        return StateMachineJournalFactory.create(folder.getRoot(), String.class, JEvent.class, Integer.class, 128, 4, 0);
+    }
+
+    private JournaledStateMachine fire(Map<String, JournaledStateMachine> stateMachines, String id, JEvent event, Integer context) {
+        JournaledStateMachine stateMachine = stateMachines.get(id);
+        if(stateMachine==null) {
+            stateMachine = builder.newStateMachine(JState.Idle);
+            stateMachines.put(id, stateMachine);
+        }
+        journal.fire(id, stateMachine, event, context);
+        return stateMachine;
+    }
+
+    private int segmentCount() {
+        return folder.getRoot().list().length;
+    }
+
+    @Test
+    public void testRecoverByReplay() {
+        journal = openJournal();
+        Map<String, JournaledStateMachine> stateMachines = Maps.newHashMap();
+        fire(stateMachines, "order-1", JEvent.Start, null);
+        fire(stateMachines, "order-2", JEvent.Start, null);
+        fire(stateMachines, "order-1", JEvent.Pause, 1);
+        fire(stateMachines, "order-2", JEvent.Finish, 5);
+        fire(stateMachines, "order-2", JEvent.Finish, 20);
+        fire(stateMachines, "order-3", JEvent.Start, 7);
+        assertThat(journal.getLastSequence(), is(equalTo(6L)));
+        assertThat(executedActions.get(), is(equalTo(5)));
+        journal.close();
+
+        journal = openJournal();
+        assertThat(journal.getLastSequence(), is(equalTo(6L)));
+        Map<String, JournaledStateMachine> recovered = journal.recover(builder, JState.Idle);
+        assertThat(recovered.size(), is(equalTo(3)));
+        assertThat(recovered.get("order-1").getCurrentState(), is(equalTo(JState.Paused)));
+        assertThat(recovered.get("order-2").getCurrentState(), is(equalTo(JState.Done)));
+        assertThat(recovered.get("order-3").getCurrentState(), is(equalTo(JState.Running)));
+        // actions are not invoked again by replay
+        assertThat(executedActions.get(), is(equalTo(5)));
+
+        // recovered state machines continue processing events with actions
+        fire(recovered, "order-1", JEvent.Resume, null);
+        assertThat(journal.getLastSequence(), is(equalTo(7L)));
+        assertThat(recovered.get("order-1").getCurrentState(), is(equalTo(JState.Running)));
+        assertThat(executedActions.get(), is(equalTo(6)));
+    }
+
+    @Test
+    public void testRecoverFromSnapshot() {
+        journal = openJournal();
+        Map<String, JournaledStateMachine> stateMachines = Maps.newHashMap();
+        for(int i=0; i<10; ++i) {
+            fire(stateMachines, "order-"+i, JEvent.Start, i);
+        }
+        int segmentsBeforeSnapshot = segmentCount();
+        journal.snapshot(stateMachines);
+        // snapshot file is added and segments covered by snapshot are deleted
+        assertThat(segmentCount(), is(lessThan(segmentsBeforeSnapshot)));
+
+        fire(stateMachines, "order-0", JEvent.Pause, null);
+        fire(stateMachines, "order-10", JEvent.Start, null);
+        journal.close();
+
+        journal = openJournal();
+        Map<String, JournaledStateMachine> recovered = journal.recover(builder, JState.Idle);
+        assertThat(recovered.size(), is(equalTo(11)));
+        assertThat(recovered.get("order-0").getCurrentState(), is(equalTo(JState.Paused)));
+        assertThat(recovered.get("order-5").getCurrentState(), is(equalTo(JState.Running)));
+        assertThat(recovered.get("order-10").getCurrentState(), is(equalTo(JState.Running)));
+        assertThat(journal.getLastSequence(), is(equalTo(12L)));
+    }
+
+    @Test
+    public void testIgnoreTornRecord() throws Exception {
+        journal = openJournal();
+        Map<String, JournaledStateMachine> stateMachines = Maps.newHashMap();
+        fire(stateMachines, "order-1", JEvent.Start, null);
+        fire(stateMachines, "order-1", JEvent.Pause, null);
+        journal.close();
+
+        // simulate crash in the middle of writing the third record
+        File segment = folder.getRoot().listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            long end = 0;
+            while(true) {
+                file.seek(end);
+                int length = file.readInt();
+                if(length==0) break;
+                end += 8+length;
+            }
+            file.seek(end);
+            file.writeInt(40);
+            file.writeInt(12345);
+            file.writeLong(3);
+        } finally {
+            file.close();
+        }
+
+        journal = openJournal();
+        assertThat(journal.getLastSequence(), is(equalTo(2L)));
+        Map<String, JournaledStateMachine> recovered = journal.recover(builder, JState.Idle);
+        assertThat(recovered.get("order-1").getCurrentState(), is(equalTo(JState.Paused)));
+
+        // torn record is overwritten by new record
+        fire(recovered, "order-1", JEvent.Resume, null);
+        journal.close();
+        journal = openJournal();
+        assertThat(journal.getLastSequence(), is(equalTo(3L)));
+        assertThat(journal.recover(builder, JState.Idle).get("order-1").getCurrentState(), is(equalTo(JState.Running)));
+    }
+}
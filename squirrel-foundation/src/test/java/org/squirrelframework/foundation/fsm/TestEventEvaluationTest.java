@@ -0,0 +1,320 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.squirrelframework.foundation.fsm.StateMachine.StateMachineEvent;
+import org.squirrelframework.foundation.fsm.StateMachine.StateMachineListener;
+import org.squirrelframework.foundation.fsm.StateMachine.TransitionDeclinedEvent;
+import org.squirrelframework.foundation.fsm.StateMachine.TransitionDeclinedListener;
+import org.squirrelframework.foundation.fsm.annotation.EventType;
+import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class TestEventEvaluationTest {
+    
+    enum TState {
+        P, P1, P1a, P1b, P1End, P2, Q, Q1, Q2, R, R1, R1a, R1b, R2, R2a, R2b, R2End, End
+    }
+    
+    enum TEvent {
+        ToP1b, ToP2, ToQ, ToQ2, ToP, Up, Inc, Reset, ToEnd, ToR, R1Next, R2Next, R2Done, LeaveR, 
+        @EventType(EventKind.FINISH) Finish
+    }
+    
+    static class TestedStateMachine extends AbstractStateMachine<TestedStateMachine, TState, TEvent, Integer> {
+        
+        private final StringBuilder logger = new StringBuilder();
+        
+        protected TestedStateMachine(ImmutableState<TestedStateMachine, TState, TEvent, Integer> initialState,
+                Map<TState, ImmutableState<TestedStateMachine, TState, TEvent, Integer>> states) {
+            super(initialState, states);
+        }
+    }
+    
+    static class StringStateMachine extends AbstractStateMachine<StringStateMachine, String, String, Integer> {
+        protected StringStateMachine(ImmutableState<StringStateMachine, String, String, Integer> initialState,
+                Map<String, ImmutableState<StringStateMachine, String, String, Integer>> states) {
+            super(initialState, states);
+        }
+    }
+    
+    static class LogAction implements Action<TestedStateMachine, TState, TEvent, Integer> {
+        private final String name;
+        
+        LogAction(String name) {
+            this.name = name;
+        }
+        
+        @Override
+        public void execute(TState from, TState to, TEvent event, Integer context, TestedStateMachine stateMachine) {
+            stateMachine.logger.append(name).append('.');
+        }
+    }
+    
+    static class Even implements Condition<Integer> {
+        @Override
+        public boolean isSatisfied(Integer context) {
+            return context!=null && context%2==0;
+        }
+    }
+    
+    static class GreaterThanFive implements Condition<Integer> {
+        @Override
+        public boolean isSatisfied(Integer context) {
+            return context!=null && context>5;
+        }
+    }
+    
+    private StateMachineBuilder<TestedStateMachine, TState, TEvent, Integer> newBuilder() {
+        StateMachineBuilder<TestedStateMachine, TState, TEvent, Integer> builder = StateMachineBuilderFactory.
+                create(TestedStateMachine.class, TState.class, TEvent.class, Integer.class);
+        builder.defineSequentialStatesOn(TState.P, HistoryType.DEEP, TState.P1, TState.P2);
+        builder.defineSequentialStatesOn(TState.P1, TState.P1a, TState.P1b, TState.P1End);
+        builder.defineFinalState(TState.P1End);
+        builder.defineSequentialStatesOn(TState.Q, HistoryType.SHALLOW, TState.Q1, TState.Q2);
+        builder.defineParallelStatesOn(TState.R, TState.R1, TState.R2);
+        builder.defineSequentialStatesOn(TState.R1, TState.R1a, TState.R1b);
+        builder.defineSequentialStatesOn(TState.R2, TState.R2a, TState.R2b, TState.R2End);
+        builder.defineFinalState(TState.R2End);
+        builder.defineFinalState(TState.End);
+        for(TState state : TState.values()) {
+            builder.onEntry(state).perform(new LogAction("entry"+state));
+        }
+        builder.externalTransition().from(TState.P1a).to(TState.P1b).on(TEvent.ToP1b);
+        builder.localTransition().from(TState.P1b).to(TState.P1a).on(TEvent.ToP1b).when(new Even());
+        builder.externalTransition().from(TState.P1b).to(TState.P1End).on(TEvent.ToEnd).when(new GreaterThanFive());
+        builder.externalTransition().from(TState.P1).to(TState.P2).on(TEvent.Finish);
+        builder.externalTransition().from(TState.P1).to(TState.P2).on(TEvent.ToP2);
+        builder.externalTransition().from(TState.P).to(TState.Q).on(TEvent.ToQ);
+        builder.externalTransition().from(TState.Q1).to(TState.Q2).on(TEvent.ToQ2);
+        builder.externalTransition().from(TState.Q).to(TState.P).on(TEvent.ToP);
+        builder.externalTransition().from(TState.P2).to(TState.P1).on(TEvent.Up);
+        builder.localTransition().from(TState.P1a).to(TState.P1).on(TEvent.Up);
+        builder.internalTransition().within(TState.P).on(TEvent.Inc).perform(new LogAction("inc"));
+        builder.externalTransition().from(TState.P1a).to(TState.P1a).on(TEvent.Reset);
+        builder.externalTransition().from(TState.P).to(TState.P1b).on(TEvent.Reset);
+        builder.externalTransition().from(TState.Q).to(TState.R).on(TEvent.ToR);
+        builder.externalTransition().from(TState.R1a).to(TState.R1b).on(TEvent.R1Next);
+        builder.externalTransition().from(TState.R1b).to(TState.R1a).on(TEvent.R1Next).when(new Even());
+        builder.externalTransition().from(TState.R2a).to(TState.R2b).on(TEvent.R2Next);
+        builder.externalTransition().from(TState.R2b).to(TState.R2End).on(TEvent.R2Done);
+        builder.externalTransition().from(TState.R2b).to(TState.Q).on(TEvent.LeaveR).when(new GreaterThanFive());
+        builder.externalTransition().from(TState.R).to(TState.P).on(TEvent.LeaveR);
+        builder.externalTransition().from(TState.Q2).to(TState.End).on(TEvent.ToEnd).when(new GreaterThanFive());
+        return builder;
+    }
+    
+    @Test
+    public void testEvaluationMatchesProcessing() {
+        StateMachineBuilder<TestedStateMachine, TState, TEvent, Integer> builder = newBuilder();
+        Random random = new Random(20131101L);
+        final AtomicInteger notified = new AtomicInteger(0);
+        Set<TState> visited = Sets.newHashSet();
+        TestedStateMachine stateMachine = null;
+        for(int i=0; i<5000; ++i) {
+            if(stateMachine==null || stateMachine.getCurrentState()==TState.End) {
+                stateMachine = builder.newStateMachine(TState.P);
+                stateMachine.addStateMachineListener(new StateMachineListener<TestedStateMachine, TState, TEvent, Integer>() {
+                    @Override
+                    public void stateMachineEvent(StateMachineEvent<TestedStateMachine, TState, TEvent, Integer> event) {
+                        notified.incrementAndGet();
+                    }
+                });
+            }
+            TEvent event = TEvent.values()[random.nextInt(TEvent.values().length)];
+            Integer context = random.nextInt(10);
+            
+            int notifiedBefore = notified.get();
+            String logBefore = stateMachine.logger.toString();
+            TState expected = stateMachine.test(event, context);
+            assertThat(notified.get(), is(notifiedBefore));
+            assertThat(stateMachine.logger.toString(), equalTo(logBefore));
+            
+            stateMachine.fire(event, context);
+            assertThat("event "+event+" on step "+i, stateMachine.getCurrentState(), equalTo(expected));
+            visited.add(stateMachine.getCurrentState());
+            visited.addAll(stateMachine.getSubStatesOn(TState.R));
+        }
+        assertThat(visited.containsAll(Sets.newHashSet(TState.P1b, TState.P2, TState.Q2, 
+                TState.R, TState.R1b, TState.R2End, TState.End)), is(true));
+    }
+    
+    @Test
+    public void testAcceptableEventsMatchProcessing() {
+        StateMachineBuilder<TestedStateMachine, TState, TEvent, Integer> builder = newBuilder();
+        Random random = new Random(20131105L);
+        final AtomicInteger declined = new AtomicInteger(0);
+        TestedStateMachine stateMachine = null;
+        for(int i=0; i<5000; ++i) {
+            if(stateMachine==null || stateMachine.getCurrentState()==TState.End) {
+                stateMachine = builder.newStateMachine(TState.P);
+                stateMachine.addTransitionDeclinedListener(new TransitionDeclinedListener<TestedStateMachine, TState, TEvent, Integer>() {
+                    @Override
+                    public void transitionDeclined(TransitionDeclinedEvent<TestedStateMachine, TState, TEvent, Integer> event) {
+                        declined.incrementAndGet();
+                    }
+                });
+            }
+            TEvent event = TEvent.values()[random.nextInt(TEvent.values().length)];
+            Integer context = random.nextInt(10);
+            
+            Set<TEvent> acceptableEvents = stateMachine.getAcceptableEvents(context);
+            assertThat(acceptableEvents instanceof EnumSet, is(true));
+            List<TState> subStates = Lists.newArrayList(stateMachine.getSubStatesOn(TState.R));
+            int declinedBefore = declined.get();
+            stateMachine.fire(event, context);
+            // event only accepted by parallel regions is still declined by state machine
+            boolean accepted = declined.get()==declinedBefore || !subStates.equals(stateMachine.getSubStatesOn(TState.R));
+            assertThat("event "+event+" on step "+i, acceptableEvents.contains(event), is(accepted));
+        }
+    }
+    
+    @Test
+    public void testAcceptableEventsOfParallelRegions() {
+        TestedStateMachine stateMachine = newBuilder().newStateMachine(TState.Q);
+        stateMachine.start(0);
+        assertThat(stateMachine.getAcceptableEvents(0), equalTo((Set<TEvent>)EnumSet.of(
+                TEvent.ToQ2, TEvent.ToP, TEvent.ToR)));
+        stateMachine.fire(TEvent.ToR, 0);
+        assertThat(stateMachine.getAcceptableEvents(0), equalTo((Set<TEvent>)EnumSet.of(
+                TEvent.R1Next, TEvent.R2Next, TEvent.LeaveR)));
+        stateMachine.fire(TEvent.R1Next, 0);
+        stateMachine.fire(TEvent.R2Next, 0);
+        assertThat(stateMachine.getAcceptableEvents(1), equalTo((Set<TEvent>)EnumSet.of(
+                TEvent.R2Done, TEvent.LeaveR)));
+        assertThat(stateMachine.getAcceptableEvents(6), equalTo((Set<TEvent>)EnumSet.of(
+                TEvent.R1Next, TEvent.R2Done, TEvent.LeaveR)));
+    }
+    
+    @Test
+    public void testEvaluateWhileProcessing() throws Exception {
+        StateMachineBuilder<TestedStateMachine, TState, TEvent, Integer> builder = newBuilder();
+        final TestedStateMachine stateMachine = builder.newStateMachine(TState.P);
+        stateMachine.start(0);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread tester = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while(done.getCount()>0) {
+                        for(TEvent event : TEvent.values()) {
+                            stateMachine.test(event, 6);
+                        }
+                    }
+                } catch(Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        tester.start();
+        TEvent[] cycle = {TEvent.ToQ, TEvent.ToQ2, TEvent.ToP, TEvent.ToP1b, TEvent.ToP2, TEvent.Up};
+        for(int i=0; i<20000; ++i) {
+            stateMachine.fire(cycle[i%cycle.length], 1);
+        }
+        done.countDown();
+        tester.join();
+        assertThat(failure.get(), equalTo(null));
+    }
+    
+    @Test
+    public void testEvaluateParallelStatesWhileProcessing() throws Exception {
+        final TestedStateMachine stateMachine = newBuilder().newStateMachine(TState.Q);
+        stateMachine.start(0);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread tester = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while(done.getCount()>0) {
+                        for(TEvent event : TEvent.values()) {
+                            if(stateMachine.test(event, 6)==null) {
+                                throw new AssertionError("No target of event "+event);
+                            }
+                        }
+                        stateMachine.getAcceptableEvents(6);
+                    }
+                } catch(Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        tester.start();
+        // sub states of parallel state R are added and removed while tester reads them
+        TEvent[] cycle = {TEvent.ToR, TEvent.R1Next, TEvent.R2Next, TEvent.R1Next, TEvent.LeaveR, TEvent.ToQ};
+        for(int i=0; i<3000*cycle.length && failure.get()==null; ++i) {
+            stateMachine.fire(cycle[i%cycle.length], 2);
+        }
+        done.countDown();
+        tester.join();
+        assertThat(failure.get(), equalTo(null));
+        assertThat(stateMachine.getCurrentState(), equalTo(TState.Q1));
+    }
+    
+    @Test
+    public void testEvaluateNoneIndexedParallelStatesWhileProcessing() throws Exception {
+        StateMachineBuilder<StringStateMachine, String, String, Integer> builder = StateMachineBuilderFactory.
+                create(StringStateMachine.class, String.class, String.class, Integer.class);
+        builder.defineSequentialStatesOn("Q", HistoryType.DEEP, "Q1", "Q2");
+        builder.defineParallelStatesOn("R", "R1", "R2");
+        builder.defineSequentialStatesOn("R1", HistoryType.SHALLOW, "R1a", "R1b");
+        builder.defineSequentialStatesOn("R2", "R2a", "R2b");
+        builder.externalTransition().from("Q1").to("Q2").on("Next");
+        builder.externalTransition().from("Q2").to("Q1").on("Next");
+        builder.externalTransition().from("Q").to("R").on("ToR");
+        builder.externalTransition().from("R1a").to("R1b").on("Next");
+        builder.externalTransition().from("R1b").to("R1a").on("Next");
+        builder.externalTransition().from("R2a").to("R2b").on("R2Next");
+        builder.externalTransition().from("R2b").to("R2a").on("R2Next");
+        builder.externalTransition().from("R").to("Q").on("ToQ");
+        final StringStateMachine stateMachine = builder.newStateMachine("Q");
+        stateMachine.start(0);
+        final Set<String> events = Sets.newHashSet("Next", "ToR", "R2Next", "ToQ");
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread tester = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while(done.getCount()>0) {
+                        for(String event : events) {
+                            String target = stateMachine.test(event, 0);
+                            if(!target.equals("R") && !target.startsWith("Q")) {
+                                throw new AssertionError("Unexpected target "+target+" of event "+event);
+                            }
+                        }
+                        if(!events.containsAll(stateMachine.getAcceptableEvents(0))) {
+                            throw new AssertionError("Unexpected acceptable events");
+                        }
+                    }
+                } catch(Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        tester.start();
+        String[] cycle = {"Next", "ToR", "Next", "R2Next", "ToQ", "Next", "ToR", "R2Next", "ToQ"};
+        for(int i=0; i<20000 && failure.get()==null; ++i) {
+            stateMachine.fire(cycle[i%cycle.length], 0);
+        }
+        done.countDown();
+        tester.join();
+        assertThat(failure.get(), equalTo(null));
+        assertThat(stateMachine.getStatus(), equalTo(StateMachineStatus.IDLE));
+    }
+}
@@ -0,0 +1,213 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.squirrelframework.foundation.exception.SquirrelRuntimeException;
+import org.squirrelframework.foundation.fsm.annotation.State;
+import org.squirrelframework.foundation.fsm.annotation.States;
+import org.squirrelframework.foundation.fsm.annotation.Transit;
+import org.squirrelframework.foundation.fsm.annotation.Transitions;
+import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
+import org.squirrelframework.foundation.util.TimingWheel;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+
+public class TimedTransitionTest {
+
+    enum SessionState {
+        Active, Browsing, Paying, Idle, Expired
+    }
+
+    enum SessionEvent {
+        Touch, Pay, Paid, Logout
+    }
+
+    @States({
+        @State(parent="Active", name="Browsing", initialState=true),
+        @State(parent="Active", name="Paying")
+    })
+    @Transitions({
+        @Transit(from="Browsing", to="Paying", on="Pay"),
+        @Transit(from="Paying", to="Browsing", on="Paid"),
+        @Transit(from="Active", to="Idle", after=30, timeUnit=TimeUnit.SECONDS),
+        @Transit(from="Idle", to="Active", on="Touch"),
+        @Transit(from="Idle", to="Expired", after=10, timeUnit=TimeUnit.MINUTES)
+    })
+    static class SessionStateMachine extends AbstractStateMachine<SessionStateMachine, SessionState, SessionEvent, Integer> {
+
+        final List<String> timedTransitions = Lists.newArrayList();
+
+        protected SessionStateMachine(ImmutableState<SessionStateMachine, SessionState, SessionEvent, Integer> initialState,
+                Map<SessionState, ImmutableState<SessionStateMachine, SessionState, SessionEvent, Integer>> states) {
+            super(initialState, states);
+        }
+
+        @Override
+        protected void afterTransitionCompleted(SessionState fromState, SessionState toState, SessionEvent event, Integer context) {
+            if(event==null) {
+                timedTransitions.add(fromState+"->"+toState);
+            }
+        }
+    }
+
+    static class PlainStateMachine extends AbstractStateMachine<PlainStateMachine, SessionState, SessionEvent, Integer> {
+        protected PlainStateMachine(ImmutableState<PlainStateMachine, SessionState, SessionEvent, Integer> initialState,
+                Map<SessionState, ImmutableState<PlainStateMachine, SessionState, SessionEvent, Integer>> states) {
+            super(initialState, states);
+        }
+    }
+
+    private TimingWheel timingWheel;
+
+    private StateMachineBuilder<SessionStateMachine, SessionState, SessionEvent, Integer> builder;
+
+    @Before
+    public void setup() {
+        timingWheel = new TimingWheel(1, TimeUnit.MILLISECONDS, true);
+        builder = StateMachineBuilderFactory.create(SessionStateMachine.class,
+                SessionState.class, SessionEvent.class, Integer.class);
+    }
+
+    private SessionStateMachine newStateMachine() {
+        SessionStateMachine stateMachine = builder.newStateMachine(SessionState.Active);
+        stateMachine.setTimingWheel(timingWheel);
+        stateMachine.start(null);
+        return stateMachine;
+    }
+
+    @Test
+    public void testTimedTransitionOfParentState() {
+        SessionStateMachine stateMachine = newStateMachine();
+        assertThat(stateMachine.getCurrentState(), is(equalTo(SessionState.Browsing)));
+        assertThat(timingWheel.size(), is(equalTo(1)));
+
+        // transitions between child states do not restart timer of parent state
+        timingWheel.advance(20, TimeUnit.SECONDS);
+        stateMachine.fire(SessionEvent.Pay, null);
+        timingWheel.advance(9999, TimeUnit.MILLISECONDS);
+        assertThat(stateMachine.getCurrentState(), is(equalTo(SessionState.Paying)));
+        assertThat(timingWheel.advance(1, TimeUnit.MILLISECONDS), is(equalTo(1)));
+        assertThat(stateMachine.getCurrentState(), is(equalTo(SessionState.Idle)));
+
+        // timer of idle state is armed on entry and cancelled on exit
+        assertThat(timingWheel.size(), is(equalTo(1)));
+        timingWheel.advance(5, TimeUnit.MINUTES);
+        stateMachine.fire(SessionEvent.Touch, null);
+        assertThat(stateMachine.getCurrentState(), is(equalTo(SessionState.Browsing)));
+        assertThat(timingWheel.size(), is(equalTo(1)));
+
+        timingWheel.advance(30, TimeUnit.SECONDS);
+        timingWheel.advance(10, TimeUnit.MINUTES);
+        assertThat(stateMachine.getCurrentState(), is(equalTo(SessionState.Expired)));
+        assertThat(stateMachine.timedTransitions, is(equalTo((List<String>)Lists.newArrayList(
+                "Paying->Idle", "Browsing->Idle", "Idle->Expired"))));
+        assertThat(timingWheel.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testTimedTransitionDefinedByBuilder() {
+        StateMachineBuilder<PlainStateMachine, SessionState, SessionEvent, Integer> builder =
+                StateMachineBuilderFactory.create(PlainStateMachine.class, SessionState.class, SessionEvent.class, Integer.class);
+        builder.externalTransition().from(SessionState.Idle).to(SessionState.Expired).after(1, TimeUnit.SECONDS).
+            when(new Condition<Integer>() {
+                @Override
+                public boolean isSatisfied(Integer context) {
+                    return context==null;
+                }
+            });
+        builder.externalTransition().from(SessionState.Idle).to(SessionState.Active).on(SessionEvent.Touch);
+        PlainStateMachine stateMachine = builder.newStateMachine(SessionState.Idle);
+        stateMachine.setTimingWheel(timingWheel);
+        stateMachine.start(null);
+        stateMachine.fire(SessionEvent.Touch, null);
+        assertThat(timingWheel.size(), is(equalTo(0)));
+        assertThat(timingWheel.advance(1, TimeUnit.SECONDS), is(equalTo(0)));
+        assertThat(stateMachine.getCurrentState(), is(equalTo(SessionState.Active)));
+
+        stateMachine = builder.newStateMachine(SessionState.Idle);
+        stateMachine.setTimingWheel(timingWheel);
+        stateMachine.start(null);
+        timingWheel.advance(1, TimeUnit.SECONDS);
+        assertThat(stateMachine.getCurrentState(), is(equalTo(SessionState.Expired)));
+    }
+
+    @Test
+    public void testTimedTransitionRearmedAfterLoadSavedData() {
+        SessionStateMachine stateMachine = newStateMachine();
+        stateMachine.fire(SessionEvent.Pay, null);
+        StateMachineData.Reader<SessionStateMachine, SessionState, SessionEvent, Integer> savedData = stateMachine.dumpSavedData();
+        stateMachine.terminate(null);
+        assertThat(timingWheel.size(), is(equalTo(0)));
+
+        SessionStateMachine restored = builder.newStateMachine(SessionState.Active);
+        restored.setTimingWheel(timingWheel);
+        restored.loadSavedData(savedData);
+        assertThat(timingWheel.size(), is(equalTo(1)));
+        timingWheel.advance(30, TimeUnit.SECONDS);
+        assertThat(restored.getCurrentState(), is(equalTo(SessionState.Idle)));
+    }
+
+    @Test
+    public void testCancelTimedTransitionsOnPassivation() {
+        SessionStateMachine stateMachine = newStateMachine();
+        assertThat(timingWheel.size(), is(equalTo(1)));
+        // passivated instance keeps its state but no longer fires timed transitions
+        assertThat(stateMachine.cancelTimedTransitions(), is(true));
+        assertThat(timingWheel.size(), is(equalTo(0)));
+        timingWheel.advance(30, TimeUnit.SECONDS);
+        assertThat(stateMachine.getCurrentState(), is(equalTo(SessionState.Browsing)));
+        assertThat(stateMachine.timedTransitions.isEmpty(), is(true));
+    }
+
+    @Test(expected=SquirrelRuntimeException.class)
+    public void testFlyweightEngineRejectsTimedTransition() {
+        StateMachineEngineFactory.createFlyweight(builder, SessionState.Active, 1);
+    }
+
+    @Test
+    public void testTimingWheelCascade() {
+        TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, true);
+        final List<Long> expired = Lists.newArrayList();
+        final long[] now = new long[1];
+        long[] delays = { 1, 255, 256, 257, 65535, 65536, 70000, 16777217L, 5000000000L };
+        for(long delay : delays) {
+            wheel.schedule(new TimingWheel.TimerTask() {
+                @Override
+                public void run(TimingWheel.Timeout timeout) {
+                    expired.add(now[0]);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        TimingWheel.Timeout cancelled = wheel.schedule(new TimingWheel.TimerTask() {
+            @Override
+            public void run(TimingWheel.Timeout timeout) {
+                expired.add(-1L);
+            }
+        }, 300, TimeUnit.MILLISECONDS);
+        assertThat(cancelled.cancel(), is(true));
+        assertThat(cancelled.cancel(), is(false));
+        assertThat(wheel.size(), is(equalTo(delays.length)));
+
+        // advance tick by tick around deadlines and jump over ticks in between
+        long[][] ranges = { {0, 100000}, {16777000L, 16778000L}, {4999999000L, 5000001000L} };
+        for(long[] range : ranges) {
+            wheel.advance(range[0]-now[0], TimeUnit.MILLISECONDS);
+            for(now[0]=range[0]; now[0]<range[1]; ) {
+                ++now[0];
+                wheel.advance(1, TimeUnit.MILLISECONDS);
+            }
+        }
+        // each timeout expires exactly at its deadline
+        assertThat(expired, is(equalTo(Longs.asList(delays))));
+        assertThat(wheel.size(), is(equalTo(0)));
+    }
+}
@@ -0,0 +1,144 @@
+package org.squirrelframework.foundation.fsm;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.squirrelframework.foundation.fsm.impl.AbstractStateMachine;
+import org.squirrelframework.foundation.fsm.monitor.TransitionMetrics;
+import org.squirrelframework.foundation.fsm.monitor.TransitionMetricsRegistry;
+import org.squirrelframework.foundation.util.LatencyHistogram;
+
+public class TransitionMetricsTest {
+
+    enum MState {
+        A, B
+    }
+
+    enum MEvent {
+        ToA, ToB, Fail, Echo
+    }
+
+    static class MeasuredStateMachine extends AbstractStateMachine<MeasuredStateMachine, MState, MEvent, Integer> {
+        protected MeasuredStateMachine(ImmutableState<MeasuredStateMachine, MState, MEvent, Integer> initialState,
+                Map<MState, ImmutableState<MeasuredStateMachine, MState, MEvent, Integer>> states) {
+            super(initialState, states);
+        }
+    }
+
+    private StateMachineBuilder<MeasuredStateMachine, MState, MEvent, Integer> builder;
+
+    @Before
+    public void setup() {
+        TransitionMetricsRegistry.getInstance().register(MeasuredStateMachine.class);
+        builder = StateMachineBuilderFactory.create(MeasuredStateMachine.class, MState.class, MEvent.class, Integer.class);
+        builder.externalTransition().from(MState.A).to(MState.B).on(MEvent.ToB);
+        builder.externalTransition().from(MState.B).to(MState.A).on(MEvent.ToA);
+        builder.internalTransition().within(MState.A).on(MEvent.Fail).perform(
+                new Action<MeasuredStateMachine, MState, MEvent, Integer>() {
+                    @Override
+                    public void execute(MState from, MState to, MEvent event, Integer context, MeasuredStateMachine stateMachine) {
+                        throw new IllegalStateException("failed on purpose");
+                    }
+                });
+        builder.internalTransition().within(MState.A).on(MEvent.Echo).perform(
+                new Action<MeasuredStateMachine, MState, MEvent, Integer>() {
+                    @Override
+                    public void execute(MState from, MState to, MEvent event, Integer context, MeasuredStateMachine stateMachine) {
+                        // events fired while processing are queued
+                        for(int i=0; i<context; ++i) {
+                            stateMachine.fire(MEvent.ToA, 0);
+                        }
+                    }
+                });
+    }
+
+    @After
+    public void teardown() {
+        TransitionMetricsRegistry.getInstance().unregister(MeasuredStateMachine.class);
+    }
+
+    @Test
+    public void testRecordTransitionsPerStateAndEvent() {
+        MeasuredStateMachine stateMachine = builder.newStateMachine(MState.A);
+        assertThat(stateMachine.getTransitionMetrics(), is(notNullValue()));
+        for(int i=0; i<100; ++i) {
+            stateMachine.fire(MEvent.ToB, 0);
+            stateMachine.fire(MEvent.ToB, 0);
+            stateMachine.fire(MEvent.ToA, 0);
+        }
+        stateMachine.fire(MEvent.Fail, 0);
+        stateMachine.fire(MEvent.Echo, 3);
+
+        TransitionMetrics.Snapshot snapshot = stateMachine.getTransitionMetrics().snapshot();
+        TransitionMetrics.TransitionStats stats = snapshot.getTransitionStats(MState.A, MEvent.ToB);
+        assertThat(stats.getAcceptedCount(), is(equalTo(100L)));
+        assertThat(stats.getDeclinedCount(), is(equalTo(0L)));
+        assertThat(stats.getP50Nanos(), is(lessThanOrEqualTo(stats.getP99Nanos())));
+        assertThat(stats.getP99Nanos(), is(lessThanOrEqualTo(stats.getMaxNanos())));
+        assertThat(stats.getMaxNanos(), is(greaterThan(0L)));
+        assertThat(snapshot.getTransitionStats(MState.B, MEvent.ToB).getDeclinedCount(), is(equalTo(100L)));
+        assertThat(snapshot.getTransitionStats(MState.A, MEvent.Fail).getExceptionCount(), is(equalTo(1L)));
+        assertThat(snapshot.getTransitionStats(MState.A, MEvent.ToA).getDeclinedCount(), is(equalTo(3L)));
+        assertThat(snapshot.getTransitionStats(MState.B, MEvent.Fail), is(nullValue()));
+        assertThat(snapshot.getAcceptedCount(), is(equalTo(201L)));
+        assertThat(snapshot.getDeclinedCount(), is(equalTo(103L)));
+        assertThat(snapshot.getExceptionCount(), is(equalTo(1L)));
+        assertThat(stateMachine.getTransitionMetrics().getAcceptedCount(), is(equalTo(201L)));
+        assertThat(stateMachine.getTransitionMetrics().getDeclinedCount(), is(equalTo(103L)));
+        assertThat(stateMachine.getTransitionMetrics().getExceptionCount(), is(equalTo(1L)));
+        assertThat(snapshot.getMaxQueueDepth(), is(equalTo(3L)));
+        assertThat(snapshot.getBusyTimeNanos(), is(greaterThan(0L)));
+
+        stateMachine.getTransitionMetrics().reset();
+        assertThat(stateMachine.getTransitionMetrics().getAcceptedCount(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testExposeMetricsByMBean() throws Exception {
+        MeasuredStateMachine stateMachine = builder.newStateMachine(MState.A);
+        stateMachine.fire(MEvent.ToB, 0);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = TransitionMetricsRegistry.objectNameOf(MeasuredStateMachine.class);
+        assertThat((Long)server.getAttribute(name, "AcceptedCount"), is(equalTo(1L)));
+        CompositeData[] transitionStats = (CompositeData[])server.getAttribute(name, "TransitionStats");
+        assertThat(transitionStats.length, is(equalTo(1)));
+        assertThat((String)transitionStats[0].get("sourceState"), is(equalTo("A")));
+        assertThat((String)transitionStats[0].get("event"), is(equalTo("ToB")));
+
+        TransitionMetricsRegistry.getInstance().unregister(MeasuredStateMachine.class);
+        assertThat(server.isRegistered(name), is(false));
+        assertThat(builder.newStateMachine(MState.A).getTransitionMetrics(), is(nullValue()));
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(long value=1; value<=10000; ++value) {
+            histogram.record(value*1000);
+        }
+        long[] percentiles = histogram.getValuesAtPercentiles(0, 50, 99, 100);
+        assertThat(histogram.getCount(), is(equalTo(10000L)));
+        assertThat(histogram.getMax(), is(equalTo(10000000L)));
+        // values are kept within relative error of bucket width
+        assertThat(Math.abs(percentiles[0]-1000), is(lessThanOrEqualTo(1000/32L)));
+        assertThat(Math.abs(percentiles[1]-5000000), is(lessThanOrEqualTo(5000000/32L)));
+        assertThat(Math.abs(percentiles[2]-9900000), is(lessThanOrEqualTo(9900000/32L)));
+        assertThat(percentiles[3], is(lessThanOrEqualTo(10000000L)));
+        assertThat(Math.abs(percentiles[3]-10000000), is(lessThanOrEqualTo(10000000/32L)));
+    }
+}
@@ -4,10 +4,14 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 
+import java.io.File;
+
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.squirrelframework.foundation.component.SquirrelPostProcessorProvider;
 import org.squirrelframework.foundation.component.SquirrelProvider;
 import org.squirrelframework.foundation.fsm.ConverterProvider;
@@ -19,6 +23,9 @@ import org.squirrelframework.foundation.fsm.atm.ATMStateMachine.ATMState;
 import org.squirrelframework.foundation.util.TypeReference;
 
 public class ATMStateMachineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
     
     @AfterClass
     public static void afterTest() {
@@ -84,7 +91,7 @@ public class ATMStateMachineTest {
         SCXMLVisitor<ATMStateMachine, ATMState, String, Void> visitor = SquirrelProvider.getInstance().newInstance(
                 new TypeReference<SCXMLVisitor<ATMStateMachine, ATMState, String, Void>>() {} );
         stateMachine.accept(visitor);
-        visitor.convertSCXMLFile("ATMStateMachine", true);
+        visitor.convertSCXMLFile(new File(folder.getRoot(), "ATMStateMachine").getPath(), true);
     }
 
 }
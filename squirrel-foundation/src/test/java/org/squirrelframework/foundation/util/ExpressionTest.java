@@ -0,0 +1,177 @@
+package org.squirrelframework.foundation.util;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import org.junit.Test;
+import org.squirrelframework.foundation.exception.ErrorCodes;
+import org.squirrelframework.foundation.exception.SquirrelRuntimeException;
+
+import com.google.common.collect.Maps;
+
+public class ExpressionTest {
+
+    private static final int WARMUP_EVALUATIONS = 200000;
+
+    private static final int MEASURED_EVALUATIONS = 100000;
+
+    private static final int MAX_MEASURED_ROUNDS = 5;
+
+    public static class Order {
+        private int amount;
+        private boolean vip;
+        private String note;
+        public final Map<String, Object> attributes = Maps.newHashMap();
+
+        Order(int amount, boolean vip) {
+            this.amount = amount;
+            this.vip = vip;
+        }
+
+        public int getAmount() {
+            return amount;
+        }
+
+        public boolean isVip() {
+            return vip;
+        }
+
+        public String getNote() {
+            return note;
+        }
+
+        public void setNote(String note) {
+            this.note = note;
+        }
+
+        public int sum(int a, int b, int c, int d, int e) {
+            return a+b+c+d+e;
+        }
+
+        public String join(String a, String b) {
+            return a+b;
+        }
+    }
+
+    private static Object evaluateTree(String source, String[] variables, Object... values) {
+        return new ExpressionParser(source, variables).parse().eval(values);
+    }
+
+    private static void assertCompiledAsTree(String source, String[] variables, Object... values) {
+        Expression expression = Expression.compile(source, variables);
+        assertThat(source, expression.isCompiled(), is(true));
+        assertThat(source, expression.evaluate(values.clone()),
+                equalTo(evaluateTree(source, variables, values.clone())));
+    }
+
+    @Test
+    public void testCompiledExpressionEvaluatedAsTree() {
+        String[] context = new String[]{"context"};
+        Order order = new Order(120, false);
+        order.attributes.put("level", 3);
+        assertCompiledAsTree("amount > 100 && !vip", context, order);
+        assertCompiledAsTree("amount <= 100 || vip", context, order);
+        assertCompiledAsTree("amount == 120 ? 'large' : 'small'", context, order);
+        assertCompiledAsTree("amount != 120", context, order);
+        assertCompiledAsTree("-amount * 2 + 7 % 4 / 2.0", context, order);
+        assertCompiledAsTree("attributes.level >= 3", context, order);
+        assertCompiledAsTree("attributes.missing == null", context, order);
+        assertCompiledAsTree("join('a', 'b') == 'ab'", context, order);
+        assertCompiledAsTree("context.amount - 20", context, order);
+        assertCompiledAsTree("a * (b + 2) - a", new String[]{"a", "b"}, 3, 4);
+    }
+
+    @Test
+    public void testCompiledAssignment() {
+        Order order = new Order(120, false);
+        Expression expression = Expression.compile("note = 'reviewed'; note", "context");
+        assertThat(expression.isCompiled(), is(true));
+        assertThat(expression.evaluate(order), equalTo((Object)"reviewed"));
+        assertThat(order.getNote(), equalTo("reviewed"));
+
+        // variable assignment is evaluated against variable array
+        expression = Expression.compile("a = a + 1; a * 2", "a");
+        assertThat(expression.isCompiled(), is(true));
+        assertThat(expression.evaluate(1), equalTo((Object)4));
+        assertThat(Expression.compile("a = a + 1; a == 2", "a").evaluateBoolean(1), is(true));
+    }
+
+    @Test
+    public void testExpressionNotCompiledLeftToTree() {
+        Expression expression = Expression.compile("sum(1, 2, 3, 4, 5)", "context");
+        assertThat(expression.isCompiled(), is(false));
+        assertThat(expression.evaluate(new Order(0, false)), equalTo((Object)15));
+        // constant expression needs no compilation
+        assertThat(Expression.compile("1 + 2").isCompiled(), is(false));
+    }
+
+    @Test
+    public void testEvaluateSingleVariable() {
+        Expression expression = Expression.compile("amount > 100 && !vip", "context");
+        assertThat(expression.evaluateBoolean(new Order(120, false)), is(true));
+        assertThat(expression.evaluateBoolean(new Order(120, true)), is(false));
+        assertThat(expression.evaluateBoolean(new Object[]{new Order(120, false)}), is(true));
+        try {
+            Expression.compile("a > b", "a", "b").evaluateBoolean(1);
+            fail();
+        } catch(IllegalArgumentException e) {
+        }
+        try {
+            Expression.compile("amount", "context").evaluateBoolean(new Order(1, false));
+            fail();
+        } catch(SquirrelRuntimeException e) {
+            assertThat(e.getErrorCodeId(), is(ErrorCodes.EXPRESSION_EVALUATE_ERROR.getCode()));
+        }
+        try {
+            expression.evaluateBoolean((Object)null);
+            fail();
+        } catch(SquirrelRuntimeException e) {
+            assertThat(e.getErrorCodeId(), is(ErrorCodes.EXPRESSION_EVALUATE_ERROR.getCode()));
+        }
+    }
+
+    private static int evaluate(Expression expression, Order order, int count) {
+        int satisfied = 0;
+        for(int i=0; i<count; ++i) {
+            if(expression.evaluateBoolean(order)) ++satisfied;
+        }
+        return satisfied;
+    }
+
+    @Test
+    public void testEvaluateSingleVariableWithoutAllocation() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+        assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        Expression expression = Expression.compile("amount > 10 && !vip", "context");
+        Order order = new Order(20, false);
+        long threadId = Thread.currentThread().getId();
+        assertThat(evaluate(expression, order, WARMUP_EVALUATIONS), is(WARMUP_EVALUATIONS));
+
+        long overhead = Long.MAX_VALUE;
+        for(int i=0; i<MAX_MEASURED_ROUNDS; ++i) {
+            long before = allocationBean.getThreadAllocatedBytes(threadId);
+            overhead = Math.min(overhead, allocationBean.getThreadAllocatedBytes(threadId)-before);
+        }
+        // steady state guard evaluation must not allocate, e.g. argument array or boxed property value
+        long allocated = Long.MAX_VALUE;
+        int rounds = 0;
+        while(allocated>0 && rounds<MAX_MEASURED_ROUNDS) {
+            long before = allocationBean.getThreadAllocatedBytes(threadId);
+            evaluate(expression, order, MEASURED_EVALUATIONS);
+            long after = allocationBean.getThreadAllocatedBytes(threadId);
+            allocated = Math.max(after-before-overhead, 0);
+            ++rounds;
+        }
+        assertThat(allocated, equalTo(0L));
+    }
+}
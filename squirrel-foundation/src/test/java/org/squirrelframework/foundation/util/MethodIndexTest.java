@@ -0,0 +1,96 @@
+package org.squirrelframework.foundation.util;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+public class MethodIndexTest {
+
+    static class Root {
+        void onRoot() {}
+    }
+
+    static class Base extends Root {
+        void onEvent(String from, String to) {}
+
+        void onEvent(Integer context) {}
+
+        void onBase() {}
+    }
+
+    static class Derived extends Base {
+        @Override
+        void onEvent(String from, String to) {}
+
+        void onEvent(String from, String to, Integer context) {}
+
+        void onEvent() {}
+    }
+
+    interface Handler<T> {
+        T handle(T value);
+    }
+
+    static class StringHandler extends Root implements Handler<String> {
+        @Override
+        public String handle(String value) {
+            return value;
+        }
+    }
+
+    @Test
+    public void testOverloadResolution() throws Exception {
+        MethodIndex index = MethodIndex.of(Derived.class, Root.class);
+        Method method = index.getMethod("onEvent", new Class<?>[]{String.class, String.class});
+        // method of sub class hides method of the same signature declared by super class
+        assertThat(method, equalTo(Derived.class.getDeclaredMethod("onEvent", String.class, String.class)));
+        assertThat(index.getMethod("onEvent", new Class<?>[]{Integer.class}),
+                equalTo(Base.class.getDeclaredMethod("onEvent", Integer.class)));
+        assertThat(index.getMethod("onEvent", new Class<?>[]{String.class, String.class, Integer.class}),
+                equalTo(Derived.class.getDeclaredMethod("onEvent", String.class, String.class, Integer.class)));
+        assertThat(index.getMethod("onEvent", new Class<?>[0]),
+                equalTo(Derived.class.getDeclaredMethod("onEvent")));
+        // parameter types must match exactly
+        assertThat(index.getMethod("onEvent", new Class<?>[]{Object.class, Object.class}), nullValue());
+        assertThat(index.getMethod("onEvent", new Class<?>[]{String.class}), nullValue());
+    }
+
+    @Test
+    public void testStopClassExcluded() throws Exception {
+        MethodIndex index = MethodIndex.of(Derived.class, Root.class);
+        assertThat(index.getMethod("onBase", new Class<?>[0]), equalTo(Base.class.getDeclaredMethod("onBase")));
+        assertThat(index.getMethod("onRoot", new Class<?>[0]), nullValue());
+        assertThat(MethodIndex.of(String.class, Root.class).size(), is(0));
+    }
+
+    @Test
+    public void testBridgeMethodKeptUnderErasedSignature() throws Exception {
+        MethodIndex index = MethodIndex.of(StringHandler.class, Root.class);
+        Method method = index.getMethod("handle", new Class<?>[]{String.class});
+        assertThat(method.isBridge(), is(false));
+        Method bridge = index.getMethod("handle", new Class<?>[]{Object.class});
+        assertThat(bridge.isBridge(), is(true));
+    }
+
+    @Test
+    public void testBulkResolution() throws Exception {
+        MethodIndex index = MethodIndex.of(Derived.class, Root.class);
+        Method[] methods = index.getMethods(new String[]{"onEvent", "onMissing", "onBase"}, new Class<?>[0]);
+        assertThat(methods.length, is(3));
+        assertThat(methods[0], equalTo(Derived.class.getDeclaredMethod("onEvent")));
+        assertThat(methods[1], nullValue());
+        assertThat(methods[2], equalTo(Base.class.getDeclaredMethod("onBase")));
+    }
+
+    @Test
+    public void testIndexShared() {
+        assertThat(MethodIndex.of(Derived.class, Root.class), sameInstance(MethodIndex.of(Derived.class, Root.class)));
+        assertThat(MethodIndex.of(Derived.class, Base.class).getMethod("onBase", new Class<?>[0]), nullValue());
+    }
+}
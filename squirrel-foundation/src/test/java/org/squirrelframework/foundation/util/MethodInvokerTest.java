@@ -0,0 +1,210 @@
+package org.squirrelframework.foundation.util;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+import org.squirrelframework.foundation.exception.ErrorCodes;
+import org.squirrelframework.foundation.exception.SquirrelRuntimeException;
+
+public class MethodInvokerTest {
+
+    static class Target {
+        private final StringBuilder logger = new StringBuilder();
+
+        @SuppressWarnings("unused")
+        private String none() {
+            logger.append("none");
+            return "none";
+        }
+
+        @SuppressWarnings("unused")
+        private String one(String arg0) {
+            logger.append(arg0);
+            return arg0;
+        }
+
+        @SuppressWarnings("unused")
+        private String three(String arg0, String arg1, String arg2) {
+            logger.append(arg0).append(arg1).append(arg2);
+            return arg0+arg1+arg2;
+        }
+
+        @SuppressWarnings("unused")
+        private void fail(String message) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    public static class PublicTarget {
+        public long add(long arg0, int arg1) {
+            return arg0+arg1;
+        }
+        
+        public String concat(String arg0, String arg1, String arg2, String arg3) {
+            return arg0+arg1+arg2+arg3;
+        }
+        
+        public static String[] wrap(String arg0) {
+            return new String[]{arg0};
+        }
+        
+        public void fail(String message) {
+            throw new IllegalStateException(message);
+        }
+    }
+    
+    static class PackageTarget {
+        protected String echo(String arg0) {
+            return arg0;
+        }
+    }
+    
+    private static MethodInvoker invokerOf(String name, Class<?>... parameterTypes) throws Exception {
+        Method method = Target.class.getDeclaredMethod(name, parameterTypes);
+        return new MethodInvoker(method);
+    }
+
+    @Test
+    public void testInvokeWithMatchedArity() throws Exception {
+        Target target = new Target();
+        MethodInvoker none = invokerOf("none");
+        MethodInvoker one = invokerOf("one", String.class);
+        MethodInvoker three = invokerOf("three", String.class, String.class, String.class);
+        assertThat(none.getArity(), is(0));
+        assertThat(three.getArity(), is(3));
+        assertThat((String)none.invoke(target), equalTo("none"));
+        assertThat((String)one.invoke(target, "a"), equalTo("a"));
+        assertThat((String)three.invoke(target, "a", "b", "c"), equalTo("abc"));
+        // private method is made accessible once when invoker is created
+        assertThat(none.getMethod().isAccessible(), is(true));
+        assertThat(target.logger.toString(), equalTo("noneaabc"));
+        // private method cannot be called from generated class
+        assertThat(none.isDirectCall(), is(false));
+    }
+    
+    @Test
+    public void testInvokeWithArgs() throws Exception {
+        Target target = new Target();
+        assertThat((String)invokerOf("none").invokeWithArgs(target, new Object[0]), equalTo("none"));
+        assertThat((String)invokerOf("three", String.class, String.class, String.class).invokeWithArgs(
+                target, new Object[]{"a", "b", "c"}), equalTo("abc"));
+        try {
+            invokerOf("one", String.class).invokeWithArgs(target, new Object[]{"a", "b"});
+            fail();
+        } catch(SquirrelRuntimeException e) {
+            assertThat(e.getErrorCodeId(), is(ErrorCodes.METHOD_UNEXPECTED_PARAMETERS.getCode()));
+        }
+        assertThat(target.logger.toString(), equalTo("noneabc"));
+    }
+    
+    @Test
+    public void testDirectCall() throws Exception {
+        PublicTarget target = new PublicTarget();
+        MethodInvoker add = new MethodInvoker(PublicTarget.class.getMethod("add", long.class, int.class));
+        MethodInvoker concat = new MethodInvoker(PublicTarget.class.getMethod("concat", 
+                String.class, String.class, String.class, String.class));
+        MethodInvoker wrap = new MethodInvoker(PublicTarget.class.getMethod("wrap", String.class));
+        MethodInvoker echo = new MethodInvoker(PackageTarget.class.getDeclaredMethod("echo", String.class));
+        assertThat(add.isDirectCall(), is(true));
+        assertThat(concat.isDirectCall(), is(true));
+        assertThat(wrap.isDirectCall(), is(true));
+        // none public method is called from class generated in its package
+        assertThat(echo.isDirectCall(), is(true));
+        
+        assertThat((Long)add.invokeWithArgs(target, new Object[]{Long.valueOf(1), Integer.valueOf(2)}), equalTo(3L));
+        assertThat((String)concat.invoke(target, "a", "b", "c", "d"), equalTo("abcd"));
+        assertThat((String)concat.invoke(target, "a", null, "c", "d"), equalTo("anullcd"));
+        assertThat(((String[])wrap.invoke(null, "a"))[0], equalTo("a"));
+        assertThat((String)echo.invoke(new PackageTarget(), "a"), equalTo("a"));
+        // direct call is generated once and shared by invokers of the same method
+        assertThat(new MethodInvoker(PublicTarget.class.getMethod("add", long.class, int.class)).isDirectCall(), is(true));
+        
+        // argument widened by reflection is still accepted
+        assertThat((Long)add.invokeWithArgs(target, new Object[]{Integer.valueOf(1), Integer.valueOf(2)}), equalTo(3L));
+        try {
+            add.invokeWithArgs(target, new Object[]{null, Integer.valueOf(2)});
+            fail();
+        } catch(SquirrelRuntimeException e) {
+            assertThat(e.getTargetException(), instanceOf(IllegalArgumentException.class));
+        }
+        try {
+            echo.invoke(new Object(), "a");
+            fail();
+        } catch(SquirrelRuntimeException e) {
+            assertThat(e.getTargetException(), instanceOf(IllegalArgumentException.class));
+        }
+    }
+    
+    @Test
+    public void testDirectCallExceptionWrapping() throws Exception {
+        MethodInvoker invoker = new MethodInvoker(PublicTarget.class.getMethod("fail", String.class));
+        assertThat(invoker.isDirectCall(), is(true));
+        try {
+            invoker.invoke(new PublicTarget(), "failed");
+            fail();
+        } catch(SquirrelRuntimeException e) {
+            assertThat(e.getErrorCodeId(), is(ErrorCodes.METHOD_INVOKE_ERROR.getCode()));
+            assertThat(e.getTargetException(), instanceOf(IllegalStateException.class));
+            assertThat(e.getTargetException().getMessage(), equalTo("failed"));
+        }
+    }
+
+    @Test
+    public void testArityMismatch() throws Exception {
+        Target target = new Target();
+        MethodInvoker one = invokerOf("one", String.class);
+        try {
+            one.invoke(target);
+            fail();
+        } catch(SquirrelRuntimeException e) {
+            assertThat(e.getErrorCodeId(), is(ErrorCodes.METHOD_UNEXPECTED_PARAMETERS.getCode()));
+        }
+        try {
+            one.invoke(target, "a", "b", "c");
+            fail();
+        } catch(SquirrelRuntimeException e) {
+            assertThat(e.getErrorCodeId(), is(ErrorCodes.METHOD_UNEXPECTED_PARAMETERS.getCode()));
+        }
+        // method is never invoked when arity does not match
+        assertThat(target.logger.length(), is(0));
+    }
+
+    @Test
+    public void testExceptionWrapping() throws Exception {
+        MethodInvoker invoker = invokerOf("fail", String.class);
+        try {
+            invoker.invoke(new Target(), "failed");
+            fail();
+        } catch(SquirrelRuntimeException e) {
+            assertThat(e.getErrorCodeId(), is(ErrorCodes.METHOD_INVOKE_ERROR.getCode()));
+            // exception thrown by method is unwrapped from InvocationTargetException
+            assertThat(e.getTargetException(), instanceOf(IllegalStateException.class));
+            assertThat(e.getTargetException().getMessage(), equalTo("failed"));
+        }
+    }
+
+    @Test
+    public void testIllegalArgumentWrapping() throws Exception {
+        MethodInvoker invoker = invokerOf("one", String.class);
+        try {
+            invoker.invoke(new Target(), Integer.valueOf(1));
+            fail();
+        } catch(SquirrelRuntimeException e) {
+            assertThat(e.getErrorCodeId(), is(ErrorCodes.METHOD_INVOKE_ERROR.getCode()));
+            assertThat(e.getTargetException(), instanceOf(IllegalArgumentException.class));
+        }
+        Object notTarget = new Object();
+        try {
+            invoker.invoke(notTarget, "a");
+            fail();
+        } catch(SquirrelRuntimeException e) {
+            assertThat(e.getTargetException(), instanceOf(IllegalArgumentException.class));
+        }
+    }
+}